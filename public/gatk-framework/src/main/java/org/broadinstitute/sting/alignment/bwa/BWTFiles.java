@@ -232,15 +232,20 @@ public class BWTFiles {
                                                File suffixArrayFile) throws IOException {
         PackUtils.writeReferenceSequence(pacFile,referenceSequence);
 
-        BWT bwt = BWT.createFromReferenceSequence(referenceSequence);
-        BWTWriter bwtWriter = new BWTWriter(bwtFile);
-        bwtWriter.write(bwt);
-        bwtWriter.close();
-
-        SuffixArray suffixArray = SuffixArray.createFromReferenceSequence(referenceSequence);
-        SuffixArrayWriter suffixArrayWriter = new SuffixArrayWriter(suffixArrayFile);
-        suffixArrayWriter.write(suffixArray);
-        suffixArrayWriter.close();
+        // Build the suffix array once, and write both the BWT and the suffix array straight from it.
+        SuffixArrayBuffer suffixArray = new SuffixArrayBuilder().build(referenceSequence);
+        try {
+            BWTWriter bwtWriter = new BWTWriter(bwtFile);
+            bwtWriter.write(referenceSequence,suffixArray);
+            bwtWriter.close();
+
+            SuffixArrayWriter suffixArrayWriter = new SuffixArrayWriter(suffixArrayFile);
+            suffixArrayWriter.write(Counts.fromSequence(referenceSequence),suffixArray);
+            suffixArrayWriter.close();
+        }
+        finally {
+            suffixArray.close();
+        }
     }
 
     /**
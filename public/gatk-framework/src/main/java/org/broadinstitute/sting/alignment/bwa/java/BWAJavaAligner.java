@@ -101,12 +101,21 @@ public class BWAJavaAligner extends BWAAligner {
      */
     public final int INDEL_END_SKIP = 5;
 
+    /**
+     * Create a new aligner over the given index files.  The files are memory-mapped and shared with
+     * every other aligner opened over the same files, so additional aligners, one per thread for
+     * instance, cost next to nothing to create.
+     * @param forwardBWTFile BWT in the forward direction.
+     * @param reverseBWTFile BWT in the reverse direction.
+     * @param forwardSuffixArrayFile Suffix array in the forward direction.
+     * @param reverseSuffixArrayFile Suffix array in the reverse direction.
+     */
     public BWAJavaAligner( File forwardBWTFile, File reverseBWTFile, File forwardSuffixArrayFile, File reverseSuffixArrayFile ) {
         super(null,null);
-        forwardBWT = new BWTReader(forwardBWTFile).read();
-        reverseBWT = new BWTReader(reverseBWTFile).read();
-        forwardSuffixArray = new SuffixArrayReader(forwardSuffixArrayFile,forwardBWT).read();
-        reverseSuffixArray = new SuffixArrayReader(reverseSuffixArrayFile,reverseBWT).read();
+        forwardBWT = MappedBWT.open(forwardBWTFile);
+        reverseBWT = MappedBWT.open(reverseBWTFile);
+        forwardSuffixArray = MappedSuffixArray.open(forwardSuffixArrayFile,forwardBWT);
+        reverseSuffixArray = MappedSuffixArray.open(reverseSuffixArrayFile,reverseBWT);
     }
 
     /**
@@ -129,17 +129,22 @@ public class BWT {
      * @return reference sequence-derived BWT.
      */
     public static BWT createFromReferenceSequence(byte[] referenceSequence) {
-        SuffixArray suffixArray = SuffixArray.createFromReferenceSequence(referenceSequence);
+        SuffixArrayBuffer suffixArray = new SuffixArrayBuilder().build(referenceSequence);
 
-        byte[] bwt = new byte[(int)suffixArray.length()-1];
+        byte[] bwt = new byte[referenceSequence.length];
+        long inverseSA0 = -1;
         int bwtIndex = 0;
-        for(long suffixArrayIndex = 0; suffixArrayIndex < suffixArray.length(); suffixArrayIndex++) {
-            if(suffixArray.get(suffixArrayIndex) == 0)
+        for(int suffixArrayIndex = 0; suffixArrayIndex < suffixArray.length(); suffixArrayIndex++) {
+            int position = suffixArray.get(suffixArrayIndex);
+            if(position == 0) {
+                inverseSA0 = suffixArrayIndex;
                 continue;
-            bwt[bwtIndex++] = referenceSequence[(int)suffixArray.get(suffixArrayIndex)-1];
+            }
+            bwt[bwtIndex++] = referenceSequence[position-1];
         }
+        suffixArray.close();
 
-        return new BWT(suffixArray.inverseSA0,suffixArray.occurrences,bwt);
+        return new BWT(inverseSA0,Counts.fromSequence(referenceSequence),bwt);
     }
 
     /**
@@ -173,7 +178,7 @@ public class BWT {
      * @param sequence Sequence from which to derive blocks.
      * @return Array of sequence blocks containing data from the sequence.
      */
-    private static SequenceBlock[] generateSequenceBlocks( byte[] sequence ) {
+    static SequenceBlock[] generateSequenceBlocks( byte[] sequence ) {
         Counts occurrences = new Counts();
 
         int numSequenceBlocks = PackUtils.numberOfPartitions(sequence.length,SEQUENCE_BLOCK_SIZE);
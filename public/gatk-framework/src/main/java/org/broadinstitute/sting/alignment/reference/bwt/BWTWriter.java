@@ -65,11 +65,14 @@ public class BWTWriter {
         UnsignedIntPackedOutputStream intPackedOutputStream = new UnsignedIntPackedOutputStream(outputStream, ByteOrder.LITTLE_ENDIAN);
         BasePackedOutputStream basePackedOutputStream = new BasePackedOutputStream<Integer>(Integer.class, outputStream, ByteOrder.LITTLE_ENDIAN);
 
+        // BWTs mapped from disk don't keep their sequence in blocks.
+        SequenceBlock[] sequenceBlocks = bwt.sequenceBlocks != null ? bwt.sequenceBlocks : BWT.generateSequenceBlocks(bwt.getSequence());
+
         try {
             intPackedOutputStream.write(bwt.inverseSA0);
             intPackedOutputStream.write(bwt.counts.toArray(true));
 
-            for( SequenceBlock block: bwt.sequenceBlocks ) {
+            for( SequenceBlock block: sequenceBlocks ) {
                 intPackedOutputStream.write(block.occurrences.toArray(false));
                 basePackedOutputStream.write(block.sequence);
             }
@@ -82,6 +85,57 @@ public class BWTWriter {
         }
     }
 
+    /**
+     * Write the BWT of a sequence to the output stream directly from its suffix array, a block at a
+     * time, without building the BWT in memory.  Produces the same output as write(BWT).
+     * @param sequence Sequence from which the suffix array was built.
+     * @param suffixArray Suffix array of the sequence.
+     */
+    public void write( byte[] sequence, SuffixArrayBuffer suffixArray ) {
+        UnsignedIntPackedOutputStream intPackedOutputStream = new UnsignedIntPackedOutputStream(outputStream, ByteOrder.LITTLE_ENDIAN);
+        BasePackedOutputStream basePackedOutputStream = new BasePackedOutputStream<Integer>(Integer.class, outputStream, ByteOrder.LITTLE_ENDIAN);
+
+        Counts counts = Counts.fromSequence(sequence);
+
+        try {
+            intPackedOutputStream.write(SuffixArray.findInverseSA0(suffixArray));
+            intPackedOutputStream.write(counts.toArray(true));
+
+            // Occurrences of each base before the current block.
+            long[] occurrences = new long[Bases.size()];
+            byte[] block = new byte[BWT.SEQUENCE_BLOCK_SIZE];
+            int blockLength = 0;
+
+            for( int i = 0; i < suffixArray.length(); i++ ) {
+                int position = suffixArray.get(i);
+                // The '$' doesn't have a representation in the BWT.
+                if( position == 0 )
+                    continue;
+                block[blockLength++] = sequence[position-1];
+                if( blockLength == block.length ) {
+                    writeBlock(intPackedOutputStream,basePackedOutputStream,occurrences,block,blockLength);
+                    blockLength = 0;
+                }
+            }
+            if( blockLength > 0 )
+                writeBlock(intPackedOutputStream,basePackedOutputStream,occurrences,block,blockLength);
+
+            // The last block is the last set of counts in the structure.
+            intPackedOutputStream.write(counts.toArray(false));
+        }
+        catch( IOException ex ) {
+            throw new ReviewedStingException("Unable to write BWT to output stream.", ex);
+        }
+    }
+
+    private void writeBlock( UnsignedIntPackedOutputStream intPackedOutputStream, BasePackedOutputStream basePackedOutputStream,
+                             long[] occurrences, byte[] block, int blockLength ) throws IOException {
+        intPackedOutputStream.write(occurrences);
+        basePackedOutputStream.write(block,0,blockLength);
+        for( int i = 0; i < blockLength; i++ )
+            occurrences[Bases.toPack(block[i])]++;
+    }
+
     /**
      * Close the input stream.
      */
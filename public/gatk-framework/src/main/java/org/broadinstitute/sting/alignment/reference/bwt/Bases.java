@@ -108,11 +108,14 @@ public class Bases implements Iterable<Byte>
      */
     public static int toPack( byte ascii )
     {
-        for( Map.Entry<Integer,Byte> entry: basesByPack.entrySet() ) {
-            if( entry.getValue().equals(ascii) )
-                return entry.getKey();
+        // Called once per base when building and writing BWTs; avoid walking the boxed map.
+        switch( ascii ) {
+            case A: return 0;
+            case C: return 1;
+            case G: return 2;
+            case T: return 3;
+            default: throw new ReviewedStingException(String.format("Base %c is an invalid base to pack", (char)ascii));
         }
-        throw new ReviewedStingException(String.format("Base %c is an invalid base to pack", (char)ascii));
     }
 
     /**
@@ -84,6 +84,18 @@ public class Counts implements Cloneable {
         }
     }
 
+    /**
+     * Count the bases in the given sequence.
+     * @param sequence Sequence of A,C,G,T bases.
+     * @return Counts of each base in the sequence.
+     */
+    public static Counts fromSequence( byte[] sequence ) {
+        long[] data = new long[Bases.size()];
+        for( byte base: sequence )
+            data[Bases.toPack(base)]++;
+        return new Counts(data,false);
+    }
+
     /**
      * Convert to an array for persistence.
      * @param cumulative Use a cumulative representation.
@@ -56,21 +56,26 @@ public class CreateBWTFromReference {
     }
 
     private Counts countOccurrences( byte[] sequence ) {
-        Counts occurrences = new Counts();
-        for( byte base: sequence )
-            occurrences.increment(base);
-        return occurrences;
+        return Counts.fromSequence(sequence);
     }
 
-    private long[] createSuffixArray( byte[] sequence ) {
-        return SuffixArray.createFromReferenceSequence(sequence).sequence;
-    }
-
-    private long[] invertSuffixArray( long[] suffixArray ) {
-        long[] inverseSuffixArray = new long[suffixArray.length];
-        for( int i = 0; i < suffixArray.length; i++ )
-            inverseSuffixArray[(int)suffixArray[i]] = i;
-        return inverseSuffixArray;
+    /**
+     * Build the suffix array of the given sequence, and stream the BWT and suffix array derived from it to disk.
+     */
+    private void writeBWTAndSuffixArray( SuffixArrayBuilder builder, byte[] sequence, Counts occurrences, File bwtFile, File saFile ) {
+        SuffixArrayBuffer suffixArray = builder.build(sequence);
+        try {
+            BWTWriter bwtWriter = new BWTWriter(bwtFile);
+            bwtWriter.write(sequence,suffixArray);
+            bwtWriter.close();
+
+            SuffixArrayWriter saWriter = new SuffixArrayWriter(saFile);
+            saWriter.write(occurrences,suffixArray);
+            saWriter.close();
+        }
+        finally {
+            suffixArray.close();
+        }
     }
 
     private long[] createCompressedSuffixArray( int[] suffixArray, int[] inverseSuffixArray ) {
@@ -89,8 +94,8 @@ public class CreateBWTFromReference {
     }
 
     public static void main( String argv[] ) throws IOException {
-        if( argv.length != 5 ) {
-            System.out.println("USAGE: CreateBWTFromReference <input>.fasta <output bwt> <output rbwt> <output sa> <output rsa>");
+        if( argv.length != 5 && argv.length != 6 ) {
+            System.out.println("USAGE: CreateBWTFromReference <input>.fasta <output bwt> <output rbwt> <output sa> <output rsa> [<temp dir for disk-backed suffix arrays>]");
             return;
         }
 
@@ -109,10 +114,12 @@ public class CreateBWTFromReference {
         String rsaFileName = argv[4];
         File rsaFile = new File(rsaFileName);
 
+        // Genome-sized suffix arrays can be kept in memory-mapped temporary files rather than on the heap.
+        SuffixArrayBuilder builder = argv.length == 6 ? new SuffixArrayBuilder(new File(argv[5])) : new SuffixArrayBuilder();
+
         CreateBWTFromReference creator = new CreateBWTFromReference();
 
         byte[] sequence = creator.loadReference(inputFile);
-        byte[] reverseSequence = creator.loadReverseReference(inputFile);
 
         // Count the occurences of each given base.
         Counts occurrences = creator.countOccurrences(sequence);
@@ -121,71 +128,32 @@ public class CreateBWTFromReference {
                                                                   occurrences.getCumulative(Bases.G),
                                                                   occurrences.getCumulative(Bases.T));
 
-        // Generate the suffix array and print diagnostics.
-        long[] suffixArrayData = creator.createSuffixArray(sequence);
-        long[] reverseSuffixArrayData = creator.createSuffixArray(reverseSequence);
-
-        // Invert the suffix array and print diagnostics.
-        long[] inverseSuffixArray = creator.invertSuffixArray(suffixArrayData);
-        long[] reverseInverseSuffixArray = creator.invertSuffixArray(reverseSuffixArrayData);
-
-        SuffixArray suffixArray = new SuffixArray( inverseSuffixArray[0], occurrences, suffixArrayData );
-        SuffixArray reverseSuffixArray = new SuffixArray( reverseInverseSuffixArray[0], occurrences, reverseSuffixArrayData );
-
-        /*
-        // Create the data structure for the compressed suffix array and print diagnostics.
-        int[] compressedSuffixArray = creator.createCompressedSuffixArray(suffixArray.sequence,inverseSuffixArray);
-        int reconstructedInverseSA = compressedSuffixArray[0];
-        for( int i = 0; i < 8; i++ ) {
-            System.out.printf("compressedSuffixArray[%d] = %d (SA-1[%d] = %d)%n", i, compressedSuffixArray[i], i, reconstructedInverseSA);
-            reconstructedInverseSA = compressedSuffixArray[reconstructedInverseSA];
-        }
-
-        // Create the data structure for the inverse compressed suffix array and print diagnostics.
-        int[] inverseCompressedSuffixArray = creator.createInversedCompressedSuffixArray(compressedSuffixArray);
-        for( int i = 0; i < 8; i++ ) {
-            System.out.printf("inverseCompressedSuffixArray[%d] = %d%n", i, inverseCompressedSuffixArray[i]);
-        }
-        */
+        // Generate the suffix arrays one at a time, writing out the BWT and suffix array derived from each.
+        creator.writeBWTAndSuffixArray(builder,sequence,occurrences,bwtFile,saFile);
+        creator.writeBWTAndSuffixArray(builder,creator.loadReverseReference(inputFile),occurrences,rbwtFile,rsaFile);
 
-        // Create the BWT.
-        BWT bwt = BWT.createFromReferenceSequence(sequence);
-        BWT reverseBWT = BWT.createFromReferenceSequence(reverseSequence);
+        // Validate against the BWT and suffix array created by BWA, if present.
+        File existingBWTFile = new File(inputFileName+".bwt");
+        File existingSAFile = new File(inputFileName+".sa");
+        if( !existingBWTFile.exists() || !existingSAFile.exists() )
+            return;
 
+        BWT bwt = new BWTReader(bwtFile).read();
         byte[] bwtSequence = bwt.getSequence();
-        System.out.printf("BWT: %s... (length = %d)%n", new String(bwtSequence,0,80),bwt.length());
-
-        BWTWriter bwtWriter = new BWTWriter(bwtFile);
-        bwtWriter.write(bwt);
-        bwtWriter.close();
+        System.out.printf("BWT: %s... (length = %d)%n", new String(bwtSequence,0,Math.min(80,bwtSequence.length)),bwt.length());
 
-        BWTWriter reverseBWTWriter = new BWTWriter(rbwtFile);
-        reverseBWTWriter.write(reverseBWT);
-        reverseBWTWriter.close();
-
-        /*
-        SuffixArrayWriter saWriter = new SuffixArrayWriter(saFile);
-        saWriter.write(suffixArray);
-        saWriter.close();
-
-        SuffixArrayWriter reverseSAWriter = new SuffixArrayWriter(rsaFile);
-        reverseSAWriter.write(reverseSuffixArray);
-        reverseSAWriter.close();
-        */
-
-        File existingBWTFile = new File(inputFileName+".bwt");
         BWTReader existingBWTReader = new BWTReader(existingBWTFile);
         BWT existingBWT = existingBWTReader.read();
 
         byte[] existingBWTSequence = existingBWT.getSequence();
-        System.out.printf("Existing BWT: %s... (length = %d)%n",new String(existingBWTSequence,0,80),existingBWT.length());
+        System.out.printf("Existing BWT: %s... (length = %d)%n",new String(existingBWTSequence,0,Math.min(80,existingBWTSequence.length)),existingBWT.length());
 
         for( int i = 0; i < bwt.length(); i++ ) {
             if( bwtSequence[i] != existingBWTSequence[i] )
                 throw new ReviewedStingException("BWT mismatch at " + i);
         }
 
-        File existingSAFile = new File(inputFileName+".sa");
+        SuffixArray suffixArray = new SuffixArrayReader(saFile,bwt).read();
         SuffixArrayReader existingSuffixArrayReader = new SuffixArrayReader(existingSAFile,existingBWT);
         SuffixArray existingSuffixArray = existingSuffixArrayReader.read();
 
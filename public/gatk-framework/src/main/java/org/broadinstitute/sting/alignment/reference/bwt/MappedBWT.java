@@ -0,0 +1,209 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.alignment.reference.packing.PackUtils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A BWT read straight out of a memory-mapped .bwt file rather than loaded onto the heap.
+ *
+ * The file already interleaves each block's occurrence checkpoint with that block's packed bases,
+ * so an occurrence query touches one contiguous 48-byte record: the checkpoint and up to eight
+ * words of 2-bit bases, which are counted a word at a time.  Instances are read-only and can be
+ * shared between threads; use open() to get the shared instance for a file.
+ *
+ * There are no SequenceBlocks behind a mapped BWT, so BWTWriter rebuilds them from getSequence()
+ * to write one out.
+ */
+public class MappedBWT extends BWT {
+    /**
+     * Bytes taken up by the inverse SA and cumulative counts at the start of the file.
+     */
+    private static final int HEADER_SIZE = 4 * (1 + PackUtils.ALPHABET_SIZE);
+
+    /**
+     * Bytes taken up by the occurrence checkpoint at the start of each block.
+     */
+    private static final int OCCURRENCES_SIZE = 4 * PackUtils.ALPHABET_SIZE;
+
+    /**
+     * Bases packed into each 32-bit word, the first base in the most significant bits.
+     */
+    private static final int BASES_PER_WORD = 32 / PackUtils.BITS_PER_BASE;
+
+    /**
+     * Bytes taken up by each full block: the checkpoint followed by the packed bases.
+     */
+    private static final int BLOCK_SIZE = OCCURRENCES_SIZE + SEQUENCE_BLOCK_SIZE / BASES_PER_WORD * 4;
+
+    /**
+     * Each packed base repeated across a word; xoring a word with one of these zeroes the fields holding that base.
+     */
+    private static final int[] REPEATED_BASES = { 0x00000000, 0x55555555, 0xAAAAAAAA, 0xFFFFFFFF };
+
+    /**
+     * Shared instances, keyed by canonical path.
+     */
+    private static final Map<String,MappedBWT> openBWTs = new HashMap<String,MappedBWT>();
+
+    /**
+     * The mapped .bwt file.
+     */
+    private final MappedIndexFile file;
+
+    /**
+     * Cumulative counts, by packed base; the same as the inherited counts, without the boxing.
+     */
+    private final long[] cumulativeCounts = new long[PackUtils.ALPHABET_SIZE];
+
+    /**
+     * Map a BWT from the given file.  Prefer open(), which shares one instance per file.
+     * @param bwtFile .bwt file to map.
+     */
+    public MappedBWT(File bwtFile) {
+        this(new MappedIndexFile(bwtFile));
+    }
+
+    private MappedBWT(MappedIndexFile file) {
+        super(file.getUnsignedInt(0),readCounts(file),(SequenceBlock[])null);
+        this.file = file;
+        for( byte base: Bases.instance )
+            cumulativeCounts[Bases.toPack(base)] = counts.getCumulative(base);
+
+        long bwtSize = length();
+        long numSequenceBlocks = (bwtSize+SEQUENCE_BLOCK_SIZE-1)/SEQUENCE_BLOCK_SIZE;
+        long basesInLastBlock = bwtSize - (numSequenceBlocks-1)*SEQUENCE_BLOCK_SIZE;
+        long expectedLength = HEADER_SIZE + OCCURRENCES_SIZE;
+        if( numSequenceBlocks > 0 )
+            expectedLength += (numSequenceBlocks-1)*BLOCK_SIZE + OCCURRENCES_SIZE + (basesInLastBlock+BASES_PER_WORD-1)/BASES_PER_WORD*4;
+        if( file.length() != expectedLength )
+            throw new ReviewedStingException(String.format("BWT file is %d bytes long, but its counts imply it should be %d bytes long",file.length(),expectedLength));
+    }
+
+    /**
+     * Gets the shared BWT for the given file, mapping it the first time it is asked for.
+     * @param bwtFile .bwt file to map.
+     * @return A BWT backed by the file.
+     */
+    public static MappedBWT open(File bwtFile) {
+        String key;
+        try {
+            key = bwtFile.getCanonicalPath();
+        }
+        catch( IOException ex ) {
+            throw new ReviewedStingException("Unable to resolve BWT file " + bwtFile, ex);
+        }
+        synchronized( openBWTs ) {
+            MappedBWT bwt = openBWTs.get(key);
+            if( bwt == null ) {
+                bwt = new MappedBWT(bwtFile);
+                openBWTs.put(key,bwt);
+            }
+            return bwt;
+        }
+    }
+
+    private static Counts readCounts(MappedIndexFile file) {
+        long[] counts = new long[PackUtils.ALPHABET_SIZE];
+        for( int i = 0; i < counts.length; i++ )
+            counts[i] = file.getUnsignedInt(4*(i+1));
+        return new Counts(counts,true);
+    }
+
+    /**
+     * Extract the full sequence from the mapped file.
+     * @return The full BWT string as a byte array.
+     */
+    @Override
+    public byte[] getSequence() {
+        byte[] sequence = new byte[(int)length()];
+        for( int i = 0; i < sequence.length; i++ )
+            sequence[i] = getPackedBase(i);
+        return sequence;
+    }
+
+    @Override
+    public long counts(byte base) {
+        return cumulativeCounts[Bases.toPack(base)];
+    }
+
+    @Override
+    public long occurrences(byte base,long index) {
+        // If the index is above the SA-1[0], remap it to the appropriate coordinate space.
+        if(index > inverseSA0) index--;
+        if(index < 0) return 0;
+
+        long blockOffset = HEADER_SIZE + (index/SEQUENCE_BLOCK_SIZE)*BLOCK_SIZE;
+        ByteBuffer chunk = file.chunkFor(blockOffset);
+        int offset = MappedIndexFile.offsetInChunk(blockOffset);
+        int position = (int)(index%SEQUENCE_BLOCK_SIZE);
+        int packedBase = Bases.toPack(base);
+
+        long accumulator = chunk.getInt(offset+4*packedBase) & 0xFFFFFFFFL;
+        int basesOffset = offset + OCCURRENCES_SIZE;
+        int lastWord = position/BASES_PER_WORD;
+        for( int word = 0; word <= lastWord; word++ ) {
+            // Collapse each 2-bit field to its low bit, which is set only where the base doesn't match.
+            int mismatches = chunk.getInt(basesOffset+4*word) ^ REPEATED_BASES[packedBase];
+            mismatches = (mismatches | (mismatches >>> 1)) & 0x55555555;
+            int basesInWord = BASES_PER_WORD;
+            if( word == lastWord ) {
+                basesInWord = position%BASES_PER_WORD + 1;
+                mismatches &= -1 << (PackUtils.BITS_PER_BASE*(BASES_PER_WORD-basesInWord));
+            }
+            accumulator += basesInWord - Integer.bitCount(mismatches);
+        }
+        return accumulator;
+    }
+
+    @Override
+    protected byte getBase(long index) {
+        if(index == inverseSA0)
+            throw new ReviewedStingException(String.format("Base at index %d does not have a text representation",index));
+        // If the index is above the SA-1[0], remap it to the appropriate coordinate space.
+        if(index > inverseSA0) index--;
+        return getPackedBase(index);
+    }
+
+    /**
+     * Gets the base at the given position in the BWT sequence, which is missing the '$'.
+     * @param index Position in the sequence.
+     * @return The base at that position.
+     */
+    private byte getPackedBase(long index) {
+        int position = (int)(index%SEQUENCE_BLOCK_SIZE);
+        long wordOffset = HEADER_SIZE + (index/SEQUENCE_BLOCK_SIZE)*BLOCK_SIZE + OCCURRENCES_SIZE + 4*(position/BASES_PER_WORD);
+        int shift = PackUtils.BITS_PER_BASE*(BASES_PER_WORD - position%BASES_PER_WORD - 1);
+        return PackUtils.unpackBase((byte)((file.getUnsignedInt(wordOffset) >>> shift) & 0x3));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only, memory-mapped view of a little-endian index file.  Files larger than a single
+ * mapping can address are mapped in overlapping chunks, so that any read of up to MAX_READ_WIDTH
+ * bytes lies entirely within the chunk holding its first byte.  Absolute reads don't touch buffer
+ * state, so a single instance can be shared between threads.
+ */
+class MappedIndexFile {
+    /**
+     * The widest read, in bytes, guaranteed to fall within a single chunk.
+     */
+    static final int MAX_READ_WIDTH = 64;
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+
+    /**
+     * Length of the file, in bytes.
+     */
+    private final long length;
+
+    /**
+     * Mapped chunks of the file; chunk i starts at byte i*CHUNK_SIZE.
+     */
+    private final ByteBuffer[] chunks;
+
+    /**
+     * Map the given file.
+     * @param file File to map.
+     */
+    MappedIndexFile(File file) {
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file,"r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                length = channel.size();
+                chunks = new ByteBuffer[(int)((length+CHUNK_SIZE-1) >>> CHUNK_SHIFT)];
+                for( int i = 0; i < chunks.length; i++ ) {
+                    long chunkStart = (long)i << CHUNK_SHIFT;
+                    long chunkLength = Math.min(length-chunkStart,CHUNK_SIZE+MAX_READ_WIDTH);
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,chunkStart,chunkLength).order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+            finally {
+                // The mappings stay valid after the channel is closed.
+                randomAccessFile.close();
+            }
+        }
+        catch( IOException ex ) {
+            throw new ReviewedStingException("Unable to map index file " + file, ex);
+        }
+    }
+
+    /**
+     * Gets the length of the file.
+     * @return Length of the file, in bytes.
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Gets the chunk holding the byte at the given offset.
+     * @param offset Offset into the file.
+     * @return The chunk; index it with offsetInChunk(offset).
+     */
+    ByteBuffer chunkFor(long offset) {
+        return chunks[(int)(offset >>> CHUNK_SHIFT)];
+    }
+
+    /**
+     * Gets the position of the given file offset within the chunk returned by chunkFor(offset).
+     * @param offset Offset into the file.
+     * @return Position within the chunk.
+     */
+    static int offsetInChunk(long offset) {
+        return (int)(offset & (CHUNK_SIZE-1));
+    }
+
+    /**
+     * Reads the unsigned 32-bit integer at the given offset.
+     * @param offset Offset into the file.
+     * @return The integer, widened to a long.
+     */
+    long getUnsignedInt(long offset) {
+        return chunkFor(offset).getInt(offsetInChunk(offset)) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.alignment.reference.packing.PackUtils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A sampled suffix array read straight out of a memory-mapped .sa file rather than loaded onto the heap.
+ * Entries that aren't stored are recovered by walking the given BWT, as for SuffixArray.  Instances are
+ * read-only and can be shared between threads; use open() to get the shared instance for a file.
+ */
+public class MappedSuffixArray extends SuffixArray {
+    /**
+     * Offset of the first stored entry: after the inverse SA, cumulative counts and interval.
+     * The entry for the '$' isn't written out; the sequence length written in its place is its value.
+     */
+    private static final int FIRST_ENTRY_OFFSET = 4 * (1 + PackUtils.ALPHABET_SIZE + 1);
+
+    /**
+     * Shared instances, keyed by canonical path.
+     */
+    private static final Map<String,MappedSuffixArray> openSuffixArrays = new HashMap<String,MappedSuffixArray>();
+
+    /**
+     * The mapped .sa file.
+     */
+    private final MappedIndexFile file;
+
+    /**
+     * Number of entries stored in the file.
+     */
+    private final long numSampledEntries;
+
+    /**
+     * Map a suffix array from the given file.  Prefer open(), which shares one instance per file.
+     * @param suffixArrayFile .sa file to map.
+     * @param bwt BWT to use when filling in missing data.
+     */
+    public MappedSuffixArray(File suffixArrayFile, BWT bwt) {
+        this(new MappedIndexFile(suffixArrayFile),bwt);
+    }
+
+    private MappedSuffixArray(MappedIndexFile file, BWT bwt) {
+        super(file.getUnsignedInt(0),readCounts(file),null,(int)file.getUnsignedInt(4*(1+PackUtils.ALPHABET_SIZE)),bwt);
+        if( bwt == null )
+            throw new ReviewedStingException("A BWT must be provided to map a suffix array");
+        this.file = file;
+        this.numSampledEntries = (file.length()-FIRST_ENTRY_OFFSET)/4;
+        // Entries are stored for every multiple of the interval from 0 to the sequence length, inclusive.
+        if( numSampledEntries < (length()-1)/sequenceInterval+1 )
+            throw new ReviewedStingException(String.format("Suffix array file holds %d entries, too few for a sequence of length %d sampled every %d bases",
+                    numSampledEntries,length()-1,sequenceInterval));
+    }
+
+    /**
+     * Gets the shared suffix array for the given file, mapping it the first time it is asked for.
+     * @param suffixArrayFile .sa file to map.
+     * @param bwt BWT to use when filling in missing data; must be the same for every call with this file.
+     * @return A suffix array backed by the file.
+     */
+    public static MappedSuffixArray open(File suffixArrayFile, BWT bwt) {
+        String key;
+        try {
+            key = suffixArrayFile.getCanonicalPath();
+        }
+        catch( IOException ex ) {
+            throw new ReviewedStingException("Unable to resolve suffix array file " + suffixArrayFile, ex);
+        }
+        synchronized( openSuffixArrays ) {
+            MappedSuffixArray suffixArray = openSuffixArrays.get(key);
+            if( suffixArray == null ) {
+                suffixArray = new MappedSuffixArray(suffixArrayFile,bwt);
+                openSuffixArrays.put(key,suffixArray);
+            }
+            else if( suffixArray.bwt != bwt )
+                throw new ReviewedStingException("Suffix array " + suffixArrayFile + " is already open against a different BWT");
+            return suffixArray;
+        }
+    }
+
+    private static Counts readCounts(MappedIndexFile file) {
+        long[] counts = new long[PackUtils.ALPHABET_SIZE];
+        for( int i = 0; i < counts.length; i++ )
+            counts[i] = file.getUnsignedInt(4*(i+1));
+        return new Counts(counts,true);
+    }
+
+    @Override
+    protected long getSampledEntry(long sampleIndex) {
+        if( sampleIndex < 0 || sampleIndex >= numSampledEntries )
+            throw new ReviewedStingException(String.format("Suffix array sample %d is out of range; only %d are stored",sampleIndex,numSampledEntries));
+        return file.getUnsignedInt(FIRST_ENTRY_OFFSET+4*sampleIndex);
+    }
+}
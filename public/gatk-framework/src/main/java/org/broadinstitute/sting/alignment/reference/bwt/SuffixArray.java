@@ -25,12 +25,8 @@
 
 package org.broadinstitute.sting.alignment.reference.bwt;
 
-import net.sf.samtools.util.StringUtil;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 
-import java.util.Comparator;
-import java.util.TreeSet;
-
 /**
  * An in-memory representation of a suffix array.
  *
@@ -108,7 +104,16 @@ public class SuffixArray {
             }
             iterations++;
         }
-        return (sequence[(int)(index/sequenceInterval)]+iterations) % length();
+        return (getSampledEntry(index/sequenceInterval)+iterations) % length();
+    }
+
+    /**
+     * Gets one of the suffix array entries actually stored, rather than calculated on the fly.
+     * @param sampleIndex Index of the stored entry; the suffix array index divided by the sequence interval.
+     * @return The stored suffix array value.
+     */
+    protected long getSampledEntry(long sampleIndex) {
+        return sequence[(int)sampleIndex];
     }
 
     /**
@@ -117,67 +122,33 @@ public class SuffixArray {
      * @return a constructed suffix array.
      */
     public static SuffixArray createFromReferenceSequence(byte[] sequence) {
-        // The builder for the suffix array.  Use an integer in this case because
-        // Java arrays can only hold an integer.
-        TreeSet<Integer> suffixArrayBuilder = new TreeSet<Integer>(new SuffixArrayComparator(sequence));
-
-        Counts occurrences = new Counts();
-        for( byte base: sequence )
-            occurrences.increment(base);
+        SuffixArrayBuffer suffixArrayBuffer = new SuffixArrayBuilder().build(sequence);
 
-        // Build out the suffix array using a custom comparator.
-        for( int i = 0; i <= sequence.length; i++ )
-            suffixArrayBuilder.add(i);
-
-        // Copy the suffix array into an array.
-        long[] suffixArray = new long[suffixArrayBuilder.size()];
-        int i = 0;
-        for( Integer element: suffixArrayBuilder )
-            suffixArray[i++] = element;
-
-        // Find the first element in the inverse suffix array.
+        // Copy the suffix array into an array, finding the first element in the inverse suffix array on the way.
+        long[] suffixArray = new long[suffixArrayBuffer.length()];
         long inverseSA0 = -1;
-        for(i = 0; i < suffixArray.length; i++) {
+        for( int i = 0; i < suffixArray.length; i++ ) {
+            suffixArray[i] = suffixArrayBuffer.get(i);
             if(suffixArray[i] == 0)
                 inverseSA0 = i;
         }
+        suffixArrayBuffer.close();
         if(inverseSA0 < 0)
             throw new ReviewedStingException("Unable to find first inverse SA entry in generated suffix array.");
 
-        return new SuffixArray(inverseSA0,occurrences,suffixArray);
-    }    
+        return new SuffixArray(inverseSA0,Counts.fromSequence(sequence),suffixArray);
+    }
 
     /**
-     * Compares two suffix arrays of the given sequence.  Will return whichever string appears
-     * first in lexicographic order.
+     * Find the first element in the inverse of the given suffix array: the index of the suffix starting at 0.
+     * @param suffixArray The suffix array to search.
+     * @return The index of the entry whose value is 0.
      */
-    private static class SuffixArrayComparator implements Comparator<Integer> {
-        /**
-         * The data source for all suffix arrays.
-         */
-        private final String sequence;
-
-        /**
-         * Create a new comparator.
-         * @param sequence Reference sequence to use as basis for comparison.
-         */
-        public SuffixArrayComparator( byte[] sequence ) {
-            // Processing the suffix array tends to be easier as a string.
-            this.sequence = StringUtil.bytesToString(sequence);
-        }
-
-        /**
-         * Compare the two given suffix arrays.  Criteria for comparison is the lexicographic order of
-         * the two substrings sequence[lhs:], sequence[rhs:].
-         * @param lhs Left-hand side of comparison.
-         * @param rhs Right-hand side of comparison.
-         * @return How the suffix arrays represented by lhs, rhs compare.
-         */
-        public int compare( Integer lhs, Integer rhs ) {
-            String lhsSuffixArray = sequence.substring(lhs);
-            String rhsSuffixArray = sequence.substring(rhs);
-            return lhsSuffixArray.compareTo(rhsSuffixArray);
+    public static long findInverseSA0(SuffixArrayBuffer suffixArray) {
+        for( int i = 0; i < suffixArray.length(); i++ ) {
+            if(suffixArray.get(i) == 0)
+                return i;
         }
+        throw new ReviewedStingException("Unable to find first inverse SA entry in generated suffix array.");
     }
-
 }
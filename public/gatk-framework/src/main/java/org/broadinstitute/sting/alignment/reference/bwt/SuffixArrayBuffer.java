@@ -0,0 +1,156 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed-length array of ints, held either on the heap or in a memory-mapped temporary file.
+ *
+ * Used to hold suffix arrays while they're built and written, so that references too large to sort on the heap
+ * can still be indexed.  Entries are signed; suffix array values are always non-negative.
+ */
+public abstract class SuffixArrayBuffer {
+    /**
+     * Create a buffer on the heap.
+     * @param length Number of entries.
+     * @return A zero-filled buffer.
+     */
+    public static SuffixArrayBuffer onHeap(int length) {
+        return new HeapSuffixArrayBuffer(length);
+    }
+
+    /**
+     * Create a buffer backed by a temporary file, which is deleted when the buffer is closed.
+     * @param length Number of entries.
+     * @param tempDirectory Directory in which to create the backing file, or null for the default temporary directory.
+     * @return A zero-filled buffer.
+     */
+    public static SuffixArrayBuffer onDisk(int length, File tempDirectory) {
+        return new MappedSuffixArrayBuffer(length, tempDirectory);
+    }
+
+    /**
+     * Number of entries in this buffer.
+     * @return Length of the buffer.
+     */
+    public abstract int length();
+
+    /**
+     * Get the entry at the given index.
+     * @param index Index, from 0 to length()-1.
+     * @return Value at the index.
+     */
+    public abstract int get(int index);
+
+    /**
+     * Set the entry at the given index.
+     * @param index Index, from 0 to length()-1.
+     * @param value New value.
+     */
+    public abstract void set(int index, int value);
+
+    /**
+     * Release the storage behind this buffer.  The buffer can't be used afterward.
+     */
+    public abstract void close();
+
+    /**
+     * A buffer backed by an int array.
+     */
+    private static class HeapSuffixArrayBuffer extends SuffixArrayBuffer {
+        private final int[] data;
+
+        public HeapSuffixArrayBuffer(int length) {
+            this.data = new int[length];
+        }
+
+        @Override public int length() { return data.length; }
+        @Override public int get(int index) { return data[index]; }
+        @Override public void set(int index, int value) { data[index] = value; }
+        @Override public void close() {}
+    }
+
+    /**
+     * A buffer backed by a temporary file, mapped in fixed-size chunks as a single mapping can't exceed 2GB.
+     */
+    private static class MappedSuffixArrayBuffer extends SuffixArrayBuffer {
+        /**
+         * Each chunk maps 2^CHUNK_SHIFT ints.
+         */
+        private static final int CHUNK_SHIFT = 27;
+        private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+        private final int length;
+        private final File file;
+        private final IntBuffer[] chunks;
+
+        public MappedSuffixArrayBuffer(int length, File tempDirectory) {
+            this.length = length;
+            try {
+                file = File.createTempFile("suffixarray", ".tmp", tempDirectory);
+                file.deleteOnExit();
+
+                final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    final long bytes = (long)length * (Integer.SIZE / Byte.SIZE);
+                    raf.setLength(bytes);
+                    chunks = new IntBuffer[(length >>> CHUNK_SHIFT) + 1];
+                    for( int chunk = 0; chunk < chunks.length; chunk++ ) {
+                        final long chunkStart = ((long)chunk << CHUNK_SHIFT) * (Integer.SIZE / Byte.SIZE);
+                        final long chunkBytes = Math.min(bytes - chunkStart, (long)(Integer.SIZE / Byte.SIZE) << CHUNK_SHIFT);
+                        chunks[chunk] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, chunkStart, chunkBytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+                    }
+                }
+                finally {
+                    raf.close();
+                }
+            }
+            catch( IOException ex ) {
+                throw new ReviewedStingException("Unable to create a temporary file for a suffix array of length " + length, ex);
+            }
+        }
+
+        @Override public int length() { return length; }
+        @Override public int get(int index) { return chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK); }
+        @Override public void set(int index, int value) { chunks[index >>> CHUNK_SHIFT].put(index & CHUNK_MASK, value); }
+
+        @Override
+        public void close() {
+            // The mappings go away once the chunks are collected; the file can be unlinked now on any sane platform.
+            for( int chunk = 0; chunk < chunks.length; chunk++ )
+                chunks[chunk] = null;
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.File;
+
+/**
+ * Builds suffix arrays in linear time and space, using the SA-IS algorithm of Nong, Zhang and Chan
+ * ("Two Efficient Algorithms for Linear Time Suffix Array Construction", IEEE Trans. Computers, 2011).
+ *
+ * The suffix array of a sequence of length n has n+1 entries: the empty suffix (at position n, the '$')
+ * sorts first, followed by the suffixes of the sequence in the byte order of their bases.  Beyond the
+ * sequence itself, all working storage apart from a bit per position lives in the suffix array, so
+ * building in disk-backed mode needs only the sequence and n/8 bytes of heap.
+ */
+public class SuffixArrayBuilder {
+    /**
+     * Working arrays no bigger than this are always kept on the heap.
+     */
+    private static final int MAX_HEAP_WORKING_ARRAY = 1 << 20;
+
+    /**
+     * Directory in which to keep disk-backed suffix arrays, or null to build on the heap.
+     */
+    private final File tempDirectory;
+
+    private final boolean diskBacked;
+
+    /**
+     * Working arrays no bigger than this are kept on the heap, even when disk-backed.
+     */
+    private final int maxHeapWorkingArray;
+
+    /**
+     * Create a builder that builds suffix arrays on the heap.
+     */
+    public SuffixArrayBuilder() {
+        this.tempDirectory = null;
+        this.diskBacked = false;
+        this.maxHeapWorkingArray = MAX_HEAP_WORKING_ARRAY;
+    }
+
+    /**
+     * Create a builder that builds suffix arrays in memory-mapped temporary files.
+     * @param tempDirectory Directory in which to create the temporary files, or null for the default temporary directory.
+     */
+    public SuffixArrayBuilder(File tempDirectory) {
+        this(tempDirectory, MAX_HEAP_WORKING_ARRAY);
+    }
+
+    protected SuffixArrayBuilder(File tempDirectory, int maxHeapWorkingArray) {
+        this.tempDirectory = tempDirectory;
+        this.diskBacked = true;
+        this.maxHeapWorkingArray = maxHeapWorkingArray;
+    }
+
+    /**
+     * Build the suffix array of the given sequence.
+     * @param sequence Sequence to index.
+     * @return Suffix array with sequence.length+1 entries.  The caller is responsible for closing it.
+     */
+    public SuffixArrayBuffer build(byte[] sequence) {
+        if( sequence.length == Integer.MAX_VALUE )
+            throw new ReviewedStingException("Sequence is too long to build a suffix array for: " + sequence.length + " bases");
+
+        final SuffixArrayBuffer suffixArray = allocate(sequence.length + 1);
+        try {
+            // Bases become characters 1-256, leaving 0 for the '$' terminator.
+            sais(new SequenceText(sequence), suffixArray, sequence.length + 1, 256);
+        }
+        catch( RuntimeException ex ) {
+            suffixArray.close();
+            throw ex;
+        }
+        return suffixArray;
+    }
+
+    private SuffixArrayBuffer allocate(int length) {
+        return diskBacked && length > maxHeapWorkingArray ? SuffixArrayBuffer.onDisk(length, tempDirectory) : SuffixArrayBuffer.onHeap(length);
+    }
+
+    /**
+     * Sort the suffixes of s into the first n entries of sa.
+     * @param s Text to sort, whose last character is a unique 0.
+     * @param sa Target for the suffix array; may be longer than n.
+     * @param n Length of the text, including the terminator.
+     * @param k Largest character in the text.
+     */
+    private void sais(final Text s, final SuffixArrayBuffer sa, final int n, final int k) {
+        if( n == 1 ) {
+            sa.set(0, 0);
+            return;
+        }
+
+        // Classify each suffix as S-type (smaller than the following suffix) or L-type.
+        final long[] types = new long[(int)((n + 63L) >>> 6)];
+        setSType(types, n - 1);
+        for( int i = n - 2; i >= 0; i-- ) {
+            final int c = s.charAt(i), next = s.charAt(i + 1);
+            if( c < next || (c == next && isSType(types, i + 1)) )
+                setSType(types, i);
+        }
+
+        final SuffixArrayBuffer buckets = allocate(k + 1);
+        try {
+            // Stage 1: sort the LMS substrings by inducing from their bucket ends.
+            getBuckets(s, buckets, n, k, true);
+            for( int i = 0; i < n; i++ )
+                sa.set(i, -1);
+            for( int i = 1; i < n; i++ ) {
+                if( isLMS(types, i) )
+                    sa.set(decrement(buckets, s.charAt(i)), i);
+            }
+            induceSA(s, sa, types, buckets, n, k);
+
+            // Compact the sorted LMS substrings into the start of sa, then name them, storing the names by position.
+            int n1 = 0;
+            for( int i = 0; i < n; i++ ) {
+                final int position = sa.get(i);
+                if( isLMS(types, position) )
+                    sa.set(n1++, position);
+            }
+            for( int i = n1; i < n; i++ )
+                sa.set(i, -1);
+
+            int name = 0;
+            int previous = -1;
+            for( int i = 0; i < n1; i++ ) {
+                final int position = sa.get(i);
+                boolean differs = false;
+                for( int d = 0; ; d++ ) {
+                    if( previous == -1 || s.charAt(position + d) != s.charAt(previous + d) || isSType(types, position + d) != isSType(types, previous + d) ) {
+                        differs = true;
+                        break;
+                    }
+                    else if( d > 0 && (isLMS(types, position + d) || isLMS(types, previous + d)) )
+                        break;
+                }
+                if( differs ) {
+                    name++;
+                    previous = position;
+                }
+                // LMS positions are at least two apart, so position/2 is unique among them.
+                sa.set(n1 + (position >>> 1), name - 1);
+            }
+            for( int i = n - 1, j = n - 1; i >= n1; i-- ) {
+                final int value = sa.get(i);
+                if( value >= 0 )
+                    sa.set(j--, value);
+            }
+
+            // Stage 2: sort the reduced text of LMS names, recursing if the names aren't yet unique.
+            final Text s1 = new BufferText(sa, n - n1);
+            if( name < n1 )
+                sais(s1, sa, n1, name - 1);
+            else {
+                for( int i = 0; i < n1; i++ )
+                    sa.set(s1.charAt(i), i);
+            }
+
+            // Stage 3: induce the full suffix array from the sorted LMS suffixes.
+            getBuckets(s, buckets, n, k, true);
+            for( int i = 1, j = n - n1; i < n; i++ ) {
+                if( isLMS(types, i) )
+                    sa.set(j++, i);
+            }
+            for( int i = 0; i < n1; i++ )
+                sa.set(i, sa.get(n - n1 + sa.get(i)));
+            for( int i = n1; i < n; i++ )
+                sa.set(i, -1);
+            for( int i = n1 - 1; i >= 0; i-- ) {
+                final int position = sa.get(i);
+                sa.set(i, -1);
+                sa.set(decrement(buckets, s.charAt(position)), position);
+            }
+            induceSA(s, sa, types, buckets, n, k);
+        }
+        finally {
+            buckets.close();
+        }
+    }
+
+    /**
+     * Induce the L-type suffixes from the LMS suffixes in sa, then the S-type suffixes from the L-type ones.
+     */
+    private void induceSA(final Text s, final SuffixArrayBuffer sa, final long[] types, final SuffixArrayBuffer buckets, final int n, final int k) {
+        getBuckets(s, buckets, n, k, false);
+        for( int i = 0; i < n; i++ ) {
+            final int j = sa.get(i) - 1;
+            if( j >= 0 && !isSType(types, j) ) {
+                final int c = s.charAt(j);
+                final int slot = buckets.get(c);
+                buckets.set(c, slot + 1);
+                sa.set(slot, j);
+            }
+        }
+
+        getBuckets(s, buckets, n, k, true);
+        for( int i = n - 1; i >= 0; i-- ) {
+            final int j = sa.get(i) - 1;
+            if( j >= 0 && isSType(types, j) )
+                sa.set(decrement(buckets, s.charAt(j)), j);
+        }
+    }
+
+    /**
+     * Fill buckets with the start (or one past the end) of each character's bucket in the suffix array.
+     */
+    private static void getBuckets(final Text s, final SuffixArrayBuffer buckets, final int n, final int k, final boolean ends) {
+        for( int c = 0; c <= k; c++ )
+            buckets.set(c, 0);
+        for( int i = 0; i < n; i++ ) {
+            final int c = s.charAt(i);
+            buckets.set(c, buckets.get(c) + 1);
+        }
+        int sum = 0;
+        for( int c = 0; c <= k; c++ ) {
+            sum += buckets.get(c);
+            buckets.set(c, ends ? sum : sum - buckets.get(c));
+        }
+    }
+
+    private static int decrement(final SuffixArrayBuffer buckets, final int c) {
+        final int slot = buckets.get(c) - 1;
+        buckets.set(c, slot);
+        return slot;
+    }
+
+    private static boolean isSType(final long[] types, final int i) {
+        return (types[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static void setSType(final long[] types, final int i) {
+        types[i >>> 6] |= 1L << i;
+    }
+
+    /**
+     * Is the suffix at i the leftmost S-type suffix of a run?
+     */
+    private static boolean isLMS(final long[] types, final int i) {
+        return i > 0 && isSType(types, i) && !isSType(types, i - 1);
+    }
+
+    /**
+     * The text being sorted, as a sequence of non-negative characters.
+     */
+    private interface Text {
+        int charAt(int i);
+    }
+
+    /**
+     * A base sequence followed by a 0 terminator, with each base shifted up by one.
+     */
+    private static class SequenceText implements Text {
+        private final byte[] sequence;
+
+        public SequenceText(final byte[] sequence) {
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int charAt(final int i) {
+            return i == sequence.length ? 0 : (sequence[i] & 0xFF) + 1;
+        }
+    }
+
+    /**
+     * A reduced text stored in the tail of the suffix array being built.
+     */
+    private static class BufferText implements Text {
+        private final SuffixArrayBuffer buffer;
+        private final int offset;
+
+        public BufferText(final SuffixArrayBuffer buffer, final int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        @Override
+        public int charAt(final int i) {
+            return buffer.get(offset + i);
+        }
+    }
+}
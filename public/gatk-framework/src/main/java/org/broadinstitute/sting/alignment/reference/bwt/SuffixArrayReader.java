@@ -83,9 +83,10 @@ public class SuffixArrayReader {
             inverseSA0 = uintPackedInputStream.read();
             occurrences = new long[PackUtils.ALPHABET_SIZE];
             uintPackedInputStream.read(occurrences);
-            // Throw away the suffix array size in bytes and use the occurrences table directly.
+            // The suffix array size stands in for the unwritten first entry, which is the '$' at the end of the sequence.
+            // Entries are stored for every multiple of the interval from 0 to the sequence length, inclusive.
             suffixArrayInterval = (int)uintPackedInputStream.read();
-            suffixArray = new long[(int)((occurrences[occurrences.length-1]+suffixArrayInterval-1)/suffixArrayInterval)];
+            suffixArray = new long[(int)(occurrences[occurrences.length-1]/suffixArrayInterval+1)];
             uintPackedInputStream.read(suffixArray);
         }
         catch( IOException ex ) {
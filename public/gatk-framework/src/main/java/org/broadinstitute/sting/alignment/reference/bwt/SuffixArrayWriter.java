@@ -78,6 +78,31 @@ public class SuffixArrayWriter {
     }
 
 
+    /**
+     * Write a suffix array to the output stream, reading entries straight from a suffix array buffer
+     * rather than from an in-memory SuffixArray.  Produces the same output as write(SuffixArray).
+     * @param occurrences Counts of the bases in the sequence the suffix array was built from.
+     * @param suffixArray suffix array to write.
+     */
+    public void write(Counts occurrences, SuffixArrayBuffer suffixArray) {
+        UnsignedIntPackedOutputStream uintPackedOutputStream = new UnsignedIntPackedOutputStream(outputStream, ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            uintPackedOutputStream.write(SuffixArray.findInverseSA0(suffixArray));
+            uintPackedOutputStream.write(occurrences.toArray(true));
+            // How frequently the suffix array entry is placed.
+            uintPackedOutputStream.write(1);
+            // Length of the suffix array.
+            uintPackedOutputStream.write(suffixArray.length()-1);
+            // The first entry is always the '$', and isn't written.
+            for( int i = 1; i < suffixArray.length(); i++ )
+                uintPackedOutputStream.write(suffixArray.get(i));
+        }
+        catch( IOException ex ) {
+            throw new ReviewedStingException("Unable to write suffix array to output stream.", ex);
+        }
+    }
+
     /**
      * Close the input stream.
      */
@@ -321,6 +321,16 @@ public abstract class ArgumentTypeDescriptor {
         return parseBinding(value, parameterType, type, name, tags, source.field.getName());
     }
 
+    /**
+     * If the field behind source is annotated @SitesOnly, and the user hasn't said otherwise, tag the binding as sites-only
+     * @param source the argument source being parsed
+     * @param tags the tags of the binding, which may be modified
+     */
+    protected static void addSitesOnlyTagIfDeclared(final ArgumentSource source, final Tags tags) {
+        if ( source.field.isAnnotationPresent(SitesOnly.class) && ! tags.containsKey(SitesOnly.TAG) )
+            tags.addKeyValueTag(SitesOnly.TAG, "true");
+    }
+
     /**
      *
      * @param value The source of the binding
@@ -589,6 +599,7 @@ class RodBindingArgumentTypeDescriptor extends ArgumentTypeDescriptor {
     @Override
     public Object parse(ParsingEngine parsingEngine, ArgumentSource source, Type type, ArgumentMatches matches) {
         Tags tags = getArgumentTags(matches);
+        addSitesOnlyTagIfDeclared(source, tags);
         RodBinding rbind = (RodBinding)parseBinding(source, type, matches, tags);
         parsingEngine.addTags(rbind, tags);
         parsingEngine.addRodBinding(rbind);
@@ -659,6 +670,7 @@ class RodBindingCollectionArgumentTypeDescriptor extends ArgumentTypeDescriptor
     @Override
     public Object parse(final ParsingEngine parsingEngine, final ArgumentSource source, final Type type, final ArgumentMatches matches) {
         final Tags tags = getArgumentTags(matches);
+        addSitesOnlyTagIfDeclared(source, tags);
         return parseRodBindingCollectionSource(parsingEngine, source, type, matches, tags);
     }
 }
@@ -37,6 +37,7 @@ import org.broadinstitute.sting.gatk.arguments.GATKArgumentCollection;
 import org.broadinstitute.sting.gatk.arguments.ValidationExclusion;
 import org.broadinstitute.sting.gatk.datasources.reads.*;
 import org.broadinstitute.sting.gatk.datasources.reference.ReferenceDataSource;
+import org.broadinstitute.sting.gatk.datasources.rmd.RODFeatureCache;
 import org.broadinstitute.sting.gatk.datasources.rmd.ReferenceOrderedDataSource;
 import org.broadinstitute.sting.gatk.downsampling.DownsamplingMethod;
 import org.broadinstitute.sting.gatk.executive.MicroScheduler;
@@ -59,6 +60,7 @@ import org.broadinstitute.sting.utils.*;
 import org.broadinstitute.sting.utils.classloader.PluginManager;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.interval.IntervalListCache;
 import org.broadinstitute.sting.utils.interval.IntervalUtils;
 import org.broadinstitute.sting.utils.progressmeter.ProgressMeter;
 import org.broadinstitute.sting.utils.recalibration.BQSRArgumentSet;
@@ -68,7 +70,7 @@ import org.broadinstitute.sting.utils.threading.ThreadEfficiencyMonitor;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 import static org.broadinstitute.sting.utils.DeprecatedToolChecks.getWalkerDeprecationInfo;
 import static org.broadinstitute.sting.utils.DeprecatedToolChecks.isDeprecatedWalker;
@@ -113,6 +115,11 @@ public class GenomeAnalysisEngine {
      */
     private List<ReferenceOrderedDataSource> rodDataSources;
 
+    /**
+     * Cache of decoded features shared by all the reference ordered data sources, or null if disabled
+     */
+    private RODFeatureCache rodFeatureCache;
+
     // our argument collection
     private GATKArgumentCollection argCollection;
 
@@ -310,7 +317,10 @@ public class GenomeAnalysisEngine {
         logger.info("Done preparing for traversal");
 
         // execute the microscheduler, storing the results
-        return microScheduler.execute(this.walker, shardStrategy);
+        final Object result = microScheduler.execute(this.walker, shardStrategy);
+        if ( rodFeatureCache != null && rodFeatureCache.getHits() + rodFeatureCache.getMisses() > 0 )
+            logger.info(rodFeatureCache.toString());
+        return result;
 
         //monitor.stop();
         //logger.info(String.format("Maximum heap size consumed: %d",monitor.getMaxMemoryUsed()));
@@ -445,7 +455,8 @@ public class GenomeAnalysisEngine {
         this.threadAllocation = new ThreadAllocation(argCollection.numberOfDataThreads,
                 argCollection.numberOfCPUThreadsPerDataThread,
                 argCollection.numberOfIOThreads,
-                argCollection.monitorThreadEfficiency);
+                argCollection.monitorThreadEfficiency,
+                argCollection.useWorkStealingNanoScheduler);
     }
 
     public int getTotalNumberOfThreads() {
@@ -718,6 +729,7 @@ public class GenomeAnalysisEngine {
      * Setup the intervals to be processed
      */
     protected void initializeIntervals() {
+        IntervalListCache.setCacheDirectory(argCollection.intervalCacheDirectory);
         intervals = IntervalUtils.parseIntervalArguments(this.referenceDataSource, argCollection.intervalArguments);
     }
 
@@ -753,7 +765,7 @@ public class GenomeAnalysisEngine {
         logger.info("Strictness is " + argCollection.strictnessLevel);
 
         validateSuppliedReference();
-        setReferenceDataSource(argCollection.referenceFile);
+        setReferenceDataSource(argCollection.referenceFile, argCollection.packedReference);
 
         validateSuppliedReads();
         initializeReadTransformers(walker);
@@ -885,7 +897,9 @@ public class GenomeAnalysisEngine {
                 argCollection.defaultBaseQualities,
                 removeProgramRecords,
                 keepReadsInLIBS,
-                sampleRenameMap);
+                sampleRenameMap,
+                argCollection.memoryMapBAMIndices,
+                argCollection.bamScheduleMemoryBudget);
     }
 
     /**
@@ -947,12 +961,23 @@ public class GenomeAnalysisEngine {
      * @param refFile Handle to a reference sequence file.  Non-null.
      */
     public void setReferenceDataSource(File refFile) {
-        this.referenceDataSource = new ReferenceDataSource(refFile);
+        setReferenceDataSource(refFile, false);
+    }
+
+    /**
+     * Opens a reference sequence file paired with an index, optionally reading it through a packed copy.
+     *
+     * @param refFile Handle to a reference sequence file.  Non-null.
+     * @param usePackedReference If true, read the reference from a memory-mapped, 2-bit packed copy of refFile
+     */
+    public void setReferenceDataSource(File refFile, boolean usePackedReference) {
+        this.referenceDataSource = new ReferenceDataSource(refFile, usePackedReference);
         genomeLocParser = new GenomeLocParser(referenceDataSource.getReference());
     }
 
     /**
-     * Open the reference-ordered data sources.
+     * Open the reference-ordered data sources.  Each source loads, or builds, the index of its file and
+     * validates it against the reference, so when there is more than one the sources are opened in parallel.
      *
      * @param referenceMetaDataFiles collection of RMD descriptors to load and validate.
      * @param sequenceDictionary GATK-wide sequnce dictionary to use for validation.
@@ -961,20 +986,58 @@ public class GenomeAnalysisEngine {
      *
      * @return A list of reference-ordered data sources.
      */
-    private List<ReferenceOrderedDataSource> getReferenceOrderedDataSources(Collection<RMDTriplet> referenceMetaDataFiles,
-                                                                            SAMSequenceDictionary sequenceDictionary,
-                                                                            GenomeLocParser genomeLocParser,
-                                                                            ValidationExclusion.TYPE validationExclusionType) {
+    private List<ReferenceOrderedDataSource> getReferenceOrderedDataSources(final Collection<RMDTriplet> referenceMetaDataFiles,
+                                                                            final SAMSequenceDictionary sequenceDictionary,
+                                                                            final GenomeLocParser genomeLocParser,
+                                                                            final ValidationExclusion.TYPE validationExclusionType) {
         final RMDTrackBuilder builder = new RMDTrackBuilder(sequenceDictionary,genomeLocParser, validationExclusionType,
                                                             getArguments().disableAutoIndexCreationAndLockingWhenReadingRods);
+        builder.setSitesOnlyByDefault(walker != null && walker.getClass().isAnnotationPresent(SitesOnly.class));
+        if ( getArguments().rodFeatureCacheSizeInMB > 0 && ! referenceMetaDataFiles.isEmpty() )
+            rodFeatureCache = new RODFeatureCache(genomeLocParser, getArguments().rodFeatureCacheSizeInMB * 1024L * 1024L);
+        final RODFeatureCache featureCache = rodFeatureCache;
 
         final List<ReferenceOrderedDataSource> dataSources = new ArrayList<ReferenceOrderedDataSource>();
-        for (RMDTriplet fileDescriptor : referenceMetaDataFiles)
-            dataSources.add(new ReferenceOrderedDataSource(fileDescriptor,
-                                                           builder,
-                                                           sequenceDictionary,
-                                                           genomeLocParser,
-                                                           flashbackData()));
+        final int nThreads = Math.min(referenceMetaDataFiles.size(), Runtime.getRuntime().availableProcessors());
+        if ( nThreads <= 1 ) {
+            for (RMDTriplet fileDescriptor : referenceMetaDataFiles)
+                dataSources.add(new ReferenceOrderedDataSource(fileDescriptor,
+                                                               builder,
+                                                               sequenceDictionary,
+                                                               genomeLocParser,
+                                                               flashbackData(),
+                                                               featureCache));
+            return dataSources;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            final List<Future<ReferenceOrderedDataSource>> futures = new ArrayList<Future<ReferenceOrderedDataSource>>();
+            for (final RMDTriplet fileDescriptor : referenceMetaDataFiles) {
+                futures.add(executor.submit(new Callable<ReferenceOrderedDataSource>() {
+                    public ReferenceOrderedDataSource call() {
+                        return new ReferenceOrderedDataSource(fileDescriptor,
+                                                              builder,
+                                                              sequenceDictionary,
+                                                              genomeLocParser,
+                                                              flashbackData(),
+                                                              featureCache);
+                    }
+                }));
+            }
+
+            // collect in submission order, so the sources come back in the order the tracks were given
+            for ( final Future<ReferenceOrderedDataSource> future : futures )
+                dataSources.add(future.get());
+        } catch ( InterruptedException e ) {
+            throw new ReviewedStingException("Interrupted while opening reference-ordered data sources", e);
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException)e.getCause();
+            throw new ReviewedStingException("Unable to open reference-ordered data sources", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
 
         return dataSources;
     }
@@ -28,6 +28,7 @@ package org.broadinstitute.sting.gatk.arguments;
 
 import org.broadinstitute.sting.commandline.Input;
 import org.broadinstitute.sting.commandline.RodBinding;
+import org.broadinstitute.sting.commandline.SitesOnly;
 import org.broadinstitute.variant.variantcontext.VariantContext;
 
 /**
@@ -37,8 +38,9 @@ import org.broadinstitute.variant.variantcontext.VariantContext;
 public class DbsnpArgumentCollection {
 
     /**
-     * A dbSNP VCF file.
+     * A dbSNP VCF file.  Only site-level information is read from it; any genotypes it has are ignored.
      */
+    @SitesOnly
     @Input(fullName="dbsnp", shortName = "D", doc="dbSNP file", required=false)
     public RodBinding<VariantContext> dbsnp;
 
@@ -28,6 +28,7 @@ package org.broadinstitute.sting.gatk.arguments;
 import net.sf.samtools.SAMFileReader;
 import org.broadinstitute.sting.commandline.*;
 import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.datasources.reads.BAMSchedule;
 import org.broadinstitute.sting.gatk.downsampling.DownsampleType;
 import org.broadinstitute.sting.gatk.downsampling.DownsamplingMethod;
 import org.broadinstitute.sting.gatk.phonehome.GATKRunReport;
@@ -420,8 +421,72 @@ public class GATKArgumentCollection {
     @Argument(fullName = "monitorThreadEfficiency", shortName = "mte", doc = "Enable threading efficiency monitoring", required = false)
     public Boolean monitorThreadEfficiency = false;
 
+    /**
+     * Schedule the -nct CPU threads with a work-stealing NanoScheduler, in which the inputs are handed
+     * out to the CPU threads in batches and results are reduced through a lock-free ring instead of
+     * going through shared synchronized queues.  This reduces contention among the CPU threads when
+     * running with many of them.  The output is the same in either mode.
+     */
+    @Argument(fullName = "nanoSchedulerWorkStealing", shortName = "nsws", doc = "Use the work-stealing NanoScheduler for -nct CPU threads", required = false)
+    @Hidden
+    public boolean useWorkStealingNanoScheduler = false;
+
     @Argument(fullName = "num_bam_file_handles", shortName = "bfh", doc="Total number of BAM file handles to keep open simultaneously", required=false, minValue = 1)
     public Integer numberOfBAMFileHandles = null;
+
+    /**
+     * Map BAM indices read-only into memory instead of reading them through a buffered stream.  Cuts down
+     * on the many small reads made while walking the index, which can be slow on shared filesystems.
+     */
+    @Argument(fullName = "memoryMapBAMIndices", shortName = "mmbai", doc = "Memory-map BAM index files rather than reading them through a stream", required = false)
+    @Hidden
+    public boolean memoryMapBAMIndices = false;
+
+    /**
+     * The engine builds a schedule of the BAM file regions to read for each contig.  Schedules smaller than
+     * this budget are held off-heap; larger ones are spilled to a temporary file.  0 always uses the temporary file.
+     */
+    @Argument(fullName = "bamScheduleMemoryBudget", shortName = "bsmb", doc = "Megabytes of memory to use for each contig's BAM schedule before spilling it to disk", required = false, minValue = 0)
+    @Hidden
+    public int bamScheduleMemoryBudget = BAMSchedule.DEFAULT_MEMORY_BUDGET_MB;
+
+    /**
+     * Active region traversals hold every read overlapping the pending regions in memory.  With this option
+     * those reads are packed off-heap in their BAM encoding until they're assigned to a region, rather than
+     * held as full read objects, which greatly reduces heap usage at high coverage at some cost in CPU.
+     */
+    @Argument(fullName = "compactActiveRegionReads", shortName = "compactARReads", doc = "Hold reads waiting for active region assignment packed off-heap", required = false)
+    @Hidden
+    public boolean compactActiveRegionReads = false;
+
+    /**
+     * Read the reference from a 2-bit packed copy of the FASTA, memory-mapped and shared by all threads, rather than
+     * caching windows of it per thread.  The packed copy is built next to the FASTA (or in the temporary directory,
+     * if that isn't writable) the first time it's needed, and rebuilt whenever the FASTA changes.
+     */
+    @Argument(fullName = "packedReference", shortName = "packedRef", doc = "Read the reference from a memory-mapped, 2-bit packed copy of the FASTA", required = false)
+    @Hidden
+    public boolean packedReference = false;
+
+    /**
+     * If set, decoded features from reference-ordered data are cached in bins shared by all threads, so that
+     * neighbouring shards don't each re-read and re-decode the same blocks of the file.  This is the estimated heap
+     * the cache may use.  Only tracks without genotypes (or read sites-only) are cached.  Off by default, as
+     * single-threaded runs over non-overlapping shards rarely read a bin twice.
+     */
+    @Argument(fullName = "rodFeatureCacheSizeInMB", shortName = "rodCacheMB", doc = "Megabytes of heap to use caching decoded sites-only ROD features across shards (0 to disable)", required = false)
+    @Hidden
+    public int rodFeatureCacheSizeInMB = 0;
+
+    /**
+     * If set, the intervals parsed from large (1 MB or more) interval files are cached in binary form in this
+     * directory, so later runs with the same interval file and reference skip re-parsing it.  Nothing is written
+     * next to the interval files themselves.  Off by default.
+     */
+    @Argument(fullName = "intervalCacheDirectory", shortName = "intervalCacheDir", doc = "Directory in which to cache the intervals parsed from large interval files", required = false)
+    @Hidden
+    public File intervalCacheDirectory = null;
+
     /**
      * This will filter out read groups matching <TAG>:<STRING> (e.g. SM:sample1) or a .txt file containing the filter strings one per line.
      */
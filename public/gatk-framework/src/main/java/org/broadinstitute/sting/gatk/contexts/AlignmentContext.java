@@ -49,7 +49,8 @@ public class AlignmentContext implements HasGenomeLocation {
 
     /**
      * The number of bases we've skipped over in the reference since the last map invocation.
-     * Only filled in by RodTraversals right now.  By default, nothing is being skipped, so skippedBases == 0.
+     * Only filled in by RodTraversals, and by locus traversals for walkers that skip uncovered loci.
+     * By default, nothing is being skipped, so skippedBases == 0.
      */
     private long skippedBases = 0;
 
@@ -144,7 +145,7 @@ public class AlignmentContext implements HasGenomeLocation {
 
     /**
      * Returns the number of bases we've skipped over in the reference since the last map invocation.
-     * Only filled in by RodTraversals right now.  A value of 0 indicates that no bases were skipped.
+     * Only filled in by RodTraversals, and by locus traversals for walkers that skip uncovered loci.  A value of 0 indicates that no bases were skipped.
      *
      * @return the number of skipped bases
      */
@@ -26,8 +26,8 @@
 package org.broadinstitute.sting.gatk.datasources.providers;
 
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
-import org.broadinstitute.sting.gatk.iterators.GenomeLocusIterator;
 import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.PackedGenomeLoc;
 import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
@@ -52,13 +52,18 @@ import java.util.NoSuchElementException;
  */
 
 public class AllLocusView extends LocusView {
-    private GenomeLocusIterator locusIterator;
+    /**
+     * The positions covered by this view, packed (see PackedGenomeLoc).  GenomeLocs are only created for
+     * positions without data, as those with data come with their own from the alignment context.
+     */
+    private long nextUnvisitedPosition;
+    private final long lastPosition;
 
     /**
-     * Gets the next position in the view: next call to next() will jump there.
+     * Gets the next position in the view: next call to next() will jump there, or NO_POSITION if there's none.
      * Note that both nextPosition and nextLocus are PRE-read and cached.
      */
-    private GenomeLoc nextPosition = null;
+    private long nextPosition = PackedGenomeLoc.NO_POSITION;
 
     /**
      * What's the next available context?
@@ -70,26 +75,44 @@ public class AllLocusView extends LocusView {
      */
     private boolean atNextElement = false;
 
+    /**
+     * Should each run of positions without data be returned as a single empty context (see LocusWalker.skipUncoveredLoci())?
+     */
+    private final boolean skipUncoveredLoci;
+
     /**
      * Create a new queue of locus contexts.
      *
      * @param provider
      */
     public AllLocusView(LocusShardDataProvider provider) {
+        this(provider, false);
+    }
+
+    /**
+     * Create a new queue of locus contexts.
+     *
+     * @param provider
+     * @param skipUncoveredLoci if true, each run of positions without data is returned as one empty context at its
+     *                          last position, with getSkippedBases() counting the positions before it
+     */
+    public AllLocusView(LocusShardDataProvider provider, boolean skipUncoveredLoci) {
         super(provider);
+        this.skipUncoveredLoci = skipUncoveredLoci;
         // Seed the state tracking members with the first possible seek position and the first possible locus context.
-        locusIterator = new GenomeLocusIterator(genomeLocParser, provider.getLocus());
+        nextUnvisitedPosition = PackedGenomeLoc.packStart(provider.getLocus());
+        lastPosition = PackedGenomeLoc.packStop(provider.getLocus());
     }
 
     public boolean hasNext() {
         advance();
-        return nextPosition != null;
+        return nextPosition != PackedGenomeLoc.NO_POSITION;
     }
 
     public AlignmentContext next() {
         advance();
 
-        if (nextPosition == null)
+        if (nextPosition == PackedGenomeLoc.NO_POSITION)
             throw new NoSuchElementException("No next is available in the all locus view");
 
         // Flag to the iterator that no data is waiting in the queue to be processed.
@@ -98,10 +121,18 @@ public class AllLocusView extends LocusView {
         AlignmentContext currentLocus;
 
         // If actual data is present, return it.  Otherwise, return empty data.
-        if (nextLocus != null && nextLocus.getLocation().equals(nextPosition))
+        if (nextLocus != null && isAt(nextLocus, nextPosition))
             currentLocus = nextLocus;
+        else if (skipUncoveredLoci) {
+            // nextLocus, if any, is past nextPosition: everything up to it is empty
+            final long runStart = nextPosition;
+            final long runStop = nextLocus == null ? lastPosition : Math.min(lastPosition, PackedGenomeLoc.packStart(nextLocus.getLocation()) - 1);
+            currentLocus = createEmptyLocus(genomeLocParser.createGenomeLocFromPacked(runStop), runStop - runStart);
+            nextPosition = runStop;
+            nextUnvisitedPosition = runStop + 1;
+        }
         else
-            currentLocus = createEmptyLocus(nextPosition);
+            currentLocus = createEmptyLocus(genomeLocParser.createGenomeLocFromPacked(nextPosition));
 
         return currentLocus;
     }
@@ -112,11 +143,11 @@ public class AllLocusView extends LocusView {
             return;
 
         // Out of elements?
-        if (nextPosition == null && !locusIterator.hasNext())
+        if (nextPosition == PackedGenomeLoc.NO_POSITION && nextUnvisitedPosition > lastPosition)
             return;
 
         // If nextLocus has been consumed, clear it out to make room for the next incoming locus.
-        if (nextPosition != null && nextLocus != null && !nextLocus.getLocation().isPast(nextPosition)) {
+        if (nextPosition != PackedGenomeLoc.NO_POSITION && nextLocus != null && PackedGenomeLoc.packStart(nextLocus.getLocation()) <= nextPosition) {
             nextLocus = null;
 
             // Determine the next locus. The trick is that we may have more than one alignment context at the same
@@ -126,7 +157,7 @@ public class AllLocusView extends LocusView {
             // position
             if (hasNextLocus()) {
                 nextLocus = nextLocus();
-                if (nextPosition.equals(nextLocus.getLocation())) {
+                if (isAt(nextLocus, nextPosition)) {
                     atNextElement = true;
                     return;
                 }
@@ -134,18 +165,18 @@ public class AllLocusView extends LocusView {
         }
 
         // No elements left in queue?  Clear out the position state tracker and return.
-        if (!locusIterator.hasNext()) {
-            nextPosition = null;
+        if (nextUnvisitedPosition > lastPosition) {
+            nextPosition = PackedGenomeLoc.NO_POSITION;
             return;
         }
 
         // Actually fill the next position.
-        nextPosition = locusIterator.next();
+        nextPosition = nextUnvisitedPosition++;
         atNextElement = true;
 
         // Crank the iterator to (if possible) or past the next context.  Be careful not to hold a reference to nextLocus
         // while using the hasNextLocus() / nextLocus() machinery; this will cause us to use more memory than is optimal. 
-        while (nextLocus == null || nextLocus.getLocation().isBefore(nextPosition)) {
+        while (nextLocus == null || PackedGenomeLoc.packStart(nextLocus.getLocation()) < nextPosition) {
             nextLocus = null;
             if (!hasNextLocus())
                 break;
@@ -153,6 +184,13 @@ public class AllLocusView extends LocusView {
         }
     }
 
+    /**
+     * Is the single base locus context at the packed position?
+     */
+    private static boolean isAt(final AlignmentContext locus, final long position) {
+        return PackedGenomeLoc.packStart(locus.getLocation()) == position;
+    }
+
     /**
      * Creates a blank locus context at the specified location.
      *
@@ -164,6 +202,13 @@ public class AllLocusView extends LocusView {
     private final static List<Boolean> EMPTY_DELETION_STATUS = Collections.emptyList();
 
     private AlignmentContext createEmptyLocus(GenomeLoc site) {
-        return new AlignmentContext(site, new ReadBackedPileupImpl(site, EMPTY_PILEUP_READS, EMPTY_PILEUP_OFFSETS));
+        return createEmptyLocus(site, 0);
+    }
+
+    /**
+     * Creates a blank locus context at the specified location, standing for skippedBases more empty positions before it.
+     */
+    private AlignmentContext createEmptyLocus(GenomeLoc site, long skippedBases) {
+        return new AlignmentContext(site, new ReadBackedPileupImpl(site, EMPTY_PILEUP_READS, EMPTY_PILEUP_OFFSETS), skippedBases);
     }
 }
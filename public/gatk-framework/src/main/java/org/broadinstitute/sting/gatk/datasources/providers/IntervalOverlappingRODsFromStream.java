@@ -33,9 +33,9 @@ import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
 import org.broadinstitute.sting.gatk.refdata.utils.RODRecordList;
 import org.broadinstitute.sting.utils.GenomeLoc;
 
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Key algorithmic helper for ReadBasedReferenceOrderedData
@@ -52,9 +52,15 @@ class IntervalOverlappingRODsFromStream {
     GenomeLoc lastQuery = null;
 
     private final String name;
-    private final LinkedList<GATKFeature> currentFeatures = new LinkedList<GATKFeature>();
     private final PeekableIterator<RODRecordList> futureFeatures;
 
+    /**
+     * The features read from the stream that can't be thrown away yet, sorted by contig and start,
+     * in the first currentFeaturesSize slots of currentFeatures.
+     */
+    private GATKFeature[] currentFeatures = new GATKFeature[16];
+    private int currentFeaturesSize = 0;
+
     /**
      * Create a new IntervalOverlappingRODsFromStream that reads elements from futureFeatures and
      * returns RODRecordLists having name
@@ -83,7 +89,7 @@ class IntervalOverlappingRODsFromStream {
             throw new IllegalArgumentException(String.format("BUG: query interval (%s) starts before the previous interval %s", loc, lastQuery));
 
         readOverlappingFutureFeatures(loc);
-        return new RODRecordListImpl(name, subsetToOverlapping(loc, currentFeatures), loc);
+        return RODRecordListImpl.createWithoutValidation(name, subsetToOverlapping(loc), loc);
     }
 
 
@@ -103,25 +109,58 @@ class IntervalOverlappingRODsFromStream {
     }
 
     /**
-     * Subset the features in all to those that overlap with loc
+     * Subset the current features to those that overlap with loc
      *
-     * The current features list contains everything read that cannot be thrown away yet, but not
-     * everything in there necessarily overlaps with loc.  Subset to just those that do overlap
+     * The current features contain everything read that cannot be thrown away yet, but not
+     * everything in there necessarily overlaps with loc.  Features starting after loc are found
+     * by binary search, so only those starting at or before the end of loc are examined.
      *
      * @param loc the location that features must overlap
-     * @param all the list of all features
-     * @return a subset of all that overlaps with loc
+     * @return a new list of the current features that overlap with loc
      */
-    @Requires({"loc != null", "all != null"})
-    @Ensures("result.size() <= all.size()")
-    private Collection<GATKFeature> subsetToOverlapping(final GenomeLoc loc, final Collection<GATKFeature> all) {
-        final LinkedList<GATKFeature> overlapping = new LinkedList<GATKFeature>();
-        for ( final GATKFeature feature : all )
-            if ( feature.getLocation().overlapsP(loc) )
-                overlapping.add(feature);
+    @Requires("loc != null")
+    @Ensures("result.size() <= currentFeaturesSize")
+    private List<GATKFeature> subsetToOverlapping(final GenomeLoc loc) {
+        final int end = firstFeatureStartingAfter(loc);
+        int nOverlapping = 0;
+        for ( int i = 0; i < end; i++ )
+            if ( overlaps(currentFeatures[i].getLocation(), loc) )
+                nOverlapping++;
+
+        final List<GATKFeature> overlapping = new ArrayList<GATKFeature>(nOverlapping);
+        for ( int i = 0; i < end && overlapping.size() < nOverlapping; i++ )
+            if ( overlaps(currentFeatures[i].getLocation(), loc) )
+                overlapping.add(currentFeatures[i]);
         return overlapping;
     }
 
+    /**
+     * Binary search for the first current feature that starts past the end of loc
+     *
+     * @param loc the location
+     * @return the index of that feature, or currentFeaturesSize if every current feature starts within or before loc
+     */
+    private int firstFeatureStartingAfter(final GenomeLoc loc) {
+        int low = 0, high = currentFeaturesSize;
+        while ( low < high ) {
+            final int mid = (low + high) >>> 1;
+            final GenomeLoc featureLoc = currentFeatures[mid].getLocation();
+            if ( featureLoc.getContigIndex() < loc.getContigIndex() ||
+                    (featureLoc.getContigIndex() == loc.getContigIndex() && featureLoc.getStart() <= loc.getStop()) )
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Does featureLoc overlap loc?  Equivalent to featureLoc.overlapsP(loc), without the method calls.
+     */
+    private static boolean overlaps(final GenomeLoc featureLoc, final GenomeLoc loc) {
+        return featureLoc.getContigIndex() == loc.getContigIndex() && featureLoc.getStart() <= loc.getStop() && loc.getStart() <= featureLoc.getStop();
+    }
+
     /**
      * Update function.  Remove all elements of currentFeatures that end before loc
      *
@@ -131,14 +170,17 @@ class IntervalOverlappingRODsFromStream {
      * @param loc the location to use
      */
     @Requires("loc != null")
-    @Ensures("currentFeatures.size() <= old(currentFeatures.size())")
+    @Ensures("currentFeaturesSize <= old(currentFeaturesSize)")
     public void trimCurrentFeaturesToLoc(final GenomeLoc loc) {
-        final ListIterator<GATKFeature> it = currentFeatures.listIterator();
-        while ( it.hasNext() ) {
-            final GATKFeature feature = it.next();
-            if ( feature.getLocation().isBefore(loc) )
-                it.remove();
+        // features are sorted by start, not end, so a long feature can outlive shorter ones after it: compact in place
+        int kept = 0;
+        for ( int i = 0; i < currentFeaturesSize; i++ ) {
+            final GATKFeature feature = currentFeatures[i];
+            if ( ! feature.getLocation().isBefore(loc) )
+                currentFeatures[kept++] = feature;
         }
+        Arrays.fill(currentFeatures, kept, currentFeaturesSize, null);
+        currentFeaturesSize = kept;
     }
 
     /**
@@ -149,7 +191,7 @@ class IntervalOverlappingRODsFromStream {
      * @param loc
      */
     @Requires("loc != null")
-    @Ensures("currentFeatures.size() >= old(currentFeatures.size())")
+    @Ensures("currentFeaturesSize >= old(currentFeaturesSize)")
     private void readOverlappingFutureFeatures(final GenomeLoc loc) {
         while ( futureFeatures.hasNext() ) {
             final GenomeLoc nextLoc = futureFeatures.peek().getLocation();
@@ -159,10 +201,45 @@ class IntervalOverlappingRODsFromStream {
                 break; // next element is past loc, stop looking but don't pop it
             } else if ( nextLoc.overlapsP(loc) ) {
                 // add overlapping elements to our current features, removing from stream
-                for ( final GATKFeature feature : futureFeatures.next() ) {
-                    currentFeatures.add(feature);
-                }
+                for ( final GATKFeature feature : futureFeatures.next() )
+                    addCurrentFeature(feature);
             }
         }
     }
+
+    /**
+     * Add feature to the current features, keeping them sorted by contig and start
+     *
+     * The stream hands back every feature overlapping each position it visits, so a long feature
+     * comes round again after features that start later than it does.  Those repeats are dropped,
+     * and anything else arriving out of order is slotted in from the end, which is cheap as the
+     * stream is nearly sorted already.
+     *
+     * @param feature the feature to add
+     */
+    @Requires("feature != null")
+    private void addCurrentFeature(final GATKFeature feature) {
+        final GenomeLoc loc = feature.getLocation();
+
+        int insertAt = currentFeaturesSize;
+        while ( insertAt > 0 && startsAfter(currentFeatures[insertAt - 1].getLocation(), loc) )
+            insertAt--;
+        for ( int i = insertAt - 1; i >= 0 && ! startsAfter(loc, currentFeatures[i].getLocation()); i-- )
+            if ( currentFeatures[i] == feature )
+                return;
+
+        if ( currentFeaturesSize == currentFeatures.length )
+            currentFeatures = Arrays.copyOf(currentFeatures, currentFeatures.length * 2);
+        System.arraycopy(currentFeatures, insertAt, currentFeatures, insertAt + 1, currentFeaturesSize - insertAt);
+        currentFeatures[insertAt] = feature;
+        currentFeaturesSize++;
+    }
+
+    /**
+     * Does featureLoc start on a later contig than loc, or after loc's start on the same contig?
+     */
+    private static boolean startsAfter(final GenomeLoc featureLoc, final GenomeLoc loc) {
+        return featureLoc.getContigIndex() > loc.getContigIndex() ||
+                (featureLoc.getContigIndex() == loc.getContigIndex() && featureLoc.getStart() > loc.getStart());
+    }
 }
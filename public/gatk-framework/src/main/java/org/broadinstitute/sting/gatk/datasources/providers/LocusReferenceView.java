@@ -180,10 +180,21 @@ public class LocusReferenceView extends ReferenceView {
      * @return The base at the position represented by this genomeLoc.
      */
     public ReferenceContext getReferenceContext( GenomeLoc genomeLoc ) {
+        return getReferenceContext(genomeLoc, 0);
+    }
+
+    /**
+     * Gets the reference context associated with this particular point or extended interval on the genome, with the
+     * window widened back over the given number of bases skipped before it.
+     * @param genomeLoc Region for which to retrieve the base(s). If region spans beyond contig end or beyond current bounds, it will be trimmed down.
+     * @param skippedBases number of bases before genomeLoc the window should also cover, as in AlignmentContext.getSkippedBases()
+     * @return The base at the position represented by this genomeLoc.
+     */
+    public ReferenceContext getReferenceContext( GenomeLoc genomeLoc, long skippedBases ) {
         //validateLocation( genomeLoc );
 
         GenomeLoc window = genomeLocParser.createGenomeLoc( genomeLoc.getContig(), genomeLoc.getContigIndex(),
-                getWindowStart(genomeLoc), getWindowStop(genomeLoc) );
+                (int)Math.max(getWindowStart(genomeLoc) - skippedBases, 1), getWindowStop(genomeLoc) );
 
         int refStart = -1;
         if (bounds != null) {
@@ -86,6 +86,15 @@ class BAMAccessPlan {
         return (nextBlockAddress == positionIterator.peek().getBlockStart()) ? positionIterator.peek().getBlockOffsetStart() : 0;
     }
 
+    /**
+     * Retrieves the address of the last block in the chunk currently being read.  Blocks beyond this point
+     * may not be needed at all, so they shouldn't be read speculatively.
+     * @return Address of the last block in the current chunk, or -1 if no chunks remain.
+     */
+    public long getReadAheadLimit() {
+        return positionIterator.hasNext() ? positionIterator.peek().getBlockEnd() : -1;
+    }
+
     /**
      * Gets the spans overlapping the given block; used to copy the contents of the block into the circular buffer.
      * @param blockAddress Block address for which to search.
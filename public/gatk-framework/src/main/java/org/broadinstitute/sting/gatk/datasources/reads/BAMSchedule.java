@@ -44,19 +44,52 @@ import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
- * Writes schedules for a single BAM file to a target output file.
+ * Writes schedules for a single BAM file to a target output file.  Schedules are held in an off-heap
+ * buffer until they outgrow the data source's memory budget, at which point they're spilled to a
+ * temporary file.
  */
 public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
     /**
-     * File in which to store schedule data.
+     * Default number of megabytes a schedule may occupy in memory before it is spilled to disk.
+     */
+    public static final int DEFAULT_MEMORY_BUDGET_MB = 32;
+
+    /**
+     * Initial size of the in-memory schedule buffer.  Grown by doubling up to the memory budget.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 64*1024;
+
+    /**
+     * File in which to store schedule data.  Null until the schedule is spilled to disk.
      */
     private File scheduleFile;
 
     /**
-     * File channel for the schedule file.
+     * File channel for the schedule file.  Null until the schedule is spilled to disk.
      */
     private FileChannel scheduleFileChannel;
 
+    /**
+     * Maximum number of bytes to hold in memory before spilling to disk.
+     */
+    private final long memoryBudget;
+
+    /**
+     * Off-heap storage for the schedule data while it fits within the memory budget.  Null if nothing
+     * has yet been written or if the schedule has been spilled to disk.
+     */
+    private ByteBuffer scheduleBuffer;
+
+    /**
+     * Current read / write position within the in-memory schedule.
+     */
+    private int memoryPosition = 0;
+
+    /**
+     * Number of bytes of schedule data held in memory.
+     */
+    private int memorySize = 0;
+
     /**
      * The definitive, sorted list of reader IDs.  Order is important here: the order
      * in which the reader IDs are presented here maps to the order in which they appear in the file. 
@@ -95,7 +128,9 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
 
         referenceSequence = dataSource.getHeader().getSequence(intervals.get(0).getContig()).getSequenceIndex();
 
-        createScheduleFile();
+        memoryBudget = Math.min((long)dataSource.getBAMScheduleMemoryBudget()*1024*1024,Integer.MAX_VALUE);
+        if(memoryBudget == 0)
+            createScheduleFile();
 
         readerIDs.addAll(dataSource.getReaderIDs());
 
@@ -191,6 +226,10 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
      */
     @Override
     public void close() {
+        scheduleBuffer = null;
+        if(scheduleFileChannel == null)
+            return;
+
         try {
             scheduleFileChannel.close();
         }
@@ -311,11 +350,62 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
         return buffer;
     }
 
+    /**
+     * Moves the schedule data written so far out of memory and into a temporary file.  All further
+     * reads and writes go through the file.
+     */
+    private void spillToDisk() {
+        createScheduleFile();
+        if(scheduleBuffer != null) {
+            ByteBuffer contents = scheduleBuffer.duplicate();
+            contents.position(0);
+            contents.limit(memorySize);
+            write(contents);
+            scheduleBuffer = null;
+        }
+        position(memoryPosition);
+    }
+
+    /**
+     * Makes sure the in-memory schedule can hold at least the given number of bytes.
+     * @param size Number of bytes required.
+     */
+    private void ensureCapacity(final int size) {
+        if(scheduleBuffer != null && scheduleBuffer.capacity() >= size)
+            return;
+
+        long newCapacity = scheduleBuffer != null ? scheduleBuffer.capacity() : INITIAL_BUFFER_SIZE;
+        while(newCapacity < size)
+            newCapacity *= 2;
+
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect((int)Math.min(newCapacity,memoryBudget));
+        if(scheduleBuffer != null) {
+            ByteBuffer contents = scheduleBuffer.duplicate();
+            contents.position(0);
+            contents.limit(memorySize);
+            newBuffer.put(contents);
+        }
+        scheduleBuffer = newBuffer;
+    }
+
     /**
      * Reads the contents at the current position on disk into the given buffer.
      * @param buffer buffer to fill.
      */
     private int read(final ByteBuffer buffer) {
+        if(scheduleFileChannel == null) {
+            final int bytesAvailable = memorySize - memoryPosition;
+            if(bytesAvailable <= 0)
+                return -1;
+            final int bytesRead = Math.min(buffer.remaining(),bytesAvailable);
+            ByteBuffer contents = scheduleBuffer.duplicate();
+            contents.limit(memoryPosition+bytesRead);
+            contents.position(memoryPosition);
+            buffer.put(contents);
+            memoryPosition += bytesRead;
+            return bytesRead;
+        }
+
         try {
             return scheduleFileChannel.read(buffer);
         }
@@ -325,6 +415,20 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
     }
 
     private void write(final ByteBuffer buffer) {
+        if(scheduleFileChannel == null && memoryPosition + (long)buffer.remaining() > memoryBudget)
+            spillToDisk();
+
+        if(scheduleFileChannel == null) {
+            ensureCapacity(memoryPosition+buffer.remaining());
+            ByteBuffer contents = scheduleBuffer.duplicate();
+            contents.limit(contents.capacity());
+            contents.position(memoryPosition);
+            contents.put(buffer);
+            memoryPosition = contents.position();
+            memorySize = Math.max(memorySize,memoryPosition);
+            return;
+        }
+
         try {
             scheduleFileChannel.write(buffer);
             if(buffer.remaining() > 0)
@@ -340,6 +444,9 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
      * @return Current position within file channel.
      */
     private long position() {
+        if(scheduleFileChannel == null)
+            return memoryPosition;
+
         try {
             return scheduleFileChannel.position();
         }
@@ -353,6 +460,11 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
      * @param position The position.
      */
     private void position(final long position) {
+        if(scheduleFileChannel == null) {
+            memoryPosition = (int)position;
+            return;
+        }
+
         try {
             scheduleFileChannel.position(position);
         }
@@ -414,7 +526,7 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
             if ( binHeaderBytesRead < INT_SIZE_IN_BYTES * 3 ) {
                 throw new ReviewedStingException(String.format("Unable to read a complete bin header from BAM schedule file %s for BAM file %s. " +
                                                                "The BAM schedule file is likely incomplete/corrupt.",
-                                                               scheduleFile.getAbsolutePath(), reader.getSamFilePath()));
+                                                               scheduleFile != null ? scheduleFile.getAbsolutePath() : "(in memory)", reader.getSamFilePath()));
             }
 
             // Decode contents.
@@ -0,0 +1,218 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import net.sf.samtools.util.BlockCompressedStreamConstants;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and inflates a single BGZF block at a time.  Each decoder owns a direct buffer for the compressed
+ * data, a scratch array for handing that data to the inflater, and the inflater itself; all three are
+ * reused from block to block, so decoders should be pooled rather than recreated for every block.
+ *
+ * A decoder is not thread-safe, but may be handed from the thread that reads the block to the thread that
+ * inflates it.
+ */
+class BGZFBlockDecoder {
+    /**
+     * Largest BGZF block we'll ever have to hold, plus room for a trailing empty block.
+     */
+    private static final int MAX_COMPRESSED_BLOCK_SIZE = 64*1024 + BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+
+    /**
+     * An direct input buffer for incoming data from disk.
+     */
+    private final ByteBuffer inputBuffer;
+
+    /**
+     * Heap copy of the CDATA section of the current block, as required by the Inflater.
+     */
+    private final byte[] compressedContent = new byte[MAX_COMPRESSED_BLOCK_SIZE];
+
+    /**
+     * Inflater, reset between blocks.
+     */
+    private final Inflater inflater = new Inflater(true);
+
+    /**
+     * Address of the block currently held in the input buffer, or -1 if no block has been read.
+     */
+    private long blockAddress = -1;
+
+    /**
+     * Address immediately following the block currently held in the input buffer.
+     */
+    private long nextBlockAddress = -1;
+
+    public BGZFBlockDecoder() {
+        inputBuffer = ByteBuffer.allocateDirect(MAX_COMPRESSED_BLOCK_SIZE);
+        inputBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Gets the address of the block most recently read by this decoder.
+     * @return the address of the block most recently read, or -1 if none has been read.
+     */
+    public long getBlockAddress() {
+        return blockAddress;
+    }
+
+    /**
+     * Gets the address immediately following the block most recently read by this decoder.
+     * @return The address of the next block in the file.
+     */
+    public long getNextBlockAddress() {
+        return nextBlockAddress;
+    }
+
+    /**
+     * Gets the size of the compressed block most recently read, including header and footer.
+     * @return Size of the compressed block in bytes.
+     */
+    public int getCompressedSize() {
+        return inputBuffer.limit();
+    }
+
+    /**
+     * Reads the BGZF block at the given address into this decoder, skipping over any empty blocks
+     * that don't fall at the end of the file.
+     * @param inputStream Stream from which to read.  Caller is responsible for claiming and releasing the stream.
+     * @param blockAddress Address of the block to read.
+     * @throws IOException if the block can't be read.
+     */
+    public void readBlock(final FileInputStream inputStream, final long blockAddress) throws IOException {
+        FileChannel channel = inputStream.getChannel();
+
+        // Read the block header
+        channel.position(blockAddress);
+
+        int uncompressedDataSize = 0;
+        int bufferSize = 0;
+
+        do {
+            inputBuffer.clear();
+            inputBuffer.limit(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+            channel.read(inputBuffer);
+
+            // Read out the size of the full BGZF block into a two bit short container, then 'or' that
+            // value into an int buffer to transfer the bitwise contents into an int.
+            inputBuffer.flip();
+            if(inputBuffer.remaining() != BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH)
+                throw new ReviewedStingException("BUG: unable to read a the complete block header in one pass.");
+
+            // Verify that the file was read at a valid point.
+            if(unpackUByte8(inputBuffer,0) != BlockCompressedStreamConstants.GZIP_ID1 ||
+                    unpackUByte8(inputBuffer,1) != BlockCompressedStreamConstants.GZIP_ID2 ||
+                    unpackUByte8(inputBuffer,3) != BlockCompressedStreamConstants.GZIP_FLG ||
+                    unpackUInt16(inputBuffer,10) != BlockCompressedStreamConstants.GZIP_XLEN ||
+                    unpackUByte8(inputBuffer,12) != BlockCompressedStreamConstants.BGZF_ID1 ||
+                    unpackUByte8(inputBuffer,13) != BlockCompressedStreamConstants.BGZF_ID2) {
+                throw new ReviewedStingException("BUG: Started reading compressed block at incorrect position");
+            }
+
+            inputBuffer.position(BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET);
+            bufferSize = unpackUInt16(inputBuffer,BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET)+1;
+
+            // Adjust buffer limits and finish reading the block.  Also read the next header, just in case there's a 0-byte block.
+            inputBuffer.limit(bufferSize);
+            inputBuffer.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+            channel.read(inputBuffer);
+
+            // Check the uncompressed length.  If 0 and not at EOF, we'll want to check the next block.
+            uncompressedDataSize = inputBuffer.getInt(inputBuffer.limit()-4);
+        }
+        while(uncompressedDataSize == 0 && channel.position() < channel.size());
+
+        // Prepare the buffer for reading.
+        inputBuffer.flip();
+
+        this.blockAddress = blockAddress;
+        this.nextBlockAddress = channel.position();
+    }
+
+    /**
+     * Inflates the block most recently read into a newly allocated buffer.  The compressed data is
+     * left untouched, so the decoder can be returned to its pool as soon as this call completes.
+     * @return A buffer wrapping the uncompressed contents of the block, prepared for reading.
+     * @throws DataFormatException if the compressed data is corrupt.
+     */
+    public ByteBuffer decompress() throws DataFormatException {
+        final int compressedBufferSize = inputBuffer.limit();
+
+        // Determine the uncompressed buffer size.
+        int uncompressedBufferSize = inputBuffer.getInt(compressedBufferSize-4);
+        byte[] uncompressedContent = new byte[uncompressedBufferSize];
+
+        // Copy out the CDATA section of the buffer.
+        ByteBuffer cdata = inputBuffer.duplicate();
+        cdata.limit(compressedBufferSize-BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
+        cdata.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+        final int compressedContentSize = cdata.remaining();
+        cdata.get(compressedContent,0,compressedContentSize);
+
+        // Decompress the buffer.
+        inflater.reset();
+        inflater.setInput(compressedContent,0,compressedContentSize);
+        int bytesUncompressed = inflater.inflate(uncompressedContent);
+        if(bytesUncompressed != uncompressedBufferSize)
+            throw new ReviewedStingException("Error decompressing block");
+
+        return ByteBuffer.wrap(uncompressedContent);
+    }
+
+    /**
+     * Presents the compressed block most recently read, without decompressing it.
+     * @return A read-only view of the compressed block, prepared for reading.
+     */
+    public ByteBuffer getCompressedBlock() {
+        return inputBuffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Releases the native resources held by the inflater.  The decoder can't be used after this call.
+     */
+    public void close() {
+        inflater.end();
+    }
+
+    private int unpackUByte8(final ByteBuffer buffer,final int position) {
+        return buffer.get(position) & 0xFF;
+    }
+
+    private int unpackUInt16(final ByteBuffer buffer,final int position) {
+        // Read out the size of the full BGZF block into a two bit short container, then 'or' that
+        // value into an int buffer to transfer the bitwise contents into an int.
+        return buffer.getShort(position) & 0xFFFF;
+    }
+}
@@ -26,18 +26,60 @@
 package org.broadinstitute.sting.gatk.datasources.reads;
 
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.exceptions.UserException;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
 
 /**
  * Preloads BGZF blocks in preparation for unzipping and data processing.
+ *
+ * Block requests from any number of BlockInputStreams are placed on a bounded queue and serviced by a pool of
+ * block loaders.  Each stream may additionally read ahead a configurable number of blocks, which are read and
+ * inflated in the background by a separate decoding pool.  Decoders (direct read buffers plus inflaters) are pooled and
+ * reused rather than allocated per block.  The depth of read-ahead defaults to DEFAULT_READ_AHEAD_DEPTH and can
+ * be overridden for an individual file by tagging it on the command line, e.g. -I:readAheadDepth=16 file.bam.
+ *
  * TODO: Right now, the block loader has all threads blocked waiting for a work request.  Ultimately this should
  * TODO: be replaced with a central thread management strategy.
  */
 public class BGZFBlockLoadingDispatcher {
+    /**
+     * The tag used to override the read-ahead depth of a single input file.
+     */
+    public static final String READ_AHEAD_DEPTH_TAG = "readAheadDepth";
+
+    /**
+     * Number of blocks each input stream reads ahead, unless overridden.
+     */
+    public static final int DEFAULT_READ_AHEAD_DEPTH = 4;
+
+    /**
+     * Maximum number of block requests outstanding at once.  Each BlockInputStream has at most one request
+     * outstanding, so this bounds the number of streams serviced concurrently.
+     */
+    private static final int MAX_QUEUED_REQUESTS = 1024;
+
+    /**
+     * Maximum number of decoders shared among all streams for read-ahead.  Bounds the memory devoted to read-ahead.
+     */
+    static final int MAX_READ_AHEAD_DECODERS = 64;
+
     /**
      * The file handle cache, used when allocating blocks from the dispatcher.
      */
@@ -45,42 +87,229 @@ public class BGZFBlockLoadingDispatcher {
 
     private final ExecutorService threadPool;
 
-    private final Queue<BAMAccessPlan> inputQueue;
+    /**
+     * Inflates blocks that have been read ahead.
+     */
+    private final ExecutorService decodingPool;
+
+    private final BlockingQueue<BAMAccessPlan> inputQueue;
+
+    /**
+     * Decoders available for read-ahead.
+     */
+    private final ConcurrentLinkedQueue<BGZFBlockDecoder> spareDecoders = new ConcurrentLinkedQueue<BGZFBlockDecoder>();
+
+    /**
+     * How many read-ahead decoders have been allocated so far.
+     */
+    private final AtomicInteger numReadAheadDecoders = new AtomicInteger(0);
+
+    /**
+     * Read-ahead depth for files not tagged with an explicit depth.
+     */
+    private final int defaultReadAheadDepth;
+
+    /**
+     * Throughput counters for each file.
+     */
+    private final ConcurrentMap<SAMReaderID,BGZFBlockLoadingStatistics> statistics = new ConcurrentHashMap<SAMReaderID,BGZFBlockLoadingStatistics>();
 
     public BGZFBlockLoadingDispatcher(final int numThreads, final int numFileHandles) {
+        this(numThreads,numFileHandles,DEFAULT_READ_AHEAD_DEPTH);
+    }
+
+    /**
+     * Create a new dispatcher.
+     * @param numThreads Number of threads loading blocks, and number of threads reading ahead and inflating blocks read ahead.
+     * @param numFileHandles Number of file handles to hold open at once.
+     * @param defaultReadAheadDepth Number of blocks to read ahead for files without an explicit depth.  0 disables read-ahead.
+     */
+    public BGZFBlockLoadingDispatcher(final int numThreads, final int numFileHandles, final int defaultReadAheadDepth) {
+        if(numThreads < 1)
+            throw new IllegalArgumentException("numThreads must be at least 1, but got " + numThreads);
+        if(defaultReadAheadDepth < 0)
+            throw new IllegalArgumentException("defaultReadAheadDepth cannot be negative, but got " + defaultReadAheadDepth);
+
+        this.defaultReadAheadDepth = defaultReadAheadDepth;
+
         threadPool = Executors.newFixedThreadPool(numThreads);
+        decodingPool = Executors.newFixedThreadPool(numThreads);
         fileHandleCache = new FileHandleCache(numFileHandles);
-        inputQueue = new LinkedList<BAMAccessPlan>();
+        inputQueue = new ArrayBlockingQueue<BAMAccessPlan>(MAX_QUEUED_REQUESTS);
 
-        threadPool.execute(new BlockLoader(this,fileHandleCache,true));
+        for(int i = 0; i < numThreads; i++)
+            threadPool.execute(new BlockLoader(this,fileHandleCache,true));
     }
 
     /**
-     * Initiates a request for a new block load.
+     * Initiates a request for a new block load.  Blocks if too many requests are already outstanding.
       * @param readerPosition Position at which to load.
      */
     void queueBlockLoad(final BAMAccessPlan readerPosition) {
-        synchronized(inputQueue) {
-            inputQueue.add(readerPosition);
-            inputQueue.notify();
+        try {
+            inputQueue.put(readerPosition);
+        }
+        catch(InterruptedException ex) {
+            throw new ReviewedStingException("Interrupt occurred queueing block reader work item",ex);
         }
     }
 
     /**
      * Claims the next work request from the queue.
-     * @return The next work request, or null if none is available.
+     * @return The next work request, or null if the dispatcher is shutting down.
      */
     BAMAccessPlan claimNextWorkRequest() {
-        synchronized(inputQueue) {
-            while(inputQueue.isEmpty()) {
+        try {
+            return inputQueue.take();
+        }
+        catch(InterruptedException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops all block loading threads.  Any streams still waiting for data will not receive it.
+     */
+    public void shutdown() {
+        threadPool.shutdownNow();
+        decodingPool.shutdownNow();
+        BGZFBlockDecoder decoder;
+        while((decoder = spareDecoders.poll()) != null)
+            decoder.close();
+    }
+
+    /**
+     * Creates the read-ahead state for a new input stream.
+     * @param reader The file to be read.
+     * @return Read-ahead state for the stream, or null if read-ahead is disabled for this file.
+     */
+    BlockReadAhead createReadAhead(final SAMReaderID reader) {
+        final int depth = getReadAheadDepth(reader);
+        return depth > 0 ? new BlockReadAhead(this,reader,depth) : null;
+    }
+
+    /**
+     * Determines how many blocks to read ahead for the given file.
+     * @param reader The file.
+     * @return The depth given by the file's readAheadDepth tag, if present, or the default depth otherwise.
+     */
+    int getReadAheadDepth(final SAMReaderID reader) {
+        if(reader.getTags() == null || !reader.getTags().containsKey(READ_AHEAD_DEPTH_TAG))
+            return defaultReadAheadDepth;
+
+        final String value = reader.getTags().getValue(READ_AHEAD_DEPTH_TAG);
+        try {
+            final int depth = Integer.parseInt(value);
+            if(depth < 0)
+                throw new UserException.BadArgumentValue(READ_AHEAD_DEPTH_TAG,String.format("read-ahead depth for %s cannot be negative: %s",reader.getSamFilePath(),value));
+            return depth;
+        }
+        catch(NumberFormatException ex) {
+            throw new UserException.BadArgumentValue(READ_AHEAD_DEPTH_TAG,String.format("read-ahead depth for %s is not an integer: %s",reader.getSamFilePath(),value));
+        }
+    }
+
+    /**
+     * Gets the throughput counters for the given file, creating them if necessary.
+     * @param reader The file.
+     * @return Throughput counters for that file.
+     */
+    public BGZFBlockLoadingStatistics getStatistics(final SAMReaderID reader) {
+        BGZFBlockLoadingStatistics readerStatistics = statistics.get(reader);
+        if(readerStatistics == null) {
+            statistics.putIfAbsent(reader,new BGZFBlockLoadingStatistics(reader));
+            readerStatistics = statistics.get(reader);
+        }
+        return readerStatistics;
+    }
+
+    /**
+     * Gets the throughput counters for every file loaded so far.
+     * @return Throughput counters for all files.
+     */
+    public Collection<BGZFBlockLoadingStatistics> getAllStatistics() {
+        return Collections.unmodifiableCollection(new ArrayList<BGZFBlockLoadingStatistics>(statistics.values()));
+    }
+
+    /**
+     * Reads the block at the given address into the decoder, updating the file's throughput counters.
+     * @param reader File from which to read.
+     * @param decoder Decoder into which to read the block.
+     * @param blockAddress Address of the block.
+     * @throws IOException if the block can't be read.
+     */
+    void readBlock(final SAMReaderID reader, final BGZFBlockDecoder decoder, final long blockAddress) throws IOException {
+        final long startTime = System.nanoTime();
+        FileInputStream inputStream = fileHandleCache.claimFileInputStream(reader);
+        try {
+            decoder.readBlock(inputStream,blockAddress);
+        }
+        finally {
+            fileHandleCache.releaseFileInputStream(reader,inputStream);
+        }
+        getStatistics(reader).blockRead(decoder.getCompressedSize(),System.nanoTime()-startTime);
+    }
+
+    /**
+     * Inflates the block currently held by the decoder, updating the file's throughput counters.
+     * @param reader File from which the block was read.
+     * @param decoder Decoder holding the block.
+     * @return The inflated block.
+     * @throws DataFormatException if the block is corrupt.
+     */
+    ByteBuffer inflateBlock(final SAMReaderID reader, final BGZFBlockDecoder decoder) throws DataFormatException {
+        final long startTime = System.nanoTime();
+        final ByteBuffer block = decoder.decompress();
+        getStatistics(reader).blockInflated(block.remaining(),System.nanoTime()-startTime);
+        return block;
+    }
+
+    /**
+     * Runs a read-ahead task on the decoding pool, so that speculative reads never hold up a block loader.
+     * @param task Task reading ahead on behalf of a single stream.
+     */
+    void submitReadAhead(final Runnable task) {
+        decodingPool.execute(task);
+    }
+
+    /**
+     * Inflates the block currently held by a spare decoder in the background, returning the decoder to the pool when done.
+     * @param reader File from which the block was read.
+     * @param decoder Spare decoder holding the block.
+     * @return The eventual inflated block.
+     */
+    Future<BlockReadAhead.LoadedBlock> submitInflate(final SAMReaderID reader, final BGZFBlockDecoder decoder) {
+        return decodingPool.submit(new Callable<BlockReadAhead.LoadedBlock>() {
+            public BlockReadAhead.LoadedBlock call() throws Exception {
                 try {
-                    inputQueue.wait();
+                    final long nextBlockAddress = decoder.getNextBlockAddress();
+                    return new BlockReadAhead.LoadedBlock(inflateBlock(reader,decoder),nextBlockAddress);
                 }
-                catch(InterruptedException ex) {
-                    throw new ReviewedStingException("Interrupt occurred waiting for next block reader work item");
+                finally {
+                    releaseSpareDecoder(decoder);
                 }
             }
-            return inputQueue.poll();
-        }
+        });
+    }
+
+    /**
+     * Claims a decoder for read-ahead, allocating one if the pool hasn't yet reached its maximum size.
+     * @return A decoder, or null if all read-ahead decoders are in use.
+     */
+    BGZFBlockDecoder claimSpareDecoder() {
+        BGZFBlockDecoder decoder = spareDecoders.poll();
+        if(decoder == null && numReadAheadDecoders.incrementAndGet() <= MAX_READ_AHEAD_DECODERS)
+            decoder = new BGZFBlockDecoder();
+        else if(decoder == null)
+            numReadAheadDecoders.decrementAndGet();
+        return decoder;
+    }
+
+    /**
+     * Returns a read-ahead decoder to the pool.
+     * @param decoder The decoder.
+     */
+    void releaseSpareDecoder(final BGZFBlockDecoder decoder) {
+        spareDecoders.offer(decoder);
     }
 }
@@ -0,0 +1,147 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput counters for the asynchronous BGZF block loader, kept per input file.  Counters are
+ * updated concurrently by the loading and decoding threads and can be sampled at any time.
+ */
+public class BGZFBlockLoadingStatistics {
+    private final SAMReaderID reader;
+
+    private final AtomicLong blocksLoaded = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong inflateNanos = new AtomicLong();
+    private final AtomicLong readAheadHits = new AtomicLong();
+    private final AtomicLong readAheadMisses = new AtomicLong();
+
+    BGZFBlockLoadingStatistics(final SAMReaderID reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Records the cost of reading a single compressed block from disk.
+     * @param compressedSize Size of the block on disk.
+     * @param readTime Nanoseconds spent reading the block.
+     */
+    void blockRead(final int compressedSize, final long readTime) {
+        compressedBytes.addAndGet(compressedSize);
+        readNanos.addAndGet(readTime);
+    }
+
+    /**
+     * Records the cost of inflating a single block.
+     * @param uncompressedSize Size of the block once inflated.
+     * @param inflateTime Nanoseconds spent inflating the block.
+     */
+    void blockInflated(final int uncompressedSize, final long inflateTime) {
+        blocksLoaded.incrementAndGet();
+        uncompressedBytes.addAndGet(uncompressedSize);
+        inflateNanos.addAndGet(inflateTime);
+    }
+
+    void readAheadHit() {
+        readAheadHits.incrementAndGet();
+    }
+
+    void readAheadMiss() {
+        readAheadMisses.incrementAndGet();
+    }
+
+    public SAMReaderID getReader() {
+        return reader;
+    }
+
+    public long getBlocksLoaded() {
+        return blocksLoaded.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    public long getReadNanos() {
+        return readNanos.get();
+    }
+
+    public long getInflateNanos() {
+        return inflateNanos.get();
+    }
+
+    /**
+     * How many block requests were satisfied by a block that had already been read ahead.
+     * @return Number of read-ahead hits.
+     */
+    public long getReadAheadHits() {
+        return readAheadHits.get();
+    }
+
+    /**
+     * How many block requests had to be loaded on demand because read-ahead hadn't reached them.
+     * @return Number of read-ahead misses.
+     */
+    public long getReadAheadMisses() {
+        return readAheadMisses.get();
+    }
+
+    /**
+     * Compressed throughput of the disk reads for this file.
+     * @return Megabytes of compressed data read per second spent reading, or 0 if nothing has been read.
+     */
+    public double getReadMegabytesPerSecond() {
+        return megabytesPerSecond(getCompressedBytes(),getReadNanos());
+    }
+
+    /**
+     * Uncompressed throughput of the inflater for this file.
+     * @return Megabytes of uncompressed data produced per second spent inflating, or 0 if nothing has been inflated.
+     */
+    public double getInflateMegabytesPerSecond() {
+        return megabytesPerSecond(getUncompressedBytes(),getInflateNanos());
+    }
+
+    private static double megabytesPerSecond(final long bytes, final long nanos) {
+        if(nanos <= 0)
+            return 0.0;
+        return (bytes / (1024.0*1024.0)) / ((double)nanos / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d blocks, %d compressed bytes read at %.1f MB/s, %d bytes inflated at %.1f MB/s, read-ahead hits/misses %d/%d",
+                reader.getSamFilePath(),getBlocksLoaded(),getCompressedBytes(),getReadMegabytesPerSecond(),
+                getUncompressedBytes(),getInflateMegabytesPerSecond(),getReadAheadHits(),getReadAheadMisses());
+    }
+}
@@ -47,6 +47,11 @@ public class BlockInputStream extends InputStream {
      */
     private final BGZFBlockLoadingDispatcher dispatcher;
 
+    /**
+     * Blocks read ahead on behalf of this stream, or null if read-ahead is disabled.
+     */
+    private final BlockReadAhead readAhead;
+
     /**
      * The reader whose data is supplied by this input stream.
      */
@@ -110,6 +115,7 @@ public class BlockInputStream extends InputStream {
         buffer.limit(0);
 
         this.dispatcher = dispatcher;
+        this.readAhead = dispatcher.createReadAhead(reader);
         // TODO: Kill the region when all we want to do is start at the beginning of the stream and run to the end of the stream.
         this.accessPlan = new BAMAccessPlan(reader,this,new GATKBAMFileSpan(new GATKChunk(0,Long.MAX_VALUE)));
 
@@ -139,6 +145,14 @@ public class BlockInputStream extends InputStream {
         return length;
     }
 
+    /**
+     * Gets the blocks read ahead on behalf of this stream.
+     * @return Read-ahead state, or null if read-ahead is disabled for this stream.
+     */
+    BlockReadAhead getReadAhead() {
+        return readAhead;
+    }
+
     public long getFilePointer() {
         long filePointer;
         synchronized(lock) {
@@ -0,0 +1,264 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Tracks the blocks that have been read ahead on behalf of a single BlockInputStream.  Blocks are read
+ * sequentially from the end of the last block delivered to the stream, up to a fixed depth and never past
+ * the end of the chunk currently being read.  Both the reads and the inflation happen in the background on the
+ * dispatcher's decoding pool, so the loader servicing the stream never waits on speculative I/O.  If the stream
+ * asks for a block other than the next one read ahead (e.g. because a new access plan was submitted), everything
+ * read ahead is discarded.
+ */
+class BlockReadAhead {
+    /**
+     * The dispatcher responsible for reading and inflating blocks.
+     */
+    private final BGZFBlockLoadingDispatcher dispatcher;
+
+    /**
+     * The file being read.
+     */
+    private final SAMReaderID reader;
+
+    /**
+     * Length of the file, past which no blocks will be read.
+     */
+    private final long length;
+
+    /**
+     * Maximum number of blocks to hold ahead of the stream.
+     */
+    private final int depth;
+
+    /**
+     * Blocks read ahead, keyed and ordered by block address.
+     */
+    private final LinkedHashMap<Long,Future<LoadedBlock>> pendingBlocks = new LinkedHashMap<Long,Future<LoadedBlock>>();
+
+    /**
+     * Address of the next block to read ahead, or -1 if read-ahead has not yet been anchored to a position in the file.
+     */
+    private long nextReadAheadAddress = -1;
+
+    /**
+     * Address of the last block the current access plan is known to need.
+     */
+    private long readAheadLimit = -1;
+
+    /**
+     * Incremented on every discard, so that a background read started before the discard can tell its block is stale.
+     */
+    private int generation = 0;
+
+    /**
+     * Whether a background task is currently reading ahead for this stream.
+     */
+    private boolean filling = false;
+
+    /**
+     * Address of the block being read by the background task, or -1 if none.
+     */
+    private long inFlightAddress = -1;
+
+    BlockReadAhead(final BGZFBlockLoadingDispatcher dispatcher, final SAMReaderID reader, final int depth) {
+        this.dispatcher = dispatcher;
+        this.reader = reader;
+        this.length = reader.samFile.length();
+        this.depth = depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Whether a background task is still reading ahead for this stream.
+     * @return true if blocks are still being read ahead.
+     */
+    synchronized boolean isFilling() {
+        return filling;
+    }
+
+    /**
+     * Claims the block at the given address, waiting for it to finish inflating if necessary.
+     * @param blockAddress Address of the block requested by the stream.
+     * @return The block, or null if the block hadn't been read ahead.
+     * @throws IOException if the block was read ahead but could not be loaded.
+     */
+    LoadedBlock claim(final long blockAddress) throws IOException {
+        Future<LoadedBlock> pendingBlock;
+        synchronized(this) {
+            // If the block is being read right now, it's cheaper to wait for it than to read it again.
+            while(pendingBlocks.isEmpty() && inFlightAddress == blockAddress) {
+                try {
+                    wait();
+                }
+                catch(InterruptedException ex) {
+                    throw new ReviewedStingException("Interrupted while waiting for a block to be read ahead",ex);
+                }
+            }
+
+            Iterator<Map.Entry<Long,Future<LoadedBlock>>> iterator = pendingBlocks.entrySet().iterator();
+            if(!iterator.hasNext() || iterator.next().getKey() != blockAddress) {
+                discard();
+                return null;
+            }
+            pendingBlock = pendingBlocks.remove(blockAddress);
+        }
+
+        try {
+            return pendingBlock.get();
+        }
+        catch(InterruptedException ex) {
+            throw new ReviewedStingException("Interrupted while waiting for a block to be read ahead",ex);
+        }
+        catch(ExecutionException ex) {
+            if(ex.getCause() instanceof IOException)
+                throw (IOException)ex.getCause();
+            throw new ReviewedStingException("Unable to read ahead block at position " + blockAddress,ex.getCause());
+        }
+    }
+
+    /**
+     * Starts reading ahead as many blocks as the depth, the spare decoders, and the current chunk allow.  Returns
+     * immediately; the blocks are read and inflated on the dispatcher's decoding pool.
+     * @param nextBlockAddress Address following the block most recently delivered to the stream.
+     * @param readAheadLimit Address of the last block that the current access plan is known to need.
+     */
+    synchronized void fill(final long nextBlockAddress, final long readAheadLimit) {
+        if(nextReadAheadAddress < 0)
+            nextReadAheadAddress = nextBlockAddress;
+        this.readAheadLimit = readAheadLimit;
+
+        if(!filling && canReadAhead()) {
+            filling = true;
+            dispatcher.submitReadAhead(new Runnable() {
+                public void run() {
+                    readAhead();
+                }
+            });
+        }
+    }
+
+    /**
+     * Forgets all blocks read ahead.  Blocks still being read or inflated will finish and return their decoders to the pool.
+     */
+    synchronized void discard() {
+        pendingBlocks.clear();
+        nextReadAheadAddress = -1;
+        generation++;
+    }
+
+    /**
+     * Whether there's room for, and need of, another block.  Must be called holding the lock on this.
+     */
+    private boolean canReadAhead() {
+        return pendingBlocks.size() < depth && nextReadAheadAddress >= 0 && nextReadAheadAddress <= readAheadLimit && nextReadAheadAddress < length;
+    }
+
+    /**
+     * Reads blocks one after another until there's no more room or need for them, handing each off to be inflated.
+     * Runs on the decoding pool; at most one such task runs per stream at a time.
+     */
+    private void readAhead() {
+        for(;;) {
+            final BGZFBlockDecoder decoder;
+            final long blockAddress;
+            final int blockGeneration;
+            synchronized(this) {
+                decoder = canReadAhead() ? dispatcher.claimSpareDecoder() : null;
+                if(decoder == null) {
+                    filling = false;
+                    return;
+                }
+                blockAddress = nextReadAheadAddress;
+                blockGeneration = generation;
+                inFlightAddress = blockAddress;
+            }
+
+            boolean submitted = false;
+            try {
+                dispatcher.readBlock(reader,decoder,blockAddress);
+                synchronized(this) {
+                    if(blockGeneration == generation) {
+                        // Note the position of the following block before handing off the decoder; once submitted,
+                        // the decoder may be returned to the pool and reused at any time.
+                        nextReadAheadAddress = decoder.getNextBlockAddress();
+                        pendingBlocks.put(blockAddress,dispatcher.submitInflate(reader,decoder));
+                        submitted = true;
+                    }
+                }
+            }
+            catch(Throwable error) {
+                // Read-ahead is speculative; stop here and let the on-demand load report any real problem with the file.
+                synchronized(this) {
+                    if(blockGeneration == generation)
+                        nextReadAheadAddress = -1;
+                }
+            }
+            finally {
+                if(!submitted)
+                    dispatcher.releaseSpareDecoder(decoder);
+                synchronized(this) {
+                    inFlightAddress = -1;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * An inflated block, along with the address of the block that follows it.
+     */
+    static class LoadedBlock {
+        private final ByteBuffer data;
+        private final long nextBlockAddress;
+
+        LoadedBlock(final ByteBuffer data, final long nextBlockAddress) {
+            this.data = data;
+            this.nextBlockAddress = nextBlockAddress;
+        }
+
+        public ByteBuffer getData() {
+            return data;
+        }
+
+        public long getNextBlockAddress() {
+            return nextBlockAddress;
+        }
+    }
+}
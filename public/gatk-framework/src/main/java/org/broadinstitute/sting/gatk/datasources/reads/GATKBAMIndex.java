@@ -35,9 +35,11 @@ import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -89,8 +91,29 @@ public class GATKBAMIndex {
     private SeekableBufferedStream bufferedStream;
     private long fileLength;
 
+    /**
+     * Whether to memory-map the index rather than reading it through a buffered stream.
+     */
+    private final boolean memoryMap;
+
+    /**
+     * Read-only mapping of the entire index, created on first use when memory-mapping is enabled.
+     * Unlike the streams above, the mapping is kept for the lifetime of this object.
+     */
+    private ByteBuffer mappedIndex;
+
     public GATKBAMIndex(final File file) {
+        this(file,false);
+    }
+
+    /**
+     * Create a new index reader.
+     * @param file The BAM index file.
+     * @param memoryMap if true, map the index read-only into memory instead of reading it through a buffered stream.
+     */
+    public GATKBAMIndex(final File file, final boolean memoryMap) {
         mFile = file;
+        this.memoryMap = memoryMap && file.length() <= Integer.MAX_VALUE;
         // Open the file stream.
         openIndexFile();
 
@@ -306,6 +329,14 @@ public class GATKBAMIndex {
 
 
     private void openIndexFile() {
+        if(memoryMap) {
+            if(mappedIndex == null)
+                mappedIndex = mapIndexFile();
+            mappedIndex.clear();
+            fileLength = mappedIndex.limit();
+            return;
+        }
+
         try {
             fileStream = new SeekableFileStream(mFile);
             bufferedStream = new SeekableBufferedStream(fileStream,BUFFERED_STREAM_BUFFER_SIZE);
@@ -316,7 +347,34 @@ public class GATKBAMIndex {
         }
     }
 
+    /**
+     * Maps the index file read-only into memory.  The mapping remains valid after the channel is closed.
+     * @return Little-endian buffer over the entire index.
+     */
+    private ByteBuffer mapIndexFile() {
+        try {
+            final FileInputStream inputStream = new FileInputStream(mFile);
+            try {
+                final FileChannel channel = inputStream.getChannel();
+                final ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+                mapping.order(ByteOrder.LITTLE_ENDIAN);
+                return mapping;
+            }
+            finally {
+                inputStream.close();
+            }
+        }
+        catch (IOException exc) {
+            throw new ReviewedStingException("Unable to memory-map index file (" + exc.getMessage() +")" + mFile, exc);
+        }
+    }
+
     private void closeIndexFile() {
+        if(memoryMap) {
+            fileLength = -1;
+            return;
+        }
+
         try {
             bufferedStream.close();
             fileStream.close();
@@ -364,6 +422,19 @@ public class GATKBAMIndex {
     private void read(final ByteBuffer buffer) {
         final int bytesRequested = buffer.limit();
 
+        if(memoryMap) {
+            if(bytesRequested > mappedIndex.remaining())
+                throw new UserException.MalformedFile(mFile, String.format("Premature end-of-file while reading BAM index file %s. " +
+                        "It's likely that this file is truncated or corrupt -- " +
+                        "Please try re-indexing the corresponding BAM file.",
+                        mFile));
+            final ByteBuffer source = mappedIndex.slice();
+            source.limit(bytesRequested);
+            buffer.put(source);
+            mappedIndex.position(mappedIndex.position()+bytesRequested);
+            return;
+        }
+
         try {
 
            //BufferedInputStream cannot read directly into a byte buffer, so we read into an array
@@ -429,6 +500,13 @@ public class GATKBAMIndex {
     }
 
     private void skipBytes(final int count) {
+        if(memoryMap) {
+            if(count > mappedIndex.remaining())
+                throw new ReviewedStingException("Index: unable to reposition file channel of index file " + mFile);
+            mappedIndex.position(mappedIndex.position()+count);
+            return;
+        }
+
         try {
 
             //try to skip forward the requested amount.
@@ -444,6 +522,13 @@ public class GATKBAMIndex {
     }
 
     private void seek(final long position) {
+        if(memoryMap) {
+            if(position > mappedIndex.limit())
+                throw new ReviewedStingException("Index: unable to reposition of file channel of index file " + mFile);
+            mappedIndex.position((int)position);
+            return;
+        }
+
         try {
             //to seek a new position, move the fileChannel, and reposition the bufferedStream
             bufferedStream.seek(position);
@@ -458,6 +543,9 @@ public class GATKBAMIndex {
      * @return position of the current file channel.
      */
     private long position() {
+        if(memoryMap)
+            return mappedIndex.position();
+
         try {
             return bufferedStream.position();
         }
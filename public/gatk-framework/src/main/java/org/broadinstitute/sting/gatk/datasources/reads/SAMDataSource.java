@@ -154,6 +154,11 @@ public class SAMDataSource {
      */
     private final ThreadAllocation threadAllocation;
 
+    /**
+     * Megabytes of memory each contig's BAM schedule may occupy before spilling to disk.
+     */
+    private final int bamScheduleMemoryBudget;
+
     /**
      * Create a new SAM data source given the supplied read metadata.
      *
@@ -211,6 +216,46 @@ public class SAMDataSource {
                 null);
     }
 
+    /**
+     * See complete constructor.  Reads BAM indices through a stream and uses the default BAM schedule memory budget.
+     */
+    public SAMDataSource(
+            Collection<SAMReaderID> samFiles,
+            ThreadAllocation threadAllocation,
+            Integer numFileHandles,
+            GenomeLocParser genomeLocParser,
+            boolean useOriginalBaseQualities,
+            SAMFileReader.ValidationStringency strictness,
+            Integer readBufferSize,
+            DownsamplingMethod downsamplingMethod,
+            ValidationExclusion exclusionList,
+            Collection<ReadFilter> supplementalFilters,
+            List<ReadTransformer> readTransformers,
+            boolean includeReadsWithDeletionAtLoci,
+            byte defaultBaseQualities,
+            boolean removeProgramRecords,
+            final boolean keepReadsInLIBS,
+            final Map<SAMReaderID, String> sampleRenameMap) {
+        this(   samFiles,
+                threadAllocation,
+                numFileHandles,
+                genomeLocParser,
+                useOriginalBaseQualities,
+                strictness,
+                readBufferSize,
+                downsamplingMethod,
+                exclusionList,
+                supplementalFilters,
+                readTransformers,
+                includeReadsWithDeletionAtLoci,
+                defaultBaseQualities,
+                removeProgramRecords,
+                keepReadsInLIBS,
+                sampleRenameMap,
+                false,
+                BAMSchedule.DEFAULT_MEMORY_BUDGET_MB);
+    }
+
     /**
      * Create a new SAM data source given the supplied read metadata.
      * @param samFiles list of reads files.
@@ -227,6 +272,8 @@ public class SAMDataSource {
      * @param keepReadsInLIBS should we keep a unique list of reads in LIBS?
      * @param sampleRenameMap Map of BAM file to new sample ID used during on-the-fly runtime sample renaming.
      *                        Will be null if we're not doing sample renaming.
+     * @param memoryMapIndices if true, BAM indices are memory-mapped rather than read through a buffered stream.
+     * @param bamScheduleMemoryBudget megabytes of memory each contig's BAM schedule may occupy before spilling to disk.
      */
     public SAMDataSource(
             Collection<SAMReaderID> samFiles,
@@ -244,10 +291,13 @@ public class SAMDataSource {
             byte defaultBaseQualities,
             boolean removeProgramRecords,
             final boolean keepReadsInLIBS,
-            final Map<SAMReaderID, String> sampleRenameMap) {
+            final Map<SAMReaderID, String> sampleRenameMap,
+            final boolean memoryMapIndices,
+            final int bamScheduleMemoryBudget) {
 
         this.readMetrics = new ReadMetrics();
         this.genomeLocParser = genomeLocParser;
+        this.bamScheduleMemoryBudget = bamScheduleMemoryBudget;
 
         readerIDs = samFiles;
 
@@ -345,7 +395,7 @@ public class SAMDataSource {
         for(SAMReaderID id: readerIDs) {
             File indexFile = findIndexFile(id.samFile);
             if(indexFile != null)
-                bamIndices.put(id,new GATKBAMIndex(indexFile));
+                bamIndices.put(id,new GATKBAMIndex(indexFile,memoryMapIndices));
         }
 
         resourcePool.releaseReaders(readers);
@@ -367,6 +417,20 @@ public class SAMDataSource {
             SAMFileReader reader = readers.getReader(readerID);
             reader.close();
         }
+
+        if(dispatcher != null) {
+            for(BGZFBlockLoadingStatistics statistics: dispatcher.getAllStatistics())
+                logger.debug("Asynchronous I/O throughput for " + statistics);
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Gets the per-file throughput counters of the asynchronous BGZF block loader.
+     * @return Throughput counters for each file read so far, or an empty collection if asynchronous I/O is disabled.
+     */
+    public Collection<BGZFBlockLoadingStatistics> getBlockLoadingStatistics() {
+        return dispatcher != null ? dispatcher.getAllStatistics() : Collections.<BGZFBlockLoadingStatistics>emptyList();
     }
 
     /**
@@ -459,6 +523,14 @@ public class SAMDataSource {
         return bamIndices.get(id);
     }
 
+    /**
+     * Gets the amount of memory each contig's BAM schedule may occupy before spilling to disk.
+     * @return Memory budget for BAM schedules, in megabytes.
+     */
+    public int getBAMScheduleMemoryBudget() {
+        return bamScheduleMemoryBudget;
+    }
+
     /**
      * Retrieves the sort order of the readers.
      * @return Sort order.  Can be unsorted, coordinate order, or query name order.
@@ -35,6 +35,7 @@ import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.GenomeLocSortedSet;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.broadinstitute.sting.utils.fasta.PackedReferenceSequenceFile;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -56,6 +57,16 @@ public class ReferenceDataSource {
      * @param fastaFile Fasta file to be used as reference
      */
     public ReferenceDataSource(File fastaFile) {
+        this(fastaFile, false);
+    }
+
+    /**
+     * Create reference data source from fasta file
+     * @param fastaFile Fasta file to be used as reference
+     * @param usePackedReference If true, read the reference through a memory-mapped, 2-bit packed copy of the fasta
+     *                           shared by all threads, rather than caching it per thread.  See PackedReferenceSequenceFile.
+     */
+    public ReferenceDataSource(File fastaFile, boolean usePackedReference) {
         // does the fasta file exist? check that first...
         if (!fastaFile.exists())
             throw new UserException("The fasta file you specified (" + fastaFile.getAbsolutePath() + ") does not exist.");
@@ -82,7 +93,7 @@ public class ReferenceDataSource {
 
         // Read reference data by creating an IndexedFastaSequenceFile.
         try {
-            reference = new CachingIndexedFastaSequenceFile(fastaFile);
+            reference = usePackedReference ? new PackedReferenceSequenceFile(fastaFile) : new CachingIndexedFastaSequenceFile(fastaFile);
         }
         catch (IllegalArgumentException e) {
             throw new UserException.CouldNotReadInputFile(fastaFile, "Could not read reference sequence.  The FASTA must have either a .fasta or .fa extension", e);
@@ -0,0 +1,357 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.rmd;
+
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+import org.broadinstitute.sting.gatk.refdata.tracks.RMDTrack;
+import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.variant.variantcontext.Allele;
+import org.broadinstitute.variant.variantcontext.VariantContext;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of decoded reference-ordered features, shared by all the ROD data sources of one engine.
+ *
+ * Neighbouring shards, and every thread working on them, query the same tracks over nearby and often
+ * overlapping intervals, and each query re-seeks and re-decodes the same blocks of the file.  This cache splits
+ * the genome into fixed-size bins and keeps, per track and bin, the list of features overlapping that bin.
+ * A query over a handful of bins is then answered from the cache, reading only the bins that are missing.
+ *
+ * The cache is weighted by an estimate of the heap used by the features it holds, and evicts the least recently
+ * used bins once the total goes over its capacity.  Hits, misses and evictions are counted for reporting.
+ *
+ * Cached features are handed to several threads at once, and records with genotypes decode them lazily on first
+ * access, which isn't thread-safe.  Decoding them up front would defeat lazy decoding and cost far more memory
+ * than the sites themselves, so bins containing any variant with genotypes are passed through uncached.
+ */
+public class RODFeatureCache {
+    /**
+     * Size of each bin, in bases
+     */
+    public static final int DEFAULT_BIN_SIZE = 16 * 1024;
+
+    /**
+     * Queries spanning more bins than this go straight to the track, as they'd mostly flush the cache for
+     * data that's read only once anyway.
+     */
+    protected static final int MAX_BINS_PER_QUERY = 64;
+
+    private final GenomeLocParser genomeLocParser;
+    private final int binSize;
+    private final long maxBytes;
+
+    /**
+     * Cached bins, in access order.  Guarded by itself.
+     */
+    private final LinkedHashMap<BinKey, CachedBin> bins = new LinkedHashMap<BinKey, CachedBin>(1024, 0.75f, true);
+    private long nCachedBytes = 0;
+    private long nCachedFeatures = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong uncachedBins = new AtomicLong();
+
+    /**
+     * Create a new cache holding up to about maxBytes of features
+     * @param genomeLocParser parser used to build bin intervals
+     * @param maxBytes capacity of the cache, in estimated bytes of heap.  Must be > 0
+     */
+    public RODFeatureCache(final GenomeLocParser genomeLocParser, final long maxBytes) {
+        this(genomeLocParser, maxBytes, DEFAULT_BIN_SIZE);
+    }
+
+    protected RODFeatureCache(final GenomeLocParser genomeLocParser, final long maxBytes, final int binSize) {
+        if ( genomeLocParser == null ) throw new IllegalArgumentException("genomeLocParser cannot be null");
+        if ( maxBytes <= 0 ) throw new IllegalArgumentException("maxBytes must be > 0 but got " + maxBytes);
+        if ( binSize <= 0 ) throw new IllegalArgumentException("binSize must be > 0 but got " + binSize);
+        this.genomeLocParser = genomeLocParser;
+        this.maxBytes = maxBytes;
+        this.binSize = binSize;
+    }
+
+    /**
+     * Get the features of track overlapping interval, in the order the track would return them.
+     *
+     * @param trackKey a key unique to the track within this cache
+     * @param track the track to read missing bins from.  Must not be in use by any other thread.
+     * @param interval the interval to query
+     * @return an iterator over the overlapping features
+     * @throws IOException if the track can't be queried
+     */
+    public CloseableIterator<GATKFeature> query(final String trackKey, final RMDTrack track, final GenomeLoc interval) throws IOException {
+        final int firstBin = (interval.getStart() - 1) / binSize;
+        final int lastBin = (interval.getStop() - 1) / binSize;
+        if ( lastBin - firstBin + 1 > MAX_BINS_PER_QUERY || interval.getContigIndex() < 0 )
+            return track.query(interval);
+
+        final List<GATKFeature> features = new ArrayList<GATKFeature>();
+        for ( int bin = firstBin; bin <= lastBin; bin++ ) {
+            final int binStart = bin * binSize + 1;
+            for ( final GATKFeature feature : getBin(trackKey, track, interval, bin) ) {
+                // features spanning several bins are listed in each of them; take each from the first bin it's seen in
+                if ( bin > firstBin && feature.getStart() < binStart )
+                    continue;
+                if ( feature.getStart() > interval.getStop() )
+                    break;
+                if ( feature.getEnd() >= interval.getStart() )
+                    features.add(feature);
+            }
+        }
+
+        return new ListFeatureIterator(features);
+    }
+
+    /**
+     * Get the features of the given bin, reading them from track if they aren't cached
+     */
+    private List<GATKFeature> getBin(final String trackKey, final RMDTrack track, final GenomeLoc interval, final int bin) throws IOException {
+        final BinKey key = new BinKey(trackKey, interval.getContigIndex(), bin);
+        synchronized (bins) {
+            final CachedBin cached = bins.get(key);
+            if ( cached != null ) {
+                hits.incrementAndGet();
+                return cached.features;
+            }
+        }
+        misses.incrementAndGet();
+
+        // read outside of the lock; another thread may race us to the same bin, in which case both reads give the same answer
+        final CachedBin read = readBin(track, interval.getContig(), bin);
+        if ( read.bytes < 0 || read.bytes > maxBytes ) {
+            // genotyped, or too big to be worth flushing the whole cache for
+            uncachedBins.incrementAndGet();
+            return read.features;
+        }
+
+        synchronized (bins) {
+            final CachedBin previous = bins.put(key, read);
+            if ( previous != null ) {
+                nCachedBytes -= previous.bytes;
+                nCachedFeatures -= previous.features.size();
+            }
+            nCachedBytes += read.bytes;
+            nCachedFeatures += read.features.size();
+            evictIfNecessary();
+        }
+        return read.features;
+    }
+
+    /**
+     * Read all the features overlapping bin from track, along with their estimated size, or -1 as the size if any
+     * of them can't be shared between threads
+     */
+    private CachedBin readBin(final RMDTrack track, final String contig, final int bin) throws IOException {
+        final SAMSequenceRecord contigRecord = genomeLocParser.getContigInfo(contig);
+        final int binStart = bin * binSize + 1;
+        final int binStop = Math.min((bin + 1) * binSize, contigRecord.getSequenceLength());
+
+        final List<GATKFeature> features = new ArrayList<GATKFeature>();
+        long bytes = 0;
+        final CloseableIterator<GATKFeature> iterator = track.query(genomeLocParser.createGenomeLoc(contig, binStart, binStop));
+        try {
+            while ( iterator.hasNext() ) {
+                final GATKFeature feature = iterator.next();
+                features.add(feature);
+                if ( bytes >= 0 ) {
+                    if ( isShareable(feature) ) {
+                        // GATKFeature builds its location on first access; do it before the feature is published
+                        feature.getLocation();
+                        bytes += estimateBytes(feature);
+                    } else {
+                        bytes = -1;
+                    }
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        return new CachedBin(Collections.unmodifiableList(features), bytes);
+    }
+
+    /**
+     * Can feature be handed to several threads without decoding anything?  Genotypes are decoded lazily on first
+     * access, so only variants without genotypes qualify.  hasGenotypes() itself doesn't trigger decoding.
+     */
+    private static boolean isShareable(final GATKFeature feature) {
+        final Object underlying = feature.getUnderlyingObject();
+        return ! (underlying instanceof VariantContext) || ! ((VariantContext)underlying).hasGenotypes();
+    }
+
+    /**
+     * Rough estimate of the heap used by feature, meant for weighting the cache rather than exact accounting
+     */
+    protected static long estimateBytes(final GATKFeature feature) {
+        // the feature wrapper, its location, and the underlying record's own fields
+        long bytes = 200;
+        final Object underlying = feature.getUnderlyingObject();
+        if ( underlying instanceof VariantContext ) {
+            final VariantContext vc = (VariantContext)underlying;
+            for ( final Allele allele : vc.getAlleles() )
+                bytes += 48 + allele.getBases().length;
+            bytes += estimateBytes(vc.getID());
+            for ( final String filter : vc.getFilters() )
+                bytes += 32 + estimateBytes(filter);
+            for ( final Map.Entry<String, Object> attribute : vc.getAttributes().entrySet() ) {
+                bytes += 32 + estimateBytes(attribute.getKey());
+                final Object value = attribute.getValue();
+                if ( value instanceof String )
+                    bytes += estimateBytes((String)value);
+                else if ( value instanceof Collection )
+                    bytes += 16 + 24 * ((Collection)value).size();
+                else
+                    bytes += 24;
+            }
+        }
+        return bytes;
+    }
+
+    private static long estimateBytes(final String s) {
+        return s == null ? 0 : 40 + 2L * s.length();
+    }
+
+    /**
+     * Drop the least recently used bins until the cache is within capacity.  Must be called holding the lock on bins.
+     */
+    private void evictIfNecessary() {
+        final Iterator<CachedBin> it = bins.values().iterator();
+        while ( nCachedBytes > maxBytes && it.hasNext() ) {
+            final CachedBin evicted = it.next();
+            nCachedBytes -= evicted.bytes;
+            nCachedFeatures -= evicted.features.size();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of bins read that weren't cached, because they held genotypes or were bigger than the cache
+     */
+    public long getUncachedBins() {
+        return uncachedBins.get();
+    }
+
+    /**
+     * @return the number of features currently held by the cache
+     */
+    public long getCachedFeatureCount() {
+        synchronized (bins) {
+            return nCachedFeatures;
+        }
+    }
+
+    /**
+     * @return the estimated size of the features currently held by the cache, in bytes
+     */
+    public long getCachedBytes() {
+        synchronized (bins) {
+            return nCachedBytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final long lookups = getHits() + getMisses();
+        return String.format("ROD feature cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d bins not cached, %d features (~%d KB) cached",
+                getHits(), getMisses(), lookups == 0 ? 0.0 : 100.0 * getHits() / lookups, getEvictions(), getUncachedBins(),
+                getCachedFeatureCount(), getCachedBytes() / 1024);
+    }
+
+    /**
+     * The features of one bin and their estimated size
+     */
+    private static final class CachedBin {
+        private final List<GATKFeature> features;
+        private final long bytes;
+
+        private CachedBin(final List<GATKFeature> features, final long bytes) {
+            this.features = features;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Identifies one bin of one track
+     */
+    private static final class BinKey {
+        private final String trackKey;
+        private final int contigIndex;
+        private final int bin;
+
+        private BinKey(final String trackKey, final int contigIndex, final int bin) {
+            this.trackKey = trackKey;
+            this.contigIndex = contigIndex;
+            this.bin = bin;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if ( this == o ) return true;
+            if ( ! (o instanceof BinKey) ) return false;
+            final BinKey other = (BinKey)o;
+            return bin == other.bin && contigIndex == other.contigIndex && trackKey.equals(other.trackKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return (trackKey.hashCode() * 31 + contigIndex) * 31 + bin;
+        }
+    }
+
+    /**
+     * Iterates over a list of features already in memory
+     */
+    private static final class ListFeatureIterator implements CloseableIterator<GATKFeature> {
+        private final Iterator<GATKFeature> it;
+
+        private ListFeatureIterator(final List<GATKFeature> features) {
+            this.it = features.iterator();
+        }
+
+        public boolean hasNext() { return it.hasNext(); }
+        public GATKFeature next() { return it.next(); }
+        public void remove() { throw new UnsupportedOperationException("Cannot remove from a ROD feature cache iterator"); }
+        public void close() { }
+    }
+}
@@ -26,16 +26,19 @@
 package org.broadinstitute.sting.gatk.datasources.rmd;
 
 import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.util.CloseableIterator;
 import org.broadinstitute.sting.commandline.Tags;
 import org.broadinstitute.sting.gatk.refdata.SeekableRODIterator;
 import org.broadinstitute.sting.gatk.refdata.tracks.RMDTrack;
 import org.broadinstitute.sting.gatk.refdata.tracks.RMDTrackBuilder;
+import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
 import org.broadinstitute.sting.gatk.refdata.utils.LocationAwareSeekableRODIterator;
 import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.variant.vcf.VCFHeader;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -80,6 +83,19 @@ public class ReferenceOrderedDataSource {
                                       SAMSequenceDictionary referenceSequenceDictionary,
                                       GenomeLocParser genomeLocParser,
                                       boolean flashbackData ) {
+        this(fileDescriptor, builder, referenceSequenceDictionary, genomeLocParser, flashbackData, null);
+    }
+
+    /**
+     * Create a new reference-ordered data source, answering queries through the given feature cache.
+     * @param featureCache cache of decoded features shared with the engine's other data sources, or null for none
+     */
+    public ReferenceOrderedDataSource(RMDTriplet fileDescriptor,
+                                      RMDTrackBuilder builder,
+                                      SAMSequenceDictionary referenceSequenceDictionary,
+                                      GenomeLocParser genomeLocParser,
+                                      boolean flashbackData,
+                                      RODFeatureCache featureCache ) {
         this.fileDescriptor = fileDescriptor;
         this.builder = builder;
 
@@ -88,7 +104,8 @@ public class ReferenceOrderedDataSource {
             iteratorPool = new ReferenceOrderedQueryDataPool(fileDescriptor,
                                                              builder,
                                                              referenceSequenceDictionary,
-                                                             genomeLocParser);
+                                                             genomeLocParser,
+                                                             featureCache);
             this.header = ((ReferenceOrderedQueryDataPool)iteratorPool).getHeader();
             this.sequenceDictionary = ((ReferenceOrderedQueryDataPool)iteratorPool).getSequenceDictionary();
         }
@@ -199,10 +216,26 @@ class ReferenceOrderedQueryDataPool extends ResourcePool<RMDTrack,LocationAwareS
      */
     private final SAMSequenceDictionary sequenceDictionary;
 
+    /**
+     * Cache of decoded features shared by all data sources, or null to query the track directly.  Tracks whose
+     * records carry genotypes bypass the cache, as those records can't be shared between threads.
+     */
+    private final RODFeatureCache featureCache;
+
+    /**
+     * Key identifying this track in the feature cache.
+     */
+    private final String featureCacheKey;
+
     public ReferenceOrderedQueryDataPool(RMDTriplet fileDescriptor, RMDTrackBuilder builder, SAMSequenceDictionary referenceSequenceDictionary, GenomeLocParser genomeLocParser) {
+        this(fileDescriptor, builder, referenceSequenceDictionary, genomeLocParser, null);
+    }
+
+    public ReferenceOrderedQueryDataPool(RMDTriplet fileDescriptor, RMDTrackBuilder builder, SAMSequenceDictionary referenceSequenceDictionary, GenomeLocParser genomeLocParser, RODFeatureCache featureCache) {
         super(referenceSequenceDictionary,genomeLocParser);
         this.fileDescriptor = fileDescriptor;
         this.builder = builder;
+        this.featureCacheKey = fileDescriptor.getName() + ":" + fileDescriptor.getFile();
 
         // prepopulate one RMDTrack
         RMDTrack track = builder.createInstanceOfTrack(fileDescriptor);
@@ -211,6 +244,9 @@ class ReferenceOrderedQueryDataPool extends ResourcePool<RMDTrack,LocationAwareS
         // Pull the proper header and sequence dictionary from the prepopulated track.
         this.header = track.getHeader();
         this.sequenceDictionary = track.getSequenceDictionary();
+
+        final boolean hasGenotypes = header instanceof VCFHeader && ((VCFHeader)header).hasGenotypingData() && ! builder.isSitesOnly(fileDescriptor);
+        this.featureCache = hasGenotypes ? null : featureCache;
     }
 
     public Object getHeader() {
@@ -238,7 +274,8 @@ class ReferenceOrderedQueryDataPool extends ResourcePool<RMDTrack,LocationAwareS
         try {
             if (position instanceof MappedStreamSegment) {
                 GenomeLoc pos = ((MappedStreamSegment) position).locus;
-                return new SeekableRODIterator(header,sequenceDictionary,referenceSequenceDictionary,genomeLocParser,track.query(pos));
+                final CloseableIterator<GATKFeature> features = featureCache != null ? featureCache.query(featureCacheKey, track, pos) : track.query(pos);
+                return new SeekableRODIterator(header,sequenceDictionary,referenceSequenceDictionary,genomeLocParser,features);
             } else {
                 return new SeekableRODIterator(header,sequenceDictionary,referenceSequenceDictionary,genomeLocParser,track.getIterator());
             }
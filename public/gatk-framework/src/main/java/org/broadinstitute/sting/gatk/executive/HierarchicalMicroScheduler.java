@@ -26,7 +26,6 @@
 package org.broadinstitute.sting.gatk.executive;
 
 import net.sf.picard.reference.IndexedFastaSequenceFile;
-import org.broad.tribble.TribbleException;
 import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
 import org.broadinstitute.sting.gatk.datasources.reads.SAMDataSource;
 import org.broadinstitute.sting.gatk.datasources.reads.Shard;
@@ -79,11 +78,9 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     private Iterator<Shard> traversalTasks;
 
     /**
-     * Keep a queue of shard traversals, and constantly monitor it to see what output
-     * merge tasks remain.
-     * TODO: Integrate this into the reduce tree.
+     * Merges the output of shard traversals, in the background, as they complete.
      */
-    private final Queue<ShardTraverser> outputMergeTasks = new LinkedList<ShardTraverser>();
+    private final OutputMergePipeline outputMergePipeline = new OutputMergePipeline(errorTracker, outputTracker);
 
     /** How many shard traversals have run to date? */
     private int totalCompletedTraversals = 0;
@@ -97,9 +94,6 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     /** How many tree reduces have been completed? */
     private long totalCompletedTreeReduces = 0;
 
-    /** What is the total time spent merging output? */
-    private long totalOutputMergeTime = 0;
-
     /**
      * Create a new hierarchical microscheduler to process the given reads and reference.
      *
@@ -154,9 +148,9 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
             // Check for errors during execution.
             errorTracker.throwErrorIfPending();
 
-            // Too many files sitting around taking up space?  Merge them.
-            if (isMergeLimitExceeded())
-                mergeExistingOutput(false);
+            // Start merging output from completed shards.  Too many files sitting
+            // around taking up space?  Wait for the merger to catch up.
+            mergeExistingOutput(false);
 
             // Wait for the next slot in the queue to become free.
             waitForFreeQueueSlot();
@@ -276,64 +270,24 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
      * @return True if the merging needs to take priority.  False otherwise.
      */
     protected boolean isMergeLimitExceeded() {
-        int pendingTasks = 0;
-        for( ShardTraverser shardTraverse: outputMergeTasks ) {
-            if( !shardTraverse.isComplete() )
-                break;
-            pendingTasks++;
-        }
-        return (outputMergeTasks.size() >= MAX_OUTSTANDING_OUTPUT_MERGES);
+        return (outputMergePipeline.getNumberOfPendingShards() >= MAX_OUTSTANDING_OUTPUT_MERGES);
     }
 
     /**
-     * Merging all output that's sitting ready in the OutputMerger queue into
-     * the final data streams.
+     * Merge output that's sitting ready into the final data streams.  Merging runs in the
+     * background, in shard order; completed shards stuck behind a shard that's still
+     * traversing are concatenated together while they wait.
+     *
+     * @param wait if true, block until all output has been merged.  Otherwise, block only
+     *             if too many shards are waiting to be merged.
      */
     protected void mergeExistingOutput( boolean wait ) {
-        long startTime = System.currentTimeMillis();
-
-//        logger.warn("MergingExistingOutput");
-//        printOutputMergeTasks();
-
-        // Create a list of the merge tasks that will be performed in this run of the mergeExistingOutput().
-        Queue<ShardTraverser> mergeTasksInSession = new LinkedList<ShardTraverser>();
-        while( !outputMergeTasks.isEmpty() ) {
-            ShardTraverser traverser = outputMergeTasks.peek();
-
-            // If the next traversal isn't done and we're not supposed to wait, we've found our working set.  Continue.
-            if( !traverser.isComplete() && !wait )
-                break;
-
-            outputMergeTasks.remove();
-            mergeTasksInSession.add(traverser);
-        }
+        outputMergePipeline.schedule();
 
-//        logger.warn("Selected things to merge:");
-//        printOutputMergeTasks(mergeTasksInSession);
-
-        // Actually run through, merging the tasks in the working queue.
-        for( ShardTraverser traverser: mergeTasksInSession ) {
-            //logger.warn("*** Merging " + traverser.getIntervalsString());
-            if( !traverser.isComplete() )
-                traverser.waitForComplete();
-
-            OutputMergeTask mergeTask = traverser.getOutputMergeTask();
-            if( mergeTask != null ) {
-                try {
-                    mergeTask.merge();
-                }
-                catch(TribbleException ex) {
-                    // Specifically catch Tribble I/O exceptions and rethrow them as Reviewed.  We don't expect
-                    // any issues here because we created the Tribble output file mere moments ago and expect it to
-                    // be completely valid.
-                    throw new ReviewedStingException("Unable to merge temporary Tribble output file.",ex);
-                }
-            }
-        }
-
-        long endTime = System.currentTimeMillis();
-
-        totalOutputMergeTime += ( endTime - startTime );
+        if ( wait )
+            outputMergePipeline.waitForAll();
+        else if ( isMergeLimitExceeded() )
+            outputMergePipeline.waitForBacklog(MAX_OUTSTANDING_OUTPUT_MERGES - 1);
     }
 
     /**
@@ -356,26 +310,13 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
 
         // Add this traverse result to the reduce tree.  The reduce tree will call a callback to throw its entries on the queue.
         reduceTree.addEntry(traverseResult);
-        outputMergeTasks.add(traverser);
-
-//        logger.warn("adding merge task");
-//        printOutputMergeTasks();
+        outputMergePipeline.add(traverser);
 
         // No more data?  Let the reduce tree know so it can finish processing what it's got.
         if (!isShardTraversePending())
             reduceTree.complete();
     }
 
-    private synchronized void printOutputMergeTasks() {
-        printOutputMergeTasks(outputMergeTasks);
-    }
-
-    private synchronized void printOutputMergeTasks(final Queue<ShardTraverser> tasks) {
-        logger.info("Output merge tasks " + tasks.size());
-        for ( final ShardTraverser traverser : tasks )
-            logger.info(String.format("\t%s: complete? %b", traverser.getIntervalsString(), traverser.isComplete()));
-    }
-
     /** Pulls the next reduce from the queue and runs it. */
     protected void queueNextTreeReduce( Walker walker ) {
         if (reduceTasks.size() == 0)
@@ -459,9 +400,27 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
 
     /** {@inheritDoc} */
     public int getNumberOfTasksInIOQueue() {
-        synchronized( outputMergeTasks ) {
-            return outputMergeTasks.size();
-        }
+        return outputMergePipeline.getNumberOfPendingShards();
+    }
+
+    /** {@inheritDoc} */
+    public int getOutputMergeBacklog() {
+        return outputMergePipeline.getMergeBacklog();
+    }
+
+    /** {@inheritDoc} */
+    public int getNumberOfOutputMergesBlocked() {
+        return outputMergePipeline.getNumberOfBlockedShards();
+    }
+
+    /** {@inheritDoc} */
+    public int getNumberOfCompactedOutputMerges() {
+        return outputMergePipeline.getTotalCompactedShards();
+    }
+
+    /** {@inheritDoc} */
+    public long getTotalOutputCompactionTimeMillis() {
+        return outputMergePipeline.getTotalOutputCompactionTimeMillis();
     }
 
     /** {@inheritDoc} */
@@ -490,6 +449,6 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
 
     /** {@inheritDoc} */
     public long getTotalOutputMergeTimeMillis() {
-        return totalOutputMergeTime;
+        return outputMergePipeline.getTotalOutputMergeTimeMillis();
     }
 }
@@ -66,11 +66,35 @@ public interface HierarchicalMicroSchedulerMBean {
      */
     public long getAvgShardTraverseTimeMillis();
 
+    /**
+     * How many shards have finished traversing, but have output still waiting to be merged?
+     * @return Total number of completed shards not yet merged into the final output.
+     */
+    public int getOutputMergeBacklog();
+
+    /**
+     * How many completed shards can't yet be merged because an earlier shard is still traversing?
+     * @return Total number of completed shards waiting behind an incomplete shard.
+     */
+    public int getNumberOfOutputMergesBlocked();
+
+    /**
+     * How many shards have had their output concatenated with their neighbors' while waiting to be merged?
+     * @return Total number of shards compacted before merging.
+     */
+    public int getNumberOfCompactedOutputMerges();
+
     /**
      * What is the total time spent merging output?
      */
     public long getTotalOutputMergeTimeMillis();
 
+    /**
+     * What is the total time spent concatenating the output of shards waiting to be merged?
+     * @return Total time spent compacting output; 0 if no output has been compacted.
+     */
+    public long getTotalOutputCompactionTimeMillis();
+
     /**
      * What is the total time spent running tree reduces?
      * @return Total time spent running tree reduces; 0 if none have been run.
@@ -232,15 +232,15 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     @Ensures("result != null")
     private TraversalEngine createTraversalEngine(final Walker walker, final ThreadAllocation threadAllocation) {
         if (walker instanceof ReadWalker) {
-            return new TraverseReadsNano(threadAllocation.getNumCPUThreadsPerDataThread());
+            return new TraverseReadsNano(threadAllocation.getNumCPUThreadsPerDataThread(), threadAllocation.useWorkStealingNanoScheduler());
         } else if (walker instanceof LocusWalker) {
-            return new TraverseLociNano(threadAllocation.getNumCPUThreadsPerDataThread());
+            return new TraverseLociNano(threadAllocation.getNumCPUThreadsPerDataThread(), threadAllocation.useWorkStealingNanoScheduler());
         } else if (walker instanceof DuplicateWalker) {
             return new TraverseDuplicates();
         } else if (walker instanceof ReadPairWalker) {
             return new TraverseReadPairs();
         } else if (walker instanceof ActiveRegionWalker) {
-            return new TraverseActiveRegions(threadAllocation.getNumCPUThreadsPerDataThread());
+            return new TraverseActiveRegions(threadAllocation.getNumCPUThreadsPerDataThread(), threadAllocation.useWorkStealingNanoScheduler());
         } else {
             throw new UnsupportedOperationException("Unable to determine traversal type, the walker is an unknown type.");
         }
@@ -321,6 +321,15 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         return (!reads.isEmpty()) ? reads.seek(shard) : new NullSAMIterator();
     }
 
+    /**
+     * Gets the minimum pileup depth of the loci walker should see as covered, for the window makers of locus shards.
+     * @param walker the walker being run.
+     * @return walker's minimum coverage if it's a LocusWalker, otherwise 1.
+     */
+    protected static int getMinimumCoverage(Walker walker) {
+        return walker instanceof LocusWalker ? ((LocusWalker)walker).getMinimumCoverage() : 1;
+    }
+
     /**
      * Must be called by subclasses when execute is done
      */
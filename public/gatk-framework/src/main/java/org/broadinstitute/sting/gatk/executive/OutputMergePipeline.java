@@ -0,0 +1,343 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.gatk.executive;
+
+import org.broad.tribble.TribbleException;
+import org.broadinstitute.sting.gatk.io.ThreadGroupOutputTracker;
+import org.broadinstitute.sting.utils.MultiThreadedErrorTracker;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Merges the output of shard traversals into the final output files.
+ *
+ * Shards are merged into the targets strictly in shard order, but a slow shard doesn't hold up the
+ * work behind it.  Runs of completed shards waiting behind a shard that's still traversing are
+ * concatenated into a single set of temporary files in the background, so that once the slow shard
+ * has been merged the whole run follows in one fast copy.  Only the shard at the head of the queue
+ * is ever merged into the targets, so the targets themselves are never written concurrently.
+ */
+class OutputMergePipeline {
+    /**
+     * How many threads should merge and compact output?  One is usually busy merging into the
+     * targets; the others compact runs of shards waiting behind it.
+     */
+    private static final int NUM_MERGE_THREADS = 2;
+
+    /**
+     * How long to sleep between checks for newly completed shards when waiting for the backlog to clear.
+     */
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    /**
+     * Errors from merging are reported here, and any error reported here stops waits on the pipeline.
+     */
+    private final MultiThreadedErrorTracker errorTracker;
+    private final ThreadGroupOutputTracker outputTracker;
+    private final ExecutorService mergeExecutor;
+
+    /**
+     * Output waiting to be merged, in shard order.  Guarded by this.
+     */
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+    /** What is the total time spent merging output into the targets? */
+    private long totalOutputMergeTime = 0;
+
+    /** What is the total time spent concatenating the output of shards waiting to be merged? */
+    private long totalOutputCompactionTime = 0;
+
+    /** How many shards have been concatenated with their neighbors before merging? */
+    private int totalCompactedShards = 0;
+
+    public OutputMergePipeline( final MultiThreadedErrorTracker errorTracker, final ThreadGroupOutputTracker outputTracker ) {
+        this.errorTracker = errorTracker;
+        this.outputTracker = outputTracker;
+        this.mergeExecutor = Executors.newFixedThreadPool(NUM_MERGE_THREADS, new OutputMergeThreadFactory());
+    }
+
+    /**
+     * Creates daemon threads for merging, so that a failed traversal can't leave the JVM hanging.
+     */
+    private static class OutputMergeThreadFactory implements ThreadFactory {
+        int counter = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "HMS-output-merger-" + counter++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Queue the output of the given traversal for merging.  Traversals must be added in shard order.
+     * @param traverser the traversal whose output should be merged once it completes.
+     */
+    public synchronized void add( final ShardTraverser traverser ) {
+        segments.add(new Segment(traverser));
+    }
+
+    /**
+     * Start merging or compacting any output that's ready.  Cheap enough to call often.  Once an error
+     * has been reported nothing more is started, so the targets never skip over a shard that failed to merge.
+     */
+    public synchronized void schedule() {
+        if( segments.isEmpty() || errorTracker.hasAnErrorOccurred() )
+            return;
+
+        // the head of the queue is merged straight into the targets
+        final Segment head = segments.getFirst();
+        if( !head.busy && head.isReady() )
+            submitMerge(head);
+
+        // runs of completed shards behind a shard that's still traversing are concatenated
+        boolean blocked = !head.isReady();
+        for( int i = 1; i < segments.size(); i++ ) {
+            final Segment segment = segments.get(i);
+            if( !segment.isReady() ) {
+                blocked = true;
+                continue;
+            }
+            if( !blocked || segment.busy )
+                continue;
+
+            final List<Segment> run = new ArrayList<Segment>();
+            for( int j = i+1; j < segments.size(); j++ ) {
+                final Segment next = segments.get(j);
+                if( next.busy || next.compacted != null || !next.isReady() )
+                    break;
+                run.add(next);
+            }
+
+            if( !run.isEmpty() ) {
+                submitCompaction(segment, run);
+                i += run.size();
+            }
+        }
+    }
+
+    /**
+     * Blocks until no more than the given number of shards are waiting to be merged.
+     * @param limit maximum number of shards that may remain outstanding.
+     */
+    public void waitForBacklog( final int limit ) {
+        synchronized(this) {
+            while( getNumberOfPendingShards() > limit ) {
+                errorTracker.throwErrorIfPending();
+                schedule();
+                try {
+                    wait(POLL_INTERVAL_MILLIS);
+                }
+                catch( InterruptedException ex ) {
+                    throw new ReviewedStingException("Interrupted while waiting for output to merge", ex);
+                }
+            }
+        }
+        errorTracker.throwErrorIfPending();
+    }
+
+    /**
+     * Blocks until all output has been merged, then shuts down the merge threads.
+     */
+    public void waitForAll() {
+        waitForBacklog(0);
+        mergeExecutor.shutdown();
+    }
+
+    /**
+     * How many shards have been added, but not yet merged into the targets?
+     * @return number of shards still to merge, traversing or not.
+     */
+    public synchronized int getNumberOfPendingShards() {
+        int pending = 0;
+        for( final Segment segment: segments )
+            pending += segment.nShards;
+        return pending;
+    }
+
+    /**
+     * How many shards have finished traversing, but are still waiting to be merged into the targets?
+     * @return the size of the merge backlog, in shards.
+     */
+    public synchronized int getMergeBacklog() {
+        int backlog = 0;
+        for( final Segment segment: segments ) {
+            if( segment.isReady() )
+                backlog += segment.nShards;
+        }
+        return backlog;
+    }
+
+    /**
+     * How many shards have finished traversing, but can't be merged because an earlier shard is still traversing?
+     * @return the number of shards stalled behind an incomplete shard.
+     */
+    public synchronized int getNumberOfBlockedShards() {
+        int blocked = 0;
+        boolean behindIncompleteShard = false;
+        for( final Segment segment: segments ) {
+            if( !segment.isReady() )
+                behindIncompleteShard = true;
+            else if( behindIncompleteShard )
+                blocked += segment.nShards;
+        }
+        return blocked;
+    }
+
+    public synchronized long getTotalOutputMergeTimeMillis() {
+        return totalOutputMergeTime;
+    }
+
+    public synchronized long getTotalOutputCompactionTimeMillis() {
+        return totalOutputCompactionTime;
+    }
+
+    public synchronized int getTotalCompactedShards() {
+        return totalCompactedShards;
+    }
+
+    /**
+     * Merge the head of the queue into the targets on a merge thread.
+     * @param head the first segment in the queue, which must be ready and idle.
+     */
+    private void submitMerge( final Segment head ) {
+        head.busy = true;
+        mergeExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final long startTime = System.currentTimeMillis();
+                try {
+                    if( head.compacted != null )
+                        head.compacted.close();
+                    final OutputMergeTask mergeTask = head.getOutputMergeTask();
+                    if( mergeTask != null )
+                        mergeTask.merge();
+                }
+                catch( TribbleException ex ) {
+                    // Specifically catch Tribble I/O exceptions and rethrow them as Reviewed.  We don't expect
+                    // any issues here because we created the Tribble output file mere moments ago and expect it to
+                    // be completely valid.
+                    errorTracker.notifyOfError(new ReviewedStingException("Unable to merge temporary Tribble output file.",ex));
+                }
+                catch( Throwable error ) {
+                    errorTracker.notifyOfError(error);
+                }
+                finally {
+                    synchronized(OutputMergePipeline.this) {
+                        segments.remove(head);
+                        totalOutputMergeTime += System.currentTimeMillis() - startTime;
+                        OutputMergePipeline.this.notifyAll();
+                    }
+                }
+                schedule();
+            }
+        });
+    }
+
+    /**
+     * Concatenate the output of a run of shards onto the end of the given segment on a merge thread.
+     * @param segment segment that will hold the combined output.  Must be ready and idle.
+     * @param run segments immediately following segment, all ready, idle and uncompacted.
+     */
+    private void submitCompaction( final Segment segment, final List<Segment> run ) {
+        segment.busy = true;
+        for( final Segment next: run )
+            next.busy = true;
+
+        mergeExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final long startTime = System.currentTimeMillis();
+                try {
+                    OutputMergeTask compacted = segment.compacted;
+                    if( compacted == null ) {
+                        compacted = outputTracker.createCompactionTask();
+                        if( segment.getOutputMergeTask() != null )
+                            segment.getOutputMergeTask().mergeInto(compacted);
+                    }
+                    for( final Segment next: run ) {
+                        if( next.getOutputMergeTask() != null )
+                            next.getOutputMergeTask().mergeInto(compacted);
+                    }
+
+                    synchronized(OutputMergePipeline.this) {
+                        segment.compacted = compacted;
+                        for( final Segment next: run )
+                            segment.nShards += next.nShards;
+                        segments.removeAll(run);
+                        segment.busy = false;
+                        totalCompactedShards += run.size();
+                    }
+                }
+                catch( Throwable error ) {
+                    errorTracker.notifyOfError(error);
+                }
+                finally {
+                    synchronized(OutputMergePipeline.this) {
+                        totalOutputCompactionTime += System.currentTimeMillis() - startTime;
+                        OutputMergePipeline.this.notifyAll();
+                    }
+                }
+                schedule();
+            }
+        });
+    }
+
+    /**
+     * The output of one shard, or of a run of consecutive shards concatenated together.
+     */
+    private static class Segment {
+        /** The first shard traversal in this segment. */
+        private final ShardTraverser traverser;
+
+        /** Output of every shard in this segment, once more than one has been concatenated; null otherwise. */
+        private OutputMergeTask compacted = null;
+
+        /** How many shards' output does this segment hold? */
+        private int nShards = 1;
+
+        /** Is a merge thread currently working on this segment? */
+        private boolean busy = false;
+
+        private Segment( final ShardTraverser traverser ) {
+            this.traverser = traverser;
+        }
+
+        private boolean isReady() {
+            return compacted != null || traverser.isComplete();
+        }
+
+        private OutputMergeTask getOutputMergeTask() {
+            return compacted != null ? compacted : traverser.getOutputMergeTask();
+        }
+    }
+}
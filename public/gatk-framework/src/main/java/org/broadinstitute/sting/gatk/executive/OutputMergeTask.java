@@ -26,6 +26,7 @@
 package org.broadinstitute.sting.gatk.executive;
 
 import org.broadinstitute.sting.gatk.io.storage.Storage;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -73,6 +74,38 @@ public class OutputMergeTask {
             mergeOperation.temporaryStorage.mergeInto(mergeOperation.targetStream);
     }
 
+    /**
+     * Merge data from output streams into the temporary storage of another merge task with the same
+     * targets, rather than into the targets themselves.  Used to concatenate the output of a run of
+     * shards so that it can later be merged into the targets all at once.
+     * @param compacted Merge task whose temporary storage should receive this task's output.
+     */
+    public synchronized void mergeInto( OutputMergeTask compacted ) {
+        for( MergeOperation mergeOperation: mergeOperations )
+            mergeOperation.temporaryStorage.mergeInto(compacted.getTemporaryStorage(mergeOperation.targetStream));
+    }
+
+    /**
+     * Close the temporary storage of this merge task, so that it's ready to be merged.
+     */
+    public synchronized void close() {
+        for( MergeOperation mergeOperation: mergeOperations )
+            mergeOperation.temporaryStorage.close();
+    }
+
+    /**
+     * Find the temporary storage destined for the given target.
+     * @param targetStream Target for stream output.
+     * @return The temporary storage, which doubles as a stream of the target's type.
+     */
+    private Object getTemporaryStorage( Object targetStream ) {
+        for( MergeOperation mergeOperation: mergeOperations ) {
+            if( mergeOperation.targetStream == targetStream )
+                return mergeOperation.temporaryStorage;
+        }
+        throw new ReviewedStingException("No temporary storage for target " + targetStream);
+    }
+
     /**
      * Represents a single file needed to be merged.
      * @param <StreamType> Type of the file to be merged.
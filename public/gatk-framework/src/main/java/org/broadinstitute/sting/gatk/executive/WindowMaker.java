@@ -108,10 +108,21 @@ public class WindowMaker implements Iterable<WindowMaker.WindowMakerIterator>, I
     private final LocusIteratorByState libs;
 
     public WindowMaker(Shard shard, GenomeLocParser genomeLocParser, StingSAMIterator iterator, List<GenomeLoc> intervals, Collection<String> sampleNames) {
+        this(shard, genomeLocParser, iterator, intervals, sampleNames, 1);
+    }
+
+    /**
+     * Create a new window maker whose windows only hold loci with at least minimumCoverage bases in the pileup.
+     * @param iterator The data source for this window.
+     * @param intervals The set of intervals over which to traverse.
+     * @param sampleNames The complete set of sample names in the reads in shard
+     * @param minimumCoverage The minimum pileup depth of a locus; loci below it are skipped as though uncovered.
+     */
+    public WindowMaker(Shard shard, GenomeLocParser genomeLocParser, StingSAMIterator iterator, List<GenomeLoc> intervals, Collection<String> sampleNames, int minimumCoverage) {
         this.sourceInfo = shard.getReadProperties();
         this.readIterator = new GATKSAMIterator(iterator);
 
-        this.libs = new LocusIteratorByState(readIterator,sourceInfo,genomeLocParser,sampleNames);
+        this.libs = new LocusIteratorByState(readIterator,sourceInfo,genomeLocParser,sampleNames,minimumCoverage);
         this.sourceIterator = new PeekableIterator<AlignmentContext>(libs);
 
         this.intervalIterator = intervals.size()>0 ? new PeekableIterator<GenomeLoc>(intervals.iterator()) : null;
@@ -154,6 +154,19 @@ public class ThreadGroupOutputTracker extends OutputTracker {
         return outputMergeTask;
     }
 
+    /**
+     * Create a merge task backed by fresh temporary storage for every output, into which the
+     * output of a run of completed shards can be concatenated before it is merged into the targets.
+     * The temporary storage is left open; close the task before merging it.
+     * @return A merge task with empty temporary storage for each output.
+     */
+    public synchronized OutputMergeTask createCompactionTask() {
+        final OutputMergeTask outputMergeTask = new OutputMergeTask();
+        for( final Stub stub: outputs.keySet() )
+            outputMergeTask.addMergeOperation(getTargetStream(stub), StorageFactory.createStorage(stub, createTempFile(stub)));
+        return outputMergeTask;
+    }
+
     /**
      * Creates a temporary file for a stub of the given type.
      * @param stub Stub for which to create a temporary file.
@@ -0,0 +1,381 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.io.storage;
+
+import net.sf.samtools.*;
+import net.sf.samtools.util.BlockCompressedFilePointerUtil;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.BlockCompressedStreamConstants;
+import net.sf.samtools.util.Md5CalculatingOutputStream;
+import net.sf.samtools.util.ProgressLoggerInterface;
+import net.sf.samtools.util.RuntimeIOException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A BAM writer that, in addition to encoding individual records, can splice the compressed BGZF blocks of
+ * another BAM file with the same header directly into its output.  Only the blocks containing the other
+ * file's header need to be inflated; everything else is copied verbatim.  If an index is requested, it is
+ * built from the block offsets of the records as they land in the output file.
+ *
+ * Records must be supplied in the final output order; this writer never sorts.
+ */
+class BlockCopyingBAMWriter implements SAMFileWriter {
+    /**
+     * Size of the buffer used when copying raw blocks.
+     */
+    private static final int COPY_BUFFER_SIZE = 64*1024;
+
+    /**
+     * BAM file magic number.
+     */
+    private static final byte[] BAM_MAGIC = "BAM\1".getBytes();
+
+    private static final String BAM_FILE_EXTENSION = ".bam";
+
+    private final File file;
+    private final SAMFileHeader header;
+
+    /**
+     * The underlying output stream; every byte of the file passes through here.
+     */
+    private final OutputStream outputStream;
+
+    /**
+     * Compresses individually encoded records.
+     */
+    private final BlockCompressedOutputStream blockCompressedOutputStream;
+
+    private final BAMRecordCodec recordCodec;
+
+    /**
+     * Builds the index as records are written, or null if no index was requested.
+     */
+    private final BAMIndexer indexer;
+
+    /**
+     * Number of bytes written straight to the output stream, bypassing the block compressor.  The block compressor
+     * doesn't see these bytes, so they must be added to the block addresses it reports.
+     */
+    private long bytesWrittenDirectly = 0;
+
+    private ProgressLoggerInterface progressLogger = null;
+
+    /**
+     * Create a new writer and write the given header.
+     * @param file Output file.
+     * @param header Header for the output file.
+     * @param compressionLevel Compression level for records encoded by this writer, or null for the default.
+     * @param createIndex Whether to write a BAM index alongside the file.
+     * @param createMd5 Whether to write an MD5 file alongside the file.
+     */
+    public BlockCopyingBAMWriter(final File file, final SAMFileHeader header, final Integer compressionLevel, final boolean createIndex, final boolean createMd5) {
+        this.file = file;
+        this.header = header;
+
+        try {
+            OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(file),COPY_BUFFER_SIZE);
+            if(createMd5)
+                fileStream = new Md5CalculatingOutputStream(fileStream,new File(file.getAbsolutePath() + ".md5"));
+            outputStream = fileStream;
+
+            final int level = compressionLevel != null ? compressionLevel : BlockCompressedOutputStream.getDefaultCompressionLevel();
+
+            // Let Picard lay out the header so that it is identical to the header of a BAM written directly.
+            writeDirectly(encodeHeader(header,level));
+
+            blockCompressedOutputStream = new BlockCompressedOutputStream(outputStream,null,level);
+        }
+        catch(IOException ex) {
+            throw new RuntimeIOException("Unable to open BAM file " + file + " for writing",ex);
+        }
+
+        recordCodec = new BAMRecordCodec(header);
+        recordCodec.setOutputStream(blockCompressedOutputStream,file.getAbsolutePath());
+
+        indexer = createIndex ? new BAMIndexer(getIndexFile(file),header) : null;
+    }
+
+    @Override
+    public SAMFileHeader getFileHeader() {
+        return header;
+    }
+
+    @Override
+    public void setProgressLogger(final ProgressLoggerInterface progressLogger) {
+        this.progressLogger = progressLogger;
+    }
+
+    @Override
+    public void addAlignment(final SAMRecord read) {
+        final long startOffset = getFilePointer();
+        recordCodec.encode(read);
+        final long stopOffset = getFilePointer();
+
+        if(indexer != null) {
+            PicardNamespaceUtils.setFileSource(read,new SAMFileSource(null,new GATKBAMFileSpan(new GATKChunk(startOffset,stopOffset))));
+            indexer.processAlignment(read);
+        }
+
+        if(progressLogger != null)
+            progressLogger.record(read);
+    }
+
+    /**
+     * Appends the records of the given BAM file by copying its compressed blocks.  The file must have been
+     * written with the same header as this writer, and its records must directly follow any written so far.
+     * @param source BAM file whose records should be appended.
+     * @throws IOException if the source can't be read or the output can't be written.
+     */
+    public void appendBlocks(final File source) throws IOException {
+        // Finish off the block currently being compressed, so that the copied blocks start on a block boundary.
+        blockCompressedOutputStream.flush();
+
+        final long recordStart = findEndOfHeader(source);
+        final long firstBlockAddress = BlockCompressedFilePointerUtil.getBlockAddress(recordStart);
+        final int firstBlockOffset = BlockCompressedFilePointerUtil.getBlockOffset(recordStart);
+
+        // If the header shares its last block with the first records, those records are recompressed into a block of their own.
+        long rawCopyStart = firstBlockAddress;
+        long recompressedBlockAddress = -1;
+        if(firstBlockOffset != 0) {
+            recompressedBlockAddress = BlockCompressedFilePointerUtil.getBlockAddress(getFilePointer());
+            final BlockCompressedInputStream inputStream = new BlockCompressedInputStream(source);
+            try {
+                inputStream.seek(recordStart);
+                final byte[] remainder = new byte[inputStream.available()];
+                readFully(inputStream,remainder);
+                blockCompressedOutputStream.write(remainder);
+                blockCompressedOutputStream.flush();
+                rawCopyStart = BlockCompressedFilePointerUtil.getBlockAddress(inputStream.getFilePointer());
+            }
+            finally {
+                inputStream.close();
+            }
+        }
+
+        // Copy everything else, up to but not including the terminating empty block.
+        final long rawCopyStop = source.length() - (endsWithEmptyBlock(source) ? BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length : 0);
+        final long rawDestinationStart = BlockCompressedFilePointerUtil.getBlockAddress(getFilePointer());
+        copyDirectly(source,rawCopyStart,rawCopyStop);
+
+        if(indexer != null)
+            indexAppendedRecords(source,firstBlockAddress,firstBlockOffset,recompressedBlockAddress,rawCopyStart,rawDestinationStart);
+    }
+
+    @Override
+    public void close() {
+        try {
+            blockCompressedOutputStream.close();
+        }
+        catch(IOException ex) {
+            throw new RuntimeIOException("Unable to close BAM file " + file,ex);
+        }
+        if(indexer != null)
+            indexer.finish();
+    }
+
+    /**
+     * Gets the virtual file pointer of the next byte to be written.
+     * @return Virtual file pointer into the output file.
+     */
+    private long getFilePointer() {
+        final long compressorFilePointer = blockCompressedOutputStream.getFilePointer();
+        return makeFilePointer(BlockCompressedFilePointerUtil.getBlockAddress(compressorFilePointer)+bytesWrittenDirectly,
+                                                              BlockCompressedFilePointerUtil.getBlockOffset(compressorFilePointer));
+    }
+
+    /**
+     * Feeds the records spliced in from the given source to the indexer, translating their positions in the source
+     * file into positions in the output file.
+     */
+    private void indexAppendedRecords(final File source,
+                                      final long firstBlockAddress,
+                                      final int firstBlockOffset,
+                                      final long recompressedBlockAddress,
+                                      final long rawCopyStart,
+                                      final long rawDestinationStart) {
+        final SAMFileReader reader = new SAMFileReader(source);
+        try {
+            reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+            reader.enableFileSource(true);
+            for(final SAMRecord read: reader) {
+                final GATKChunk sourceChunk = new GATKBAMFileSpan(read.getFileSource().getFilePointer()).getExtent();
+                final long startOffset = translateFilePointer(sourceChunk.getBlockStart(),sourceChunk.getBlockOffsetStart(),firstBlockAddress,firstBlockOffset,recompressedBlockAddress,rawCopyStart,rawDestinationStart);
+                final long stopOffset = translateFilePointer(sourceChunk.getBlockEnd(),sourceChunk.getBlockOffsetEnd(),firstBlockAddress,firstBlockOffset,recompressedBlockAddress,rawCopyStart,rawDestinationStart);
+                PicardNamespaceUtils.setFileSource(read,new SAMFileSource(null,new GATKBAMFileSpan(new GATKChunk(startOffset,stopOffset))));
+                indexer.processAlignment(read);
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private static long translateFilePointer(final long blockAddress,
+                                             final int blockOffset,
+                                             final long firstBlockAddress,
+                                             final int firstBlockOffset,
+                                             final long recompressedBlockAddress,
+                                             final long rawCopyStart,
+                                             final long rawDestinationStart) {
+        if(blockAddress == firstBlockAddress && firstBlockOffset != 0)
+            return makeFilePointer(recompressedBlockAddress,blockOffset-firstBlockOffset);
+        return makeFilePointer(blockAddress-rawCopyStart+rawDestinationStart,blockOffset);
+    }
+
+    /**
+     * Writes bytes straight to the output, bypassing the block compressor.
+     * @param bytes Bytes to write.
+     * @throws IOException if the bytes can't be written.
+     */
+    private void writeDirectly(final byte[] bytes) throws IOException {
+        outputStream.write(bytes);
+        bytesWrittenDirectly += bytes.length;
+    }
+
+    /**
+     * Copies the given range of the source file straight to the output.
+     */
+    private void copyDirectly(final File source, final long start, final long stop) throws IOException {
+        final RandomAccessFile inputFile = new RandomAccessFile(source,"r");
+        try {
+            inputFile.seek(start);
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long remaining = stop - start;
+            while(remaining > 0) {
+                final int bytesRead = inputFile.read(buffer,0,(int)Math.min(buffer.length,remaining));
+                if(bytesRead < 0)
+                    throw new EOFException("Unexpected end of file while copying blocks from " + source);
+                outputStream.write(buffer,0,bytesRead);
+                remaining -= bytesRead;
+            }
+            bytesWrittenDirectly += stop - start;
+        }
+        finally {
+            inputFile.close();
+        }
+    }
+
+    /**
+     * Finds the position of the first record in the given BAM file.
+     * @param source BAM file.
+     * @return Virtual file pointer just past the end of the header.
+     * @throws IOException if the header can't be read.
+     */
+    private static long findEndOfHeader(final File source) throws IOException {
+        final BlockCompressedInputStream inputStream = new BlockCompressedInputStream(source);
+        try {
+            final byte[] magic = new byte[BAM_MAGIC.length];
+            readFully(inputStream,magic);
+            if(!Arrays.equals(magic,BAM_MAGIC))
+                throw new IOException("Invalid BAM file header in " + source);
+
+            skipFully(inputStream,readInt(inputStream));         // header text
+            final int sequenceCount = readInt(inputStream);
+            for(int i = 0; i < sequenceCount; i++)
+                skipFully(inputStream,readInt(inputStream) + 4); // name, followed by the sequence length
+
+            return inputStream.getFilePointer();
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Checks whether the given BGZF file ends in the standard empty terminating block.
+     */
+    private static boolean endsWithEmptyBlock(final File source) throws IOException {
+        final byte[] emptyBlock = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+        if(source.length() < emptyBlock.length)
+            return false;
+        final RandomAccessFile inputFile = new RandomAccessFile(source,"r");
+        try {
+            final byte[] trailer = new byte[emptyBlock.length];
+            inputFile.seek(source.length()-emptyBlock.length);
+            inputFile.readFully(trailer);
+            return Arrays.equals(trailer,emptyBlock);
+        }
+        finally {
+            inputFile.close();
+        }
+    }
+
+    /**
+     * Encodes the given header as a standalone sequence of BGZF blocks, without the terminating empty block.
+     */
+    private static byte[] encodeHeader(final SAMFileHeader header, final int compressionLevel) {
+        final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        final BAMFileWriter headerWriter = new BAMFileWriter(headerBytes,null,compressionLevel);
+        headerWriter.setSortOrder(header.getSortOrder(),true);
+        headerWriter.setHeader(header);
+        headerWriter.close();
+
+        final byte[] encodedHeader = headerBytes.toByteArray();
+        return Arrays.copyOf(encodedHeader,encodedHeader.length-BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length);
+    }
+
+    private static File getIndexFile(final File bamFile) {
+        final String path = bamFile.getAbsolutePath();
+        final String base = path.endsWith(BAM_FILE_EXTENSION) ? path.substring(0,path.length()-BAM_FILE_EXTENSION.length()) : path;
+        return new File(base + BAMIndex.BAMIndexSuffix);
+    }
+
+    /**
+     * Create an encoded BAM file pointer given the address of a BGZF block and an offset.
+     * @param blockAddress Physical address on disk of a BGZF block.
+     * @param blockOffset Offset into the uncompressed data stored in the BGZF block.
+     * @return 64-bit pointer encoded according to the BAM spec.
+     */
+    private static long makeFilePointer(final long blockAddress, final int blockOffset) {
+        return blockAddress << 16 | blockOffset;
+    }
+
+    private static int readInt(final InputStream inputStream) throws IOException {
+        final byte[] bytes = new byte[4];
+        readFully(inputStream,bytes);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    private static void readFully(final InputStream inputStream, final byte[] bytes) throws IOException {
+        int totalBytesRead = 0;
+        while(totalBytesRead < bytes.length) {
+            final int bytesRead = inputStream.read(bytes,totalBytesRead,bytes.length-totalBytesRead);
+            if(bytesRead < 0)
+                throw new EOFException("Unexpected end of BAM file");
+            totalBytesRead += bytesRead;
+        }
+    }
+
+    private static void skipFully(final InputStream inputStream, final long count) throws IOException {
+        readFully(inputStream,new byte[(int)count]);
+    }
+}
@@ -35,6 +35,7 @@ import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.sam.SimplifyingSAMFileWriter;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
@@ -48,6 +49,12 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
     private final File file;
     private SAMFileWriter writer;
 
+    /**
+     * If this storage is the final target of a multithreaded run, a writer that can splice in the
+     * compressed blocks of the temporary files directly.  Null otherwise.
+     */
+    private BlockCopyingBAMWriter blockCopyingWriter = null;
+
     private static Logger logger = Logger.getLogger(SAMFileWriterStorage.class);
 
     public SAMFileWriterStorage( SAMFileWriterStub stub ) {
@@ -56,18 +63,35 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
 
     public SAMFileWriterStorage( SAMFileWriterStub stub, File file ) {
         this.file = file;
+
+        // Temporary files are only ever read back sequentially during the merge, so they need neither index nor md5.
+        final boolean isTemporary = file != null && !file.equals(stub.getOutputFile());
+        final boolean createIndex = !isTemporary && stub.getFileHeader().getSortOrder().equals(SAMFileHeader.SortOrder.coordinate) && stub.getIndexOnTheFly();
+        final boolean createMd5 = !isTemporary && stub.getGenerateMD5();
+
         SAMFileWriterFactory factory = new SAMFileWriterFactory();
         // Enable automatic index creation for pre-sorted BAMs.
-        if (stub.getFileHeader().getSortOrder().equals(SAMFileHeader.SortOrder.coordinate) && stub.getIndexOnTheFly())
+        if (createIndex)
             factory.setCreateIndex(true);
-        if (stub.getGenerateMD5())
+        if (createMd5)
             factory.setCreateMd5File(true);
         // Adjust max records in RAM.
         // TODO -- this doesn't actually work because of a bug in Picard; do not use until fixed
         if(stub.getMaxRecordsInRam() != null)
             factory.setMaxRecordsInRam(stub.getMaxRecordsInRam());
 
-        if(stub.getOutputFile() != null) {
+        // Temporary files are written the same way, so that the output of several shards can be concatenated
+        // into one temporary file by copying blocks before it's merged into the final output.
+        if(stub.getOutputFile() != null && canCopyBlocks(stub)) {
+            try {
+                blockCopyingWriter = new BlockCopyingBAMWriter(file,stub.getFileHeader(),stub.getCompressionLevel(),createIndex,createMd5);
+                this.writer = blockCopyingWriter;
+            }
+            catch(RuntimeIOException ex) {
+                throw new UserException.CouldNotCreateOutputFile(file,"file could not be created",ex);
+            }
+        }
+        else if(stub.getOutputFile() != null) {
             try {
                 this.writer = createBAMWriter(factory,stub.getFileHeader(),stub.isPresorted(),file,stub.getCompressionLevel());
             }
@@ -103,7 +127,34 @@ public class SAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWrite
         }
     }
 
+    /**
+     * Can the final output for this stub be assembled by copying the compressed blocks of the temporary files?
+     * Only if there are temporary files to merge, and if the output never needs to be sorted by the writer.
+     * @param stub Stub for the output.
+     * @return True if the block copying writer should be used.
+     */
+    private static boolean canCopyBlocks( SAMFileWriterStub stub ) {
+        return stub.isMergingThreadOutput() &&
+               (stub.isPresorted() || stub.getFileHeader().getSortOrder().equals(SAMFileHeader.SortOrder.unsorted));
+    }
+
     public void mergeInto( SAMFileWriter targetStream ) {
+        if( targetStream instanceof SAMFileWriterStorage ) {
+            final BlockCopyingBAMWriter targetWriter = ((SAMFileWriterStorage)targetStream).blockCopyingWriter;
+            if( targetWriter != null && getFileHeader().equals(targetWriter.getFileHeader()) ) {
+                try {
+                    targetWriter.appendBlocks(file);
+                }
+                catch(IOException ex) {
+                    throw new UserException.CouldNotReadInputFile(file,"Unable to copy reads from temporary file",ex);
+                }
+                finally {
+                    file.delete();
+                }
+                return;
+            }
+        }
+
         SAMFileReader reader = new SAMFileReader( file );
         try {
             CloseableIterator<SAMRecord> iterator = reader.iterator();
@@ -25,13 +25,21 @@
 
 package org.broadinstitute.sting.gatk.io.storage;
 
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
 import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.LocationAware;
 import org.apache.log4j.Logger;
 import org.broad.tribble.AbstractFeatureReader;
 import org.broad.tribble.Feature;
 import org.broad.tribble.FeatureCodec;
+import org.broad.tribble.Tribble;
+import org.broad.tribble.index.Index;
+import org.broad.tribble.index.IndexCreator;
+import org.broad.tribble.index.TribbleIndexCreator;
 import org.broadinstitute.sting.gatk.io.stubs.VariantContextWriterStub;
 import org.broadinstitute.sting.gatk.refdata.tracks.FeatureManager;
+import org.broadinstitute.sting.gatk.refdata.tracks.IndexDictionaryUtils;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.variant.bcf2.BCF2Utils;
@@ -42,6 +50,7 @@ import org.broadinstitute.variant.variantcontext.writer.VariantContextWriterFact
 import org.broadinstitute.variant.vcf.VCFHeader;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
@@ -65,6 +74,56 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
     protected final VariantContextWriter writer;
     boolean closed = false;
 
+    /**
+     * The header written to this storage, used to validate that temporary output can be copied
+     * into the target without re-encoding.
+     */
+    private VCFHeader header = null;
+
+    /**
+     * Position tracker over the stream that the writer is writing into.  Null when writing to a user-supplied stream.
+     */
+    private LocationAware locationSource = null;
+
+    /**
+     * Is the underlying writer creating an index on the fly?  If so, records can't be appended
+     * behind its back without corrupting the index.
+     */
+    private boolean writerIndexesOnTheFly = false;
+
+    /**
+     * Can encoded records be appended directly to stream, bypassing the writer?
+     */
+    private boolean canAppendRawRecords = false;
+
+    /**
+     * Is this storage writing BCF2 rather than VCF?
+     */
+    private boolean isBCF = false;
+
+    /**
+     * Index creator driven by this storage rather than the writer.  Used when the output is assembled from
+     * temporary files, as the writer never sees the records copied in directly.
+     */
+    private IndexCreator indexer = null;
+    private SAMSequenceDictionary refDict = null;
+
+    /**
+     * Offset of the first record in this file, past the header.
+     */
+    private long headerEnd = 0;
+
+    /**
+     * Offset just past the last record in this file.  Only valid once the storage has been closed.
+     */
+    private long dataEnd = 0;
+
+    /**
+     * Locations and offsets of each record written to this temporary file, if they'll be needed to
+     * index the target after a direct copy.  Null otherwise.
+     */
+    private List<RecordLocation> recordLocations = null;
+
     /**
      * Constructs an object which will write directly into the output file provided by the stub.
      * Intentionally delaying the writing of the header -- this should be filled in by the walker.
@@ -82,8 +141,10 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
         else if ( stub.getOutputStream() != null ) {
             this.file = null;
             this.stream = stub.getOutputStream();
-            writer = VariantContextWriterFactory.create(stream,
-                    stub.getMasterSequenceDictionary(), stub.getWriterOptions(false));
+            final EnumSet<Options> options = stub.getWriterOptions(false);
+            writer = VariantContextWriterFactory.create(stream, stub.getMasterSequenceDictionary(), options);
+            canAppendRawRecords = true;
+            isBCF = options.contains(Options.FORCE_BCF);
         }
         else
             throw new ReviewedStingException("Unable to create target to which to write; storage was provided with neither a file nor a stream.");
@@ -103,6 +164,12 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
         this.file = tempFile;
         this.writer = vcfWriterToFile(stub, file, false, false);
         writer.writeHeader(stub.getVCFHeader());
+        this.header = stub.getVCFHeader();
+        this.headerEnd = locationSource.getPosition();
+
+        // the target will index itself as records are copied in, so remember where each record lives
+        if ( stub.isMergingThreadOutput() && stub.getOutputFile() != null && stub.getIndexCreator() != null )
+            recordLocations = new ArrayList<RecordLocation>();
     }
 
     /**
@@ -125,15 +192,29 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
             if ( allowCompressed && stub.isCompressed() )
                 stream = new BlockCompressedOutputStream(file);
             else
-                stream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+                stream = new PositionTrackingOutputStream(new PrintStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)));
+            locationSource = (LocationAware)stream;
         }
         catch(IOException ex) {
             throw new UserException.CouldNotCreateOutputFile(file, "Unable to open target output stream", ex);
         }
 
+        // Output from multiple data threads is copied into this file directly from the temporary files, bypassing
+        // the writer.  Index the records here rather than in the writer so that the copied records are included.
+        if ( indexOnTheFly && stub.isMergingThreadOutput() && stub.getIndexCreator() != null ) {
+            indexer = stub.getIndexCreator();
+            refDict = stub.getMasterSequenceDictionary();
+        }
+
         // The GATK/Tribble can't currently index block-compressed files on the fly.  Disable OTF indexing even if the user explicitly asked for it.
-        EnumSet<Options> options = stub.getWriterOptions(indexOnTheFly);
+        EnumSet<Options> options = stub.getWriterOptions(indexOnTheFly && indexer == null);
         VariantContextWriter writer = VariantContextWriterFactory.create(file, this.stream, stub.getMasterSequenceDictionary(), stub.getIndexCreator(), options);
+        writerIndexesOnTheFly = options.contains(Options.INDEX_ON_THE_FLY);
+        isBCF = VariantContextWriterFactory.isBCFOutput(file, options);
+
+        // compressed VCFs are wrapped by the factory unless we've already done so ourselves
+        canAppendRawRecords = ! writerIndexesOnTheFly &&
+                ( ! VariantContextWriterFactory.isCompressedVcf(file) || stream instanceof BlockCompressedOutputStream );
 
         // if the stub says to test BCF, create a secondary writer to BCF and an 2 way out writer to send to both
         // TODO -- remove me when argument generateShadowBCF is removed
@@ -149,6 +230,7 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
 
                 VariantContextWriter bcfWriter = VariantContextWriterFactory.create(bcfFile, bcfStream, stub.getMasterSequenceDictionary(), stub.getIndexCreator(), options);
                 writer = new TestWriter(writer, bcfWriter);
+                canAppendRawRecords = false;
             }
         }
 
@@ -180,6 +262,10 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
 
     public void add(VariantContext vc) {
         if ( closed ) throw new ReviewedStingException("Attempting to write to a closed VariantContextWriterStorage " + vc.getStart() + " storage=" + this);
+        if ( indexer != null )
+            indexer.addFeature(vc, locationSource.getPosition());
+        if ( recordLocations != null )
+            recordLocations.add(new RecordLocation(vc.getChr(), vc.getStart(), vc.getEnd(), locationSource.getPosition()));
         writer.add(vc);
     }
 
@@ -190,14 +276,40 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
      */
     public void writeHeader(VCFHeader header) {
         writer.writeHeader(header);
+        this.header = header;
     }
 
     /**
      * Close the VCF storage object.
      */
     public void close() {
+        if ( locationSource != null )
+            dataEnd = locationSource.getPosition();
         writer.close();
         closed = true;
+
+        if ( indexer != null ) {
+            writeIndex();
+            indexer = null;
+        }
+    }
+
+    /**
+     * Finalize the index built up by this storage and write it alongside the output file.
+     */
+    private void writeIndex() {
+        if ( indexer instanceof TribbleIndexCreator && refDict != null ) {
+            for ( final SAMSequenceRecord sequence : refDict.getSequences() )
+                ((TribbleIndexCreator)indexer).addProperty(IndexDictionaryUtils.SequenceDictionaryPropertyPredicate + sequence.getSequenceName(),
+                        String.valueOf(sequence.getSequenceLength()));
+        }
+
+        try {
+            final Index index = indexer.finalizeIndex(locationSource.getPosition());
+            index.writeBasedOnFeatureFile(file);
+        } catch (IOException e) {
+            throw new UserException.CouldNotCreateOutputFile(Tribble.indexFile(file), "Unable to write index", e);
+        }
     }
 
     public void mergeInto(VariantContextWriterStorage target) {
@@ -207,23 +319,176 @@ public class VariantContextWriterStorage implements Storage<VariantContextWriter
             final String targetFilePath = target.file != null ? target.file.getAbsolutePath() : "/dev/stdin";
             logger.debug(String.format("Merging VariantContextWriterStorage from %s into %s", file.getAbsolutePath(), targetFilePath));
 
-            // use the feature manager to determine the right codec for the tmp file
-            // that way we don't assume it's a specific type
-            final FeatureManager.FeatureDescriptor fd = new FeatureManager().getByFiletype(file);
-            if ( fd == null )
-                throw new UserException.LocalParallelizationProblem(file);
-
-            final FeatureCodec codec = fd.getCodec();
-            final AbstractFeatureReader<Feature, ?> source = AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), codec, false);
-
-            for ( final Feature vc : source.iterator() ) {
-                target.writer.add((VariantContext) vc);
-            }
+            if ( canCopyRecordsInto(target) )
+                copyRecordsInto(target);
+            else
+                decodeRecordsInto(target);
 
-            source.close();
             file.delete(); // this should be last to aid in debugging when the process fails
         } catch (IOException e) {
             throw new UserException.CouldNotReadInputFile(file, "Error reading file in VCFWriterStorage: ", e);
         }
     }
+
+    /**
+     * Can the encoded records in this file be copied byte-for-byte into the target?  True only if both
+     * files were written with the same header in the same format, and the target's writer won't be
+     * confused by data appearing in its stream behind its back.
+     *
+     * @param target the storage into which this storage will be merged.
+     * @return true if the records can be copied without decoding them.
+     */
+    protected boolean canCopyRecordsInto(final VariantContextWriterStorage target) {
+        return target.canAppendRawRecords &&
+                isBCF == target.isBCF &&
+                headersMatch(header, target.header) &&
+                ( recordLocations != null || ( target.indexer == null && target.recordLocations == null ) );
+    }
+
+    private static boolean headersMatch(final VCFHeader header, final VCFHeader other) {
+        if ( header == other )
+            return true;
+        if ( header == null || other == null )
+            return false;
+        return header.getMetaDataInInputOrder().equals(other.getMetaDataInInputOrder()) &&
+                header.getGenotypeSamples().equals(other.getGenotypeSamples());
+    }
+
+    /**
+     * Copy the encoded VCF lines or BCF2 records following the header of this file directly into the target.
+     *
+     * @param target the storage into which to copy this storage's records.
+     * @throws IOException if the temporary file can't be read.
+     */
+    private void copyRecordsInto(final VariantContextWriterStorage target) throws IOException {
+        final InputStream source = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            skipFully(source, headerEnd);
+
+            if ( target.indexer == null ) {
+                // if the target is itself temporary storage, keep track of where the records land in it
+                if ( target.recordLocations != null ) {
+                    final long shift = target.locationSource.getPosition() - headerEnd;
+                    for ( final RecordLocation record : recordLocations )
+                        target.recordLocations.add(new RecordLocation(record.contig, record.start, record.end, record.offset + shift));
+                }
+                copyFully(source, target.stream, dataEnd - headerEnd, buffer);
+            }
+            else {
+                // copy record by record, so that the target can note where each record lands
+                for ( int i = 0; i < recordLocations.size(); i++ ) {
+                    final RecordLocation record = recordLocations.get(i);
+                    final long recordEnd = i + 1 < recordLocations.size() ? recordLocations.get(i+1).offset : dataEnd;
+                    target.indexer.addFeature(record, target.locationSource.getPosition());
+                    copyFully(source, target.stream, recordEnd - record.offset, buffer);
+                }
+            }
+        }
+        finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Fully decode each record in this file and add it through the target's writer.
+     *
+     * @param target the storage into which to write this storage's records.
+     * @throws IOException if the temporary file can't be read.
+     */
+    private void decodeRecordsInto(final VariantContextWriterStorage target) throws IOException {
+        // use the feature manager to determine the right codec for the tmp file
+        // that way we don't assume it's a specific type
+        final FeatureManager.FeatureDescriptor fd = new FeatureManager().getByFiletype(file);
+        if ( fd == null )
+            throw new UserException.LocalParallelizationProblem(file);
+
+        final FeatureCodec codec = fd.getCodec();
+        final AbstractFeatureReader<Feature, ?> source = AbstractFeatureReader.getFeatureReader(file.getAbsolutePath(), codec, false);
+
+        for ( final Feature vc : source.iterator() ) {
+            target.add((VariantContext) vc);
+        }
+
+        source.close();
+    }
+
+    private static void skipFully(final InputStream source, long count) throws IOException {
+        while ( count > 0 ) {
+            final long skipped = source.skip(count);
+            if ( skipped <= 0 )
+                throw new EOFException("Unexpected end of temporary file");
+            count -= skipped;
+        }
+    }
+
+    private static void copyFully(final InputStream source, final OutputStream destination, long count, final byte[] buffer) throws IOException {
+        while ( count > 0 ) {
+            final int read = source.read(buffer, 0, (int)Math.min(buffer.length, count));
+            if ( read < 0 )
+                throw new EOFException("Unexpected end of temporary file");
+            destination.write(buffer, 0, read);
+            count -= read;
+        }
+    }
+
+    /**
+     * The location of a record in a temporary file, along with its offset in that file.
+     */
+    private final static class RecordLocation implements Feature {
+        private final String contig;
+        private final int start;
+        private final int end;
+        private final long offset;
+
+        private RecordLocation(final String contig, final int start, final int end, final long offset) {
+            this.contig = contig;
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+        }
+
+        @Override
+        public String getChr() {
+            return contig;
+        }
+
+        @Override
+        public int getStart() {
+            return start;
+        }
+
+        @Override
+        public int getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * Counts the bytes passing through to an uncompressed output stream.
+     */
+    private final static class PositionTrackingOutputStream extends FilterOutputStream implements LocationAware {
+        private long position = 0;
+
+        private PositionTrackingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+    }
 }
@@ -247,6 +247,15 @@ public class SAMFileWriterStub implements Stub<SAMFileWriter>, StingSAMFileWrite
         this.presorted = presorted;
     }
 
+    /**
+     * Whether output for this file will be written by several data threads into temporary files,
+     * which are then merged into the target.
+     * @return True if the engine is running with more than one data thread.
+     */
+    public boolean isMergingThreadOutput() {
+        return engine != null && engine.getArguments().numberOfDataThreads > 1;
+    }
+
     /**
      * Get the maximum number of reads to hold in RAM when sorting a BAM on-the-fly.
      * @return Max records in RAM, or null if unset.
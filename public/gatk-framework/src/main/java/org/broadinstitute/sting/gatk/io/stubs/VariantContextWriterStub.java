@@ -187,6 +187,15 @@ public class VariantContextWriterStub implements Stub<VariantContextWriter>, Var
         return indexCreator;
     }
 
+    /**
+     * Whether output for this file will be written by several data threads into temporary files,
+     * which are then merged into the target.
+     * @return True if the engine is running with more than one data thread.
+     */
+    public boolean isMergingThreadOutput() {
+        return engine.getArguments().numberOfDataThreads > 1;
+    }
+
     /**
      * Gets the master sequence dictionary from the engine associated with this stub
      * @link GenomeAnalysisEngine.getMasterSequenceDictionary
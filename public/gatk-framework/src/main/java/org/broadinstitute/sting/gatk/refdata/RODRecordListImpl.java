@@ -81,6 +81,22 @@ public class RODRecordListImpl extends AbstractList<GATKFeature> implements Comp
         }
     }
 
+    /**
+     * Creates a GATKFeatureRecordList that takes ownership of records, without copying or validating them.  Only for
+     * callers that have already established that every record has the given track name and overlaps loc, and that
+     * won't touch records afterwards.
+     * @param name the name of the track
+     * @param records the list of features at this location, which becomes the backing list of the result
+     * @param loc the location
+     * @return a new RODRecordListImpl backed by records
+     */
+    public static RODRecordListImpl createWithoutValidation(final String name, final List<GATKFeature> records, final GenomeLoc loc) {
+        if ( records == null ) throw new IllegalArgumentException("records cannot be null");
+        final RODRecordListImpl list = new RODRecordListImpl(name);
+        list.records = records;
+        list.location = loc;
+        return list;
+    }
 
     public GenomeLoc getLocation() { return location; }
     public String getName() { return name; }
@@ -30,11 +30,15 @@ import com.google.java.contract.Requires;
 import org.broad.tribble.Feature;
 import org.broad.tribble.FeatureCodec;
 import org.broad.tribble.NameAwareCodec;
+import org.broad.tribble.readers.LineIterator;
 import org.broadinstitute.sting.gatk.refdata.ReferenceDependentFeatureCodec;
 import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.classloader.PluginManager;
+import org.broadinstitute.variant.variantcontext.VariantContext;
 import org.broadinstitute.variant.vcf.AbstractVCFCodec;
+import org.broadinstitute.variant.vcf.VCFCodec;
+import org.broadinstitute.variant.vcf.VCFHeader;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.help.GATKDocUtils;
 
@@ -257,7 +261,24 @@ public class FeatureManager  {
     @Requires({"descriptor != null", "name != null", "genomeLocParser != null"})
     @Ensures("result != null")
     public FeatureCodec createCodec(FeatureDescriptor descriptor, String name, GenomeLocParser genomeLocParser) {
-        FeatureCodec codex = pluginManager.createByType(descriptor.getCodecClass());
+        return createCodec(descriptor, name, genomeLocParser, false);
+    }
+
+    /**
+     * Create a new FeatureCodec of the type described in descriptor, assigning it the
+     * name (if possible) and providing it the genomeLocParser (where necessary)
+     *
+     * @param descriptor FeatureDescriptor of the Tribble FeatureCodec we want to create
+     * @param name the name to assign this codec
+     * @param sitesOnly if true and descriptor is for VCF, the codec never parses or allocates genotypes
+     * @return the feature codec itself
+     */
+    @Requires({"descriptor != null", "name != null", "genomeLocParser != null"})
+    @Ensures("result != null")
+    public FeatureCodec createCodec(FeatureDescriptor descriptor, String name, GenomeLocParser genomeLocParser, boolean sitesOnly) {
+        FeatureCodec codex = sitesOnly && descriptor.getCodecClass() == VCFCodec.class
+                ? createSitesOnlyVCFCodec()
+                : pluginManager.createByType(descriptor.getCodecClass());
         if ( codex instanceof NameAwareCodec )
             ((NameAwareCodec)codex).setName(name);
         if ( codex instanceof ReferenceDependentFeatureCodec )
@@ -267,4 +288,46 @@ public class FeatureManager  {
 
         return codex;
     }
+
+    /**
+     * Create a VCFCodec that drops the genotype columns from each line before decoding it, and whose header
+     * lists no samples, so that genotypes are never parsed or held in memory.
+     *
+     * This is an anonymous class on purpose: as a named class, the PluginManager would pick it up as another
+     * Tribble type able to decode every VCF file.
+     *
+     * @return a new sites-only VCF codec
+     */
+    protected static VCFCodec createSitesOnlyVCFCodec() {
+        return new VCFCodec() {
+            @Override
+            public Object readActualHeader(final LineIterator lineIterator) {
+                final VCFHeader fullHeader = (VCFHeader)super.readActualHeader(lineIterator);
+                if ( ! fullHeader.hasGenotypingData() )
+                    return fullHeader;
+                return setVCFHeader(new VCFHeader(fullHeader.getMetaDataInInputOrder()), version);
+            }
+
+            @Override
+            public VariantContext decode(final String line) {
+                return super.decode(stripGenotypeColumns(line));
+            }
+
+            @Override
+            public Feature decodeLoc(final String line) {
+                return super.decodeLoc(stripGenotypeColumns(line));
+            }
+
+            /**
+             * @return line, up to but not including the tab before the FORMAT column
+             */
+            private String stripGenotypeColumns(final String line) {
+                int nTabs = 0;
+                for ( int i = 0; i < line.length(); i++ )
+                    if ( line.charAt(i) == '\t' && ++nTabs == NUM_STANDARD_FIELDS )
+                        return line.substring(0, i);
+                return line;
+            }
+        };
+    }
 }
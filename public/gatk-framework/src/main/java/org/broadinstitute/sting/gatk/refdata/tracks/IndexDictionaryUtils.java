@@ -32,6 +32,7 @@ import org.broad.tribble.index.Index;
 import org.broad.tribble.index.MutableIndex;
 import org.broadinstitute.sting.gatk.arguments.ValidationExclusion;
 import org.broadinstitute.sting.utils.SequenceDictionaryUtils;
+import org.broadinstitute.sting.utils.Utils;
 
 import java.util.List;
 import java.util.Map;
@@ -50,6 +51,9 @@ public class IndexDictionaryUtils {
     // a constant we use for marking sequence dictionary entries in the Tribble index property list
     public static final String SequenceDictionaryPropertyPredicate = "DICT:";
 
+    // a constant we use for marking, in the Tribble index property list, the digests of reference dictionaries the index has been validated against
+    public static final String ValidatedDictionaryPropertyPredicate = "VALIDATED_DICT:";
+
     /**
      * get the sequence dictionary from the track, if available.  If not, make it from the contig list that is always in the index
      * @param index the index file to use
@@ -97,6 +101,37 @@ public class IndexDictionaryUtils {
         }
     }
 
+    /**
+     * Compute a digest of the names and lengths of the contigs in dict, in order
+     * @param dict the sequence dictionary
+     * @return a hex MD5 string
+     */
+    public static String getSequenceDictionaryDigest(final SAMSequenceDictionary dict) {
+        final StringBuilder contigs = new StringBuilder();
+        for ( final SAMSequenceRecord seq : dict.getSequences() )
+            contigs.append(seq.getSequenceName()).append('\t').append(seq.getSequenceLength()).append('\n');
+        return Utils.calcMD5(contigs.toString());
+    }
+
+    /**
+     * Has the contig list of index been found compatible with the reference dictionary with the given digest?
+     * @param index the index to check
+     * @param dictDigest digest of the reference dictionary, from getSequenceDictionaryDigest()
+     * @return true if the index is marked as validated against the dictionary
+     */
+    public static boolean isIndexValidatedAgainst(final Index index, final String dictDigest) {
+        return index.getProperties() != null && index.getProperties().containsKey(ValidatedDictionaryPropertyPredicate + dictDigest);
+    }
+
+    /**
+     * Mark index as validated against the reference dictionary with the given digest.  THE INDEX MUST BE MUTABLE (i.e. not Tabix).
+     * @param index the (mutable) index to mark
+     * @param dictDigest digest of the reference dictionary, from getSequenceDictionaryDigest()
+     */
+    public static void setIndexValidatedAgainst(final Index index, final String dictDigest) {
+        ((MutableIndex)index).addProperty(ValidatedDictionaryPropertyPredicate + dictDigest, "true");
+    }
+
     public static void validateTrackSequenceDictionary(final String trackName,
                                                        final SAMSequenceDictionary trackDict,
                                                        final SAMSequenceDictionary referenceDict,
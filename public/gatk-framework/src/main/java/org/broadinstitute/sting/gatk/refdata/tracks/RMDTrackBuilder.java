@@ -34,12 +34,14 @@ import org.broad.tribble.TribbleException;
 import org.broad.tribble.index.Index;
 import org.broad.tribble.index.IndexFactory;
 import org.broad.tribble.util.LittleEndianOutputStream;
+import org.broadinstitute.sting.commandline.SitesOnly;
 import org.broadinstitute.sting.commandline.Tags;
 import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
 import org.broadinstitute.sting.gatk.arguments.ValidationExclusion;
 import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
 import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet.RMDStorageType;
 import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.SequenceDictionaryUtils;
 import org.broadinstitute.sting.utils.collections.Pair;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
@@ -49,6 +51,8 @@ import org.broadinstitute.sting.utils.instrumentation.Sizeof;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
@@ -67,6 +71,21 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
      */
     private final static Logger logger = Logger.getLogger(RMDTrackBuilder.class);
 
+    /**
+     * One monitor per index file, shared by all builders in this JVM.  Loading, creating and rewriting an index
+     * holds only the monitor for its own file, so that tracks backed by different files can be indexed
+     * concurrently.  Within the JVM this also keeps us from trying to take the same FSLockWithShared twice.
+     */
+    private final static ConcurrentMap<String, Object> indexFileMonitors = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Index files whose contig lists have already been validated against a reference dictionary during this run,
+     * keyed by path, size, timestamp and reference dictionary digest.  Tracks are reopened for every thread that
+     * queries them, and when the index can't be rewritten with its validation marker this keeps us from redoing
+     * the validation every time.
+     */
+    private final static ConcurrentMap<String, Boolean> validatedIndexFiles = new ConcurrentHashMap<String, Boolean>();
+
     // private sequence dictionary we use to set our tracks with
     private final SAMSequenceDictionary dict;
 
@@ -86,6 +105,12 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
     // make any file lock acquisition calls on the index files.
     private final boolean disableAutoIndexCreation;
 
+    // digest of dict, computed lazily
+    private volatile String dictDigest = null;
+
+    // If true, VCF tracks that aren't tagged otherwise are read without their genotypes
+    private boolean sitesOnlyByDefault = false;
+
     /**
      * Construct an RMDTrackerBuilder, allowing the user to define tracks to build after-the-fact.  This is generally
      * used when walkers want to directly manage the ROD system for whatever reason.  Before using this constructor,
@@ -117,6 +142,25 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
         return featureManager;
     }
 
+    /**
+     * Should VCF tracks be read without their genotypes unless their tags say otherwise?  Set for walkers
+     * annotated with @SitesOnly.
+     * @param sitesOnlyByDefault true to drop genotypes from untagged VCF tracks
+     */
+    public void setSitesOnlyByDefault(final boolean sitesOnlyByDefault) {
+        this.sitesOnlyByDefault = sitesOnlyByDefault;
+    }
+
+    /**
+     * Should the track described by fileDescriptor be read without genotypes?
+     * @param fileDescriptor a description of the track
+     * @return the value of the track's sitesOnly tag if it has one, otherwise the builder's default
+     */
+    public boolean isSitesOnly(final RMDTriplet fileDescriptor) {
+        final String tag = fileDescriptor.getTags() == null ? null : fileDescriptor.getTags().getValue(SitesOnly.TAG);
+        return tag != null ? Boolean.parseBoolean(tag) : sitesOnlyByDefault;
+    }
+
     /**
      * create a RMDTrack of the specified type
      *
@@ -127,6 +171,7 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
     public RMDTrack createInstanceOfTrack(RMDTriplet fileDescriptor) {
         String name = fileDescriptor.getName();
         File inputFile = new File(fileDescriptor.getFile());
+        final boolean sitesOnly = isSitesOnly(fileDescriptor);
 
         FeatureManager.FeatureDescriptor descriptor = getFeatureManager().getByTriplet(fileDescriptor);
         if (descriptor == null)
@@ -135,11 +180,11 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
         // return a feature reader track
         Pair<AbstractFeatureReader, SAMSequenceDictionary> pair;
         if (inputFile.getAbsolutePath().endsWith(".gz"))
-            pair = createTabixIndexedFeatureSource(descriptor, name, inputFile);
+            pair = createTabixIndexedFeatureSource(descriptor, name, inputFile, sitesOnly);
         else
-            pair = getFeatureSource(descriptor, name, inputFile, fileDescriptor.getStorageType());
+            pair = getFeatureSource(descriptor, name, inputFile, fileDescriptor.getStorageType(), sitesOnly);
         if (pair == null) throw new UserException.CouldNotReadInputFile(inputFile, "Unable to make the feature reader for input file");
-        return new RMDTrack(descriptor.getCodecClass(), name, inputFile, pair.first, pair.second, genomeLocParser, createCodec(descriptor, name));
+        return new RMDTrack(descriptor.getCodecClass(), name, inputFile, pair.first, pair.second, genomeLocParser, createCodec(descriptor, name, sitesOnly));
     }
 
     /**
@@ -165,15 +210,16 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
      * @param descriptor the FeatureDescriptor describing the FeatureCodec we want to create
      * @param name the name of the track
      * @param inputFile the file to load
+     * @param sitesOnly if true, VCF records are decoded without their genotypes
      * @return a feature reader implementation
      */
-    private Pair<AbstractFeatureReader, SAMSequenceDictionary> createTabixIndexedFeatureSource(FeatureManager.FeatureDescriptor descriptor, String name, File inputFile) {
+    private Pair<AbstractFeatureReader, SAMSequenceDictionary> createTabixIndexedFeatureSource(FeatureManager.FeatureDescriptor descriptor, String name, File inputFile, boolean sitesOnly) {
         // we might not know the index type, try loading with the default reader constructor
         logger.debug("Attempting to load " + inputFile + " as a tabix indexed file without validating it");
         try {
             final File indexFile = null;//new File(inputFile.getAbsoluteFile() + TabixUtils.STANDARD_INDEX_EXTENSION);
             final SAMSequenceDictionary dict = null; //TabixUtils.getSequenceDictionary(indexFile);
-            return new Pair<>(AbstractFeatureReader.getFeatureReader(inputFile.getAbsolutePath(), createCodec(descriptor, name)), dict);
+            return new Pair<>(AbstractFeatureReader.getFeatureReader(inputFile.getAbsolutePath(), createCodec(descriptor, name, sitesOnly)), dict);
         } catch (TribbleException e) {
             throw new UserException(e.getMessage(), e);
         }
@@ -183,10 +229,11 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
      * add a name to the codec, if it takes one
      * @param descriptor the class to create a codec for
      * @param name the name to assign this codec
+     * @param sitesOnly if true, VCF records are decoded without their genotypes
      * @return the feature codec itself
      */
-    private FeatureCodec createCodec(FeatureManager.FeatureDescriptor descriptor, String name) {
-        return featureManager.createCodec(descriptor, name, genomeLocParser);
+    private FeatureCodec createCodec(FeatureManager.FeatureDescriptor descriptor, String name, boolean sitesOnly) {
+        return featureManager.createCodec(descriptor, name, genomeLocParser, sitesOnly);
     }
 
     /**
@@ -195,12 +242,14 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
      * @param name the name of the codec
      * @param inputFile the tribble file to parse
      * @param storageType How the RMD is streamed into the input file.
+     * @param sitesOnly if true, VCF records are decoded without their genotypes
      * @return the input file as a FeatureReader
      */
     private Pair<AbstractFeatureReader, SAMSequenceDictionary> getFeatureSource(FeatureManager.FeatureDescriptor descriptor,
                                                                         String name,
                                                                         File inputFile,
-                                                                        RMDStorageType storageType) {
+                                                                        RMDStorageType storageType,
+                                                                        boolean sitesOnly) {
         // Feature source and sequence dictionary to use as the ultimate reference
         AbstractFeatureReader featureSource = null;
         SAMSequenceDictionary sequenceDictionary = null;
@@ -210,7 +259,7 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
 
         if(canBeIndexed) {
             try {
-                Index index = loadIndex(inputFile, createCodec(descriptor, name));
+                Index index = loadIndex(inputFile, createCodec(descriptor, name, sitesOnly));
                 try { logger.info(String.format("  Index for %s has size in bytes %d", inputFile, Sizeof.getObjectGraphSize(index))); }
                 catch (ReviewedStingException e) { }
 
@@ -218,21 +267,28 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
 
                 // if we don't have a dictionary in the Tribble file, and we've set a dictionary for this builder, set it in the file if they match
                 if (sequenceDictionary.size() == 0 && dict != null) {
-                    validateAndUpdateIndexSequenceDictionary(inputFile, index, dict);
-
-                    if ( ! disableAutoIndexCreation ) {
-                        File indexFile = Tribble.indexFile(inputFile);
-                        try { // re-write the index
-                            writeIndexToDisk(index,indexFile,new FSLockWithShared(indexFile));
-                        } catch (IOException e) {
-                            logger.warn("Unable to update index with the sequence dictionary for file " + indexFile + "; this will not affect your run of the GATK");
+                    final File indexFile = Tribble.indexFile(inputFile);
+                    synchronized (getIndexFileMonitor(indexFile)) {
+                        final String validationKey = getValidationKey(indexFile);
+                        if ( ! validatedIndexFiles.containsKey(validationKey) )
+                            validateAndUpdateIndexSequenceDictionary(inputFile, index, dict);
+                        else
+                            IndexDictionaryUtils.setIndexSequenceDictionary(index, dict);
+
+                        if ( ! disableAutoIndexCreation ) {
+                            try { // re-write the index
+                                writeIndexToDisk(index,indexFile,new FSLockWithShared(indexFile));
+                            } catch (IOException e) {
+                                logger.warn("Unable to update index with the sequence dictionary for file " + indexFile + "; this will not affect your run of the GATK");
+                            }
                         }
+                        validatedIndexFiles.put(getValidationKey(indexFile), Boolean.TRUE);
                     }
 
                     sequenceDictionary = IndexDictionaryUtils.getSequenceDictionaryFromProperties(index);
                 }
 
-                featureSource = AbstractFeatureReader.getFeatureReader(inputFile.getAbsolutePath(), createCodec(descriptor, name), index);
+                featureSource = AbstractFeatureReader.getFeatureReader(inputFile.getAbsolutePath(), createCodec(descriptor, name, sitesOnly), index);
             }
             catch (TribbleException e) {
                 throw new UserException(e.getMessage());
@@ -242,7 +298,7 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
             }
         }
         else {
-            featureSource = AbstractFeatureReader.getFeatureReader(inputFile.getAbsolutePath(), createCodec(descriptor, name), false);
+            featureSource = AbstractFeatureReader.getFeatureReader(inputFile.getAbsolutePath(), createCodec(descriptor, name, sitesOnly), false);
         }
 
         return new Pair<AbstractFeatureReader,SAMSequenceDictionary>(featureSource,sequenceDictionary);
@@ -250,13 +306,31 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
 
     /**
      * create an index for the input file
+     *
+     * Safe to call from several threads at once.  Calls for the same index file are serialized, while
+     * calls for different files proceed in parallel.
+     *
      * @param inputFile the input file
      * @param codec the codec to use
      * @return a linear index for the specified type
      * @throws IOException if we cannot write the index file
      */
-    public synchronized Index loadIndex( final File inputFile, final FeatureCodec codec) throws IOException {
+    public Index loadIndex( final File inputFile, final FeatureCodec codec) throws IOException {
         final File indexFile = Tribble.indexFile(inputFile);
+        synchronized (getIndexFileMonitor(indexFile)) {
+            return loadIndex(inputFile, codec, indexFile);
+        }
+    }
+
+    /**
+     * Load or create the index for inputFile.  The caller must hold the monitor for indexFile.
+     * @param inputFile the input file
+     * @param codec the codec to use
+     * @param indexFile the index file for inputFile
+     * @return a linear index for the specified type
+     * @throws IOException if we cannot write the index file
+     */
+    private Index loadIndex( final File inputFile, final FeatureCodec codec, final File indexFile ) throws IOException {
         final FSLockWithShared lock = new FSLockWithShared(indexFile);
         Index idx = null;
 
@@ -280,6 +354,41 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
         return idx;
     }
 
+    /**
+     * Get the monitor guarding all reads and writes of indexFile within this JVM
+     * @param indexFile the index file
+     * @return the same object for every call with the same file
+     */
+    private static Object getIndexFileMonitor(final File indexFile) {
+        final String key = indexFile.getAbsolutePath();
+        final Object monitor = indexFileMonitors.get(key);
+        if ( monitor != null )
+            return monitor;
+        final Object newMonitor = new Object();
+        final Object existing = indexFileMonitors.putIfAbsent(key, newMonitor);
+        return existing != null ? existing : newMonitor;
+    }
+
+    /**
+     * Get the key under which a successful validation of indexFile against our dictionary is remembered.  The
+     * key changes whenever the index file is rewritten, so that we never trust a validation of older contents.
+     * @param indexFile the index file
+     * @return a key for validatedIndexFiles
+     */
+    private String getValidationKey(final File indexFile) {
+        return indexFile.getAbsolutePath() + ":" + indexFile.length() + ":" + indexFile.lastModified() + ":" + getDictionaryDigest();
+    }
+
+    /**
+     * Digest of the reference dictionary this builder validates against, computed at most once
+     * @return a hex MD5 string, or "none" if this builder has no dictionary
+     */
+    private String getDictionaryDigest() {
+        if ( dictDigest == null )
+            dictDigest = dict == null ? "none" : IndexDictionaryUtils.getSequenceDictionaryDigest(dict);
+        return dictDigest;
+    }
+
     /**
      * Attempt to acquire a shared lock and then load the index from disk. Returns an in-memory index if
      * a lock could not be obtained. Returns null if a problem was discovered with the index file when it
@@ -402,9 +511,19 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
     public void validateAndUpdateIndexSequenceDictionary(final File inputFile, final Index index, final SAMSequenceDictionary dict) {
         if (dict == null) throw new ReviewedStingException("BUG: dict cannot be null");
 
-        // check that every contig in the RMD contig list is at least in the sequence dictionary we're being asked to set
-        final SAMSequenceDictionary currentDict = IndexDictionaryUtils.createSequenceDictionaryFromContigList(index, new SAMSequenceDictionary());
-        validateTrackSequenceDictionary(inputFile.getAbsolutePath(), currentDict, dict);
+        // an index we've written before remembers which dictionaries it has already been found compatible with
+        final String digest = dict == this.dict ? getDictionaryDigest() : IndexDictionaryUtils.getSequenceDictionaryDigest(dict);
+        if ( ! IndexDictionaryUtils.isIndexValidatedAgainst(index, digest) ) {
+            // check that every contig in the RMD contig list is at least in the sequence dictionary we're being asked to set
+            final SAMSequenceDictionary currentDict = IndexDictionaryUtils.createSequenceDictionaryFromContigList(index, new SAMSequenceDictionary());
+            validateTrackSequenceDictionary(inputFile.getAbsolutePath(), currentDict, dict);
+
+            // only remember fully compatible contig lists; anything else has to be warned about again on every run
+            final SequenceDictionaryUtils.SequenceDictionaryCompatibility compatibility = SequenceDictionaryUtils.compareDictionaries(currentDict, dict);
+            if ( compatibility == SequenceDictionaryUtils.SequenceDictionaryCompatibility.IDENTICAL ||
+                    compatibility == SequenceDictionaryUtils.SequenceDictionaryCompatibility.COMMON_SUBSET )
+                IndexDictionaryUtils.setIndexValidatedAgainst(index, digest);
+        }
 
         // actually update the dictionary in the index
         IndexDictionaryUtils.setIndexSequenceDictionary(index, dict);
@@ -29,8 +29,8 @@ import net.sf.samtools.SAMSequenceDictionary;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.HasGenomeLocation;
 
+import java.util.ArrayDeque;
 import java.util.Comparator;
-import java.util.LinkedList;
 
 
 /**
@@ -48,9 +48,11 @@ import java.util.LinkedList;
  */
 public class FlashBackIterator implements LocationAwareSeekableRODIterator {
     private LocationAwareSeekableRODIterator iterator;
-    private LinkedList<ComparableList> pastQueue = new LinkedList<ComparableList>();
-    private LinkedList<ComparableList> aheadQueue = new LinkedList<ComparableList>();
-    private int MAX_QUEUE = 200;
+    private static final int MAX_QUEUE = 200;
+
+    // array-backed ring buffers, sized so that the past queue never has to grow
+    private final ArrayDeque<ComparableList> pastQueue = new ArrayDeque<ComparableList>(MAX_QUEUE + 1);
+    private final ArrayDeque<ComparableList> aheadQueue = new ArrayDeque<ComparableList>(MAX_QUEUE + 1);
 
     /**
      * create a flashback iterator
@@ -142,9 +144,7 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
      */
     private RODRecordList getNext() {
         if (aheadQueue.size() > 0) {
-            RODRecordList ret = aheadQueue.getFirst().getList();
-            aheadQueue.removeFirst();
-            return ret;
+            return aheadQueue.removeFirst().getList();
         } else {
             RODRecordList ret = iterator.next();
             createPastRecord(ret);
@@ -154,8 +154,8 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
 
     private void createPastRecord(RODRecordList ret) {
         ComparableList rec = new ComparableList(ret);
-        if (rec.getLocation() != null) pastQueue.addLast(new ComparableList(ret));
-        if (pastQueue.size() > this.MAX_QUEUE) pastQueue.removeFirst();
+        if (rec.getLocation() != null) pastQueue.addLast(rec);
+        if (pastQueue.size() > MAX_QUEUE) pastQueue.removeFirst();
     }
 
     /**
@@ -179,8 +179,7 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
         if (!canFlashBackTo(location)) throw new UnsupportedOperationException("we can't flash back to " + location);
         if (pastQueue.size()==0) return; // the iterator can do it alone
         while (pastQueue.size() > 0 && !pastQueue.getLast().getLocation().isBefore(location)) {
-            aheadQueue.addFirst(pastQueue.getLast());
-            pastQueue.removeLast();
+            aheadQueue.addFirst(pastQueue.removeLast());
         }
     }
 
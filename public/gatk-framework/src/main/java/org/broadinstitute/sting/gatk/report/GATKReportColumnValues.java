@@ -0,0 +1,479 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.report;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * The values of one column of a GATKReportTable, stored according to their type
+ *
+ * Integer columns keep their values as longs, decimal columns as doubles, and string columns as indices into a
+ * dictionary of the distinct strings, so that filling in a large table doesn't box every cell.  Anything else,
+ * including numbers of more than one class in the same column, is kept as is.  Cells that have never been set
+ * are null.
+ *
+ * The column's width and alignment are kept just as if GATKReportColumn.updateFormatting() had been called with
+ * every value set.  Where they only depend on the smallest and largest values, that is put off until
+ * flushFormatting(), rather than formatting each value as it comes in.
+ */
+abstract class GATKReportColumnValues {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final String NULL_VALUE = "null";
+
+    protected final GATKReportColumn column;
+
+    protected GATKReportColumnValues(final GATKReportColumn column) {
+        this.column = column;
+    }
+
+    /**
+     * Create storage for the values of a column of a known data type
+     *
+     * @param column the column
+     * @return empty values suited to column's data type
+     */
+    static GATKReportColumnValues create(final GATKReportColumn column) {
+        switch ( column.getDataType() ) {
+            case Integer:
+                return new LongValues(column);
+            case Decimal:
+                return new DoubleValues(column);
+            case String:
+                return new StringValues(column);
+            default:
+                return new ObjectValues(column);
+        }
+    }
+
+    /**
+     * Create storage for the values of a column without a data type, based on the first value put in it
+     *
+     * @param column the column
+     * @param value the first value to be stored
+     * @return empty values that can store value
+     */
+    static GATKReportColumnValues create(final GATKReportColumn column, final Object value) {
+        if ( LongValues.isIntegral(value) )
+            return new LongValues(column);
+        if ( value instanceof String )
+            return new StringValues(column);
+        return new ObjectValues(column);
+    }
+
+    /**
+     * @param value a non-null value
+     * @return true if value can be stored here without losing its type
+     */
+    abstract boolean canStore(final Object value);
+
+    /**
+     * Set the value of a cell
+     *
+     * @param row the row of the cell
+     * @param value a non-null value for which canStore() is true
+     * @param updateFormatting should the column's width and alignment take value into account?
+     */
+    abstract void set(final int row, final Object value, final boolean updateFormatting);
+
+    /**
+     * @param row the row of the cell
+     * @return the value of the cell, boxed as it was set, or null if it has never been set
+     */
+    abstract Object get(final int row);
+
+    /**
+     * Append the value of a cell, formatted by the column's format string, to line
+     *
+     * @param line the line being written
+     * @param formatter a formatter writing to line
+     * @param row the row of the cell
+     */
+    abstract void appendTo(final StringBuilder line, final Formatter formatter, final int row);
+
+    /**
+     * Compare two cells for sorting the table by its columns.  Integers and doubles are compared by value, all
+     * others by their string representation.
+     */
+    abstract int compare(final int row1, final int row2);
+
+    /**
+     * Bring the column's width and alignment up to date with the values set so far
+     */
+    void flushFormatting() {}
+
+    /**
+     * Copy these values into storage that can hold values of any type
+     *
+     * @param nRows the number of rows in the table
+     * @return the same values, kept as objects
+     */
+    ObjectValues toObjectValues(final int nRows) {
+        flushFormatting();
+        final ObjectValues objects = new ObjectValues(column);
+        for ( int row = 0; row < nRows; row++ ) {
+            final Object value = get(row);
+            if ( value != null )
+                objects.set(row, value, false);
+        }
+        return objects;
+    }
+
+    /**
+     * @return the capacity of an array of length currentLength grown to hold row
+     */
+    protected static int grow(final int currentLength, final int row) {
+        return Math.max(row + 1, Math.max(INITIAL_CAPACITY, currentLength * 2));
+    }
+
+    /**
+     * Compare the string representations of two values, as the table has always done for non-numeric columns
+     */
+    protected static int compareAsStrings(final Object value1, final Object value2) {
+        return String.valueOf(value1).compareTo(String.valueOf(value2));
+    }
+
+    /**
+     * Integer, Long, Short and Byte values of a single class, kept as longs and boxed back into that class by get()
+     */
+    static final class LongValues extends GATKReportColumnValues {
+        private long[] values = new long[0];
+        private final BitSet isSet = new BitSet();
+        private Class<?> valueClass = null;
+        private final boolean plainFormat;
+
+        // "%d" and "%s" widths grow with the magnitude of the value, so only the extremes need formatting
+        private boolean hasExtremes = false;
+        private long min, max;
+
+        LongValues(final GATKReportColumn column) {
+            super(column);
+            plainFormat = column.getFormat().equals("%d") || column.getFormat().equals("%s");
+        }
+
+        static boolean isIntegral(final Object value) {
+            return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+        }
+
+        @Override
+        boolean canStore(final Object value) {
+            return isIntegral(value) && (valueClass == null || valueClass == value.getClass());
+        }
+
+        @Override
+        void set(final int row, final Object value, final boolean updateFormatting) {
+            set(row, ((Number)value).longValue(), value.getClass(), updateFormatting);
+        }
+
+        private void set(final int row, final long value, final Class<?> boxedClass, final boolean updateFormatting) {
+            if ( row >= values.length )
+                values = Arrays.copyOf(values, grow(values.length, row));
+            values[row] = value;
+            isSet.set(row);
+            valueClass = boxedClass;
+
+            if ( updateFormatting ) {
+                if ( !hasExtremes ) {
+                    min = max = value;
+                    hasExtremes = true;
+                } else if ( value < min ) {
+                    min = value;
+                } else if ( value > max ) {
+                    max = value;
+                }
+            }
+        }
+
+        boolean isSet(final int row) {
+            return isSet.get(row);
+        }
+
+        /**
+         * @return true if every value set so far is an Integer
+         */
+        boolean holdsIntegers() {
+            return valueClass == null || valueClass == Integer.class;
+        }
+
+        /**
+         * Add one to the value of a cell, which is taken to be 0 if it has never been set
+         *
+         * @param row the row of the cell
+         */
+        void increment(final int row) {
+            set(row, (isSet(row) ? values[row] : 0) + 1, Integer.class, true);
+        }
+
+        @Override
+        Object get(final int row) {
+            if ( !isSet(row) )
+                return null;
+
+            final long value = values[row];
+            if ( valueClass == Integer.class )
+                return (int)value;
+            if ( valueClass == Short.class )
+                return (short)value;
+            if ( valueClass == Byte.class )
+                return (byte)value;
+            return value;
+        }
+
+        @Override
+        void appendTo(final StringBuilder line, final Formatter formatter, final int row) {
+            if ( !isSet(row) )
+                line.append(NULL_VALUE);
+            else if ( plainFormat )
+                line.append(values[row]);
+            else
+                formatter.format(column.getFormat(), get(row));
+        }
+
+        @Override
+        int compare(final int row1, final int row2) {
+            if ( valueClass == Integer.class && isSet(row1) && isSet(row2) )
+                return Long.compare(values[row1], values[row2]);
+            return compareAsStrings(get(row1), get(row2));
+        }
+
+        @Override
+        void flushFormatting() {
+            if ( hasExtremes ) {
+                column.updateFormatting(min);
+                column.updateFormatting(max);
+            }
+        }
+    }
+
+    /**
+     * Double or Float values, kept as doubles and boxed back into their class by get()
+     */
+    static final class DoubleValues extends GATKReportColumnValues {
+        private static final Pattern FIXED_POINT_FORMAT = Pattern.compile("%(\\.\\d+)?f");
+
+        private double[] values = new double[0];
+        private final BitSet isSet = new BitSet();
+        private Class<?> valueClass = null;
+
+        // fixed point widths grow with the magnitude of finite values, so only their extremes (plus whichever of
+        // NaN and the infinities turn up) need formatting
+        private final boolean fixedPointFormat;
+        private boolean hasExtremes = false, sawNaN = false, sawPositiveInfinity = false, sawNegativeInfinity = false;
+        private double min, max;
+
+        DoubleValues(final GATKReportColumn column) {
+            super(column);
+            fixedPointFormat = FIXED_POINT_FORMAT.matcher(column.getFormat()).matches();
+        }
+
+        @Override
+        boolean canStore(final Object value) {
+            return (value instanceof Double || value instanceof Float) && (valueClass == null || valueClass == value.getClass());
+        }
+
+        @Override
+        void set(final int row, final Object value, final boolean updateFormatting) {
+            final double doubleValue = ((Number)value).doubleValue();
+            if ( row >= values.length )
+                values = Arrays.copyOf(values, grow(values.length, row));
+            values[row] = doubleValue;
+            isSet.set(row);
+            valueClass = value.getClass();
+
+            if ( updateFormatting ) {
+                if ( !fixedPointFormat ) {
+                    column.updateFormatting(value);
+                } else if ( Double.isNaN(doubleValue) ) {
+                    sawNaN = true;
+                } else if ( doubleValue == Double.POSITIVE_INFINITY ) {
+                    sawPositiveInfinity = true;
+                } else if ( doubleValue == Double.NEGATIVE_INFINITY ) {
+                    sawNegativeInfinity = true;
+                } else if ( !hasExtremes ) {
+                    min = max = doubleValue;
+                    hasExtremes = true;
+                } else if ( Double.compare(doubleValue, min) < 0 ) { // Double.compare has -0.0, which prints as such, below 0.0
+                    min = doubleValue;
+                } else if ( Double.compare(doubleValue, max) > 0 ) {
+                    max = doubleValue;
+                }
+            }
+        }
+
+        @Override
+        Object get(final int row) {
+            if ( !isSet.get(row) )
+                return null;
+            return valueClass == Float.class ? (Object)(float)values[row] : (Object)values[row];
+        }
+
+        @Override
+        void appendTo(final StringBuilder line, final Formatter formatter, final int row) {
+            if ( !isSet.get(row) )
+                line.append(NULL_VALUE);
+            else
+                formatter.format(column.getFormat(), values[row]);
+        }
+
+        @Override
+        int compare(final int row1, final int row2) {
+            if ( valueClass == Double.class && isSet.get(row1) && isSet.get(row2) )
+                return Double.compare(values[row1], values[row2]);
+            return compareAsStrings(get(row1), get(row2));
+        }
+
+        @Override
+        void flushFormatting() {
+            if ( hasExtremes ) {
+                column.updateFormatting(min);
+                column.updateFormatting(max);
+            }
+            if ( sawNaN )
+                column.updateFormatting(Double.NaN);
+            if ( sawPositiveInfinity )
+                column.updateFormatting(Double.POSITIVE_INFINITY);
+            if ( sawNegativeInfinity )
+                column.updateFormatting(Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    /**
+     * String values, kept as indices into a dictionary of the distinct strings in the column.  Each string is
+     * only measured for the column's width the first time it's set.
+     */
+    static final class StringValues extends GATKReportColumnValues {
+        // codes are one more than the dictionary index, leaving 0 for cells that were never set
+        private int[] codes = new int[0];
+        private final List<String> dictionary = new ArrayList<String>();
+        private final Map<String, Integer> indexOfString = new HashMap<String, Integer>();
+        private final BitSet measured = new BitSet();
+        private final boolean plainFormat;
+
+        StringValues(final GATKReportColumn column) {
+            super(column);
+            plainFormat = column.getFormat().equals("%s");
+        }
+
+        @Override
+        boolean canStore(final Object value) {
+            return value instanceof String;
+        }
+
+        @Override
+        void set(final int row, final Object value, final boolean updateFormatting) {
+            final String string = (String)value;
+            Integer index = indexOfString.get(string);
+            if ( index == null ) {
+                index = dictionary.size();
+                dictionary.add(string);
+                indexOfString.put(string, index);
+            }
+
+            if ( updateFormatting && !measured.get(index) ) {
+                column.updateFormatting(string);
+                measured.set(index);
+            }
+
+            if ( row >= codes.length )
+                codes = Arrays.copyOf(codes, grow(codes.length, row));
+            codes[row] = index + 1;
+        }
+
+        @Override
+        Object get(final int row) {
+            final int code = row < codes.length ? codes[row] : 0;
+            return code == 0 ? null : dictionary.get(code - 1);
+        }
+
+        @Override
+        void appendTo(final StringBuilder line, final Formatter formatter, final int row) {
+            final Object value = get(row);
+            if ( value == null )
+                line.append(NULL_VALUE);
+            else if ( plainFormat )
+                line.append((String)value);
+            else
+                formatter.format(column.getFormat(), value);
+        }
+
+        @Override
+        int compare(final int row1, final int row2) {
+            return compareAsStrings(get(row1), get(row2));
+        }
+    }
+
+    /**
+     * Values of any other type, kept as objects and measured for the column's width as they're set
+     */
+    static final class ObjectValues extends GATKReportColumnValues {
+        private Object[] values = new Object[0];
+
+        ObjectValues(final GATKReportColumn column) {
+            super(column);
+        }
+
+        @Override
+        boolean canStore(final Object value) {
+            return true;
+        }
+
+        @Override
+        void set(final int row, final Object value, final boolean updateFormatting) {
+            if ( row >= values.length )
+                values = Arrays.copyOf(values, grow(values.length, row));
+            values[row] = value;
+
+            if ( updateFormatting )
+                column.updateFormatting(value);
+        }
+
+        @Override
+        Object get(final int row) {
+            return row < values.length ? values[row] : null;
+        }
+
+        @Override
+        void appendTo(final StringBuilder line, final Formatter formatter, final int row) {
+            final Object value = get(row);
+            if ( value == null )
+                line.append(NULL_VALUE);
+            else if ( column.getDataType().equals(GATKReportDataType.Unknown) && (value instanceof Double || value instanceof Float) )
+                formatter.format("%.8f", value);
+            else
+                formatter.format(column.getFormat(), value);
+        }
+
+        @Override
+        int compare(final int row1, final int row2) {
+            final Object value1 = get(row1), value2 = get(row2);
+            if ( value1 instanceof Integer && value2 instanceof Integer )
+                return ((Integer)value1).compareTo((Integer)value2);
+            if ( value1 instanceof Double && value2 instanceof Double )
+                return ((Double)value1).compareTo((Double)value2);
+            return compareAsStrings(value1, value2);
+        }
+    }
+}
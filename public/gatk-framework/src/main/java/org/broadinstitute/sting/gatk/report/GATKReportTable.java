@@ -49,18 +49,32 @@ public class GATKReportTable {
 
     private final TableSortingWay sortingWay;
 
-    private List<Object[]> underlyingData;
     private final List<GATKReportColumn> columnInfo;
     private final Map<Object, Integer> columnNameToIndex;
     private final HashMap<Object, Integer> rowIdToIndex;
 
+    /**
+     * The values of each column, stored by type.  Null for a column without a data type until its first value
+     * is set, as it's that value which decides how the column is stored.
+     */
+    private final List<GATKReportColumnValues> columnValues;
+    private int nRows = 0;
+
+    /**
+     * The data lines of a table read from a file, split into columns and parsed one column at a time, the
+     * first time each column is used.  Null once every column has been parsed.
+     */
+    private String[] unparsedLines = null;
+    private int[] unparsedLineColumnStarts = null;
+    private final BitSet unparsedColumns = new BitSet();
+
     private static final String COULD_NOT_READ_HEADER = "Could not read the header of this file -- ";
     private static final String COULD_NOT_READ_COLUMN_NAMES = "Could not read the column names of this file -- ";
     private static final String COULD_NOT_READ_DATA_LINE = "Could not read a data line of this table -- ";
     private static final String COULD_NOT_READ_EMPTY_LINE = "Could not read the last empty line of this table -- ";
     private static final String OLD_GATK_TABLE_VERSION = "We no longer support older versions of the GATK Tables";
 
-    private static final int INITITAL_ARRAY_SIZE = 10000;
+    private static final String NOT_AN_INTEGER = "Attempting to increment a value in a cell that is not an integer";
     private static final String NUMBER_CONVERSION_EXCEPTION = "String is a number but is not a long or a double: ";
 
     protected enum TableDataHeaderFields {
@@ -92,6 +106,8 @@ public class GATKReportTable {
      * Construct a new GATK report table from the reader
      * Note that the row ID mappings are just the index -> index
      *
+     * The data lines are read in straight away, but each column is only parsed when it's first used.
+     *
      * @param reader        the reader
      * @param version       the GATK report version
      */
@@ -118,14 +134,13 @@ public class GATKReportTable {
                 // initialize the data
                 final int nColumns = Integer.parseInt(tableData[TableDataHeaderFields.COLS.index()]);
                 final int nRows = Integer.parseInt(tableData[TableDataHeaderFields.ROWS.index()]);
-                underlyingData = new ArrayList<Object[]>(nRows);
                 columnInfo = new ArrayList<GATKReportColumn>(nColumns);
+                columnValues = new ArrayList<GATKReportColumnValues>(nColumns);
                 columnNameToIndex = new HashMap<Object, Integer>(nColumns);
 
                 // when reading from a file, the row ID mapping is just the index
                 rowIdToIndex = new HashMap<Object, Integer>();
-                for ( int i = 0; i < nRows; i++ )
-                    rowIdToIndex.put(i, i);
+                expandTo(nRows - 1, true);
 
                 // read the column names
                 final String columnLine;
@@ -144,25 +159,18 @@ public class GATKReportTable {
                     addColumn(columnNames[i], format);
                 }
 
-                // fill in the table
+                // read in the data lines, leaving them to be parsed by parseColumn()
+                unparsedLines = new String[nRows];
                 try {
-                    for ( int i = 0; i < nRows; i++ ) {
-                        // read a data line
-                        final String dataLine = reader.readLine();
-                        final List<String> lineSplits = Arrays.asList(TextFormattingUtils.splitFixedWidth(dataLine, columnStarts));
-
-                        underlyingData.add(new Object[nColumns]);
-                        for ( int columnIndex = 0; columnIndex < nColumns; columnIndex++ ) {
-
-                            final GATKReportDataType type = columnInfo.get(columnIndex).getDataType();
-                            final String columnName = columnNames[columnIndex];
-                            set(i, columnName, type.Parse(lineSplits.get(columnIndex)));
-
-                        }
-                    }
+                    for ( int i = 0; i < nRows; i++ )
+                        unparsedLines[i] = reader.readLine();
                 } catch (IOException e) {
                     throw new ReviewedStingException(COULD_NOT_READ_DATA_LINE + e.getMessage());
                 }
+                unparsedLineColumnStarts = new int[columnStarts.size()];
+                for ( int i = 0; i < unparsedLineColumnStarts.length; i++ )
+                    unparsedLineColumnStarts[i] = columnStarts.get(i);
+                unparsedColumns.set(0, nColumns);
 
                 try {
                     reader.readLine();
@@ -208,8 +216,8 @@ public class GATKReportTable {
         this.tableDescription = tableDescription;
         this.sortingWay = sortingWay;
 
-        underlyingData = new ArrayList<Object[]>(INITITAL_ARRAY_SIZE);
         columnInfo = new ArrayList<GATKReportColumn>(numColumns);
+        columnValues = new ArrayList<GATKReportColumnValues>(numColumns);
         columnNameToIndex = new HashMap<Object, Integer>(numColumns);
         rowIdToIndex = new HashMap<Object, Integer>();
     }
@@ -220,7 +228,7 @@ public class GATKReportTable {
      */
     public GATKReportTable(final GATKReportTable tableToCopy, final boolean copyData) {
         this(tableToCopy.getTableName(), tableToCopy.getTableDescription(), tableToCopy.getNumColumns(), tableToCopy.sortingWay);
-        for ( final GATKReportColumn column : tableToCopy.getColumnInfo() )
+        for ( final GATKReportColumn column : tableToCopy.columnInfo )
             addColumn(column.getColumnName(), column.getFormat());
         if ( copyData )
             throw new IllegalArgumentException("sorry, copying data in GATKReportTable isn't supported");
@@ -268,7 +276,7 @@ public class GATKReportTable {
      * @param populateFirstColumn   should we automatically populate the first column with the row's ID?
      */
     public void addRowID(final String ID, final boolean populateFirstColumn) {
-        addRowIDMapping(ID, underlyingData.size(), populateFirstColumn);
+        addRowIDMapping(ID, nRows, populateFirstColumn);
     }
 
     /**
@@ -321,8 +329,54 @@ public class GATKReportTable {
      * @param format       the format string used to display data
      */
     public void addColumn(String columnName, String format) {
+        final GATKReportColumn column = new GATKReportColumn(columnName, format);
         columnNameToIndex.put(columnName, columnInfo.size());
-        columnInfo.add(new GATKReportColumn(columnName, format));
+        columnInfo.add(column);
+        columnValues.add(column.getDataType().equals(GATKReportDataType.Unknown) ? null : GATKReportColumnValues.create(column));
+    }
+
+    /**
+     * Parse the values of a column from the data lines read in from a file, if that hasn't been done yet
+     *
+     * @param colIndex    the column index
+     */
+    private void parseColumn(final int colIndex) {
+        if ( unparsedLines == null || !unparsedColumns.get(colIndex) )
+            return;
+
+        final GATKReportDataType type = columnInfo.get(colIndex).getDataType();
+        for ( int i = 0; i < unparsedLines.length; i++ )
+            setValue(i, colIndex, type.Parse(getFixedWidthField(unparsedLines[i], colIndex)));
+
+        unparsedColumns.clear(colIndex);
+        if ( unparsedColumns.isEmpty() ) {
+            unparsedLines = null;
+            unparsedLineColumnStarts = null;
+        }
+    }
+
+    /**
+     * Parse every column not yet parsed from the data lines read in from a file
+     */
+    private void parseAllColumns() {
+        for ( int colIndex = 0; unparsedLines != null && colIndex < getNumColumns(); colIndex++ )
+            parseColumn(colIndex);
+    }
+
+    /**
+     * Get one field of a fixed width data line, as TextFormattingUtils.splitFixedWidth() would
+     *
+     * @param line        the data line
+     * @param colIndex    the column index
+     * @return the trimmed field
+     */
+    private String getFixedWidthField(final String line, final int colIndex) {
+        final int[] starts = unparsedLineColumnStarts;
+        if ( starts.length == 0 )
+            return line.trim();
+
+        final int fieldStart = colIndex == 0 ? 0 : starts[colIndex - 1];
+        return (colIndex < starts.length ? line.substring(fieldStart, starts[colIndex]) : line.substring(fieldStart)).trim();
     }
 
     /**
@@ -332,7 +386,7 @@ public class GATKReportTable {
      * @param colIndex    the column index
      */
     private void verifyEntry(final int rowIndex, final int colIndex) {
-        if ( rowIndex < 0 || colIndex < 0 || colIndex >= getNumColumns() )
+        if ( rowIndex < 0 || rowIndex >= getNumRows() || colIndex < 0 || colIndex >= getNumColumns() )
             throw new ReviewedStingException("attempted to access a cell that does not exist in table '" + tableName + "'");
     }
 
@@ -343,18 +397,33 @@ public class GATKReportTable {
      * @param updateRowIdMap  should we update the row ID map?
      */
     private void expandTo(final int rowIndex, final boolean updateRowIdMap) {
-        int currentSize = underlyingData.size();
-        if ( rowIndex >= currentSize ) {
-            final int numNewRows = rowIndex - currentSize + 1;
-            for ( int i = 0; i < numNewRows; i++ ) {
-                if ( updateRowIdMap )
-                    rowIdToIndex.put(currentSize, currentSize);
-                underlyingData.add(new Object[getNumColumns()]);
-                currentSize++;
+        if ( rowIndex >= nRows ) {
+            if ( updateRowIdMap ) {
+                for ( int i = nRows; i <= rowIndex; i++ )
+                    rowIdToIndex.put(i, i);
             }
+            nRows = rowIndex + 1;
         }
     }
 
+    /**
+     * Get the values of a column, ready to store value.  A column without a data type is stored according to its
+     * first value, and falls back to storing objects once it's given a value of some other type.
+     *
+     * @param colIndex    the column index
+     * @param value       the non-null value to be stored
+     * @return the values of the column
+     */
+    private GATKReportColumnValues getValuesToStore(final int colIndex, final Object value) {
+        GATKReportColumnValues values = columnValues.get(colIndex);
+        if ( values == null )
+            values = GATKReportColumnValues.create(columnInfo.get(colIndex), value);
+        else if ( !values.canStore(value) )
+            values = values.toObjectValues(nRows);
+        columnValues.set(colIndex, values);
+        return values;
+    }
+
     /**
      * Set the value for a given position in the table.
      * If the row ID doesn't exist, it will create a new row in the table with the given ID.
@@ -365,8 +434,8 @@ public class GATKReportTable {
      */
     public void set(final Object rowID, final String columnName, final Object value) {
         if ( !rowIdToIndex.containsKey(rowID) ) {
-            rowIdToIndex.put(rowID, underlyingData.size());
-            expandTo(underlyingData.size(), false);
+            rowIdToIndex.put(rowID, nRows);
+            expandTo(nRows, false);
         }
         set(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName), value);
     }
@@ -380,6 +449,12 @@ public class GATKReportTable {
      * @param value        the value to set
      */
     public void set(final int rowIndex, final int colIndex, Object value) {
+        if ( colIndex >= 0 && colIndex < getNumColumns() )
+            parseColumn(colIndex); // so the parsed values don't overwrite this one later on
+        setValue(rowIndex, colIndex, value);
+    }
+
+    private void setValue(final int rowIndex, final int colIndex, Object value) {
         expandTo(rowIndex, true);
         verifyEntry(rowIndex, colIndex);
         GATKReportColumn column = columnInfo.get(colIndex);
@@ -391,8 +466,7 @@ public class GATKReportTable {
             value = fixType(value, column);
 
         if ( column.getDataType().equals(GATKReportDataType.fromObject(value)) || column.getDataType().equals(GATKReportDataType.Unknown) ) {
-            underlyingData.get(rowIndex)[colIndex] = value;
-            column.updateFormatting(value);
+            getValuesToStore(colIndex, value).set(rowIndex, value, true);
         } else {
             throw new ReviewedStingException(String.format("Tried to add an object of type: %s to a column of type: %s", GATKReportDataType.fromObject(value).name(), column.getDataType().name()));
         }
@@ -418,24 +492,42 @@ public class GATKReportTable {
     /**
     * Increment the value for a given position in the table.
     * Throws an exception if the value in the cell is not an integer.
+    * Columns holding only integers are incremented in place, without boxing.
     *
     * @param rowID        the row ID
     * @param columnName   the name of the column
     */
     public void increment(final Object rowID, final String columnName) {
+        final int colIndex = columnNameToIndex.get(columnName);
+        parseColumn(colIndex);
+
+        final boolean isNewRow = !rowIdToIndex.containsKey(rowID);
+        if ( isNewRow ) {
+            rowIdToIndex.put(rowID, nRows);
+            expandTo(nRows, false);
+        }
+        final int rowIndex = rowIdToIndex.get(rowID);
+
+        final GATKReportColumnValues values = columnValues.get(colIndex);
+        if ( values instanceof GATKReportColumnValues.LongValues && ((GATKReportColumnValues.LongValues)values).holdsIntegers() ) {
+            final GATKReportColumnValues.LongValues longValues = (GATKReportColumnValues.LongValues)values;
+            if ( !isNewRow && !longValues.isSet(rowIndex) )
+                throw new ReviewedStingException(NOT_AN_INTEGER);
+            longValues.increment(rowIndex);
+            return;
+        }
+
         int prevValue;
-        if ( !rowIdToIndex.containsKey(rowID) ) {
-            rowIdToIndex.put(rowID, underlyingData.size());
-            underlyingData.add(new Object[getNumColumns()]);
+        if ( isNewRow ) {
             prevValue = 0;
         } else {
-            Object obj = get(rowID, columnName);
+            Object obj = get(rowIndex, colIndex);
             if ( !(obj instanceof Integer) )
-                throw new ReviewedStingException("Attempting to increment a value in a cell that is not an integer");
+                throw new ReviewedStingException(NOT_AN_INTEGER);
             prevValue = (Integer)obj;
         }
 
-        set(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName), prevValue + 1);
+        setValue(rowIndex, colIndex, prevValue + 1);
     }
 
     /**
@@ -449,13 +541,11 @@ public class GATKReportTable {
         if ( columnValues == null || columnValues.length == 0 || columnValues.length > getNumColumns() )
             return -1;
 
-        for ( int rowIndex = 0; rowIndex < underlyingData.size(); rowIndex++ ) {
-
-            final Object[] row = underlyingData.get(rowIndex);
+        for ( int rowIndex = 0; rowIndex < nRows; rowIndex++ ) {
 
             boolean matches = true;
             for ( int colIndex = 0; colIndex < columnValues.length; colIndex++ ) {
-                if ( !columnValues[colIndex].equals(row[colIndex]) ) {
+                if ( !columnValues[colIndex].equals(get(rowIndex, colIndex)) ) {
                     matches = false;
                     break;
                 }
@@ -529,12 +619,27 @@ public class GATKReportTable {
      */
     public Object get(int rowIndex, int columnIndex) {
         verifyEntry(rowIndex, columnIndex);
-        return underlyingData.get(rowIndex)[columnIndex];
+        parseColumn(columnIndex);
+        final GATKReportColumnValues values = columnValues.get(columnIndex);
+        return values == null ? null : values.get(rowIndex);
+    }
+
+    /**
+     * Bring the width and alignment of every column up to date with the values in it
+     */
+    private void updateColumnFormatting() {
+        parseAllColumns();
+        for ( final GATKReportColumnValues values : columnValues ) {
+            if ( values != null )
+                values.flushFormatting();
+        }
     }
 
     /**
      * Write the table to the PrintStream, formatted nicely to be human-readable, AWK-able, and R-friendly.
      *
+     * Rows are written one at a time in sorted order, each value formatted straight onto the line being written.
+     *
      * @param out the PrintStream to which the table should be written
      */
      void write(final PrintStream out) {
@@ -547,6 +652,8 @@ public class GATKReportTable {
           * row1  xxxx  xxxxx
          */
 
+         updateColumnFormatting();
+
          // write the table definition
          out.printf(GATKTABLE_HEADER_PREFIX + ":%d:%d", getNumColumns(), getNumRows());
 
@@ -560,93 +667,128 @@ public class GATKReportTable {
 
          // write the column names
          boolean needsPadding = false;
+         int maxWidth = 0;
          for ( final GATKReportColumn column : columnInfo ) {
              if ( needsPadding )
                  out.printf("  ");
              needsPadding = true;
 
              out.printf(column.getColumnFormat().getNameFormat(), column.getColumnName());
+             maxWidth = Math.max(maxWidth, column.getColumnFormat().getWidth());
          }
          out.println();
 
          // write the table body
-         switch (sortingWay) {
-             case SORT_BY_COLUMN:
-                 Collections.sort(underlyingData, new Comparator<Object[]>() {
-                     //INVARIANT the two arrays are of the same length and corresponding elements are of the same type
-                     @Override
-                     public int compare(Object[] objectArr1, Object[] objectArr2) {
-                         final int EQUAL = 0;
-
-                         int result = EQUAL;
-
-                         int l = objectArr1.length;
-                         for (int x = 0; x < l; x++) {
-                             if (objectArr1[x] instanceof Integer) {
-                                 result = ((Integer)objectArr1[x]).compareTo((Integer)objectArr2[x]);
-                             } else if (objectArr1[x] instanceof Double) {
-                                 result = ((Double)objectArr1[x]).compareTo((Double)objectArr2[x]);
-                             } else { // default uses String comparison
-                                 result = objectArr1[x].toString().compareTo(objectArr2[x].toString());
-                             }
-                             if( result  != EQUAL) {
-                                 return result;
-                             }
-                         }
-                         return result;
-                     }
-                 });
-                 for ( final Object[] row : underlyingData )
-                     writeRow(out, row);
-                 break;
-             case SORT_BY_ROW:
-                 // make sure that there are exactly the correct number of ID mappings
-                 if ( rowIdToIndex.size() != underlyingData.size() )
-                     throw new ReviewedStingException("There isn't a 1-to-1 mapping from row ID to index; this can happen when rows are not created consistently");
-
-                 final TreeMap<Object, Integer> sortedMap;
-                 try {
-                     sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
-                 } catch (ClassCastException e) {
-                     throw new ReviewedStingException("Unable to sort the rows based on the row IDs because the ID Objects are of different types");
-                 }
-                 for ( final Map.Entry<Object, Integer> rowKey : sortedMap.entrySet() )
-                     writeRow(out, underlyingData.get(rowKey.getValue()));
-                 break;
-             case DO_NOT_SORT:
-                 for ( final Object[] row : underlyingData )
-                     writeRow(out, row);
-         }
+         final StringBuilder line = new StringBuilder();
+         final Formatter formatter = new Formatter(line);
+         final char[] padding = new char[maxWidth];
+         Arrays.fill(padding, ' ');
+         for ( final int rowIndex : getRowOrder(true) )
+             writeRow(out, line, formatter, padding, rowIndex);
          out.println();
      }
 
-    private void writeRow(final PrintStream out, final Object[] row) {
-        boolean needsPadding = false;
-        for ( int i = 0; i < row.length; i++ ) {
-            if ( needsPadding )
-                out.printf("  ");
-            needsPadding = true;
+    /**
+     * Write one row of the table
+     *
+     * @param out the PrintStream to which the row should be written
+     * @param line a buffer for the line
+     * @param formatter a formatter writing to line
+     * @param padding spaces, at least as many as the widest column
+     * @param rowIndex the index of the row
+     */
+    private void writeRow(final PrintStream out, final StringBuilder line, final Formatter formatter, final char[] padding, final int rowIndex) {
+        line.setLength(0);
+        for ( int i = 0; i < columnInfo.size(); i++ ) {
+            if ( i > 0 )
+                line.append("  ");
+
+            final int valueStart = line.length();
+            final GATKReportColumnValues values = columnValues.get(i);
+            if ( values == null )
+                line.append("null");
+            else
+                values.appendTo(line, formatter, rowIndex);
+
+            final GATKReportColumnFormat format = columnInfo.get(i).getColumnFormat();
+            final int nSpaces = format.getWidth() - (line.length() - valueStart);
+            if ( nSpaces > 0 ) {
+                if ( format.getAlignment() == GATKReportColumnFormat.Alignment.LEFT )
+                    line.append(padding, 0, nSpaces);
+                else
+                    line.insert(valueStart, padding, 0, nSpaces);
+            }
+        }
+
+        out.println(line);
+    }
 
-            final Object obj = row[i];
-            final String value;
+    /**
+     * Get the order in which the rows should be written, according to the table's sorting way
+     *
+     * @param writing are we writing the table out?  If so, row IDs that don't match up with the rows are an error,
+     *                otherwise rows that can't be sorted by their IDs are left in place
+     * @return the indices of the rows, in order
+     */
+    private int[] getRowOrder(final boolean writing) {
+        final int[] rowOrder;
+        switch (sortingWay) {
+            case SORT_BY_COLUMN:
+                final Integer[] sortedRows = new Integer[nRows];
+                for ( int i = 0; i < nRows; i++ )
+                    sortedRows[i] = i;
+                Arrays.sort(sortedRows, new Comparator<Integer>() {
+                    @Override
+                    public int compare(final Integer row1, final Integer row2) {
+                        final int EQUAL = 0;
 
-            final GATKReportColumn info = columnInfo.get(i);
+                        int result = EQUAL;
+                        for ( final GATKReportColumnValues values : columnValues ) {
+                            if ( values != null )
+                                result = values.compare(row1, row2);
+                            if ( result != EQUAL )
+                                return result;
+                        }
+                        return result;
+                    }
+                });
+                rowOrder = new int[nRows];
+                for ( int i = 0; i < nRows; i++ )
+                    rowOrder[i] = sortedRows[i];
+                return rowOrder;
+            case SORT_BY_ROW:
+                // make sure that there are exactly the correct number of ID mappings
+                if ( writing && rowIdToIndex.size() != nRows )
+                    throw new ReviewedStingException("There isn't a 1-to-1 mapping from row ID to index; this can happen when rows are not created consistently");
 
-            if ( obj == null )
-                value = "null";
-            else if ( info.getDataType().equals(GATKReportDataType.Unknown) && (obj instanceof Double || obj instanceof Float) )
-                value = String.format("%.8f", obj);
-            else
-                value = String.format(info.getFormat(), obj);
+                final TreeMap<Object, Integer> sortedMap;
+                try {
+                    sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
+                } catch (ClassCastException e) {
+                    if ( writing )
+                        throw new ReviewedStingException("Unable to sort the rows based on the row IDs because the ID Objects are of different types");
+                    return getRowsInPlace();
+                }
 
-            out.printf(info.getColumnFormat().getValueFormat(), value);
+                rowOrder = new int[sortedMap.size()];
+                int i = 0;
+                for ( final int rowKey : sortedMap.values() )
+                    rowOrder[i++] = rowKey;
+                return rowOrder;
+            default:
+                return getRowsInPlace();
         }
+    }
 
-        out.println();
+    private int[] getRowsInPlace() {
+        final int[] rowOrder = new int[nRows];
+        for ( int i = 0; i < nRows; i++ )
+            rowOrder[i] = i;
+        return rowOrder;
     }
 
     public int getNumRows() {
-        return underlyingData.size();
+        return nRows;
     }
 
     public int getNumColumns() {
@@ -654,6 +796,7 @@ public class GATKReportTable {
     }
 
     public List<GATKReportColumn> getColumnInfo() {
+        updateColumnFormatting();
         return columnInfo;
     }
 
@@ -675,7 +818,21 @@ public class GATKReportTable {
             throw new ReviewedStingException("Error trying to concatenate tables with different formats");
 
         // add the data
-        underlyingData.addAll(table.underlyingData);
+        parseAllColumns();
+        table.parseAllColumns();
+        final int firstNewRow = nRows;
+        nRows += table.nRows;
+        for ( int colIndex = 0; colIndex < getNumColumns(); colIndex++ ) {
+            final GATKReportColumnValues otherValues = table.columnValues.get(colIndex);
+            if ( otherValues == null )
+                continue;
+
+            for ( int rowIndex = 0; rowIndex < table.nRows; rowIndex++ ) {
+                final Object value = otherValues.get(rowIndex);
+                if ( value != null )
+                    getValuesToStore(colIndex, value).set(firstNewRow + rowIndex, value, false);
+            }
+        }
 
         // update the row index map
         final int currentNumRows = getNumRows();
@@ -714,66 +871,21 @@ public class GATKReportTable {
      */
     public boolean equals(final GATKReportTable table) {
         if ( !isSameFormat(table) ||
-                underlyingData.size() != table.underlyingData.size() )
+                nRows != table.nRows )
             return false;
 
-        final List<Object[]> myOrderedRows = getOrderedRows();
-        final List<Object[]> otherOrderedRows = table.getOrderedRows();
+        final int[] myOrderedRows = getRowOrder(false);
+        final int[] otherOrderedRows = table.getRowOrder(false);
+        if ( myOrderedRows.length != otherOrderedRows.length )
+            return false;
 
-        for ( int i = 0; i < underlyingData.size(); i++ ) {
-            final Object[] myData = myOrderedRows.get(i);
-            final Object[] otherData = otherOrderedRows.get(i);
-            for ( int j = 0; j < myData.length; j++ ) {
-                if ( !myData[j].toString().equals(otherData[j].toString()) )       // need to deal with different typing (e.g. Long vs. Integer)
+        for ( int i = 0; i < myOrderedRows.length; i++ ) {
+            for ( int j = 0; j < getNumColumns(); j++ ) {
+                if ( !String.valueOf(get(myOrderedRows[i], j)).equals(String.valueOf(table.get(otherOrderedRows[i], j))) )       // need to deal with different typing (e.g. Long vs. Integer)
                     return false;
             }
         }
 
         return true;
     }
-
-    private List<Object[]> getOrderedRows() {
-
-        switch (sortingWay) {
-            case SORT_BY_COLUMN:
-                Collections.sort(underlyingData, new Comparator<Object[]>() {
-                    //INVARIANT the two arrays are of the same length and corresponding elements are of the same type
-                    @Override
-                    public int compare(Object[] objectArr1, Object[] objectArr2) {
-                        final int EQUAL = 0;
-                        int result = EQUAL;
-                        int l = objectArr1.length;
-                            for (int x = 0; x < l; x++) {
-                                if (objectArr1[x] instanceof Integer) {
-                                    result = ((Integer)objectArr1[x]).compareTo((Integer)objectArr2[x]);
-                                } else if (objectArr1[x] instanceof Double) {
-                                    result = ((Double)objectArr1[x]).compareTo((Double)objectArr2[x]);
-                                } else  { // default uses String comparison
-                                    result = objectArr1[x].toString().compareTo(objectArr2[x].toString());
-                                }
-                                if( result != EQUAL) {
-                                    return result;
-                                }
-                            }
-                            return result;
-                    }
-                });
-                return underlyingData;
-            case SORT_BY_ROW:
-                final TreeMap<Object, Integer> sortedMap;
-                try {
-                    sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
-                } catch (ClassCastException e) {
-                    return underlyingData;
-                }
-
-                final List<Object[]> orderedData = new ArrayList<Object[]>(underlyingData.size());
-                for ( final int rowKey : sortedMap.values() )
-                    orderedData.add(underlyingData.get(rowKey));
-
-                return orderedData;
-            default:
-                return underlyingData;
-        }
-    }
 }
@@ -51,6 +51,11 @@ public class ThreadAllocation {
      */
     private final boolean monitorEfficiency;
 
+    /**
+     * Should the CPU threads be scheduled with the work-stealing NanoScheduler?
+     */
+    private final boolean useWorkStealingNanoScheduler;
+
     public int getNumDataThreads() {
         return numDataThreads;
     }
@@ -67,6 +72,10 @@ public class ThreadAllocation {
         return monitorEfficiency;
     }
 
+    public boolean useWorkStealingNanoScheduler() {
+        return useWorkStealingNanoScheduler;
+    }
+
     /**
      * Are we running in parallel mode?
      *
@@ -104,6 +113,22 @@ public class ThreadAllocation {
                             final int numCPUThreadsPerDataThread,
                             final int numIOThreads,
                             final boolean monitorEfficiency) {
+        this(numDataThreads, numCPUThreadsPerDataThread, numIOThreads, monitorEfficiency, false);
+    }
+
+    /**
+     * Set up the thread allocation, choosing how the CPU threads are scheduled.
+     * @param numDataThreads Total number of threads allocated to the traversal.
+     * @param numCPUThreadsPerDataThread The number of CPU threads per data thread to allocate
+     * @param numIOThreads Total number of threads allocated exclusively to IO.
+     * @param monitorEfficiency should we monitor threading efficiency in the GATK?
+     * @param useWorkStealingNanoScheduler should the CPU threads use the work-stealing NanoScheduler?
+     */
+    public ThreadAllocation(final int numDataThreads,
+                            final int numCPUThreadsPerDataThread,
+                            final int numIOThreads,
+                            final boolean monitorEfficiency,
+                            final boolean useWorkStealingNanoScheduler) {
         if ( numDataThreads < 1 ) throw new ReviewedStingException("numDataThreads cannot be less than 1, but saw " + numDataThreads);
         if ( numCPUThreadsPerDataThread < 1 ) throw new ReviewedStingException("numCPUThreadsPerDataThread cannot be less than 1, but saw " + numCPUThreadsPerDataThread);
         if ( numIOThreads < 0 ) throw new ReviewedStingException("numIOThreads cannot be less than 0, but saw " + numIOThreads);
@@ -112,5 +137,6 @@ public class ThreadAllocation {
         this.numCPUThreadsPerDataThread = numCPUThreadsPerDataThread;
         this.numIOThreads = numIOThreads;
         this.monitorEfficiency = monitorEfficiency;
+        this.useWorkStealingNanoScheduler = useWorkStealingNanoScheduler;
     }
 }
@@ -27,7 +27,9 @@ package org.broadinstitute.sting.gatk.traversals;
 
 import org.broadinstitute.sting.gatk.downsampling.Downsampler;
 import org.broadinstitute.sting.gatk.downsampling.ReservoirDownsampler;
+import net.sf.samtools.SAMFileHeader;
 import org.broadinstitute.sting.utils.sam.AlignmentStartComparator;
+import org.broadinstitute.sting.utils.sam.CompactReadStore;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
 import java.util.ArrayList;
@@ -47,6 +49,12 @@ public class TAROrderedReadCache {
     private ArrayList<GATKSAMRecord> undownsampledCache;
     private Downsampler<GATKSAMRecord> downsampler;
 
+    /**
+     * If not null, reads are held here in compact form, rather than in the undownsampledCache,
+     * until the downsampler kicks in.
+     */
+    private final CompactReadStore compactCache;
+
     private static final int UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE = 10000;
 
     /**
@@ -54,8 +62,20 @@ public class TAROrderedReadCache {
      * @param maxCapacity the max capacity of the read cache.
      */
     public TAROrderedReadCache( final int maxCapacity ) {
+        this(maxCapacity, null);
+    }
+
+    /**
+     * Create a new empty ReadCache
+     * @param maxCapacity the max capacity of the read cache.
+     * @param compactReadHeader if not null, hold reads packed off-heap in a CompactReadStore for reads with this
+     *                          header, rather than as GATKSAMRecords.  Reads popped from the cache are then new
+     *                          objects, equal to but not the same as the reads added.
+     */
+    public TAROrderedReadCache( final int maxCapacity, final SAMFileHeader compactReadHeader ) {
         if ( maxCapacity < 0 ) throw new IllegalArgumentException("maxCapacity must be >= 0 but got " + maxCapacity);
         this.maxCapacity = maxCapacity;
+        this.compactCache = compactReadHeader == null ? null : new CompactReadStore(compactReadHeader);
 
         // The one we're not currently using will always be null:
         initializeUndownsampledCache();
@@ -70,15 +90,23 @@ public class TAROrderedReadCache {
      */
     private void activateDownsampler() {
         downsampler = new ReservoirDownsampler<>(maxCapacity, false);
-        downsampler.submit(undownsampledCache);
-        undownsampledCache = null; // preferable to the O(n) clear() method
+        if ( compactCache != null ) {
+            // the downsampler holds at most maxCapacity reads, so there's nothing gained by keeping them compact
+            downsampler.submit(compactCache.getAll());
+            compactCache.clear();
+        }
+        else {
+            downsampler.submit(undownsampledCache);
+            undownsampledCache = null; // preferable to the O(n) clear() method
+        }
     }
 
     /**
      * Allocate the undownsampled cache used when we have fewer than maxCapacity items
      */
     private void initializeUndownsampledCache() {
-        undownsampledCache = new ArrayList<>(Math.min(maxCapacity + 1, UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE));
+        if ( compactCache == null )
+            undownsampledCache = new ArrayList<>(Math.min(maxCapacity + 1, UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE));
     }
 
     /**
@@ -100,10 +128,13 @@ public class TAROrderedReadCache {
             downsampler.submit(read);
         }
         else {
-            undownsampledCache.add(read);
+            if ( compactCache != null )
+                compactCache.add(read);
+            else
+                undownsampledCache.add(read);
 
             // No more room in the undownsampledCache? Time to start downsampling
-            if ( undownsampledCache.size() > maxCapacity ) {
+            if ( size() > maxCapacity ) {
                 activateDownsampler();
             }
         }
@@ -125,7 +156,9 @@ public class TAROrderedReadCache {
      * @return a positive integer
      */
     public int size() {
-        return downsampler != null ? downsampler.size() : undownsampledCache.size();
+        if ( downsampler != null )
+            return downsampler.size();
+        return compactCache != null ? compactCache.size() : undownsampledCache.size();
     }
 
     /**
@@ -149,7 +182,11 @@ public class TAROrderedReadCache {
     public List<GATKSAMRecord> popCurrentReads() {
         final List<GATKSAMRecord> poppedReads;
 
-        if ( downsampler == null ) {
+        if ( downsampler == null && compactCache != null ) {
+            poppedReads = compactCache.getAll();
+            compactCache.clear();
+        }
+        else if ( downsampler == null ) {
             poppedReads = undownsampledCache;  // avoid making a copy here, since we're going to allocate a new cache
         }
         else {
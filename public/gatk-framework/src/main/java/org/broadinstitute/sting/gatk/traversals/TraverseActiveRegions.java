@@ -47,14 +47,12 @@ import org.broadinstitute.sting.utils.nanoScheduler.NSMapFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NSProgressFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NSReduceFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NanoScheduler;
+import org.broadinstitute.sting.utils.nanoScheduler.WorkStealingNanoScheduler;
 import org.broadinstitute.sting.utils.progressmeter.ProgressMeter;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
 import java.io.PrintStream;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 /**
  * Implement active region traversal
@@ -98,6 +96,23 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
     final NanoScheduler<MapData, M, T> nanoScheduler;
 
+    /**
+     * How many loci do we read ahead and run isActive on at once, when running isActive in parallel?
+     */
+    protected final static int PARALLEL_IS_ACTIVE_WINDOW_SIZE = 1000;
+
+    /**
+     * The number of threads we're using, which we'll also use for parallel isActive calls if the walker allows them
+     */
+    private final int nThreads;
+
+    /**
+     * NanoScheduler used to run isActive in parallel over a window of loci, or null if we call isActive
+     * serially as we go.  Only created when running with more than one thread and the walker declares
+     * (with ActiveRegionTraversalParameters.parallelIsActive) that its isActive function is thread-safe
+     */
+    private NanoScheduler<PendingLocus, ActivityProfileState, Integer> isActiveNanoScheduler = null;
+
     /**
      * Data to use in the ActiveRegionWalker.map function produced by the NanoScheduler input iterator
      */
@@ -123,7 +138,17 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
      * @param nThreads number of threads
      */
     public TraverseActiveRegions(final int nThreads) {
-        nanoScheduler = new NanoScheduler<>(nThreads);
+        this(nThreads, false);
+    }
+
+    /**
+     * Create an active region traverser that uses nThreads for getting its work done
+     * @param nThreads number of threads
+     * @param useWorkStealing if true, schedule the threads with a WorkStealingNanoScheduler
+     */
+    public TraverseActiveRegions(final int nThreads, final boolean useWorkStealing) {
+        this.nThreads = nThreads;
+        nanoScheduler = useWorkStealing ? new WorkStealingNanoScheduler<MapData, M, T>(nThreads) : new NanoScheduler<MapData, M, T>(nThreads);
         nanoScheduler.setProgressFunction(new NSProgressFunction<MapData>() {
             @Override
             public void progress(MapData lastActiveRegion) {
@@ -163,7 +188,20 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
         final int maxReadsAcrossSamples = annotation.maxReadsToHoldInMemoryPerSample() * SampleUtils.getSAMFileSamples(engine).size();
         final int maxReadsToHoldInMemory = Math.min(maxReadsAcrossSamples, annotation.maxReadsToHoldTotal());
-        myReads = new TAROrderedReadCache(maxReadsToHoldInMemory);
+        myReads = new TAROrderedReadCache(maxReadsToHoldInMemory,
+                engine.getArguments().compactActiveRegionReads ? engine.getSAMFileHeader() : null);
+
+        if ( nThreads > 1 && annotation.parallelIsActive() ) {
+            logger.info("Running isActive in parallel with " + nThreads + " threads over windows of " + PARALLEL_IS_ACTIVE_WINDOW_SIZE + " loci");
+            isActiveNanoScheduler = new NanoScheduler<>(nThreads);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        nanoScheduler.shutdown();
+        if ( isActiveNanoScheduler != null )
+            isActiveNanoScheduler.shutdown();
     }
 
     // -------------------------------------------------------------------------------------
@@ -283,9 +321,22 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         private final LocusReferenceView referenceView;
         private final GenomeLoc locOfLastReadAtTraversalStart;
         private final IntervalReferenceOrderedView referenceOrderedDataView;
+
+        /**
+         * A second view of the RODs over the same span, used only to build the trackers of loci read ahead
+         * for parallel isActive calls, or null if isActive is called serially.  The read ahead runs past
+         * loci whose regions haven't yet been prepped, and since a view throws away features before its
+         * latest query, sharing referenceOrderedDataView would lose features those regions need
+         */
+        private final IntervalReferenceOrderedView readAheadReferenceOrderedDataView;
         private final GenomeLoc currentWindow;
         private final boolean processRemainingActiveRegions;
 
+        /**
+         * Loci we've read from the locusView but not yet incorporated into the activity profile
+         */
+        private final Queue<PendingLocus> pendingLoci = new ArrayDeque<>();
+
         public ActiveRegionIterator( final LocusShardDataProvider dataProvider ) {
             this.dataProvider = dataProvider;
             locusView = new AllLocusView(dataProvider);
@@ -305,6 +356,7 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
             final GenomeLoc rodSpan = activityProfile.getSpan() == null ? currentWindow : activityProfile.getSpan().endpointSpan(currentWindow);
             if ( ! dataProvider.getShard().getLocation().containsP(rodSpan) ) throw new IllegalStateException("Rod span " + rodSpan + " isn't contained within the data shard " + dataProvider.getShard().getLocation() + ", meaning we wouldn't get all of the data we need");
             referenceOrderedDataView = new IntervalReferenceOrderedView( dataProvider, rodSpan );
+            readAheadReferenceOrderedDataView = isActiveNanoScheduler == null ? null : new IntervalReferenceOrderedView( dataProvider, rodSpan );
 
             // We keep processing while the next reference location is within the interval
             locOfLastReadAtTraversalStart = spanOfLastSeenRead();
@@ -334,16 +386,16 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                 return false;
             else {
 
-                while( locusView.hasNext() ) {
-                    final AlignmentContext locus = locusView.next();
+                while( hasPendingLocus() ) {
+                    final PendingLocus pending = pendingLoci.remove();
+                    final AlignmentContext locus = pending.locus;
                     final GenomeLoc location = locus.getLocation();
 
                     rememberLastLocusLocation(location);
 
                     // get all of the new reads that appear in the current pileup, and them to our list of reads
                     // provided we haven't seen them before
-                    final Collection<GATKSAMRecord> reads = locusView.getLIBS().transferReadsFromAllPreviousPileups();
-                    for( final GATKSAMRecord read : reads ) {
+                    for( final GATKSAMRecord read : pending.newReads ) {
                         // note that ActiveRegionShards span entire contigs, so this check is in some
                         // sense no longer necessary, as any read that appeared in the last shard would now
                         // by definition be on a different contig.  However, the logic here doesn't hurt anything
@@ -367,15 +419,11 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
                     dataProvider.getShard().getReadMetrics().incrementNumIterations();
 
-                    // create reference context. Note that if we have a pileup of "extended events", the context will
-                    // hold the (longest) stretch of deleted reference bases (if deletions are present in the pileup).
-                    final ReferenceContext refContext = referenceView.getReferenceContext(location);
-
-                    // Iterate forward to get all reference ordered data covering this location
-                    final RefMetaDataTracker tracker = referenceOrderedDataView.getReferenceOrderedDataAtLocus(locus.getLocation());
-
-                    // Call the walkers isActive function for this locus and add them to the list to be integrated later
-                    addIsActiveResult(walker, tracker, refContext, locus);
+                    // Call the walkers isActive function for this locus, unless we've already done so in parallel,
+                    // and add the result to the list to be integrated later
+                    if ( ! pending.hasBeenEvaluated() )
+                        evaluateIsActive(pending);
+                    addIsActiveResult(pending.state);
 
                     maxReadsInMemory = Math.max(myReads.size(), maxReadsInMemory);
                     printProgress(location);
@@ -400,6 +448,122 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                 return ! readyActiveRegions.isEmpty();
             }
         }
+
+        /**
+         * Are there any more loci to process, either already read or still in the locusView?
+         *
+         * Reads in the next window of loci if we've run out of pending ones
+         *
+         * @return true if pendingLoci isn't empty
+         */
+        private boolean hasPendingLocus() {
+            if ( pendingLoci.isEmpty() )
+                readNextWindowOfLoci();
+            return ! pendingLoci.isEmpty();
+        }
+
+        /**
+         * Read the next loci from the locusView into pendingLoci
+         *
+         * When isActive is called serially we just read the next locus, and everything else is done
+         * in order when the locus is processed, exactly as if we had read it directly from the locusView.
+         *
+         * When running isActive in parallel, we read up to PARALLEL_IS_ACTIVE_WINDOW_SIZE loci, and build the
+         * reference context and ROD tracker for each in order, as these views can only be walked forward
+         * serially.  The trackers come from readAheadReferenceOrderedDataView, leaving referenceOrderedDataView
+         * to the regions behind the window, which are prepped later.  isActive is then run on all of the loci in the window that are within the engine
+         * intervals with the isActiveNanoScheduler.  The resulting states are added to the activity profile
+         * one at a time as the loci are processed, in the same order and interleaved with the same read
+         * and active region bookkeeping as the serial path, so the band pass filtering and the regions
+         * popped from the profile are identical.
+         */
+        private void readNextWindowOfLoci() {
+            final int windowSize = isActiveNanoScheduler == null ? 1 : PARALLEL_IS_ACTIVE_WINDOW_SIZE;
+            final List<PendingLocus> lociToEvaluate = new ArrayList<>(windowSize);
+
+            while ( pendingLoci.size() < windowSize && locusView.hasNext() ) {
+                final AlignmentContext locus = locusView.next();
+
+                // must be called for each locus as we move forward, to get the reads that start in the pileup
+                final PendingLocus pending = new PendingLocus(locus, locusView.getLIBS().transferReadsFromAllPreviousPileups());
+                pendingLoci.add(pending);
+
+                if ( isActiveNanoScheduler != null && ! outsideEngineIntervals(locus.getLocation()) ) {
+                    pending.refContext = referenceView.getReferenceContext(locus.getLocation());
+                    pending.tracker = readAheadReferenceOrderedDataView.getReferenceOrderedDataAtLocus(locus.getLocation());
+                    readAheadReferenceOrderedDataView.trimCurrentFeaturesToLoc(locus.getLocation());
+                    lociToEvaluate.add(pending);
+                }
+            }
+
+            if ( ! lociToEvaluate.isEmpty() )
+                isActiveNanoScheduler.execute(lociToEvaluate.iterator(), new IsActiveMap(), 0, new IsActiveReduce());
+        }
+
+        /**
+         * Fill in the reference context and ROD tracker of pending, and call isActive on it
+         *
+         * @param pending the locus to evaluate
+         */
+        @Requires("pending != null")
+        @Ensures("pending.hasBeenEvaluated()")
+        private void evaluateIsActive(final PendingLocus pending) {
+            final GenomeLoc location = pending.locus.getLocation();
+
+            // create reference context. Note that if we have a pileup of "extended events", the context will
+            // hold the (longest) stretch of deleted reference bases (if deletions are present in the pileup).
+            pending.refContext = referenceView.getReferenceContext(location);
+
+            // Iterate forward to get all reference ordered data covering this location
+            pending.tracker = referenceOrderedDataView.getReferenceOrderedDataAtLocus(location);
+
+            pending.state = callIsActive(walker, pending.tracker, pending.refContext, pending.locus);
+        }
+    }
+
+    /**
+     * A locus read from the locus view, along with the reads that first appeared at it, waiting
+     * for its isActive state to be added to the activity profile
+     */
+    private static class PendingLocus {
+        final AlignmentContext locus;
+        final Collection<GATKSAMRecord> newReads;
+        ReferenceContext refContext = null;
+        RefMetaDataTracker tracker = null;
+        ActivityProfileState state = null;
+
+        private PendingLocus(final AlignmentContext locus, final Collection<GATKSAMRecord> newReads) {
+            this.locus = locus;
+            this.newReads = newReads;
+        }
+
+        /**
+         * @return true if isActive has already been called on this locus
+         */
+        public boolean hasBeenEvaluated() {
+            return state != null;
+        }
+    }
+
+    /**
+     * Calls isActive on a pending locus, storing the result in the locus itself
+     */
+    private class IsActiveMap implements NSMapFunction<PendingLocus, ActivityProfileState> {
+        @Override
+        public ActivityProfileState apply(final PendingLocus pending) {
+            pending.state = callIsActive(walker, pending.tracker, pending.refContext, pending.locus);
+            return pending.state;
+        }
+    }
+
+    /**
+     * The isActive states are kept in the pending loci, so all we do here is count them
+     */
+    private static class IsActiveReduce implements NSReduceFunction<ActivityProfileState, Integer> {
+        @Override
+        public Integer apply(final ActivityProfileState state, final Integer count) {
+            return count + 1;
+        }
     }
 
     // -------------------------------------------------------------------------------------
@@ -604,19 +768,33 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     // -------------------------------------------------------------------------------------
 
     /**
-     * Invoke the walker isActive function, and incorporate its result into the activity profile
+     * Invoke the walker isActive function
+     *
+     * May be called from multiple threads at once when running isActive in parallel
      *
      * @param walker the walker we're running
      * @param tracker the ref meta data tracker to pass on to the isActive function of walker
      * @param refContext the refContext to pass on to the isActive function of walker
      * @param locus the AlignmentContext to pass on to the isActive function of walker
+     * @return the activity state of locus
      */
-    private void addIsActiveResult(final ActiveRegionWalker<M, T> walker,
-                                   final RefMetaDataTracker tracker, final ReferenceContext refContext,
-                                   final AlignmentContext locus) {
+    @Ensures("result != null")
+    private ActivityProfileState callIsActive(final ActiveRegionWalker<M, T> walker,
+                                              final RefMetaDataTracker tracker, final ReferenceContext refContext,
+                                              final AlignmentContext locus) {
         // must be called, even if we won't use the result, to satisfy walker contract
         final ActivityProfileState state = walker.isActive( tracker, refContext, locus );
         if ( walker.forceActive) state.isActiveProb = 1.0;
+        return state;
+    }
+
+    /**
+     * Incorporate the result of an isActive call into the activity profile
+     *
+     * @param state the result of calling isActive on the next locus in the profile
+     */
+    @Requires("state != null")
+    private void addIsActiveResult(final ActivityProfileState state) {
         if ( ! walkerHasPresetRegions ) {
             activityProfile.add(state);
         }
@@ -32,12 +32,12 @@ import org.broadinstitute.sting.gatk.datasources.providers.*;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
 import org.broadinstitute.sting.gatk.walkers.DataSource;
 import org.broadinstitute.sting.gatk.walkers.LocusWalker;
-import org.broadinstitute.sting.gatk.walkers.Walker;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.nanoScheduler.NSMapFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NSProgressFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NSReduceFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NanoScheduler;
+import org.broadinstitute.sting.utils.nanoScheduler.WorkStealingNanoScheduler;
 import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
 
 import java.util.Iterator;
@@ -52,7 +52,17 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
     final NanoScheduler<MapData, MapResult, T> nanoScheduler;
 
     public TraverseLociNano(int nThreads) {
-        nanoScheduler = new NanoScheduler<MapData, MapResult, T>(nThreads);
+        this(nThreads, false);
+    }
+
+    /**
+     * @param nThreads number of threads
+     * @param useWorkStealing if true, schedule the threads with a WorkStealingNanoScheduler
+     */
+    public TraverseLociNano(int nThreads, boolean useWorkStealing) {
+        nanoScheduler = useWorkStealing
+                ? new WorkStealingNanoScheduler<MapData, MapResult, T>(nThreads)
+                : new NanoScheduler<MapData, MapResult, T>(nThreads);
         nanoScheduler.setProgressFunction(new TraverseLociProgress());
     }
 
@@ -119,12 +129,12 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
      * @param dataProvider Data which which to drive the locus view.
      * @return A view of the locus data, where one iteration of the locus view maps to one iteration of the traversal.
      */
-    private LocusView getLocusView( Walker<M,T> walker, LocusShardDataProvider dataProvider ) {
+    private LocusView getLocusView( LocusWalker<M,T> walker, LocusShardDataProvider dataProvider ) {
         final DataSource dataSource = WalkerManager.getWalkerDataSource(walker);
         if( dataSource == DataSource.READS )
             return new CoveredLocusView(dataProvider);
         else if( dataSource == DataSource.REFERENCE ) //|| ! GenomeAnalysisEngine.instance.getArguments().enableRodWalkers )
-            return new AllLocusView(dataProvider);
+            return new AllLocusView(dataProvider, walker.skipUncoveredLoci());
         else if( dataSource == DataSource.REFERENCE_ORDERED_DATA )
             return new RodLocusView(dataProvider);
         else
@@ -140,7 +150,8 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
         final TraverseLociMap myMap = new TraverseLociMap(walker);
         final TraverseLociReduce myReduce = new TraverseLociReduce(walker);
 
-        final MapDataIterator inputIterator = new MapDataIterator(locusView, referenceView, referenceOrderedDataView);
+        final boolean skipUncoveredLoci = WalkerManager.getWalkerDataSource(walker) == DataSource.REFERENCE && walker.skipUncoveredLoci();
+        final MapDataIterator inputIterator = new MapDataIterator(locusView, referenceView, referenceOrderedDataView, skipUncoveredLoci);
         final T result = nanoScheduler.execute(inputIterator, myMap, sum, myReduce);
 
         return new TraverseResults<T>(inputIterator.numIterations, result);
@@ -154,12 +165,17 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
         final LocusView locusView;
         final LocusReferenceView referenceView;
         final ReferenceOrderedView referenceOrderedDataView;
+        final boolean skipUncoveredLoci;
         int numIterations = 0;
 
-        private MapDataIterator(LocusView locusView, LocusReferenceView referenceView, ReferenceOrderedView referenceOrderedDataView) {
+        /**
+         * @param skipUncoveredLoci if true, widen the reference context of each locus over the bases the view skipped before it
+         */
+        private MapDataIterator(LocusView locusView, LocusReferenceView referenceView, ReferenceOrderedView referenceOrderedDataView, boolean skipUncoveredLoci) {
             this.locusView = locusView;
             this.referenceView = referenceView;
             this.referenceOrderedDataView = referenceOrderedDataView;
+            this.skipUncoveredLoci = skipUncoveredLoci;
         }
 
         @Override
@@ -176,7 +192,9 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
 
             // create reference context. Note that if we have a pileup of "extended events", the context will
             // hold the (longest) stretch of deleted reference bases (if deletions are present in the pileup).
-            final ReferenceContext refContext = referenceView.getReferenceContext(location);
+            final ReferenceContext refContext = skipUncoveredLoci
+                    ? referenceView.getReferenceContext(location, locus.getSkippedBases())
+                    : referenceView.getReferenceContext(location);
 
             // Iterate forward to get all reference ordered data covering this location
             final RefMetaDataTracker tracker = referenceOrderedDataView.getReferenceOrderedDataAtLocus(location);
@@ -38,6 +38,7 @@ import org.broadinstitute.sting.utils.nanoScheduler.NSMapFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NSProgressFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NSReduceFunction;
 import org.broadinstitute.sting.utils.nanoScheduler.NanoScheduler;
+import org.broadinstitute.sting.utils.nanoScheduler.WorkStealingNanoScheduler;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
 import java.util.Iterator;
@@ -61,7 +62,17 @@ public class TraverseReadsNano<M,T> extends TraversalEngine<M,T,ReadWalker<M,T>,
     final NanoScheduler<MapData, MapResult, T> nanoScheduler;
 
     public TraverseReadsNano(int nThreads) {
-        nanoScheduler = new NanoScheduler<MapData, MapResult, T>(nThreads);
+        this(nThreads, false);
+    }
+
+    /**
+     * @param nThreads number of threads
+     * @param useWorkStealing if true, schedule the threads with a WorkStealingNanoScheduler
+     */
+    public TraverseReadsNano(int nThreads, boolean useWorkStealing) {
+        nanoScheduler = useWorkStealing
+                ? new WorkStealingNanoScheduler<MapData, MapResult, T>(nThreads)
+                : new NanoScheduler<MapData, MapResult, T>(nThreads);
         nanoScheduler.setProgressFunction(new NSProgressFunction<MapData>() {
             @Override
             public void progress(MapData lastProcessedMap) {
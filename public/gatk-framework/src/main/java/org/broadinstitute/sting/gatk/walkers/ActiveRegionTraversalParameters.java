@@ -94,4 +94,16 @@ public @interface ActiveRegionTraversalParameters {
      * @return the maximum number of reads to hold in memory
      */
     public int maxReadsToHoldTotal() default 1000000;
+
+    /**
+     * Is the walker's isActive function safe to call on many loci at once from different threads?
+     *
+     * If true, and the GATK is running with more than one CPU thread (-nct), ART will read ahead
+     * a window of loci and call isActive on them in parallel.  The results are incorporated into
+     * the activity profile in locus order, so the active regions are the same as when isActive
+     * is called serially.
+     *
+     * @return true if isActive can be called in parallel
+     */
+    public boolean parallelIsActive() default false;
 }
@@ -55,4 +55,32 @@ public abstract class LocusWalker<MapType, ReduceType> extends Walker<MapType, R
 
     // Map over the org.broadinstitute.sting.gatk.contexts.AlignmentContext
     public abstract MapType map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context);
+
+    /**
+     * When traversing by reference, should each run of loci without any reads be presented to map() at once?
+     *
+     * If true, map() is called only at the last locus of such a run, with an empty pileup whose getSkippedBases()
+     * counts the uncovered loci before it.  The ReferenceContext's window is widened back over the skipped loci,
+     * but the reference ordered data is only that at the last locus.  Worth it for walkers that spend most of
+     * their time in stretches without coverage and can treat them in bulk.
+     *
+     * @return true if map() handles runs of uncovered loci through getSkippedBases()
+     */
+    public boolean skipUncoveredLoci() {
+        return false;
+    }
+
+    /**
+     * The fewest bases a locus's pileup may have for map() to see the locus as covered.
+     *
+     * Loci below it are passed over by the engine without building a pileup, and look just like loci without
+     * any reads: they aren't visited when traversing by reads, and are visited with an empty pileup (or folded
+     * into a run of uncovered loci, see skipUncoveredLoci()) when traversing by reference.  Worth raising for
+     * walkers that ignore thinly covered loci anyway.
+     *
+     * @return the minimum pileup depth of a covered locus; 1, the default, means any base at all
+     */
+    public int getMinimumCoverage() {
+        return 1;
+    }
 }
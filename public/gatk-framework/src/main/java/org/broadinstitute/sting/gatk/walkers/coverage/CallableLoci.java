@@ -44,6 +44,9 @@ import org.broadinstitute.sting.utils.pileup.PileupElement;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
 /**
@@ -126,7 +129,7 @@ import java.io.PrintStream;
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_QC, extraDocs = {CommandLineGATK.class} )
 @By(DataSource.REFERENCE)
-public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, CallableLoci.Integrator> {
+public class CallableLoci extends LocusWalker<List<CallableLoci.CallableBaseState>, CallableLoci.Integrator> {
     @Output
     PrintStream out;
 
@@ -261,6 +264,14 @@ public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, Ca
         }
     }
 
+    /**
+     * Runs of uncovered loci, in NO_COVERAGE and REF_N deserts, are handed to map() whole
+     */
+    @Override
+    public boolean skipUncoveredLoci() {
+        return true;
+    }
+
     protected static class Integrator {
         final long counts[] = new long[CalledState.values().length];
         CallableBaseState state = null;
@@ -268,19 +279,31 @@ public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, Ca
 
     protected static class CallableBaseState implements HasGenomeLocation {
         final public GenomeLocParser genomeLocParser;
-        public GenomeLoc loc;
+        private GenomeLoc loc; // starts where this state does, but may stop short of it if update() was called since
+        private int stop;
         final public CalledState state;
 
         public CallableBaseState(GenomeLocParser genomeLocParser, GenomeLoc loc, CalledState state) {
             this.genomeLocParser = genomeLocParser;
             this.loc = loc;
+            this.stop = loc.getStop();
             this.state = state;
         }
 
         public GenomeLoc getLocation() {
+            if ( loc.getStop() != stop )
+                loc = genomeLocParser.createGenomeLoc(loc.getContig(), loc.getContigIndex(), loc.getStart(), stop);
             return loc;
         }
 
+        public int getStart() {
+            return loc.getStart();
+        }
+
+        public int getStop() {
+            return stop;
+        }
+
         public CalledState getState() {
             return state;
         }
@@ -291,54 +314,81 @@ public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, Ca
         }
 
         /**
-         * Updating the location of this CalledBaseState by the new stop location
+         * Updating the location of this CalledBaseState by the new stop location.  No GenomeLoc is made
+         * until getLocation() asks for one, so a long run costs nothing to extend.
          *
          * @param newStop
          */
         public void update(GenomeLoc newStop) {
-            loc = genomeLocParser.createGenomeLoc(loc.getContig(), loc.getStart(), newStop.getStop());
+            stop = newStop.getStop();
         }
 
         public String toString() {
-            return String.format("%s\t%d\t%d\t%s", loc.getContig(), loc.getStart()-1, loc.getStop(), state);
+            return String.format("%s\t%d\t%d\t%s", loc.getContig(), loc.getStart()-1, stop, state);
         }
     }
 
+    /**
+     * Returns the runs of states at the context: a single locus, or, after skipped bases, the run of uncovered loci
+     * ending there, split where the reference turns to or from N.
+     */
     @Override
-    public CallableBaseState map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
-        CalledState state;
+    public List<CallableBaseState> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+        final GenomeLocParser genomeLocParser = getToolkit().getGenomeLocParser();
+        if ( context.getSkippedBases() == 0 )
+            return Collections.singletonList(new CallableBaseState(genomeLocParser, context.getLocation(), calledState(ref.getBase(), context)));
+
+        final GenomeLoc loc = context.getLocation();
+        final byte[] bases = ref.getBases();
+        final int windowStart = ref.getWindow().getStart();
+        final List<CallableBaseState> states = new ArrayList<CallableBaseState>(1);
+        int runStart = loc.getStart() - (int)context.getSkippedBases();
+        CalledState runState = uncoveredState(bases[runStart - windowStart]);
+        for ( int pos = runStart + 1; pos <= loc.getStop(); pos++ ) {
+            final CalledState state = uncoveredState(bases[pos - windowStart]);
+            if ( state != runState ) {
+                states.add(new CallableBaseState(genomeLocParser, genomeLocParser.createGenomeLoc(loc.getContig(), loc.getContigIndex(), runStart, pos - 1), runState));
+                runStart = pos;
+                runState = state;
+            }
+        }
+        states.add(new CallableBaseState(genomeLocParser, genomeLocParser.createGenomeLoc(loc.getContig(), loc.getContigIndex(), runStart, loc.getStop()), runState));
+        return states;
+    }
 
-        if ( BaseUtils.isNBase(ref.getBase())) {
-            state = CalledState.REF_N;
-        } else {
-            // count up the depths of all and QC+ bases
-            int rawDepth = 0, QCDepth = 0, lowMAPQDepth = 0;
-            for (PileupElement e : context.getBasePileup()) {
-                rawDepth++;
+    private static CalledState uncoveredState(final byte refBase) {
+        return BaseUtils.isNBase(refBase) ? CalledState.REF_N : CalledState.NO_COVERAGE;
+    }
 
-                if (e.getMappingQual() <= maxLowMAPQ)
-                    lowMAPQDepth++;
+    private CalledState calledState(final byte refBase, final AlignmentContext context) {
+        if ( BaseUtils.isNBase(refBase) )
+            return CalledState.REF_N;
 
-                if (e.getMappingQual() >= minMappingQuality && (e.getQual() >= minBaseQuality || e.isDeletion())) {
-                    QCDepth++;
-                }
-            }
+        // count up the depths of all and QC+ bases
+        int rawDepth = 0, QCDepth = 0, lowMAPQDepth = 0;
+        for (PileupElement e : context.getBasePileup()) {
+            rawDepth++;
 
-            //System.out.printf("%s rawdepth = %d QCDepth = %d lowMAPQ = %d%n", context.getLocation(), rawDepth, QCDepth, lowMAPQDepth);
-            if (rawDepth == 0) {
-                state = CalledState.NO_COVERAGE;
-            } else if (rawDepth >= minDepthLowMAPQ && MathUtils.ratio(lowMAPQDepth, rawDepth) >= maxLowMAPQFraction) {
-                state = CalledState.POOR_MAPPING_QUALITY;
-            } else if (QCDepth < minDepth) {
-                state = CalledState.LOW_COVERAGE;
-            } else if (rawDepth >= maxDepth && maxDepth != -1) {
-                state = CalledState.EXCESSIVE_COVERAGE;
-            } else {
-                state = CalledState.CALLABLE;
+            if (e.getMappingQual() <= maxLowMAPQ)
+                lowMAPQDepth++;
+
+            if (e.getMappingQual() >= minMappingQuality && (e.getQual() >= minBaseQuality || e.isDeletion())) {
+                QCDepth++;
             }
         }
 
-        return new CallableBaseState(getToolkit().getGenomeLocParser(), context.getLocation(), state);
+        //System.out.printf("%s rawdepth = %d QCDepth = %d lowMAPQ = %d%n", context.getLocation(), rawDepth, QCDepth, lowMAPQDepth);
+        if (rawDepth == 0) {
+            return CalledState.NO_COVERAGE;
+        } else if (rawDepth >= minDepthLowMAPQ && MathUtils.ratio(lowMAPQDepth, rawDepth) >= maxLowMAPQFraction) {
+            return CalledState.POOR_MAPPING_QUALITY;
+        } else if (QCDepth < minDepth) {
+            return CalledState.LOW_COVERAGE;
+        } else if (rawDepth >= maxDepth && maxDepth != -1) {
+            return CalledState.EXCESSIVE_COVERAGE;
+        } else {
+            return CalledState.CALLABLE;
+        }
     }
 
     @Override
@@ -347,18 +397,24 @@ public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, Ca
     }
 
     @Override
-    public Integrator reduce(CallableBaseState state, Integrator integrator) {
+    public Integrator reduce(List<CallableBaseState> states, Integrator integrator) {
+        for ( final CallableBaseState state : states )
+            integrate(state, integrator);
+        return integrator;
+    }
+
+    private void integrate(CallableBaseState state, Integrator integrator) {
         // update counts
-        integrator.counts[state.getState().ordinal()]++;
+        integrator.counts[state.getState().ordinal()] += state.getStop() - state.getStart() + 1;
 
         if (outputFormat == OutputFormat.STATE_PER_BASE) {
-            out.println(state.toString());
+            printStatePerBase(state, state.getStart());
         }
 
         // format is integrating
         if (integrator.state == null)
             integrator.state = state;
-        else if (state.getLocation().getStart() != integrator.state.getLocation().getStop() + 1 ||
+        else if (state.getStart() != integrator.state.getStop() + 1 ||
                 integrator.state.changingState(state.getState())) {
             out.println(integrator.state.toString());
             integrator.state = state;
@@ -366,7 +422,15 @@ public class CallableLoci extends LocusWalker<CallableLoci.CallableBaseState, Ca
             integrator.state.update(state.getLocation());
         }
 
-        return integrator;
+        // the rest of a run only extends the state integrated above, so can follow it in one go
+        if (outputFormat == OutputFormat.STATE_PER_BASE) {
+            for ( int pos = state.getStart() + 1; pos <= state.getStop(); pos++ )
+                printStatePerBase(state, pos);
+        }
+    }
+
+    private void printStatePerBase(CallableBaseState state, int pos) {
+        out.println(String.format("%s\t%d\t%d\t%s", state.getLocation().getContig(), pos-1, pos, state.getState()));
     }
 
 
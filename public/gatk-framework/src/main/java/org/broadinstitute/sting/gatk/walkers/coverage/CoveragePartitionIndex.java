@@ -0,0 +1,119 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import net.sf.samtools.SAMReadGroupRecord;
+
+import java.util.*;
+
+/**
+ * Gives every identifier of each partition type a fixed column, and every read group in the header
+ * the column of its identifier, so that per-locus counts can live in arrays instead of maps keyed by
+ * identifier strings.  Built once per run and shared, read-only, by all threads.
+ *
+ * Columns follow the sorted order of the identifiers, which is the order they are printed in.
+ */
+class CoveragePartitionIndex {
+    private final DoCOutputType.Partition[] types;
+    private final List<List<String>> identifiersByType; // by partition ordinal; sorted
+    private final List<Map<String,Integer>> columnsByType; // by partition ordinal
+    private final Map<String,Integer> readGroupIndices;
+    private final int[][] columnByReadGroup; // [partition ordinal][read group index]
+
+    /**
+     * @param types the partition types in use
+     * @param identifiersByType all the identifiers of each type
+     * @param readGroups the read groups of the merged header
+     */
+    public CoveragePartitionIndex(Collection<DoCOutputType.Partition> types, Map<DoCOutputType.Partition,? extends Collection<String>> identifiersByType, List<SAMReadGroupRecord> readGroups) {
+        int nPartitions = DoCOutputType.Partition.values().length;
+        this.types = types.toArray(new DoCOutputType.Partition[types.size()]);
+        this.identifiersByType = new ArrayList<List<String>>(Collections.<List<String>>nCopies(nPartitions,null));
+        this.columnsByType = new ArrayList<Map<String,Integer>>(Collections.<Map<String,Integer>>nCopies(nPartitions,null));
+        this.columnByReadGroup = new int[nPartitions][];
+
+        readGroupIndices = new HashMap<String,Integer>(readGroups.size());
+        for ( SAMReadGroupRecord rg : readGroups ) {
+            readGroupIndices.put(rg.getReadGroupId(),readGroupIndices.size());
+        }
+
+        for ( DoCOutputType.Partition t : this.types ) {
+            List<String> identifiers = new ArrayList<String>(identifiersByType.get(t));
+            Collections.sort(identifiers);
+            Map<String,Integer> columns = new HashMap<String,Integer>(identifiers.size());
+            for ( String id : identifiers ) {
+                columns.put(id,columns.size());
+            }
+
+            int[] columnByReadGroup = new int[readGroups.size()];
+            for ( SAMReadGroupRecord rg : readGroups ) {
+                columnByReadGroup[readGroupIndices.get(rg.getReadGroupId())] = getColumn(columns,CoverageUtils.getTypeID(rg,t));
+            }
+
+            this.identifiersByType.set(t.ordinal(),Collections.unmodifiableList(identifiers));
+            this.columnsByType.set(t.ordinal(),columns);
+            this.columnByReadGroup[t.ordinal()] = columnByReadGroup;
+        }
+    }
+
+    private static int getColumn(Map<String,Integer> columns, String id) {
+        Integer column = columns.get(id);
+        return column == null ? -1 : column;
+    }
+
+    public DoCOutputType.Partition[] getTypes() {
+        return types;
+    }
+
+    public List<String> getIdentifiers(DoCOutputType.Partition t) {
+        return identifiersByType.get(t.ordinal());
+    }
+
+    /**
+     * @param rg a read group
+     * @return the index of rg in the header, or -1 if it isn't there
+     */
+    public int getReadGroupIndex(SAMReadGroupRecord rg) {
+        Integer index = readGroupIndices.get(rg.getReadGroupId());
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param t a partition type
+     * @param readGroupIndex the index of a read group, from getReadGroupIndex()
+     * @return the column of that read group's identifier of type t, or -1 if it has none
+     */
+    public int getColumn(DoCOutputType.Partition t, int readGroupIndex) {
+        return columnByReadGroup[t.ordinal()][readGroupIndex];
+    }
+
+    /**
+     * Slow path of getColumn(t,getReadGroupIndex(rg)), for read groups missing from the header
+     */
+    public int getColumn(DoCOutputType.Partition t, SAMReadGroupRecord rg) {
+        return getColumn(columnsByType.get(t.ordinal()),CoverageUtils.getTypeID(rg,t));
+    }
+}
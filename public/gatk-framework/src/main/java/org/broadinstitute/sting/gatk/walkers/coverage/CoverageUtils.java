@@ -137,7 +137,28 @@ public class CoverageUtils {
     public static Map<SAMReadGroupRecord,int[]> getBaseCountsByReadGroup(AlignmentContext context, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ, CountPileupType countType) {
         Map<SAMReadGroupRecord, int[]> countsByRG = new HashMap<SAMReadGroupRecord,int[]>();
 
-        List<PileupElement> countPileup = new LinkedList<PileupElement>();
+        for (PileupElement e : getCountedElements(context, minMapQ, maxMapQ, minBaseQ, maxBaseQ, countType)) {
+            SAMReadGroupRecord readGroup = getReadGroup(e.getRead());
+            if (!countsByRG.keySet().contains(readGroup))
+                countsByRG.put(readGroup, new int[6]);
+
+            updateCounts(countsByRG.get(readGroup), e);
+        }
+
+        return countsByRG;
+    }
+
+    /**
+     * Adds the bases counted in the context to counts, under the identifiers of every partition type counts is kept for.
+     * Gives the same counts as getBaseCountsByPartition, without building any maps.
+     */
+    static void addBaseCountsByPartition(AlignmentContext context, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ, CountPileupType countType, LocusCoverageCounts counts) {
+        for (PileupElement e : getCountedElements(context, minMapQ, maxMapQ, minBaseQ, maxBaseQ, countType))
+            counts.add(getReadGroup(e.getRead()), getBaseIndex(e));
+    }
+
+    private static List<PileupElement> getCountedElements(AlignmentContext context, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ, CountPileupType countType) {
+        List<PileupElement> countPileup = new ArrayList<PileupElement>();
         FragmentCollection<PileupElement> fpile;
 
         switch (countType) {
@@ -200,15 +221,7 @@ public class CoverageUtils {
                 throw new UserException("Must use valid CountPileupType");
         }
 
-        for (PileupElement e : countPileup) {
-            SAMReadGroupRecord readGroup = getReadGroup(e.getRead());
-            if (!countsByRG.keySet().contains(readGroup))
-                countsByRG.put(readGroup, new int[6]);
-
-            updateCounts(countsByRG.get(readGroup), e);
-        }
-
-        return countsByRG;
+        return countPileup;
     }
 
     private static boolean countElement(PileupElement e, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ) {
@@ -216,16 +229,20 @@ public class CoverageUtils {
     }
 
     private static void updateCounts(int[] counts, PileupElement e) {
+        counts[getBaseIndex(e)]++;
+    }
+
+    private static int getBaseIndex(PileupElement e) {
         if ( e.isDeletion() ) {
-            counts[BaseUtils.Base.D.ordinal()]++;
+            return BaseUtils.Base.D.ordinal();
         } else if ( BaseUtils.basesAreEqual(BaseUtils.Base.N.base, e.getBase()) ) {
-            counts[BaseUtils.Base.N.ordinal()]++;
+            return BaseUtils.Base.N.ordinal();
         } else {
-            try {
-                counts[BaseUtils.simpleBaseToBaseIndex(e.getBase())]++;
-            } catch (ArrayIndexOutOfBoundsException exc) {
+            int index = BaseUtils.simpleBaseToBaseIndex(e.getBase());
+            if ( index == -1 ) {
                 throw new ReviewedStingException("Expected a simple base, but actually received"+(char)e.getBase());
             }
+            return index;
         }
     }
 
@@ -55,6 +55,7 @@ import org.broadinstitute.sting.utils.help.HelpConstants;
 import java.io.File;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Assess sequence coverage by a wide array of metrics, partitioned by sample, read group, or library
@@ -121,7 +122,7 @@ import java.util.*;
 @By(DataSource.REFERENCE)
 @PartitionBy(PartitionType.NONE)
 @Downsample(by= DownsampleType.NONE, toCoverage=Integer.MAX_VALUE)
-public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map<String,int[]>>, CoveragePartitioner> implements TreeReducible<CoveragePartitioner> {
+public class DepthOfCoverage extends LocusWalker<LocusCoverageCounts, CoveragePartitioner> implements TreeReducible<CoveragePartitioner> {
     @Output
     @Multiplex(value=DoCOutputMultiplexer.class,arguments={"partitionTypes","refSeqGeneList","omitDepthOutput","omitIntervals","omitSampleSummary","omitLocusTable"})
     Map<DoCOutputType,PrintStream> out;
@@ -253,7 +254,25 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
 
     String[] OUTPUT_FORMATS = {"table","rtable","csv"};
     String separator = "\t";
+    private static final String LINE_SEPARATOR = String.format("%n");
     Map<DoCOutputType.Partition,List<String>> orderCheck = new HashMap<DoCOutputType.Partition,List<String>>();
+    Map<DoCOutputType.Partition,HashSet<String>> identifiersByType = new HashMap<DoCOutputType.Partition,HashSet<String>>();
+    CoveragePartitionIndex partitionIndex;
+
+    /**
+     * Per-locus counts handed back by reduce(), for map() to fill again
+     */
+    private final Queue<LocusCoverageCounts> freeLocusCounts = new ConcurrentLinkedQueue<LocusCoverageCounts>();
+
+    /**
+     * The line of per-locus output being built, one per reducing thread
+     */
+    private final ThreadLocal<StringBuilder> depthLine = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
 
     ////////////////////////////////////////////////////////////////////////////////////
     // STANDARD WALKER METHODS
@@ -316,12 +335,15 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         }
 
         for (DoCOutputType.Partition type : partitionTypes ) {
+            identifiersByType.put(type,getSamplesFromToolKit(type));
             orderCheck.put(type,new ArrayList<String>());
-            for ( String id : getSamplesFromToolKit(type) ) {
+            for ( String id : identifiersByType.get(type) ) {
                 orderCheck.get(type).add(id);
             }
             Collections.sort(orderCheck.get(type));
         }
+
+        partitionIndex = new CoveragePartitionIndex(partitionTypes,identifiersByType,getToolkit().getSAMFileHeader().getReadGroups());
     }
 
     private HashSet<String> getSamplesFromToolKit( Collection<DoCOutputType.Partition> types ) {
@@ -379,36 +401,41 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     public CoveragePartitioner reduceInit() {
         CoveragePartitioner aggro = new CoveragePartitioner(partitionTypes,start,stop,nBins);
         for (DoCOutputType.Partition t : partitionTypes ) {
-            aggro.addIdentifiers(t,getSamplesFromToolKit(t));
+            aggro.addIdentifiers(t,identifiersByType.get(t));
         }
         aggro.initialize(includeDeletions,omitLocusTable);
         checkOrder(aggro);
         return aggro;
     }
 
-    public Map<DoCOutputType.Partition,Map<String,int[]>> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    public LocusCoverageCounts map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if (includeRefNBases || BaseUtils.isRegularBase(ref.getBase())) {
-            if ( ! omitDepthOutput ) {
-                getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary).printf("%s",ref.getLocus()); // yes: print locus in map, and the rest of the info in reduce (for eventual cumulatives)
-                //System.out.printf("\t[log]\t%s",ref.getLocus());
+            LocusCoverageCounts counts = freeLocusCounts.poll();
+            if ( counts == null ) {
+                counts = new LocusCoverageCounts(partitionIndex);
             }
 
-            return CoverageUtils.getBaseCountsByPartition(context,minMappingQuality,maxMappingQuality,minBaseQuality,maxBaseQuality,countType,partitionTypes);
+            counts.setLocation(ref.getLocus()); // printed in reduce, with the rest of the info (for eventual cumulatives)
+            CoverageUtils.addBaseCountsByPartition(context,minMappingQuality,maxMappingQuality,minBaseQuality,maxBaseQuality,countType,counts);
+            return counts;
         } else {
             return null;
         }
     }
 
-    public CoveragePartitioner reduce(Map<DoCOutputType.Partition,Map<String,int[]>> thisMap, CoveragePartitioner prevReduce) {
+    public CoveragePartitioner reduce(LocusCoverageCounts thisMap, CoveragePartitioner prevReduce) {
         if ( thisMap != null ) { // skip sites we didn't want to include in the calculation (ref Ns)
             if ( ! omitDepthOutput ) {
                 //checkOrder(prevReduce); // tests prevReduce.getIdentifiersByType().get(t) against the initialized header order
-                printDepths(getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary),thisMap,prevReduce.getIdentifiersByType());
+                printDepths(getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary),thisMap);
                 // this is an additional iteration through thisMap, plus dealing with IO, so should be much slower without
                 // turning on omit
             }
 
-            prevReduce.update(thisMap); // note that in "useBoth" cases, this method alters the thisMap object
+            prevReduce.update(thisMap);
+
+            thisMap.clear();
+            freeLocusCounts.offer(thisMap);
         }
 
         return prevReduce;
@@ -610,11 +637,13 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         targetSummary.append(separator);
         targetSummary.append(String.format("%.2f",stats.getTotalMeanCoverage()));
 
+        Map<String,Long> totals = stats.getTotals();
+        Map<String,Double> means = stats.getMeans();
         for ( String s : stats.getAllSamples() ) {
             targetSummary.append(separator);
-            targetSummary.append(stats.getTotals().get(s));
+            targetSummary.append(totals.get(s));
             targetSummary.append(separator);
-            targetSummary.append(String.format("%.2f", stats.getMeans().get(s)));
+            targetSummary.append(String.format("%.2f", means.get(s)));
             targetSummary.append(separator);
             int median = getQuantile(stats.getHistograms().get(s),0.5);
             int q1 = getQuantile(stats.getHistograms().get(s),0.25);
@@ -888,63 +917,56 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         return 100*( (double) above )/( above + below );
     }
 
-    private void printDepths(PrintStream stream, Map<DoCOutputType.Partition,Map<String,int[]>> countsBySampleByType, Map<DoCOutputType.Partition,List<String>> identifiersByType) {
-        // get the depths per sample and build up the output string while tabulating total and average coverage
-        StringBuilder perSampleOutput = new StringBuilder();
-        int tDepth = 0;
-        boolean depthCounted = false;
-        for (DoCOutputType.Partition type : partitionTypes ) {
-            Map<String,int[]> countsByID = countsBySampleByType.get(type);
-            for ( String s : identifiersByType.get(type) ) {
-                perSampleOutput.append(separator);
-                long dp = (countsByID != null && countsByID.keySet().contains(s)) ? sumArray(countsByID.get(s)) : 0 ;
-                perSampleOutput.append(dp);
-                if ( printBaseCounts ) {
-                    perSampleOutput.append(separator);
-                    perSampleOutput.append(baseCounts(countsByID != null ? countsByID.get(s) : null ));
-                }
-                if ( ! depthCounted ) {
-                    tDepth += dp;
-                }
+    private void printDepths(PrintStream stream, LocusCoverageCounts counts) {
+        // the total depth is that of the first type, as every type counts the same bases
+        long tDepth = 0;
+        if ( partitionIndex.getTypes().length > 0 ) {
+            for ( int dp : counts.getDepths(partitionIndex.getTypes()[0]) ) {
+                tDepth += dp;
             }
-            depthCounted = true; // only sum the total depth once
         }
 
-        // remember -- genome locus was printed in map()
-        stream.printf("%s%d",separator,tDepth);
+        StringBuilder line = depthLine.get();
+        line.setLength(0);
+        line.append(counts.getLocation());
+        line.append(separator);
+        line.append(tDepth);
         for (DoCOutputType.Partition type : partitionTypes ) {
-            stream.printf("%s%.2f",separator, ( (double) tDepth / identifiersByType.get(type).size() ) );
+            line.append(separator);
+            line.append(String.format("%.2f", (double) tDepth / partitionIndex.getIdentifiers(type).size()));
         }
-        stream.printf("%s%n",perSampleOutput);
-    }
 
-    private long sumArray(int[] array) {
-        long i = 0;
-        for ( int j : array ) {
-            i += j;
+        // then the depth of every identifier, straight from the counts
+        for (DoCOutputType.Partition type : partitionTypes ) {
+            int[] depths = counts.getDepths(type);
+            int[] baseCounts = counts.getBaseCounts(type);
+            for ( int column = 0; column < depths.length; column++ ) {
+                line.append(separator);
+                line.append(depths[column]);
+                if ( printBaseCounts ) {
+                    line.append(separator);
+                    appendBaseCounts(line,baseCounts,column * LocusCoverageCounts.N_BASES);
+                }
+            }
         }
-        return i;
+
+        line.append(LINE_SEPARATOR);
+        stream.print(line);
     }
 
-    private String baseCounts(int[] counts) {
-        if ( counts == null ) {
-            counts = new int[6];
-        }
-        StringBuilder s = new StringBuilder();
+    private void appendBaseCounts(StringBuilder s, int[] counts, int offset) {
         int nbases = 0;
         for ( byte b : BaseUtils.EXTENDED_BASES ) {
             nbases++;
             if ( includeDeletions || b != BaseUtils.Base.D.base ) {
                 s.append((char)b);
-                s.append(":");
-                s.append(counts[BaseUtils.extendedBaseToBaseIndex(b)]);
+                s.append(':');
+                s.append(counts[offset + BaseUtils.extendedBaseToBaseIndex(b)]);
                 if ( nbases < 6 ) {
-                    s.append(" ");
+                    s.append(' ');
                 }
             }
         }
-
-        return s.toString();
     }
 
     private void checkOrder(CoveragePartitioner ag) {
@@ -1051,10 +1073,15 @@ class CoveragePartitioner {
     private Collection<DoCOutputType.Partition> types;
     private Map<DoCOutputType.Partition,DepthOfCoverageStats> coverageProfiles;
     private Map<DoCOutputType.Partition,List<String>> identifiersByType;
+    private Map<DoCOutputType.Partition,int[]> columnBySampleIndexByType; // maps the stats' sample indices to the identifiers' columns
+    private Map<DoCOutputType.Partition,int[]> depthsByType; // reused depths by sample index
     private Set<String> allIdentifiers;
+    private boolean includeDeletions = false;
     public CoveragePartitioner(Collection<DoCOutputType.Partition> typesToUse, int start, int stop, int nBins) {
         coverageProfiles = new HashMap<DoCOutputType.Partition,DepthOfCoverageStats>();
         identifiersByType = new HashMap<DoCOutputType.Partition,List<String>>();
+        columnBySampleIndexByType = new HashMap<DoCOutputType.Partition,int[]>();
+        depthsByType = new HashMap<DoCOutputType.Partition,int[]>();
         types = typesToUse;
         for ( DoCOutputType.Partition type : types ) {
             coverageProfiles.put(type,new DepthOfCoverageStats(DepthOfCoverageStats.calculateBinEndpoints(start,stop,nBins)));
@@ -1083,6 +1110,7 @@ class CoveragePartitioner {
     }
 
     public void initialize(boolean useDels, boolean omitLocusTable) {
+        includeDeletions = useDels;
         for ( DoCOutputType.Partition t : types ) {
             if ( useDels ) {
                 coverageProfiles.get(t).initializeDeletions();
@@ -1090,12 +1118,32 @@ class CoveragePartitioner {
             if ( ! omitLocusTable ) {
                 coverageProfiles.get(t).initializeLocusCounts();
             }
+
+            // identifiers are in column order, as they're sorted just like the CoveragePartitionIndex's
+            List<String> identifiers = identifiersByType.get(t);
+            int[] columnBySampleIndex = new int[identifiers.size()];
+            for ( int column = 0; column < identifiers.size(); column++ ) {
+                columnBySampleIndex[coverageProfiles.get(t).getSampleIndex(identifiers.get(column))] = column;
+            }
+            columnBySampleIndexByType.put(t,columnBySampleIndex);
+            depthsByType.put(t,new int[identifiers.size()]);
         }
     }
 
-    public void update(Map<DoCOutputType.Partition,Map<String,int[]>> countsByIdentifierByType) {
+    public void update(LocusCoverageCounts counts) {
         for ( DoCOutputType.Partition t : types ) {
-            coverageProfiles.get(t).update(countsByIdentifierByType.get(t));
+            int[] columnBySampleIndex = columnBySampleIndexByType.get(t);
+            int[] depths = depthsByType.get(t);
+            int[] columnDepths = counts.getDepths(t);
+            int[] baseCounts = counts.getBaseCounts(t);
+            for ( int s = 0; s < depths.length; s++ ) {
+                int column = columnBySampleIndex[s];
+                depths[s] = columnDepths[column];
+                if ( ! includeDeletions ) {
+                    depths[s] -= baseCounts[column * LocusCoverageCounts.N_BASES + BaseUtils.Base.D.ordinal()];
+                }
+            }
+            coverageProfiles.get(t).updateDepths(depths);
         }
     }
 
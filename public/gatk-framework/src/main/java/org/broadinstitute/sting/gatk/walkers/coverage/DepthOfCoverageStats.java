@@ -28,6 +28,7 @@ package org.broadinstitute.sting.gatk.walkers.coverage;
 import org.broadinstitute.sting.utils.BaseUtils;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -50,9 +51,13 @@ public class DepthOfCoverageStats {
     ////////////////////////////////////////////////////////////////////////////////////
 
     private Map<String,long[]> granularHistogramBySample; // holds the counts per each bin
-    private Map<String,Long> totalCoverages; // holds total coverage per sample
+    private Map<String,Integer> sampleIndices; // index of each sample in the arrays below, in the order samples were added
+    private String[] samples; // sample for each index
+    private long[][] granularHistograms; // same arrays as granularHistogramBySample, by sample index
+    private long[] totalCoverages; // holds total coverage per sample index
     private int[] binLeftEndpoints; // describes the left endpoint for each bin
-    private long[][] locusCoverageCounts; // holds counts of number of bases with >=X samples at >=Y coverage
+    private long[][] lociBySamplesAboveBin; // [bin][n]: number of loci with exactly n samples in bin or above
+    private int nLocusCountSamples; // number of samples when the locus counts were initialized
     private boolean tabulateLocusCounts = false;
     private long nLoci; // number of loci seen
     private long totalDepthOfCoverage;
@@ -62,8 +67,8 @@ public class DepthOfCoverageStats {
     // TEMPORARY DATA ( not worth re-instantiating )
     ////////////////////////////////////////////////////////////////////////////////////
 
-    private int[] locusHistogram; // holds a histogram for each locus; reset after each update() call
-    private int totalLocusDepth; // holds the total depth of coverage for each locus; reset after each update() call
+    private int[] locusHistogram; // holds the number of samples in each bin for each locus; reset after each update() call
+    private int[] depthBuffer; // depths by sample index for the Map based update methods
 
     ////////////////////////////////////////////////////////////////////////////////////
     // STATIC METHODS
@@ -103,30 +108,30 @@ public class DepthOfCoverageStats {
     public DepthOfCoverageStats(int[] leftEndpoints) {
         this.binLeftEndpoints = leftEndpoints;
         granularHistogramBySample = new HashMap<String,long[]>();
-        totalCoverages = new HashMap<String,Long>();
+        sampleIndices = new HashMap<String,Integer>();
+        samples = new String[0];
+        granularHistograms = new long[0][];
+        totalCoverages = new long[0];
         nLoci = 0;
-        totalLocusDepth = 0;
         totalDepthOfCoverage = 0;
     }
 
     public DepthOfCoverageStats(DepthOfCoverageStats cloneMe) {
-        this.binLeftEndpoints = cloneMe.binLeftEndpoints;
-        granularHistogramBySample = new HashMap<String,long[]>();
-        totalCoverages = new HashMap<String,Long>();
+        this(cloneMe.binLeftEndpoints);
         for ( String s : cloneMe.getAllSamples() ) {
-            granularHistogramBySample.put(s,new long[cloneMe.getHistograms().get(s).length]);
-            for ( int i = 0; i < granularHistogramBySample.get(s).length; i++ ) {
-                granularHistogramBySample.get(s)[i] = cloneMe.getHistograms().get(s)[i];
-            }
-            totalCoverages.put(s,cloneMe.totalCoverages.get(s));
+            addSample(s);
+            int from = cloneMe.getSampleIndex(s);
+            int to = getSampleIndex(s);
+            System.arraycopy(cloneMe.granularHistograms[from],0,granularHistograms[to],0,granularHistograms[to].length);
+            totalCoverages[to] = cloneMe.totalCoverages[from];
         }
 
         this.includeDeletions = cloneMe.includeDeletions;
         if ( cloneMe.tabulateLocusCounts ) {
-            this.locusCoverageCounts = new long[cloneMe.locusCoverageCounts.length][cloneMe.locusCoverageCounts[0].length];
+            this.lociBySamplesAboveBin = new long[cloneMe.lociBySamplesAboveBin.length][cloneMe.lociBySamplesAboveBin[0].length];
+            this.nLocusCountSamples = cloneMe.nLocusCountSamples;
+            this.locusHistogram = new int[binLeftEndpoints.length+1];
         }
-        //this.granularHistogramBySample = cloneMe.granularHistogramBySample;
-        //this.totalCoverages = cloneMe.totalCoverages;
         this.nLoci = cloneMe.nLoci;
         this.totalDepthOfCoverage = cloneMe.totalDepthOfCoverage;
         this.tabulateLocusCounts = cloneMe.tabulateLocusCounts;
@@ -138,23 +143,22 @@ public class DepthOfCoverageStats {
         }
 
         long[] binCounts = new long[this.binLeftEndpoints.length+1];
-        for ( int b = 0; b < binCounts.length; b ++ ) {
-            binCounts[b] = 0;
-        }
+
+        int index = samples.length;
+        samples = Arrays.copyOf(samples,index+1);
+        granularHistograms = Arrays.copyOf(granularHistograms,index+1);
+        totalCoverages = Arrays.copyOf(totalCoverages,index+1);
+        samples[index] = sample;
+        granularHistograms[index] = binCounts;
+        sampleIndices.put(sample,index);
 
         granularHistogramBySample.put(sample,binCounts);
-        totalCoverages.put(sample,0l);
     }
 
     public void initializeLocusCounts() {
-        locusCoverageCounts = new long[granularHistogramBySample.size()][binLeftEndpoints.length+1];
+        nLocusCountSamples = samples.length;
+        lociBySamplesAboveBin = new long[binLeftEndpoints.length+1][nLocusCountSamples+1];
         locusHistogram = new int[binLeftEndpoints.length+1];
-        for ( int b = 0; b < binLeftEndpoints.length+1; b ++ ) {
-            for ( int a = 0; a < granularHistogramBySample.size(); a ++ ) {
-                locusCoverageCounts[a][b] = 0;
-            }
-            locusHistogram[b] = 0;
-        }
 
         tabulateLocusCounts = true;
     }
@@ -167,116 +171,131 @@ public class DepthOfCoverageStats {
     // UPDATE METHODS
     ////////////////////////////////////////////////////////////////////////////////////
 
-    public void updateDepths(Map<String,Integer> depthBySample) {
-        int b;
-        for ( String sample : granularHistogramBySample.keySet() ) {
-            if ( depthBySample.containsKey(sample) ) {
-                b = updateSample(sample,depthBySample.get(sample));
-                totalLocusDepth += depthBySample.get(sample);
-            } else {
-                b = updateSample(sample,0);
-            }
+    /**
+     * Adds a locus, given the depth of every sample at it
+     *
+     * @param depthBySampleIndex the depth of each sample, indexed as in getSampleIndex()
+     */
+    public void updateDepths(int[] depthBySampleIndex) {
+        int totalLocusDepth = 0;
+        for ( int s = 0; s < samples.length; s++ ) {
+            int depth = depthBySampleIndex[s];
+            int b = updateSample(s,depth);
+            totalLocusDepth += depth;
 
             if ( tabulateLocusCounts ) {
-                for ( int i = 0; i <= b; i ++ ) {
-                    locusHistogram[i]++;
-                }
+                locusHistogram[b]++;
             }
         }
         updateLocusCounts(locusHistogram);
 
         nLoci++;
         totalDepthOfCoverage += totalLocusDepth;
-        totalLocusDepth = 0;
     }
 
-    public void update(Map<String,int[]> countsBySample) {
-        if ( countsBySample == null ) {
-            this.updateDepths(new HashMap<String,Integer>(1));
-            return;
+    public void updateDepths(Map<String,Integer> depthBySample) {
+        int[] depths = getDepthBuffer();
+        for ( int s = 0; s < samples.length; s++ ) {
+            Integer depth = depthBySample.get(samples[s]);
+            depths[s] = depth == null ? 0 : depth;
         }
-        // todo -- do we want to do anything special regarding base count or deletion statistics?
-        HashMap<String,Integer> depthBySample = new HashMap<String,Integer>();
-        // todo -- needs fixing with advent of new baseutils functionality using ENUMS and handling N,D
-        for ( String s : countsBySample.keySet() ) {
+
+        updateDepths(depths);
+    }
+
+    public void update(Map<String,int[]> countsBySample) {
+        int[] depths = getDepthBuffer();
+        for ( int s = 0; s < samples.length; s++ ) {
+            int[] counts = countsBySample == null ? null : countsBySample.get(samples[s]);
             int total = 0;
-            int[] counts = countsBySample.get(s);
-            for ( byte base : BaseUtils.EXTENDED_BASES ) {
-                if ( includeDeletions || ! ( base == BaseUtils.Base.D.base) ) { // note basesAreEqual assigns TRUE to (N,D) as both have simple index -1
-                    total += counts[BaseUtils.extendedBaseToBaseIndex(base)];
+            if ( counts != null ) {
+                for ( byte base : BaseUtils.EXTENDED_BASES ) {
+                    if ( includeDeletions || ! ( base == BaseUtils.Base.D.base) ) { // note basesAreEqual assigns TRUE to (N,D) as both have simple index -1
+                        total += counts[BaseUtils.extendedBaseToBaseIndex(base)];
+                    }
                 }
             }
-            depthBySample.put(s,total);
+            depths[s] = total;
         }
-        
-        this.updateDepths(depthBySample);
+
+        updateDepths(depths);
     }
 
-    private int updateSample(String sample, int depth) {
-        totalCoverages.put(sample,totalCoverages.get(sample)+depth);
+    private int[] getDepthBuffer() {
+        if ( depthBuffer == null || depthBuffer.length < samples.length ) {
+            depthBuffer = new int[samples.length];
+        }
+        return depthBuffer;
+    }
 
-        long[] granularBins = granularHistogramBySample.get(sample);
-        for ( int b = 0; b < binLeftEndpoints.length; b ++ ) {
-            if ( depth < binLeftEndpoints[b] ) {
-                granularBins[b]++;
-                return b;
+    private int updateSample(int sampleIndex, int depth) {
+        totalCoverages[sampleIndex] += depth;
+
+        // the bin is the first whose left endpoint is greater than depth, or one past the last if none is
+        int low = 0, high = binLeftEndpoints.length;
+        while ( low < high ) {
+            int mid = (low + high) >>> 1;
+            if ( depth < binLeftEndpoints[mid] ) {
+                high = mid;
+            } else {
+                low = mid + 1;
             }
         }
 
-        granularBins[binLeftEndpoints.length]++; // greater than all left-endpoints
-        return binLeftEndpoints.length;
+        granularHistograms[sampleIndex][low]++;
+        return low;
     }
 
     public void merge(DepthOfCoverageStats newStats) {
         this.mergeSamples(newStats);
         if ( this.tabulateLocusCounts && newStats.tabulateLocusCounts ) {
-            this.mergeLocusCounts(newStats.getLocusCounts());
+            this.mergeLocusCounts(newStats.lociBySamplesAboveBin);
         }
         nLoci += newStats.getTotalLoci();
         totalDepthOfCoverage += newStats.getTotalCoverage();
     }
 
     private void mergeSamples(DepthOfCoverageStats otherStats) {
-        Map<String,long[]> otherHistogram = otherStats.getHistograms();
-        Map<String,Double> otherMeans = otherStats.getMeans();
-        for ( String s : this.getAllSamples() ) {
-            long[] internalCounts = granularHistogramBySample.get(s);
-            long[] externalCounts = otherHistogram.get(s);
+        for ( int s = 0; s < samples.length; s++ ) {
+            int other = otherStats.getSampleIndex(samples[s]);
+            long[] internalCounts = granularHistograms[s];
+            long[] externalCounts = otherStats.granularHistograms[other];
             for ( int b = 0; b < internalCounts.length; b++ ) {
                 internalCounts[b] += externalCounts[b];
             }
 
-            this.totalCoverages.put(s, this.totalCoverages.get(s) + otherStats.totalCoverages.get(s));
+            this.totalCoverages[s] += otherStats.totalCoverages[other];
         }
     }
 
     private void mergeLocusCounts( long[][] otherCounts ) {
-        for ( int a = 0; a < locusCoverageCounts.length; a ++ ) {
-            for ( int b = 0; b < locusCoverageCounts[0].length; b ++ ) {
-                locusCoverageCounts[a][b] += otherCounts[a][b];
+        for ( int b = 0; b < lociBySamplesAboveBin.length; b ++ ) {
+            for ( int n = 0; n < lociBySamplesAboveBin[0].length; n ++ ) {
+                lociBySamplesAboveBin[b][n] += otherCounts[b][n];
             }
         }
     }
 
     /*
      * Update locus counts -- takes an array in which the number of samples
-     * with depth ABOVE [i] is held. So if the bin left endpoints were 2, 5, 10
-     * then we'd have an array that represented:
+     * with depth in bin [i] is held. Summing from the top bin down gives the
+     * number of samples with depth ABOVE each bin; so if the bin left endpoints
+     * were 2, 5, 10 then we'd get:
      * [# samples with depth 0 - inf], [# samples with depth 2 - inf],
      * [# samples with depth 5 - inf], [# samples with depth 10-inf];
      *
-     * this is
-     * @argument cumulativeSamplesByDepthBin - see above
+     * and only that number is recorded per bin, leaving getLocusCounts() to expand
+     * it into the table of loci with at least N samples at each depth.
+     * @argument samplesByDepthBin - see above
      */
-    private void updateLocusCounts(int[] cumulativeSamplesByDepthBin) {
+    private void updateLocusCounts(int[] samplesByDepthBin) {
         if ( tabulateLocusCounts ) {
-            for ( int bin = 0; bin < cumulativeSamplesByDepthBin.length; bin ++ ) {
-                int numSamples = cumulativeSamplesByDepthBin[bin];
-                for ( int i = 0; i < numSamples; i ++ ) {
-                    locusCoverageCounts[i][bin]++;
-                }
+            int numSamples = 0;
+            for ( int bin = samplesByDepthBin.length - 1; bin >= 0; bin -- ) {
+                numSamples += samplesByDepthBin[bin];
+                lociBySamplesAboveBin[bin][numSamples]++;
 
-                cumulativeSamplesByDepthBin[bin] = 0; // reset counts in advance of next update()
+                samplesByDepthBin[bin] = 0; // reset counts in advance of next update()
             }
         }
     }
@@ -289,7 +308,23 @@ public class DepthOfCoverageStats {
         return granularHistogramBySample;
     }
 
+    /**
+     * @return the number of loci with more than [i] samples covered to at least bin [j]; a new table on every call
+     */
     public long[][] getLocusCounts() {
+        if ( lociBySamplesAboveBin == null ) {
+            return null;
+        }
+
+        long[][] locusCoverageCounts = new long[nLocusCountSamples][binLeftEndpoints.length+1];
+        for ( int bin = 0; bin < lociBySamplesAboveBin.length; bin ++ ) {
+            long loci = 0;
+            for ( int i = nLocusCountSamples - 1; i >= 0; i -- ) {
+                loci += lociBySamplesAboveBin[bin][i+1];
+                locusCoverageCounts[i][bin] = loci;
+            }
+        }
+
         return locusCoverageCounts;
     }
 
@@ -300,14 +335,19 @@ public class DepthOfCoverageStats {
     public Map<String,Double> getMeans() {
         HashMap<String,Double> means = new HashMap<String,Double>();
         for ( String s : getAllSamples() ) {
-            means.put(s,( (double)totalCoverages.get(s))/( (double) nLoci ));
+            means.put(s,( (double)totalCoverages[getSampleIndex(s)])/( (double) nLoci ));
         }
 
         return means;
     }
 
     public Map<String,Long> getTotals() {
-        return totalCoverages;
+        HashMap<String,Long> totals = new HashMap<String,Long>();
+        for ( String s : getAllSamples() ) {
+            totals.put(s,totalCoverages[getSampleIndex(s)]);
+        }
+
+        return totals;
     }
 
     public long getTotalLoci() {
@@ -318,6 +358,15 @@ public class DepthOfCoverageStats {
         return granularHistogramBySample.keySet();
     }
 
+    /**
+     * @param sample a sample
+     * @return the index of sample in the arrays given to updateDepths(int[]), or -1 if it was never added
+     */
+    public int getSampleIndex(String sample) {
+        Integer index = sampleIndices.get(sample);
+        return index == null ? -1 : index;
+    }
+
     public double getTotalMeanCoverage() {
         return ( (double) totalDepthOfCoverage )/ ( (double) nLoci );
     }
@@ -348,4 +397,4 @@ public class DepthOfCoverageStats {
         return binLeftEndpoints.length-1;
     }
 
-}
\ No newline at end of file
+}
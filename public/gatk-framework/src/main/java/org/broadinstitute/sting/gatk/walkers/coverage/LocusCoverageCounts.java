@@ -0,0 +1,122 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import net.sf.samtools.SAMReadGroupRecord;
+import org.broadinstitute.sting.utils.BaseUtils;
+import org.broadinstitute.sting.utils.GenomeLoc;
+
+/**
+ * The base counts at one locus for every identifier of every partition type, in the columns given by a
+ * CoveragePartitionIndex.  Meant to be cleared and reused from locus to locus: clearing only touches the
+ * identifiers that were counted.
+ */
+class LocusCoverageCounts {
+    public static final int N_BASES = BaseUtils.EXTENDED_BASES.length;
+
+    private final CoveragePartitionIndex index;
+    private final DoCOutputType.Partition[] types;
+    private final int[][] depths; // [partition ordinal][column]: all counts, deletions included
+    private final int[][] baseCounts; // [partition ordinal][column * N_BASES + base index]
+    private final int[][] touchedColumns; // [partition ordinal][i]: columns with a non-zero depth
+    private final int[] nTouchedColumns; // by partition ordinal
+    private GenomeLoc location;
+
+    public LocusCoverageCounts(CoveragePartitionIndex index) {
+        int nPartitions = DoCOutputType.Partition.values().length;
+        this.index = index;
+        this.types = index.getTypes();
+        depths = new int[nPartitions][];
+        baseCounts = new int[nPartitions][];
+        touchedColumns = new int[nPartitions][];
+        nTouchedColumns = new int[nPartitions];
+        for ( DoCOutputType.Partition t : types ) {
+            int nColumns = index.getIdentifiers(t).size();
+            depths[t.ordinal()] = new int[nColumns];
+            baseCounts[t.ordinal()] = new int[nColumns * N_BASES];
+            touchedColumns[t.ordinal()] = new int[nColumns];
+        }
+    }
+
+    public GenomeLoc getLocation() {
+        return location;
+    }
+
+    public void setLocation(GenomeLoc location) {
+        this.location = location;
+    }
+
+    /**
+     * Counts one base from a read of the given read group under each of its identifiers
+     *
+     * @param rg the read group of the read
+     * @param baseIndex the index of the base, as in BaseUtils.Base
+     */
+    public void add(SAMReadGroupRecord rg, int baseIndex) {
+        int readGroupIndex = index.getReadGroupIndex(rg);
+        for ( DoCOutputType.Partition t : types ) {
+            int column = readGroupIndex >= 0 ? index.getColumn(t,readGroupIndex) : index.getColumn(t,rg);
+            if ( column < 0 ) {
+                continue; // an identifier missing from the header is neither printed nor tabulated
+            }
+
+            int p = t.ordinal();
+            if ( depths[p][column]++ == 0 ) {
+                touchedColumns[p][nTouchedColumns[p]++] = column;
+            }
+            baseCounts[p][column * N_BASES + baseIndex]++;
+        }
+    }
+
+    /**
+     * @return the total count of each column of type t, deletions included
+     */
+    public int[] getDepths(DoCOutputType.Partition t) {
+        return depths[t.ordinal()];
+    }
+
+    /**
+     * @return the base counts of type t; those of column c are at [c * N_BASES, (c+1) * N_BASES), indexed as in BaseUtils.Base
+     */
+    public int[] getBaseCounts(DoCOutputType.Partition t) {
+        return baseCounts[t.ordinal()];
+    }
+
+    public void clear() {
+        for ( DoCOutputType.Partition t : types ) {
+            int p = t.ordinal();
+            for ( int i = 0; i < nTouchedColumns[p]; i++ ) {
+                int column = touchedColumns[p][i];
+                depths[p][column] = 0;
+                for ( int b = 0; b < N_BASES; b++ ) {
+                    baseCounts[p][column * N_BASES + b] = 0;
+                }
+            }
+            nTouchedColumns[p] = 0;
+        }
+        location = null;
+    }
+}
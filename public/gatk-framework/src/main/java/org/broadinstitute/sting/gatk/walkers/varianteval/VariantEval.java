@@ -124,7 +124,7 @@ import java.util.*;
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VARMANIP, extraDocs = {CommandLineGATK.class} )
 @Reference(window=@Window(start=-50, stop=50))
 @PartitionBy(PartitionType.NONE)
-public class VariantEval extends RodWalker<Integer, Integer> implements TreeReducible<Integer> {
+public class VariantEval extends RodWalker<Long, Long> implements TreeReducible<Long> {
     public static final String IS_SINGLETON_KEY = "ISSINGLETON";
 
     @Output
@@ -254,7 +254,7 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
     // Public constants
     private static String ALL_SAMPLE_NAME = "all";
 
-    // the number of processed bp for this walker
+    // the number of processed bp for this walker, summed up by reduce and only known once the traversal is done
     long nProcessedLoci = 0;
 
     // Utility class
@@ -265,6 +265,21 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
 
     // The set of all possible evaluation contexts
     StratificationManager<VariantStratifier, EvaluationContext> stratManager;
+
+    // The evaluators to create for each state, and whether they can all combine the results of independent replicas
+    private Set<Class<? extends VariantEvaluator>> evaluationClasses;
+    private boolean evaluatorsSupportCombine = false;
+
+    // When every evaluator supports combine, each thread running map gets its own replica of stratManager to
+    // update, so threads never contend on the same evaluation contexts.  The replicas, the first of which is
+    // stratManager itself, are combined into stratManager in onTraversalDone.
+    private final List<StratificationManager<VariantStratifier, EvaluationContext>> threadStratManagers = new ArrayList<StratificationManager<VariantStratifier, EvaluationContext>>();
+    private final ThreadLocal<StratificationManager<VariantStratifier, EvaluationContext>> threadStratManager = new ThreadLocal<StratificationManager<VariantStratifier, EvaluationContext>>() {
+        @Override
+        protected StratificationManager<VariantStratifier, EvaluationContext> initialValue() {
+            return createThreadStratManager();
+        }
+    };
     //Set<DynamicStratification> dynamicStratifications = Collections.emptySet();
 
     /**
@@ -367,15 +382,61 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
     }
     
     final void createStratificationStates(final List<VariantStratifier> stratificationObjects, final Set<Class<? extends VariantEvaluator>> evaluationObjects) {
+        evaluationClasses = evaluationObjects;
+        stratManager = newStratificationManager(stratificationObjects, evaluationObjects);
+        logger.info("Created " + stratManager.size() + " combinatorial stratification states");
+
+        evaluatorsSupportCombine = true;
+        for ( final VariantEvaluator ve : stratManager.get(0).getVariantEvaluators() )
+            evaluatorsSupportCombine &= ve.supportsCombine();
+        if ( ! evaluatorsSupportCombine )
+            logger.info("Not all evaluation modules support combine; threads will share a single set of stratification states");
+    }
+
+    private StratificationManager<VariantStratifier, EvaluationContext> newStratificationManager(final List<VariantStratifier> stratificationObjects, final Set<Class<? extends VariantEvaluator>> evaluationObjects) {
         final List<VariantStratifier> strats = new ArrayList<VariantStratifier>(stratificationObjects);
-        stratManager = new StratificationManager<VariantStratifier, EvaluationContext>(strats);
+        final StratificationManager<VariantStratifier, EvaluationContext> manager = new StratificationManager<VariantStratifier, EvaluationContext>(strats);
 
-        logger.info("Creating " + stratManager.size() + " combinatorial stratification states");
-        for ( int i = 0; i < stratManager.size(); i++ ) {
+        for ( int i = 0; i < manager.size(); i++ ) {
             EvaluationContext ec = new EvaluationContext(this, evaluationObjects);
-            stratManager.set(i, ec);
+            manager.set(i, ec);
+        }
+        return manager;
+    }
+
+    /**
+     * Get the stratification states that the calling thread should update.  The first thread to ask uses
+     * stratManager itself; later ones get their own replicas, unless some evaluator can't combine results,
+     * in which case everyone shares stratManager and must synchronize on the evaluation contexts.
+     *
+     * @return the stratification manager that this thread owns, or stratManager if it's shared
+     */
+    private StratificationManager<VariantStratifier, EvaluationContext> createThreadStratManager() {
+        synchronized (threadStratManagers) {
+            final StratificationManager<VariantStratifier, EvaluationContext> manager = ! evaluatorsSupportCombine || threadStratManagers.isEmpty()
+                    ? stratManager
+                    : newStratificationManager(stratManager.getStratifiers(), evaluationClasses);
+            if ( evaluatorsSupportCombine ) {
+                threadStratManagers.add(manager);
+                if ( manager != stratManager )
+                    logger.debug("Created stratification state replica " + threadStratManagers.size() + " for thread " + Thread.currentThread().getName());
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * Apply eval and comp to nec, synchronizing on it if its stratification states are shared between threads
+     */
+    private void applyToContext(final EvaluationContext nec, final RefMetaDataTracker tracker, final ReferenceContext ref, final AlignmentContext context, final VariantContext comp, final VariantContext eval) {
+        if ( evaluatorsSupportCombine ) {
+            nec.apply(tracker, ref, context, comp, eval);
+        } else {
+            synchronized (nec) {
+                nec.apply(tracker, ref, context, comp, eval);
+            }
         }
-    }    
+    }
     
     public final Map<String, IntervalTree<GenomeLoc>> createIntervalTreeByContig(final IntervalBinding<Feature> intervals) {
         final Map<String, IntervalTree<GenomeLoc>> byContig = new HashMap<String, IntervalTree<GenomeLoc>>();
@@ -397,12 +458,10 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
      * Collect relevant information from each variant in the supplied VCFs
      */
     @Override
-    public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    public Long map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         // we track the processed bp and expose this for modules instead of wasting CPU power on calculating
-        // the same thing over and over in evals that want the processed bp
-        synchronized (this) {
-            nProcessedLoci += context.getSkippedBases() + (ref == null ? 0 : 1);
-        }
+        // the same thing over and over in evals that want the processed bp.  It's summed up by reduce.
+        final long processedLoci = context.getSkippedBases() + (ref == null ? 0 : 1);
 
         if (tracker != null) {
             String aastr = (ancestralAlignments == null) ? null : new String(ancestralAlignments.getSubsequenceAt(ref.getLocus().getContig(), ref.getLocus().getStart(), ref.getLocus().getStop()).getBases());
@@ -451,16 +510,12 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
                             for ( EvaluationContext nec : getEvaluationContexts(tracker, ref, eval, evalRod.getName(), comp, compRod.getName(), sampleName) ) {
 
                                 // eval against the comp
-                                synchronized (nec) {
-                                    nec.apply(tracker, ref, context, comp, eval);
-                                }
+                                applyToContext(nec, tracker, ref, context, comp, eval);
 
                                 // eval=null against all comps of different type that aren't bound to another eval
                                 for ( VariantContext otherComp : compSet ) {
                                     if ( otherComp != comp && ! compHasMatchingEval(otherComp, evalSetBySample) ) {
-                                        synchronized (nec) {
-                                            nec.apply(tracker, ref, context, otherComp, null);
-                                        }
+                                        applyToContext(nec, tracker, ref, context, otherComp, null);
                                     }
                                 }
                             }
@@ -472,12 +527,12 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
             }
         }
 
-        return null;
+        return processedLoci;
     }
 
     /**
      * Given specific eval and comp VCs and the sample name, return an iterable
-     * over all of the applicable state keys.
+     * over all of the applicable state keys, in the stratification states owned by the calling thread.
      *
      * this code isn't structured yet for efficiency.  Here we currently are
      * doing the following inefficient algorithm:
@@ -518,11 +573,12 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
                                                                   final VariantContext comp,
                                                                   final String compName,
                                                                   final String sampleName ) {
+        final StratificationManager<VariantStratifier, EvaluationContext> manager = threadStratManager.get();
         final List<List<Object>> states = new LinkedList<List<Object>>();
-        for ( final VariantStratifier vs : stratManager.getStratifiers() ) {
+        for ( final VariantStratifier vs : manager.getStratifiers() ) {
             states.add(vs.getRelevantStates(ref, tracker, comp, compName, eval, evalName, sampleName));
         }
-        return stratManager.values(states);
+        return manager.values(states);
     }
 
 
@@ -585,22 +641,34 @@ public class VariantEval extends RodWalker<Integer, Integer> implements TreeRedu
         return lenientMatch;
     }
 
-    public Integer treeReduce(Integer lhs, Integer rhs) { return null; }
+    public Long treeReduce(Long lhs, Long rhs) { return lhs + rhs; }
 
     @Override
-    public Integer reduceInit() { return null; }
+    public Long reduceInit() { return 0L; }
 
     @Override
-    public Integer reduce(Integer value, Integer sum) { return null; }
+    public Long reduce(Long value, Long sum) { return value + sum; }
 
     /**
      * Output the finalized report
      *
-     * @param result  an integer that doesn't get used for anything
+     * @param result  the number of processed loci
      */
-    public void onTraversalDone(Integer result) {
+    public void onTraversalDone(Long result) {
         logger.info("Finalizing variant report");
-        
+        nProcessedLoci = result;
+
+        // fold each thread's replica of the stratification states into stratManager
+        synchronized (threadStratManagers) {
+            for ( final StratificationManager<VariantStratifier, EvaluationContext> replica : threadStratManagers ) {
+                if ( replica == stratManager )
+                    continue;
+                for ( int key = 0; key < stratManager.size(); key++ )
+                    stratManager.get(key).combine(replica.get(key));
+            }
+            threadStratManagers.clear();
+        }
+
         // go through the evaluations and finalize them
         for ( final EvaluationContext nec : stratManager.values() )
             for ( final VariantEvaluator ve : nec.getVariantEvaluators() )
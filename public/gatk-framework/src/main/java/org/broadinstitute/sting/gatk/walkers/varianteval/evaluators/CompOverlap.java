@@ -106,4 +106,17 @@ public class CompOverlap extends VariantEvaluator implements StandardEval {
             }
         }
     }
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final CompOverlap o = (CompOverlap)other;
+        nEvalVariants += o.nEvalVariants;
+        nVariantsAtComp += o.nVariantsAtComp;
+        nConcordant += o.nConcordant;
+    }
 }
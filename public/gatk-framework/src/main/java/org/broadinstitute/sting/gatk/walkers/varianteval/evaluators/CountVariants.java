@@ -216,4 +216,30 @@ public class CountVariants extends VariantEvaluator implements StandardEval {
         indelRatePerBp = perLocusRInverseRate(nDeletions + nInsertions + nComplex);
         insertionDeletionRatio = ratio(nInsertions, nDeletions);
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final CountVariants o = (CountVariants)other;
+        nCalledLoci += o.nCalledLoci;
+        nRefLoci += o.nRefLoci;
+        nVariantLoci += o.nVariantLoci;
+        nSNPs += o.nSNPs;
+        nMNPs += o.nMNPs;
+        nInsertions += o.nInsertions;
+        nDeletions += o.nDeletions;
+        nComplex += o.nComplex;
+        nSymbolic += o.nSymbolic;
+        nMixed += o.nMixed;
+        nNoCalls += o.nNoCalls;
+        nHets += o.nHets;
+        nHomRef += o.nHomRef;
+        nHomVar += o.nHomVar;
+        nSingletons += o.nSingletons;
+        nHomDerived += o.nHomDerived;
+    }
+}
@@ -120,4 +120,17 @@ public class IndelLengthHistogram extends VariantEvaluator implements StandardEv
         nIndels++;
         counts.put(len, counts.get(len) + 1);
     }
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final IndelLengthHistogram o = (IndelLengthHistogram)other;
+        nIndels += o.nIndels;
+        for ( final Map.Entry<Integer, Integer> count : o.counts.entrySet() )
+            counts.put(count.getKey(), counts.get(count.getKey()) + count.getValue());
+    }
 }
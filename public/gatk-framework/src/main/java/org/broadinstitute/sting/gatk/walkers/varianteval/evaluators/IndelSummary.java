@@ -256,4 +256,36 @@ public class IndelSummary extends VariantEvaluator implements StandardEval {
         insertion_to_deletion_ratio_for_large_indels = Utils.formattedRatio(n_large_insertions, n_large_deletions);
 
     }
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final IndelSummary o = (IndelSummary)other;
+        n_SNPs += o.n_SNPs;
+        n_singleton_SNPs += o.n_singleton_SNPs;
+        n_indels += o.n_indels;
+        n_singleton_indels += o.n_singleton_indels;
+        n_indels_matching_gold_standard += o.n_indels_matching_gold_standard;
+        nIndelSites += o.nIndelSites;
+        n_multiallelic_indel_sites += o.n_multiallelic_indel_sites;
+        n_novel_indels += o.n_novel_indels;
+        n_insertions += o.n_insertions;
+        n_deletions += o.n_deletions;
+        n_large_deletions += o.n_large_deletions;
+        n_large_insertions += o.n_large_insertions;
+        n_coding_indels_frameshifting += o.n_coding_indels_frameshifting;
+        n_coding_indels_in_frame += o.n_coding_indels_in_frame;
+        nSNPHets += o.nSNPHets;
+        nSNPHoms += o.nSNPHoms;
+        nIndelHets += o.nIndelHets;
+        nIndelHoms += o.nIndelHoms;
+        for ( int i = 0; i < insertionCountByLength.length; i++ ) {
+            insertionCountByLength[i] += o.insertionCountByLength[i];
+            deletionCountByLength[i] += o.deletionCountByLength[i];
+        }
+    }
 }
@@ -51,7 +51,19 @@ public class PrintMissingComp extends VariantEvaluator {
 
         if ( compIsGood & ! evalIsGood ) {
             nMissing++;
-            super.getWalker().getLogger().info("MissingFrom" + eval.toString() + " is missing from " + comp.getSource());
+            // eval is null when there's no eval record at the comp site
+            super.getWalker().getLogger().info("MissingFrom" + eval + " is missing from " + comp.getSource());
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final PrintMissingComp o = (PrintMissingComp)other;
+        nMissing += o.nMissing;
+    }
+}
@@ -140,4 +140,18 @@ public class ThetaVariantEvaluator extends VariantEvaluator {
 
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final ThetaVariantEvaluator o = (ThetaVariantEvaluator)other;
+        totalHet += o.totalHet;
+        totalAvgDiffs += o.totalAvgDiffs;
+        thetaRegionNumSites += o.thetaRegionNumSites;
+        numSites += o.numSites;
+    }
+}
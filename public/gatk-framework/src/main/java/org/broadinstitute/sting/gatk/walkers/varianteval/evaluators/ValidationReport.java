@@ -180,4 +180,18 @@ public class ValidationReport extends VariantEvaluator implements StandardEval {
             return false;
         }
     }
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final ValidationReport o = (ValidationReport)other;
+        nDifferentAlleleSites += o.nDifferentAlleleSites;
+        for ( int i = 0; i < counts.length; i++ )
+            for ( int j = 0; j < counts[i].length; j++ )
+                counts[i][j] += o.counts[i][j];
+    }
 }
@@ -103,7 +103,8 @@ public abstract class VariantEvaluator implements Comparable<VariantEvaluator> {
      * important in the case of AC, where you may have thousands of distinct AC
      * values that chop up the number of variants to too small a number of variants,
      * and you'd like to combine the AC values into ranges containing some percent
-     * of the data.
+     * of the data.  VariantEval also relies on it to merge the evaluations made by
+     * each thread into its own replica of the stratification states.
      *
      * For example, suppose you have an eval that
      * counts variants in a variable nVariants.  If you want to be able to combine
@@ -123,7 +124,9 @@ public abstract class VariantEvaluator implements Comparable<VariantEvaluator> {
     }
 
     /**
-     * Must be overloaded to return true for evaluation modules that support the combine operation
+     * Must be overloaded to return true for evaluation modules that support the combine operation.
+     * When any of the active modules doesn't, VariantEval has all threads share, and contend on,
+     * a single set of stratification states.
      *
      * @return
      */
@@ -118,6 +118,14 @@ public class VariantSummary extends VariantEvaluator implements StandardEval {
             get(type).put(sample, count + 1);
         }
 
+        public final void add(final TypeSampleMap other) {
+            for ( final Map.Entry<Type, Map<String, Integer>> bySample : other.entrySet() ) {
+                final Map<String, Integer> counts = get(bySample.getKey());
+                for ( final Map.Entry<String, Integer> count : bySample.getValue().entrySet() )
+                    counts.put(count.getKey(), counts.get(count.getKey()) + count.getValue());
+            }
+        }
+
         public final int all(Type type) {
             return get(type).get(ALL);
         }
@@ -274,4 +282,20 @@ public class VariantSummary extends VariantEvaluator implements StandardEval {
         SNPDPPerSample = depthPerSample.meanValue(Type.SNP);
         IndelDPPerSample = depthPerSample.meanValue(Type.INDEL);
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean supportsCombine() {
+        return true;
+    }
+
+    @Override
+    public void combine(final VariantEvaluator other) {
+        final VariantSummary o = (VariantSummary)other;
+        allVariantCounts.add(o.allVariantCounts);
+        knownVariantCounts.add(o.knownVariantCounts);
+        countsPerSample.add(o.countsPerSample);
+        transitionsPerSample.add(o.transitionsPerSample);
+        transversionsPerSample.add(o.transversionsPerSample);
+        depthPerSample.add(o.depthPerSample);
+    }
+}
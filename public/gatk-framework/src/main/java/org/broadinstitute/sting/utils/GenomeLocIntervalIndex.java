@@ -0,0 +1,247 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable index over a sorted list of GenomeLocs, answering overlap and size queries in O(log n).
+ *
+ * The locs on each contig are held as primitive arrays of starts and stops, along with a running maximum of
+ * the stops so that the binary searches remain correct even if some locs overlap.  Nothing is modified once
+ * the index is built, so any number of threads can query it at once without locking.
+ *
+ * Locs without a contig (unmapped and whole genome locs) aren't indexed; see canAnswer().
+ */
+final class GenomeLocIntervalIndex {
+    /** The indexed locs, in sorted order */
+    private final List<GenomeLoc> locs;
+
+    /** The locs on each contig, by contig index.  Null for contigs without locs */
+    private final ContigIntervals[] contigs;
+
+    /** Total size of the locs on all contigs with a lower index than each contig index, with one extra entry for the total */
+    private final long[] sizeOfEarlierContigs;
+
+    /** Does locs include any loc without a contig index? */
+    private final boolean hasLocsWithoutContig;
+
+    private static final class ContigIntervals {
+        /** Index in locs of the first loc on this contig */
+        final int firstLoc;
+        final int[] starts;
+        final int[] stops;
+        /** maxStops[i] is the largest of stops[0..i] */
+        final int[] maxStops;
+        /** sizeBefore[i] is the total size of locs 0..i-1 */
+        final long[] sizeBefore;
+
+        private ContigIntervals(final int firstLoc, final int n) {
+            this.firstLoc = firstLoc;
+            this.starts = new int[n];
+            this.stops = new int[n];
+            this.maxStops = new int[n];
+            this.sizeBefore = new long[n + 1];
+        }
+    }
+
+    /**
+     * Index locs
+     * @param locs GenomeLocs in the order defined by GenomeLoc.compareTo().  The index holds on to this list,
+     *             which must not change afterwards
+     */
+    GenomeLocIntervalIndex(final List<GenomeLoc> locs) {
+        this.locs = locs;
+
+        final int n = locs.size();
+        int maxContigIndex = -1;
+        boolean withoutContig = false;
+        for ( int i = 0; i < n; i++ ) {
+            final int contigIndex = locs.get(i).getContigIndex();
+            if ( contigIndex < 0 )
+                withoutContig = true;
+            maxContigIndex = Math.max(maxContigIndex, contigIndex);
+        }
+        hasLocsWithoutContig = withoutContig;
+
+        contigs = new ContigIntervals[maxContigIndex + 1];
+        final long[] contigSizes = new long[maxContigIndex + 1];
+        int i = 0;
+        while ( i < n ) {
+            final int contigIndex = locs.get(i).getContigIndex();
+            int end = i + 1;
+            while ( end < n && locs.get(end).getContigIndex() == contigIndex )
+                end++;
+
+            if ( contigIndex >= 0 ) {
+                if ( contigs[contigIndex] != null )
+                    throw new IllegalArgumentException("GenomeLocs on contig " + locs.get(i).getContig() + " aren't sorted together");
+
+                final ContigIntervals contig = new ContigIntervals(i, end - i);
+                int maxStop = Integer.MIN_VALUE;
+                for ( int j = i; j < end; j++ ) {
+                    final GenomeLoc loc = locs.get(j);
+                    if ( j > i && loc.getStart() < contig.starts[j - i - 1] )
+                        throw new IllegalArgumentException("GenomeLocs aren't sorted: " + loc + " follows " + locs.get(j - 1));
+                    contig.starts[j - i] = loc.getStart();
+                    contig.stops[j - i] = loc.getStop();
+                    maxStop = Math.max(maxStop, loc.getStop());
+                    contig.maxStops[j - i] = maxStop;
+                    contig.sizeBefore[j - i + 1] = contig.sizeBefore[j - i] + loc.size();
+                }
+                contigSizes[contigIndex] = contig.sizeBefore[end - i];
+                contigs[contigIndex] = contig;
+            }
+
+            i = end;
+        }
+
+        sizeOfEarlierContigs = new long[maxContigIndex + 2];
+        for ( int c = 0; c <= maxContigIndex; c++ )
+            sizeOfEarlierContigs[c + 1] = sizeOfEarlierContigs[c] + contigSizes[c];
+    }
+
+    /**
+     * Can this index answer queries about loc?  Queries involving locs without a contig index, either
+     * as loc or among the indexed locs, have to be answered by searching the locs in order.
+     *
+     * @param loc the location to be queried
+     * @return true if the other methods of this index can be used for loc
+     */
+    boolean canAnswer(final GenomeLoc loc) {
+        return ! hasLocsWithoutContig && loc.getContigIndex() >= 0;
+    }
+
+    /**
+     * @return true if the covered size of the indexed locs can be answered by the index
+     */
+    boolean canAnswerCoveredSize() {
+        return ! hasLocsWithoutContig;
+    }
+
+    /**
+     * @return the total size in bp of the indexed locs
+     */
+    long coveredSize() {
+        return sizeOfEarlierContigs[sizeOfEarlierContigs.length - 1];
+    }
+
+    /**
+     * @param loc the location to test
+     * @return true if loc overlaps any indexed loc
+     */
+    boolean overlaps(final GenomeLoc loc) {
+        final ContigIntervals contig = getContig(loc);
+        if ( contig == null )
+            return false;
+        final int n = countStartingAtOrBefore(contig, loc.getStop());
+        return n > 0 && contig.maxStops[n - 1] >= loc.getStart();
+    }
+
+    /**
+     * @param loc the location to test
+     * @return a new list of the indexed locs overlapping loc, in order
+     */
+    List<GenomeLoc> getOverlapping(final GenomeLoc loc) {
+        final ContigIntervals contig = getContig(loc);
+        if ( contig == null )
+            return new ArrayList<GenomeLoc>(0);
+
+        // no loc before i can reach loc once the running maximum of the stops falls short of it
+        final List<GenomeLoc> overlapping = new ArrayList<GenomeLoc>();
+        for ( int i = countStartingAtOrBefore(contig, loc.getStop()) - 1; i >= 0 && contig.maxStops[i] >= loc.getStart(); i-- ) {
+            if ( contig.stops[i] >= loc.getStart() )
+                overlapping.add(locs.get(contig.firstLoc + i));
+        }
+        Collections.reverse(overlapping);
+        return overlapping;
+    }
+
+    /**
+     * Return the number of bp before loc in the indexed locs: the full size of every loc before loc, plus
+     * the distance from the start of each loc overlapping loc to loc's start.
+     *
+     * @param loc the location before which we are counting bases
+     * @return the number of base pairs over all previous intervals
+     */
+    long sizeBeforeLoc(final GenomeLoc loc) {
+        final int contigIndex = loc.getContigIndex();
+        if ( contigIndex >= contigs.length )
+            return coveredSize();
+
+        long size = sizeOfEarlierContigs[contigIndex];
+        final ContigIntervals contig = contigs[contigIndex];
+        if ( contig == null )
+            return size;
+
+        final int n = countStartingAtOrBefore(contig, loc.getStop());
+        final int before = countWithMaxStopBefore(contig, loc.getStart(), n);
+        size += contig.sizeBefore[before];
+        for ( int i = before; i < n; i++ ) {
+            if ( contig.stops[i] < loc.getStart() )
+                size += contig.stops[i] - contig.starts[i] + 1;
+            else
+                size += loc.getStart() - contig.starts[i];
+        }
+        return size;
+    }
+
+    private ContigIntervals getContig(final GenomeLoc loc) {
+        final int contigIndex = loc.getContigIndex();
+        return contigIndex < contigs.length ? contigs[contigIndex] : null;
+    }
+
+    /**
+     * @return the number of locs on contig starting at or before position
+     */
+    private static int countStartingAtOrBefore(final ContigIntervals contig, final int position) {
+        int low = 0, high = contig.starts.length;
+        while ( low < high ) {
+            final int mid = (low + high) >>> 1;
+            if ( contig.starts[mid] <= position )
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of locs at the start of contig's first n locs that all stop before position
+     */
+    private static int countWithMaxStopBefore(final ContigIntervals contig, final int position, final int n) {
+        int low = 0, high = n;
+        while ( low < high ) {
+            final int mid = (low + high) >>> 1;
+            if ( contig.maxStops[mid] < position )
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -81,6 +81,12 @@ public final class GenomeLocParser {
      */
     private final ValidationLevel validationLevel;
 
+    /**
+     * The contig names of the master sequence dictionary, by contig index, so that GenomeLocs can be made
+     * from packed positions without going through the dictionary's name lookup
+     */
+    private final String[] contigNames;
+
     /**
      * @return a caching sequence dictionary appropriate for this thread
      */
@@ -120,6 +126,9 @@ public final class GenomeLocParser {
 
         this.validationLevel = validationLevel;
         this.SINGLE_MASTER_SEQUENCE_DICTIONARY = seqDict;
+        this.contigNames = new String[seqDict.size()];
+        for ( final SAMSequenceRecord contig : seqDict.getSequences() )
+            contigNames[contig.getSequenceIndex()] = contig.getSequenceName();
         if ( logger.isDebugEnabled() ) {
             logger.debug(String.format("Prepared reference sequence contig dictionary"));
             for (SAMSequenceRecord contig : seqDict.getSequences()) {
@@ -258,6 +267,39 @@ public final class GenomeLocParser {
         return createGenomeLoc(contig, getContigIndex(contig), pos, pos);
     }
 
+    /**
+     * Create a 1 bp GenomeLoc at a packed position.
+     *
+     * The position isn't required to be on the reference.
+     *
+     * @see PackedGenomeLoc
+     * @param packed a position packed by PackedGenomeLoc.pack, on a contig from this parser's dictionary
+     * @return a non-null GenomeLoc
+     */
+    @Ensures("result != null")
+    public GenomeLoc createGenomeLocFromPacked(final long packed) {
+        return createGenomeLocFromPacked(packed, packed);
+    }
+
+    /**
+     * Create a GenomeLoc spanning packedStart to packedStop, inclusive.
+     *
+     * The span isn't required to be on the reference.
+     *
+     * @see PackedGenomeLoc
+     * @param packedStart the packed start position, on a contig from this parser's dictionary
+     * @param packedStop the packed stop position, on the same contig as packedStart
+     * @return a non-null GenomeLoc
+     */
+    @Ensures("result != null")
+    public GenomeLoc createGenomeLocFromPacked(final long packedStart, final long packedStop) {
+        final int contigIndex = PackedGenomeLoc.getContigIndex(packedStart);
+        if ( contigIndex >= contigNames.length || PackedGenomeLoc.getContigIndex(packedStop) != contigIndex )
+            vglHelper(String.format("The packed positions %s and %s aren't on a single contig of the sequence dictionary",
+                    PackedGenomeLoc.toString(packedStart), PackedGenomeLoc.toString(packedStop)));
+        return createGenomeLoc(contigNames[contigIndex], contigIndex, PackedGenomeLoc.getPosition(packedStart), PackedGenomeLoc.getPosition(packedStop), false);
+    }
+
     /**
      * validate a position or interval on the genome as valid
      *
@@ -56,8 +56,9 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
     // our private storage for the GenomeLoc's
     private final List<GenomeLoc> mArray = new ArrayList<GenomeLoc>();
 
-    // cache this to make overlap checking much more efficient
-    private int previousOverlapSearchIndex = -1;
+    // immutable index used to answer queries, so that they're safe to make from many threads at once.  Built on
+    // demand, and discarded whenever the set is modified
+    private volatile GenomeLocIntervalIndex index = null;
 
     /**
      * Create a new, empty GenomeLocSortedSet
@@ -111,7 +112,15 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      * @return an iterator<GenomeLoc>
      */
     public Iterator<GenomeLoc> iterator() {
-        return mArray.iterator();
+        final Iterator<GenomeLoc> it = mArray.iterator();
+        return new Iterator<GenomeLoc>() {
+            @Override public boolean hasNext() { return it.hasNext(); }
+            @Override public GenomeLoc next() { return it.next(); }
+            @Override public void remove() {
+                it.remove();
+                index = null;
+            }
+        };
     }
 
     /**
@@ -128,6 +137,10 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      * @return size in bp of the covered regions
      */
     public long coveredSize() {
+        final GenomeLocIntervalIndex intervalIndex = getIndex();
+        if ( intervalIndex.canAnswerCoveredSize() )
+            return intervalIndex.coveredSize();
+
         long s = 0;
         for ( GenomeLoc e : this )
             s += e.size();
@@ -141,6 +154,10 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      * @return the number of base pairs over all previous intervals
      */
     public long sizeBeforeLoc(GenomeLoc loc) {
+        final GenomeLocIntervalIndex intervalIndex = getIndex();
+        if ( intervalIndex.canAnswer(loc) )
+            return intervalIndex.sizeBeforeLoc(loc);
+
         long s = 0;
 
         for ( GenomeLoc e : this ) {
@@ -175,36 +192,32 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
         if ( mArray.isEmpty() )
             return false;
 
-        // use the cached version first
-        if ( previousOverlapSearchIndex != -1 && overlapsAtOrImmediatelyAfterCachedIndex(loc, true) )
-            return true;
-
-        // update the cached index
-        previousOverlapSearchIndex = Collections.binarySearch(mArray, loc);
+        final GenomeLocIntervalIndex intervalIndex = getIndex();
+        if ( intervalIndex.canAnswer(loc) )
+            return intervalIndex.overlaps(loc);
 
         // if it matches an interval exactly, we are done
-        if ( previousOverlapSearchIndex >= 0 )
+        final int searchIndex = Collections.binarySearch(mArray, loc);
+        if ( searchIndex >= 0 )
             return true;
 
         // check whether it overlaps the interval before or after the insertion point
-        previousOverlapSearchIndex = Math.max(0, -1 * previousOverlapSearchIndex - 2);
-        return overlapsAtOrImmediatelyAfterCachedIndex(loc, false);
+        final int before = Math.max(0, -1 * searchIndex - 2);
+        return mArray.get(before).overlapsP(loc) || (before < mArray.size() - 1 && mArray.get(before + 1).overlapsP(loc));
     }
 
-    private boolean overlapsAtOrImmediatelyAfterCachedIndex(final GenomeLoc loc, final boolean updateCachedIndex) {
-        // check the cached entry
-        if ( mArray.get(previousOverlapSearchIndex).overlapsP(loc) )
-            return true;
-
-        // check the entry after the cached entry since we may have moved to it
-        boolean returnValue = false;
-        if ( previousOverlapSearchIndex < mArray.size() - 1 ) {
-            returnValue = mArray.get(previousOverlapSearchIndex + 1).overlapsP(loc);
-            if ( updateCachedIndex )
-                previousOverlapSearchIndex++;
+    /**
+     * Get the index used to answer queries about this set, building it if the set has changed since it was last used
+     * @return a non-null index over the current contents of this set
+     */
+    private GenomeLocIntervalIndex getIndex() {
+        GenomeLocIntervalIndex current = index;
+        if ( current == null ) {
+            // racing threads may each build an index, but they'll all be equivalent
+            current = new GenomeLocIntervalIndex(mArray);
+            index = current;
         }
-
-        return returnValue;
+        return current;
     }
 
     /**
@@ -214,6 +227,10 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      * @return a non-null list of locations that overlap loc
      */
     public List<GenomeLoc> getOverlapping(final GenomeLoc loc) {
+        final GenomeLocIntervalIndex intervalIndex = getIndex();
+        if ( intervalIndex.canAnswer(loc) )
+            return intervalIndex.getOverlapping(loc);
+
         // the max ensures that if loc would be the first element, that we start searching at the first element
         final int index = Collections.binarySearch(mArray, loc);
         if ( index >= 0 )
@@ -301,6 +318,8 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
         if ( loc == null )
             return false;
 
+        index = null;
+
         // if we have no other intervals yet or if the new loc is past the last one in the list (which is usually the
         // case because locs are generally added in order) then be extra efficient and just add the loc to the end
         if ( mArray.size() == 0 || loc.isPast(mArray.get(mArray.size() - 1)) ) {
@@ -408,6 +427,7 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
     public void remove(GenomeLoc location) {
         if (!mArray.contains(location)) throw new IllegalArgumentException("Unable to remove location: " + location + ", not in the list");
         mArray.remove(location);
+        index = null;
     }
 
     /**
@@ -440,6 +460,31 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
     }
 
 
+    /**
+     * Create a sorted genome location set from a list of GenomeLocs that's already sorted, with overlapping
+     * locs merged, as by IntervalUtils.mergeIntervalLocations().  The set is built in bulk, along with the
+     * index used to answer overlap queries, rather than by adding each loc in turn.
+     *
+     * @param parser a non-null the parser we use to create genome locs
+     * @param locs sorted, non-overlapping locs
+     *
+     * @return the sorted genome loc list
+     */
+    public static GenomeLocSortedSet createSetFromSortedList(final GenomeLocParser parser, final List<GenomeLoc> locs) {
+        final GenomeLocSortedSet set = new GenomeLocSortedSet(parser);
+        GenomeLoc previous = null;
+        for ( final GenomeLoc loc : locs ) {
+            if ( loc == null )
+                throw new IllegalArgumentException("locs cannot contain null");
+            if ( previous != null && (previous.compareTo(loc) >= 0 || previous.overlapsP(loc)) )
+                throw new IllegalArgumentException(String.format("GenomeLocs must be sorted and non-overlapping, but %s follows %s", loc, previous));
+            previous = loc;
+        }
+        set.mArray.addAll(locs);
+        set.index = new GenomeLocIntervalIndex(set.mArray);
+        return set;
+    }
+
     /**
      * return a deep copy of this collection.
      *
@@ -456,10 +501,10 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
 
     /**
      * convert this object to a list
-     * @return the lists
+     * @return an unmodifiable view of the locs in this set, in order
      */
     public List<GenomeLoc> toList() {
-        return this.mArray;
+        return Collections.unmodifiableList(this.mArray);
     }
 
     public String toString() {
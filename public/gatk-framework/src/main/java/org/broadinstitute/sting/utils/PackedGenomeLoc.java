@@ -0,0 +1,98 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils;
+
+/**
+ * Single genome positions packed into a primitive long, for engine code that walks loci too quickly to afford a
+ * GenomeLoc per position.
+ *
+ * The contig index occupies the high 32 bits and the position (with its sign bit flipped, so that negative positions
+ * sort first) the low 32 bits.  Packed positions therefore order exactly like the 1 bp GenomeLocs they stand for,
+ * consecutive positions on a contig differ by exactly 1, and spans can be carried around as a pair of packed longs.
+ * GenomeLocs are only made from them, through GenomeLocParser.createGenomeLocFromPacked, when something outside of
+ * the engine needs one.
+ */
+public final class PackedGenomeLoc {
+    /**
+     * A value that no packed position can take, for use in place of a null GenomeLoc
+     */
+    public static final long NO_POSITION = -1L;
+
+    private static final long POSITION_MASK = 0xFFFFFFFFL;
+
+    private PackedGenomeLoc() {}
+
+    /**
+     * Pack a position on a contig
+     * @param contigIndex index of the contig in the sequence dictionary, must be >= 0
+     * @param position the position on the contig
+     * @return a packed position that is >= 0
+     */
+    public static long pack(final int contigIndex, final int position) {
+        if ( contigIndex < 0 ) throw new IllegalArgumentException("contigIndex must be >= 0 but got " + contigIndex);
+        return ((long)contigIndex << 32) | ((position ^ Integer.MIN_VALUE) & POSITION_MASK);
+    }
+
+    /**
+     * @param loc a mapped genome loc
+     * @return the packed position of the start of loc
+     */
+    public static long packStart(final GenomeLoc loc) {
+        return pack(loc.getContigIndex(), loc.getStart());
+    }
+
+    /**
+     * @param loc a mapped genome loc
+     * @return the packed position of the stop of loc
+     */
+    public static long packStop(final GenomeLoc loc) {
+        return pack(loc.getContigIndex(), loc.getStop());
+    }
+
+    /**
+     * @param packed a packed position
+     * @return the contig index of packed
+     */
+    public static int getContigIndex(final long packed) {
+        return (int)(packed >>> 32);
+    }
+
+    /**
+     * @param packed a packed position
+     * @return the position on its contig of packed
+     */
+    public static int getPosition(final long packed) {
+        return (int)packed ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * @param packed a packed position
+     * @return a human readable rendering of packed, for error messages
+     */
+    public static String toString(final long packed) {
+        return packed == NO_POSITION ? "none" : getContigIndex(packed) + ":" + getPosition(packed);
+    }
+}
@@ -0,0 +1,446 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.fasta;
+
+import net.sf.picard.reference.ReferenceSequence;
+import net.sf.samtools.SAMSequenceRecord;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A reference backed by a compact, memory-mapped 2-bit encoding of the FASTA.
+ *
+ * On first use the FASTA is packed four bases to a byte into a companion file (by default the fasta's path
+ * with .packed appended).  Anything other than A, C, G and T -- Ns, mostly, in long runs -- is recorded as
+ * a run in a small exception mask held on the heap.  Bases are packed after upper-casing and converting IUPAC
+ * codes to N, so this reader returns exactly what a default CachingIndexedFastaSequenceFile would.
+ *
+ * The packed file is mapped read-only and shared by every thread.  Queries decode straight out of the mapping
+ * into the returned sequence, so there's no per-thread cache to fill, and the whole reference takes about a
+ * quarter of its FASTA size of (shared, pageable) memory.  The packed file is rebuilt whenever the FASTA's size
+ * or modification time no longer match the ones it was built from.
+ *
+ * Thread-safe.
+ */
+public class PackedReferenceSequenceFile extends CachingIndexedFastaSequenceFile {
+    protected static final org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(PackedReferenceSequenceFile.class);
+
+    /** Extension appended to the fasta's path to find its packed file */
+    public static final String PACKED_EXTENSION = ".packed";
+
+    private static final long MAGIC = 0x4741544b5041434bL; // "GATKPACK"
+    private static final int VERSION = 1;
+
+    /** Bases read from the fasta at a time when packing.  Must be a multiple of 4 so that windows start on byte boundaries. */
+    private static final int PACKING_WINDOW = 1000000;
+
+    /** The packed data is mapped in segments of 1 << SEGMENT_SHIFT bytes */
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final byte[] CODE_TO_BASE = { 'A', 'C', 'G', 'T' };
+
+    /** The four bases encoded by each possible packed byte, first base in the high bits */
+    private static final byte[] DECODED_BYTES = new byte[256 * 4];
+    static {
+        for ( int b = 0; b < 256; b++ )
+            for ( int i = 0; i < 4; i++ )
+                DECODED_BYTES[b * 4 + i] = CODE_TO_BASE[(b >>> (6 - 2 * i)) & 3];
+    }
+
+    private final File fasta;
+    private final File packedFile;
+    private final Map<String, PackedContig> contigs = new HashMap<String, PackedContig>();
+    private MappedByteBuffer[] segments;
+
+    /** Where a contig's bases live in the packed data, and the runs of bases that couldn't be packed */
+    private static class PackedContig {
+        final String name;
+        final int index;
+        final long length;
+        final long offset;
+        final int[] runStarts;
+        final int[] runLengths;
+        final byte[] runBases;
+
+        private PackedContig(final String name, final int index, final long length, final long offset,
+                             final int[] runStarts, final int[] runLengths, final byte[] runBases) {
+            this.name = name;
+            this.index = index;
+            this.length = length;
+            this.offset = offset;
+            this.runStarts = runStarts;
+            this.runLengths = runLengths;
+            this.runBases = runBases;
+        }
+    }
+
+    /**
+     * Open the given indexed fasta sequence file, packing it into the default location next to the fasta
+     * if it hasn't been packed already.  If that location isn't writable the packed file is built in the
+     * temporary directory instead, and deleted on exit.
+     *
+     * @param fasta The file to open.
+     */
+    public PackedReferenceSequenceFile(final File fasta) throws FileNotFoundException {
+        this(fasta, new File(fasta.getAbsolutePath() + PACKED_EXTENSION));
+    }
+
+    /**
+     * Open the given indexed fasta sequence file, packing it into packedFile if that doesn't
+     * already hold an up to date packing of this fasta.
+     *
+     * @param fasta The file to open.
+     * @param packedFile where to find, or build, the packed representation of fasta
+     */
+    public PackedReferenceSequenceFile(final File fasta, final File packedFile) throws FileNotFoundException {
+        // a zero-sized cache means every request to our superclass goes straight to the fasta,
+        // upper-cased and with IUPAC bases converted to N
+        super(fasta, 0L);
+        this.fasta = fasta;
+        this.packedFile = loadOrBuild(packedFile);
+    }
+
+    /**
+     * @return the packed file backing this reader
+     */
+    public File getPackedFile() {
+        return packedFile;
+    }
+
+    /**
+     * Gets the subsequence of the contig in the range [start,stop], decoded directly from the packed reference.
+     *
+     * Requests that fall outside of the contig are passed through to the underlying fasta so that they fail,
+     * or succeed, exactly as they would for any other reader.
+     *
+     * @param contig Contig whose subsequence to retrieve.
+     * @param start inclusive, 1-based start of region.
+     * @param stop inclusive, 1-based stop of region.
+     * @return The partial reference sequence associated with this range, all upper case
+     */
+    @Override
+    public ReferenceSequence getSubsequenceAt( final String contig, final long start, final long stop ) {
+        final PackedContig packed = contigs.get(contig);
+        if ( packed == null || start < 1 || stop < start || stop > packed.length )
+            return super.getSubsequenceAt(contig, start, stop);
+
+        final int length = (int)(stop - start + 1);
+        final byte[] bases = new byte[length];
+        decode(packed, start - 1, bases);
+        return new ReferenceSequence(packed.name, packed.index, bases);
+    }
+
+    /**
+     * Decode bases.length bases from packed, starting at the 0-based position start
+     */
+    private void decode(final PackedContig packed, final long start, final byte[] bases) {
+        long position = start;
+        int i = 0;
+        while ( i < bases.length ) {
+            final int packedByte = getPackedByte(packed.offset + (position >>> 2)) & 0xFF;
+            final int withinByte = (int)(position & 3);
+            final int n = Math.min(4 - withinByte, bases.length - i);
+            System.arraycopy(DECODED_BYTES, packedByte * 4 + withinByte, bases, i, n);
+            i += n;
+            position += n;
+        }
+
+        // overlay any runs of unpackable bases overlapping [start, start + bases.length)
+        final long end = start + bases.length;
+        int run = Arrays.binarySearch(packed.runStarts, (int)start);
+        if ( run < 0 ) run = Math.max(-run - 2, 0);
+        for ( ; run < packed.runStarts.length && packed.runStarts[run] < end; run++ ) {
+            final long runStart = Math.max(packed.runStarts[run], start);
+            final long runEnd = Math.min((long)packed.runStarts[run] + packed.runLengths[run], end);
+            if ( runStart < runEnd )
+                Arrays.fill(bases, (int)(runStart - start), (int)(runEnd - start), packed.runBases[run]);
+        }
+    }
+
+    private byte getPackedByte(final long offset) {
+        // absolute gets don't touch the buffer's position, so are safe to share between threads
+        return segments[(int)(offset >>> SEGMENT_SHIFT)].get((int)(offset & SEGMENT_MASK));
+    }
+
+    // ----------------------------------------------------------------------------------------------------
+    //
+    // Building and loading the packed file
+    //
+    // The packed file holds each contig's 2-bit bases, starting on a byte boundary, followed by a header
+    // describing the contigs and their runs of unpackable bases, followed by the offset of that header.
+    //
+    // ----------------------------------------------------------------------------------------------------
+
+    private File loadOrBuild(final File requestedPackedFile) {
+        if ( requestedPackedFile.exists() && load(requestedPackedFile) )
+            return requestedPackedFile;
+
+        File target = requestedPackedFile;
+        final File building = createBuildFile(requestedPackedFile);
+        logger.info(String.format("Packing reference %s into %s", fasta, requestedPackedFile));
+        build(building);
+
+        // if we can't move it into place, for instance because it was built on another file system, use it where it is
+        if ( ! building.renameTo(requestedPackedFile) ) {
+            building.deleteOnExit();
+            target = building;
+        }
+
+        if ( ! load(target) )
+            throw new ReviewedStingException("Unable to load packed reference " + target + " immediately after building it");
+        return target;
+    }
+
+    /**
+     * Create a file to build the packed reference in, next to its final location if possible so that it can
+     * be renamed into place once complete, and otherwise in the temporary directory.
+     */
+    private File createBuildFile(final File packedFile) {
+        try {
+            return File.createTempFile(packedFile.getName(), ".tmp", packedFile.getAbsoluteFile().getParentFile());
+        } catch ( IOException e ) {
+            try {
+                final File tmp = File.createTempFile(packedFile.getName(), ".tmp");
+                tmp.deleteOnExit();
+                return tmp;
+            } catch ( IOException e2 ) {
+                throw new UserException.BadTmpDir("Unable to create a temporary file to pack reference " + fasta + " into: " + e2.getMessage());
+            }
+        }
+    }
+
+    private void build(final File file) {
+        try {
+            final CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            final DataOutputStream out = new DataOutputStream(counter);
+            final PackedContig[] packedContigs = new PackedContig[getSequenceDictionary().size()];
+
+            for ( final SAMSequenceRecord contig : getSequenceDictionary().getSequences() )
+                packedContigs[contig.getSequenceIndex()] = pack(contig, counter, out);
+
+            final long headerOffset = counter.getCount();
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fasta.length());
+            out.writeLong(fasta.lastModified());
+            out.writeInt(packedContigs.length);
+            for ( final PackedContig contig : packedContigs ) {
+                out.writeUTF(contig.name);
+                out.writeInt(contig.index);
+                out.writeLong(contig.length);
+                out.writeLong(contig.offset);
+                out.writeInt(contig.runStarts.length);
+                for ( int i = 0; i < contig.runStarts.length; i++ ) {
+                    out.writeInt(contig.runStarts[i]);
+                    out.writeInt(contig.runLengths[i]);
+                    out.writeByte(contig.runBases[i]);
+                }
+            }
+            out.writeLong(headerOffset);
+            out.close();
+        } catch ( IOException e ) {
+            file.delete();
+            throw new UserException.CouldNotCreateOutputFile(file, "Unable to write packed reference", e);
+        }
+    }
+
+    /**
+     * Pack the bases of contig onto out, reading them from the fasta a window at a time
+     */
+    private PackedContig pack(final SAMSequenceRecord contig, final CountingOutputStream counter, final DataOutputStream out) throws IOException {
+        final long offset = counter.getCount();
+        final long length = contig.getSequenceLength();
+        final RunBuilder runs = new RunBuilder();
+        final byte[] packedWindow = new byte[PACKING_WINDOW / 4];
+
+        for ( long windowStart = 1; windowStart <= length; windowStart += PACKING_WINDOW ) {
+            final long windowStop = Math.min(windowStart + PACKING_WINDOW - 1, length);
+            final byte[] bases = super.getSubsequenceAt(contig.getSequenceName(), windowStart, windowStop).getBases();
+
+            for ( int i = 0; i < bases.length; i += 4 ) {
+                int packedByte = 0;
+                for ( int j = 0; j < 4; j++ ) {
+                    int code = 0;
+                    if ( i + j < bases.length ) {
+                        code = baseToCode(bases[i + j]);
+                        if ( code == -1 ) {
+                            runs.add((int)(windowStart - 1 + i + j), bases[i + j]);
+                            code = 0;
+                        }
+                    }
+                    packedByte |= code << (6 - 2 * j);
+                }
+                packedWindow[i / 4] = (byte)packedByte;
+            }
+            out.write(packedWindow, 0, (bases.length + 3) / 4);
+        }
+
+        return new PackedContig(contig.getSequenceName(), contig.getSequenceIndex(), length, offset,
+                Arrays.copyOf(runs.starts, runs.size), Arrays.copyOf(runs.lengths, runs.size), Arrays.copyOf(runs.bases, runs.size));
+    }
+
+    private static int baseToCode(final byte base) {
+        switch ( base ) {
+            case 'A': return 0;
+            case 'C': return 1;
+            case 'G': return 2;
+            case 'T': return 3;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Load the packed reference in file, if it was built from our fasta as it is now
+     * @return true if file was loaded, false if it needs to be rebuilt
+     */
+    private boolean load(final File file) {
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if ( raf.length() < 8 )
+                    return false;
+                raf.seek(raf.length() - 8);
+                final long headerOffset = raf.readLong();
+                if ( headerOffset < 0 || headerOffset > raf.length() - 8 )
+                    return false;
+
+                raf.seek(headerOffset);
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+                if ( in.readLong() != MAGIC || in.readInt() != VERSION )
+                    return false;
+                if ( in.readLong() != fasta.length() || in.readLong() != fasta.lastModified() )
+                    return false;
+
+                final int nContigs = in.readInt();
+                if ( nContigs != getSequenceDictionary().size() )
+                    return false;
+
+                final Map<String, PackedContig> loaded = new HashMap<String, PackedContig>(nContigs * 2);
+                for ( int c = 0; c < nContigs; c++ ) {
+                    final String name = in.readUTF();
+                    final int index = in.readInt();
+                    final long length = in.readLong();
+                    final long offset = in.readLong();
+                    final int nRuns = in.readInt();
+                    final int[] runStarts = new int[nRuns];
+                    final int[] runLengths = new int[nRuns];
+                    final byte[] runBases = new byte[nRuns];
+                    for ( int i = 0; i < nRuns; i++ ) {
+                        runStarts[i] = in.readInt();
+                        runLengths[i] = in.readInt();
+                        runBases[i] = in.readByte();
+                    }
+
+                    final SAMSequenceRecord record = getSequenceDictionary().getSequence(name);
+                    if ( record == null || record.getSequenceIndex() != index || record.getSequenceLength() != length )
+                        return false;
+                    loaded.put(name, new PackedContig(name, index, length, offset, runStarts, runLengths, runBases));
+                }
+
+                final int nSegments = (int)((headerOffset + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+                final MappedByteBuffer[] mapped = new MappedByteBuffer[nSegments];
+                for ( int s = 0; s < nSegments; s++ ) {
+                    final long segmentStart = (long)s << SEGMENT_SHIFT;
+                    mapped[s] = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(1L << SEGMENT_SHIFT, headerOffset - segmentStart));
+                }
+
+                contigs.clear();
+                contigs.putAll(loaded);
+                segments = mapped;
+                return true;
+            } finally {
+                raf.close();
+            }
+        } catch ( EOFException e ) {
+            // truncated, perhaps by an interrupted build
+            return false;
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, "Unable to read packed reference", e);
+        }
+    }
+
+    /**
+     * Accumulates runs of identical unpackable bases, in increasing order of position
+     */
+    private static class RunBuilder {
+        int[] starts = new int[16];
+        int[] lengths = new int[16];
+        byte[] bases = new byte[16];
+        int size = 0;
+
+        void add(final int position, final byte base) {
+            if ( size > 0 && bases[size - 1] == base && starts[size - 1] + lengths[size - 1] == position ) {
+                lengths[size - 1]++;
+                return;
+            }
+
+            if ( size == starts.length ) {
+                starts = Arrays.copyOf(starts, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                bases = Arrays.copyOf(bases, size * 2);
+            }
+            starts[size] = position;
+            lengths[size] = 1;
+            bases[size] = base;
+            size++;
+        }
+    }
+
+    /**
+     * Counts the bytes written through it, as DataOutputStream's own count overflows past 2Gb
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.interval;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+import org.apache.log4j.Logger;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A binary cache of the GenomeLocs parsed from an interval file.
+ *
+ * Parsing an interval list with millions of entries into GenomeLocs can take tens of seconds at startup.  Once a
+ * cache directory has been set, after a large interval file is parsed its intervals are written to that directory
+ * as packed contig index, start and stop ints.  Later runs map the cache and create the GenomeLocs directly.
+ * Caching is off until setCacheDirectory is called, and nothing is ever written next to the interval file.
+ *
+ * The cache is keyed by the MD5 of the interval file's contents and of the sequence dictionary's names and
+ * lengths, so it's ignored and rewritten if either changes.  Failing to write a cache, for instance because the
+ * cache directory is read-only, isn't an error; the file is just parsed again next time.
+ */
+public class IntervalListCache {
+    private static final Logger logger = Logger.getLogger(IntervalListCache.class);
+
+    /** Extension of the cache files in the cache directory */
+    public static final String CACHE_EXTENSION = ".intervalcache";
+
+    /** Interval files smaller than this are quick enough to parse that they aren't cached */
+    public static final long MIN_CACHED_FILE_SIZE = 1024 * 1024;
+
+    private static final long MAGIC = 0x4741544b494e5456L; // "GATKINTV"
+    private static final int VERSION = 1;
+    private static final int DIGEST_LENGTH = 16;
+
+    /** magic, version, interval file digest, dictionary digest, number of invalid intervals and number of intervals */
+    private static final int HEADER_SIZE = 8 + 4 + DIGEST_LENGTH + DIGEST_LENGTH + 4 + 4;
+
+    /** Directory the caches are kept in, or null if interval files aren't cached */
+    private static volatile File cacheDirectory = null;
+
+    private IntervalListCache() {}
+
+    /**
+     * Set the directory interval caches are read from and written to
+     * @param directory the cache directory, or null to stop caching interval files
+     */
+    public static void setCacheDirectory(final File directory) {
+        cacheDirectory = directory;
+    }
+
+    /**
+     * @return the directory interval caches are kept in, or null if interval files aren't cached
+     */
+    public static File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Should intervalFile's intervals be cached?
+     * @param intervalFile an interval file
+     * @return true if a cache directory is set and intervalFile is a file of at least MIN_CACHED_FILE_SIZE bytes
+     */
+    public static boolean shouldCache(final File intervalFile) {
+        return cacheDirectory != null && intervalFile.isFile() && intervalFile.length() >= MIN_CACHED_FILE_SIZE;
+    }
+
+    /**
+     * The cache is named after intervalFile plus the MD5 of its absolute path, so interval files with the same name
+     * in different directories don't share a cache.
+     *
+     * @param intervalFile an interval file
+     * @return the location of intervalFile's cache, or null if no cache directory is set
+     */
+    public static File getCacheFile(final File intervalFile) {
+        final File directory = cacheDirectory;
+        if ( directory == null )
+            return null;
+        final MessageDigest digest = createDigest();
+        digest.update(intervalFile.getAbsolutePath().getBytes());
+        return new File(directory, intervalFile.getName() + "." + toHex(digest.digest()) + CACHE_EXTENSION);
+    }
+
+    /**
+     * Load the intervals cached for intervalFile, if there's an up to date cache for its contents and parser's dictionary
+     *
+     * @param parser the parser to create GenomeLocs with
+     * @param intervalFile the interval file whose intervals we want
+     * @return the intervals in intervalFile in file order, or null if there's no usable cache
+     */
+    public static List<GenomeLoc> load(final GenomeLocParser parser, final File intervalFile) {
+        final File cacheFile = getCacheFile(intervalFile);
+        if ( cacheFile == null || ! cacheFile.isFile() || cacheFile.length() < HEADER_SIZE )
+            return null;
+
+        try {
+            final ByteBuffer buffer;
+            final RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+            try {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+
+            if ( buffer.getLong() != MAGIC || buffer.getInt() != VERSION )
+                return null;
+            if ( ! Arrays.equals(getBytes(buffer, DIGEST_LENGTH), digestFile(intervalFile)) )
+                return null;
+            if ( ! Arrays.equals(getBytes(buffer, DIGEST_LENGTH), digestDictionary(parser.getContigs())) )
+                return null;
+
+            final int nInvalidIntervals = buffer.getInt();
+            final int n = buffer.getInt();
+            if ( buffer.remaining() != n * 3L * 4 )
+                return null;
+
+            final SAMSequenceDictionary dictionary = parser.getContigs();
+            final IntBuffer ints = buffer.asIntBuffer();
+            final List<GenomeLoc> intervals = new ArrayList<GenomeLoc>(n);
+            for ( int i = 0; i < n; i++ ) {
+                final int contigIndex = ints.get();
+                final int start = ints.get();
+                final int stop = ints.get();
+                intervals.add(parser.createGenomeLoc(dictionary.getSequence(contigIndex).getSequenceName(), contigIndex, start, stop));
+            }
+
+            if ( nInvalidIntervals > 0 )
+                logger.warn("Ignoring " + nInvalidIntervals + " invalid intervals from " + intervalFile);
+            logger.debug(String.format("Loaded %d intervals for %s from %s", n, intervalFile, cacheFile));
+            return intervals;
+        } catch ( IOException e ) {
+            logger.debug("Unable to read interval cache " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Cache the intervals parsed from intervalFile, if possible
+     *
+     * @param parser the parser the intervals were created with
+     * @param intervalFile the interval file the intervals were parsed from
+     * @param intervals the intervals in intervalFile, in file order
+     * @param nInvalidIntervals the number of intervals in intervalFile that were skipped as invalid
+     * @return true if the cache was written
+     */
+    public static boolean write(final GenomeLocParser parser, final File intervalFile, final List<GenomeLoc> intervals, final int nInvalidIntervals) {
+        final File cacheFile = getCacheFile(intervalFile);
+        if ( cacheFile == null )
+            return false;
+        File tmp = null;
+        try {
+            if ( ! cacheFile.getParentFile().isDirectory() && ! cacheFile.getParentFile().mkdirs() )
+                throw new IOException("could not create directory " + cacheFile.getParentFile());
+            tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.write(digestFile(intervalFile));
+                out.write(digestDictionary(parser.getContigs()));
+                out.writeInt(nInvalidIntervals);
+                out.writeInt(intervals.size());
+                for ( final GenomeLoc loc : intervals ) {
+                    out.writeInt(loc.getContigIndex());
+                    out.writeInt(loc.getStart());
+                    out.writeInt(loc.getStop());
+                }
+            } finally {
+                out.close();
+            }
+
+            if ( ! tmp.renameTo(cacheFile) )
+                throw new IOException("could not rename " + tmp + " to " + cacheFile);
+            tmp = null;
+            logger.debug(String.format("Cached %d intervals for %s in %s", intervals.size(), intervalFile, cacheFile));
+            return true;
+        } catch ( IOException e ) {
+            logger.debug("Unable to write interval cache " + cacheFile + ": " + e.getMessage());
+            return false;
+        } finally {
+            if ( tmp != null )
+                tmp.delete();
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for ( final byte b : bytes )
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    private static byte[] getBytes(final ByteBuffer buffer, final int n) {
+        final byte[] bytes = new byte[n];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] digestFile(final File file) throws IOException {
+        final MessageDigest digest = createDigest();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[1 << 16];
+            int n;
+            while ( (n = in.read(buffer)) != -1 )
+                digest.update(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    private static byte[] digestDictionary(final SAMSequenceDictionary dictionary) {
+        final MessageDigest digest = createDigest();
+        for ( final SAMSequenceRecord record : dictionary.getSequences() ) {
+            digest.update((record.getSequenceName() + "\t" + record.getSequenceLength() + "\n").getBytes());
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new ReviewedStingException("MD5 digests aren't available", e);
+        }
+    }
+}
@@ -47,6 +47,7 @@ import org.broadinstitute.sting.utils.text.XReadLines;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Parse text representations of interval strings that
@@ -113,10 +114,17 @@ public class IntervalUtils {
         return rawIntervals;
     }
 
+    /**
+     * Text interval files with more lines than this are parsed in parallel
+     */
+    private static final int MIN_LINES_TO_PARSE_IN_PARALLEL = 100000;
+
     /**
      * Read a file of genome locations to process. The file may be in BED, Picard,
      * or GATK interval format.
      *
+     * If a cache directory is set, large files are cached in binary form there after they're first parsed; see IntervalListCache.
+     *
      * @param glParser   GenomeLocParser
      * @param file_name  interval file
      * @return List<GenomeLoc> List of Genome Locs that have been parsed from file
@@ -131,54 +139,116 @@ public class IntervalUtils {
             // this is now supported in Tribble
             throw new ReviewedStingException("BED files must be parsed through Tribble; parsing them as intervals through the GATK engine is no longer supported");
         }
-        else {
-            /**
-             * IF not a BED file:
-             * first try to read it as a Picard interval file since that's well structured
-             * we'll fail quickly if it's not a valid file.
-             */
-            boolean isPicardInterval = false;
-            try {
-                // Note: Picard will skip over intervals with contigs not in the sequence dictionary
-                IntervalList il = IntervalList.fromFile(inputFile);
-                isPicardInterval = true;
-
-                int nInvalidIntervals = 0;
-                for (Interval interval : il.getIntervals()) {
-                    if ( glParser.isValidGenomeLoc(interval.getSequence(), interval.getStart(), interval.getEnd(), true))
-                        ret.add(glParser.createGenomeLoc(interval.getSequence(), interval.getStart(), interval.getEnd(), true));
-                    else {
-                        nInvalidIntervals++;
-                    }
+
+        final boolean cache = IntervalListCache.shouldCache(inputFile);
+        if ( cache ) {
+            final List<GenomeLoc> cached = IntervalListCache.load(glParser, inputFile);
+            if ( cached != null )
+                return cached;
+        }
+
+        /**
+         * IF not a BED file:
+         * first try to read it as a Picard interval file since that's well structured
+         * we'll fail quickly if it's not a valid file.
+         */
+        boolean isPicardInterval = false;
+        int nInvalidIntervals = 0;
+        try {
+            // Note: Picard will skip over intervals with contigs not in the sequence dictionary
+            IntervalList il = IntervalList.fromFile(inputFile);
+            isPicardInterval = true;
+
+            for (Interval interval : il.getIntervals()) {
+                if ( glParser.isValidGenomeLoc(interval.getSequence(), interval.getStart(), interval.getEnd(), true))
+                    ret.add(glParser.createGenomeLoc(interval.getSequence(), interval.getStart(), interval.getEnd(), true));
+                else {
+                    nInvalidIntervals++;
                 }
-                if ( nInvalidIntervals > 0 )
-                    logger.warn("Ignoring " + nInvalidIntervals + " invalid intervals from " + inputFile);
             }
+            if ( nInvalidIntervals > 0 )
+                logger.warn("Ignoring " + nInvalidIntervals + " invalid intervals from " + inputFile);
+        }
 
-            // if that didn't work, try parsing file as a GATK interval file
-            catch (Exception e) {
-                if ( isPicardInterval ) // definitely a picard file, but we failed to parse
-                    throw new UserException.CouldNotReadInputFile(inputFile, e);
-                else {
-                    try {
-                        XReadLines reader = new XReadLines(new File(file_name));
-                        for(String line: reader) {
-                            if ( line.trim().length() > 0 ) {
-                                ret.add(glParser.parseGenomeLoc(line));
-                            }
+        // if that didn't work, try parsing file as a GATK interval file
+        catch (Exception e) {
+            if ( isPicardInterval ) // definitely a picard file, but we failed to parse
+                throw new UserException.CouldNotReadInputFile(inputFile, e);
+            else {
+                try {
+                    final List<String> lines = new ArrayList<String>();
+                    XReadLines reader = new XReadLines(new File(file_name));
+                    for(String line: reader) {
+                        if ( line.trim().length() > 0 ) {
+                            lines.add(line);
                         }
-                        reader.close();
-                    }
-                    catch (IOException e2) {
-                        throw new UserException.CouldNotReadInputFile(inputFile, e2);
                     }
+                    reader.close();
+                    ret = parseGenomeLocs(glParser, lines);
+                }
+                catch (IOException e2) {
+                    throw new UserException.CouldNotReadInputFile(inputFile, e2);
                 }
             }
         }
 
+        if ( cache )
+            IntervalListCache.write(glParser, inputFile, ret, nInvalidIntervals);
+
         return ret;
     }
 
+    /**
+     * Parse each of lines into a GenomeLoc, splitting the work across threads if there are many lines
+     *
+     * @param glParser GenomeLocParser
+     * @param lines non-empty GATK interval strings
+     * @return the GenomeLocs parsed from lines, in the same order
+     */
+    private static List<GenomeLoc> parseGenomeLocs(final GenomeLocParser glParser, final List<String> lines) {
+        final int nThreads = Math.min(Runtime.getRuntime().availableProcessors(), lines.size() / MIN_LINES_TO_PARSE_IN_PARALLEL);
+        if ( nThreads <= 1 )
+            return parseGenomeLocs(glParser, lines, 0, lines.size());
+
+        // GenomeLocParser keeps its contig caches per thread, so it can be shared by the parsing threads
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            final List<Future<List<GenomeLoc>>> chunks = new ArrayList<Future<List<GenomeLoc>>>(nThreads);
+            final int chunkSize = (lines.size() + nThreads - 1) / nThreads;
+            for ( int start = 0; start < lines.size(); start += chunkSize ) {
+                final int chunkStart = start;
+                final int chunkStop = Math.min(start + chunkSize, lines.size());
+                chunks.add(executor.submit(new Callable<List<GenomeLoc>>() {
+                    @Override
+                    public List<GenomeLoc> call() {
+                        return parseGenomeLocs(glParser, lines, chunkStart, chunkStop);
+                    }
+                }));
+            }
+
+            // collecting the chunks in order means the first malformed line in the file is the one reported
+            final List<GenomeLoc> locs = new ArrayList<GenomeLoc>(lines.size());
+            for ( final Future<List<GenomeLoc>> chunk : chunks )
+                locs.addAll(chunk.get());
+            return locs;
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException)e.getCause();
+            throw new ReviewedStingException("Unable to parse intervals", e.getCause());
+        } catch ( InterruptedException e ) {
+            throw new ReviewedStingException("Interrupted while parsing intervals", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<GenomeLoc> parseGenomeLocs(final GenomeLocParser glParser, final List<String> lines, final int start, final int stop) {
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>(stop - start);
+        for ( int i = start; i < stop; i++ )
+            locs.add(glParser.parseGenomeLoc(lines.get(i)));
+        return locs;
+    }
+
     /**
      * Returns true if the interval string is the "unmapped" interval
      * @param interval Interval to check
@@ -255,7 +325,7 @@ public class IntervalUtils {
         // now merge raw interval list
         intervals = mergeIntervalLocations(intervals, mergingRule);
 
-        return GenomeLocSortedSet.createSetFromList(parser,intervals);
+        return GenomeLocSortedSet.createSetFromSortedList(parser,intervals);
     }
 
     /**
@@ -33,6 +33,7 @@ import net.sf.samtools.CigarElement;
 import net.sf.samtools.CigarOperator;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.PackedGenomeLoc;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.pileup.PileupElement;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
@@ -60,10 +61,10 @@ public class AlignmentStateMachine {
     /**
      * Our read
      */
-    private final GATKSAMRecord read;
-    private final Cigar cigar;
-    private final int nCigarElements;
-    private int currentCigarElementOffset = -1;
+    private GATKSAMRecord read;
+    private Cigar cigar;
+    private int nCigarElements;
+    private int currentCigarElementOffset;
 
     /**
      * how far are we offset from the start of the read bases?
@@ -87,9 +88,23 @@ public class AlignmentStateMachine {
 
     @Requires({"read != null", "read.getAlignmentStart() != -1", "read.getCigar() != null"})
     public AlignmentStateMachine(final GATKSAMRecord read) {
+        reset(read);
+    }
+
+    /**
+     * Point this machine at the start of a new read, exactly as if it had been newly constructed for read.
+     *
+     * Allows a pool to recycle machines whose reads have been stepped off the end of.
+     *
+     * @param read the read to step along
+     */
+    @Requires({"read != null", "read.getAlignmentStart() != -1", "read.getCigar() != null"})
+    @Ensures("isLeftEdge()")
+    protected void reset(final GATKSAMRecord read) {
         this.read = read;
         this.cigar = read.getCigar();
         this.nCigarElements = cigar.numCigarElements();
+        this.currentCigarElementOffset = -1;
         initializeAsLeftEdge();
     }
 
@@ -181,6 +196,16 @@ public class AlignmentStateMachine {
         return genomeLocParser.createGenomeLoc(read.getReferenceName(), getGenomePosition());
     }
 
+    /**
+     * Gets #getGenomePosition packed with the contig index of the read, without creating a GenomeLoc
+     * @param genomeLocParser the parser whose sequence dictionary provides the contig index
+     * @return a packed position, as per PackedGenomeLoc
+     */
+    @Requires("genomeLocParser != null")
+    public long getPackedLocation(final GenomeLocParser genomeLocParser) {
+        return PackedGenomeLoc.pack(genomeLocParser.getContigIndex(read.getReferenceName()), getGenomePosition());
+    }
+
     /**
      * Get the cigar element we're currently aligning with.
      *
@@ -0,0 +1,81 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.locusiterator;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+
+import java.util.Arrays;
+
+/**
+ * A pool of AlignmentStateMachines, so that LIBS can reuse the machines of reads that have
+ * left the pileup window instead of allocating a new machine for every read.
+ *
+ * Not thread safe; each LIBS owns its own pool.
+ */
+final class AlignmentStateMachinePool {
+    private final static int INITIAL_CAPACITY = 64;
+
+    private AlignmentStateMachine[] free = new AlignmentStateMachine[INITIAL_CAPACITY];
+    private int nFree = 0;
+
+    /**
+     * Get a machine at the left edge of read, reusing a released machine if one is available
+     * @param read the read the machine should step along
+     * @return a non-null machine in the left edge state
+     */
+    @Requires("read != null")
+    @Ensures({"result != null", "result.getRead() == read", "result.isLeftEdge()"})
+    public AlignmentStateMachine obtain(final GATKSAMRecord read) {
+        if ( nFree == 0 )
+            return new AlignmentStateMachine(read);
+
+        final AlignmentStateMachine machine = free[--nFree];
+        free[nFree] = null;
+        machine.reset(read);
+        return machine;
+    }
+
+    /**
+     * Return a machine to this pool.  The caller must not use machine afterwards.
+     * @param machine a machine no longer referenced anywhere else
+     */
+    @Requires("machine != null")
+    public void release(final AlignmentStateMachine machine) {
+        if ( nFree == free.length )
+            free = Arrays.copyOf(free, free.length * 2);
+        free[nFree++] = machine;
+    }
+
+    /**
+     * @return the number of machines available for reuse
+     */
+    @Ensures("result >= 0")
+    public int size() {
+        return nFree;
+    }
+}
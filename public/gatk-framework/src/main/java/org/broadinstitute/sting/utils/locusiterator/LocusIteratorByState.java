@@ -38,7 +38,9 @@ import org.broadinstitute.sting.gatk.downsampling.DownsampleType;
 import org.broadinstitute.sting.gatk.iterators.GATKSAMIterator;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.PackedGenomeLoc;
 import org.broadinstitute.sting.utils.SampleUtils;
+import org.broadinstitute.sting.utils.pileup.PerSamplePileupBuilder;
 import org.broadinstitute.sting.utils.pileup.PileupElement;
 import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
@@ -102,11 +104,22 @@ public final class LocusIteratorByState extends LocusIterator {
      */
     private final ReadStateManager readStates;
 
+    /**
+     * Assembles the per-sample pileup at each locus, reusing its buffers from one locus to the next
+     */
+    private final PerSamplePileupBuilder pileupBuilder;
+
     /**
      * Should we include reads in the pileup which are aligned with a deletion operator to the reference?
      */
     private final boolean includeReadsWithDeletionAtLoci;
 
+    /**
+     * Pileups with fewer elements than this are never returned.  Sites overlapped by fewer reads than this
+     * are passed over without building a pileup at all.
+     */
+    private final int minimumCoverage;
+
     /**
      * The next alignment context.  A non-null value means that a
      * context is waiting from hasNext() for sending off to the next next() call.  A null
@@ -137,12 +150,31 @@ public final class LocusIteratorByState extends LocusIterator {
                                 final ReadProperties readInformation,
                                 final GenomeLocParser genomeLocParser,
                                 final Collection<String> samples) {
+        this(samIterator, readInformation, genomeLocParser, samples, 1);
+    }
+
+    /**
+     * Create a new LocusIteratorByState that only returns pileups with at least minimumCoverage elements
+     *
+     * @param samIterator the iterator of reads to process into pileups.  Reads must be ordered
+     *                    according to standard coordinate-sorted BAM conventions
+     * @param readInformation meta-information about how to process the reads (i.e., should we do downsampling?)
+     * @param genomeLocParser used to create genome locs
+     * @param samples a complete list of samples present in the read groups for the reads coming from samIterator.
+     * @param minimumCoverage the minimum number of elements in a returned pileup.  Values less than 1 are treated as 1
+     */
+    public LocusIteratorByState(final Iterator<GATKSAMRecord> samIterator,
+                                final ReadProperties readInformation,
+                                final GenomeLocParser genomeLocParser,
+                                final Collection<String> samples,
+                                final int minimumCoverage) {
         this(samIterator,
                 toDownsamplingInfo(readInformation),
                 readInformation.includeReadsWithDeletionAtLoci(),
                 genomeLocParser,
                 samples,
-                readInformation.keepUniqueReadListInLIBS());
+                readInformation.keepUniqueReadListInLIBS(),
+                minimumCoverage);
     }
 
     /**
@@ -184,6 +216,32 @@ public final class LocusIteratorByState extends LocusIterator {
                                 final GenomeLocParser genomeLocParser,
                                 final Collection<String> samples,
                                 final boolean maintainUniqueReadsList) {
+        this(samIterator, downsamplingInfo, includeReadsWithDeletionAtLoci, genomeLocParser, samples, maintainUniqueReadsList, 1);
+    }
+
+    /**
+     * Create a new LocusIteratorByState
+     *
+     * @param samIterator the iterator of reads to process into pileups.  Reads must be ordered
+     *                    according to standard coordinate-sorted BAM conventions
+     * @param downsamplingInfo meta-information about how to downsampling the reads
+     * @param genomeLocParser used to create genome locs
+     * @param samples a complete list of samples present in the read groups for the reads coming from samIterator.
+     *                This is generally just the set of read group sample fields in the SAMFileHeader.  This
+     *                list of samples may contain a null element, and all reads without read groups will
+     *                be mapped to this null sample
+     * @param maintainUniqueReadsList if true, we will keep the unique reads from off the samIterator and make them
+     *                                available via the transferReadsFromAllPreviousPileups interface
+     * @param minimumCoverage the minimum number of elements in a returned pileup.  Sites with fewer are skipped
+     *                        as though no reads covered them.  Values less than 1 are treated as 1
+     */
+    public LocusIteratorByState(final Iterator<GATKSAMRecord> samIterator,
+                                final LIBSDownsamplingInfo downsamplingInfo,
+                                final boolean includeReadsWithDeletionAtLoci,
+                                final GenomeLocParser genomeLocParser,
+                                final Collection<String> samples,
+                                final boolean maintainUniqueReadsList,
+                                final int minimumCoverage) {
         if ( samIterator == null ) throw new IllegalArgumentException("samIterator cannot be null");
         if ( downsamplingInfo == null ) throw new IllegalArgumentException("downsamplingInfo cannot be null");
         if ( genomeLocParser == null ) throw new IllegalArgumentException("genomeLocParser cannot be null");
@@ -197,8 +255,10 @@ public final class LocusIteratorByState extends LocusIterator {
 
         this.genomeLocParser = genomeLocParser;
         this.includeReadsWithDeletionAtLoci = includeReadsWithDeletionAtLoci;
+        this.minimumCoverage = Math.max(minimumCoverage, 1);
         this.samples = new ArrayList<String>(samples);
         this.readStates = new ReadStateManager(samIterator, this.samples, downsamplingInfo, maintainUniqueReadsList);
+        this.pileupBuilder = new PerSamplePileupBuilder(this.samples);
     }
 
     @Override
@@ -207,15 +267,16 @@ public final class LocusIteratorByState extends LocusIterator {
     }
 
     /**
-     * Get the current location (i.e., the bp of the center of the pileup) of the pileup, or null if not anywhere yet
+     * Get the current location (i.e., the bp of the center of the pileup) of the pileup, packed into a long
+     * as per PackedGenomeLoc, or NO_POSITION if not anywhere yet
      *
      * Assumes that read states is updated to reflect the current pileup position, but not advanced to the
      * next location.
      *
-     * @return the location of the current pileup, or null if we're after all reads
+     * @return the packed location of the current pileup, or PackedGenomeLoc.NO_POSITION if we're after all reads
      */
-    private GenomeLoc getLocation() {
-        return readStates.isEmpty() ? null : readStates.getFirst().getLocation(genomeLocParser);
+    private long getPackedLocation() {
+        return readStates.isEmpty() ? PackedGenomeLoc.NO_POSITION : readStates.getFirst().getPackedLocation(genomeLocParser);
     }
 
     // -----------------------------------------------------------------------------------------------------------------
@@ -253,7 +314,9 @@ public final class LocusIteratorByState extends LocusIterator {
     /**
      * Move this LIBS until we are over position
      *
-     * Will return null if cannot reach position (because we run out of data in the locus)
+     * Will return null if cannot reach position (because we run out of data in the locus).  Sites with fewer
+     * than the minimum coverage are never stopped at, so with stopAtFirstNonEmptySiteAfterPosition this jumps
+     * straight to the next site with enough coverage.
      *
      * @param position the start position of the AlignmentContext we want back
      * @param stopAtFirstNonEmptySiteAfterPosition if true, we will stop as soon as we find a context with data with
@@ -291,40 +354,51 @@ public final class LocusIteratorByState extends LocusIterator {
         while (nextAlignmentContext == null && readStates.hasNext()) {
             readStates.collectPendingReads();
 
-            final GenomeLoc location = getLocation();
-            final Map<String, ReadBackedPileupImpl> fullPileup = new HashMap<String, ReadBackedPileupImpl>();
+            // the pileup can't be deeper than the number of reads here, and that only grows at the next read start,
+            // so until then just walk the reads forward
+            if ( readStates.size() < minimumCoverage ) {
+                readStates.updateReadStates();
+                continue;
+            }
+
+            // the GenomeLoc is only created once we know there's a pileup to put at it
+            final long location = getPackedLocation();
+            final int position = PackedGenomeLoc.getPosition(location);
 
             for (final Map.Entry<String, PerSampleReadStateManager> sampleStatePair : readStates ) {
                 final String sample = sampleStatePair.getKey();
                 final PerSampleReadStateManager readState = sampleStatePair.getValue();
-                final Iterator<AlignmentStateMachine> iterator = readState.iterator();
-                final List<PileupElement> pile = new ArrayList<PileupElement>(readState.size());
 
-                while (iterator.hasNext()) {
+                for (int i = 0; i < readState.size(); i++) {
                     // state object with the read/offset information
-                    final AlignmentStateMachine state = iterator.next();
+                    final AlignmentStateMachine state = readState.get(i);
                     final GATKSAMRecord read = state.getRead();
                     final CigarOperator op = state.getCigarOperator();
 
                     if (op == CigarOperator.N) // N's are never added to any pileup
                         continue;
 
-                    if (!dontIncludeReadInPileup(read, location.getStart())) {
+                    if (!dontIncludeReadInPileup(read, position)) {
                         if ( ! includeReadsWithDeletionAtLoci && op == CigarOperator.D ) {
                             continue;
                         }
 
-                        pile.add(state.makePileupElement());
+                        // the pileup element itself is only created if someone asks for it
+                        pileupBuilder.add(read, state.getReadOffset(), state.getCurrentCigarElement(),
+                                state.getCurrentCigarElementOffset(), state.getOffsetIntoCurrentCigarElement());
                     }
                 }
 
-                if (! pile.isEmpty() ) // if this pileup added at least one base, add it to the full pileup
-                    fullPileup.put(sample, new ReadBackedPileupImpl(location, pile));
+                pileupBuilder.finishSample(sample); // samples that added no bases are left out of the full pileup
             }
 
             readStates.updateReadStates(); // critical - must be called after we get the current state offsets and location
-            if (!fullPileup.isEmpty()) // if we got reads with non-D/N over the current position, we are done
-                nextAlignmentContext = new AlignmentContext(location, new ReadBackedPileupImpl(location, fullPileup), false);
+            if (pileupBuilder.size() < minimumCoverage) {
+                pileupBuilder.reset();
+            } else { // if we got enough reads with non-D/N over the current position, we are done
+                final GenomeLoc loc = genomeLocParser.createGenomeLocFromPacked(location);
+                nextAlignmentContext = new AlignmentContext(loc, pileupBuilder.build(loc), false);
+            }
         }
     }
 
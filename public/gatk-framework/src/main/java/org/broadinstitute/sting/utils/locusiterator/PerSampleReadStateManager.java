@@ -33,9 +33,11 @@ import org.apache.log4j.Logger;
 import org.broadinstitute.sting.gatk.downsampling.Downsampler;
 import org.broadinstitute.sting.gatk.downsampling.LevelingDownsampler;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * ReadStateManager for a single sample
@@ -54,14 +56,18 @@ import java.util.List;
 final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine> {
     private final static Logger logger = Logger.getLogger(ReadStateManager.class);
     private final static boolean CAPTURE_DOWNSAMPLING_STATS = false;
+    private final static int INITIAL_CAPACITY = 16;
 
     /**
-     * A list (potentially empty) of alignment state machines.
+     * A buffer of alignment state machines, of which the first nReadStates are live.
      *
      * The state machines must be ordered by the alignment start of their underlying reads, with the
-     * lowest alignment starts on the left, and the largest on the right
+     * lowest alignment starts on the left, and the largest on the right.  States that step off the end
+     * of their reads are removed by compacting the buffer in place as all states are advanced, so
+     * neither advancing nor adding states allocates once the buffer has grown to the coverage.
      */
-    private LinkedList<AlignmentStateMachine> readStatesByAlignmentStart = new LinkedList<AlignmentStateMachine>();
+    private AlignmentStateMachine[] readStatesByAlignmentStart = new AlignmentStateMachine[INITIAL_CAPACITY];
+    private int nReadStates = 0;
 
     private final Downsampler<LinkedList<AlignmentStateMachine>> levelingDownsampler;
     private final int downsamplingTarget;
@@ -102,7 +108,8 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
         final LinkedList<LinkedList<AlignmentStateMachine>> grouped = new LinkedList<LinkedList<AlignmentStateMachine>>();
 
         AlignmentStateMachine last = null;
-        for ( final AlignmentStateMachine stateMachine : readStatesByAlignmentStart ) {
+        for ( int i = 0; i < nReadStates; i++ ) {
+            final AlignmentStateMachine stateMachine = readStatesByAlignmentStart[i];
             if ( last == null || stateMachine.getGenomeOffset() != last.getGenomeOffset() ) {
                 // we've advanced to a place where the state machine has a different state,
                 // so start a new list
@@ -116,15 +123,16 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
     }
 
     /**
-     * Flattens the grouped list of list of alignment state machines into a single list in order
-     * @return a non-null list contains the state machines
+     * Replaces the read states in this manager with the grouped list of list of alignment state machines, in order
+     * @param grouped the state machines to keep, grouped by alignment start
      */
-    @Ensures("result != null")
-    private LinkedList<AlignmentStateMachine> flattenByAlignmentStart(final List<LinkedList<AlignmentStateMachine>> grouped) {
-        final LinkedList<AlignmentStateMachine> flat = new LinkedList<AlignmentStateMachine>();
+    private void flattenByAlignmentStart(final List<LinkedList<AlignmentStateMachine>> grouped) {
+        final int previousNReadStates = nReadStates;
+        nReadStates = 0;
         for ( final List<AlignmentStateMachine> l : grouped )
-            flat.addAll(l);
-        return flat;
+            for ( final AlignmentStateMachine stateMachine : l )
+                readStatesByAlignmentStart[nReadStates++] = stateMachine;
+        Arrays.fill(readStatesByAlignmentStart, nReadStates, previousNReadStates, null);
     }
 
     /**
@@ -133,7 +141,8 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      */
     private boolean readStartsAreWellOrdered() {
         int lastStart = -1;
-        for ( final AlignmentStateMachine machine : readStatesByAlignmentStart ) {
+        for ( int i = 0; i < nReadStates; i++ ) {
+            final AlignmentStateMachine machine = readStatesByAlignmentStart[i];
             if ( lastStart > machine.getRead().getAlignmentStart() )
                 return false;
             lastStart = machine.getRead().getAlignmentStart();
@@ -142,22 +151,25 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
     }
 
     /**
-     * Assumes it can just keep the states linked lists without making a copy
+     * Copies the states into this manager, so the caller may reuse states afterwards
      * @param states the new states to add to this manager
      * @return The change in the number of states, after including states and potentially downsampling.  Note
      * that this return result might be negative, if downsampling is enabled, as we might drop
      * more sites than have been added by the downsampler
      */
     @Requires("states != null")
-    public int addStatesAtNextAlignmentStart(final LinkedList<AlignmentStateMachine> states) {
+    public int addStatesAtNextAlignmentStart(final List<AlignmentStateMachine> states) {
         if ( states.isEmpty() ) {
             return 0;
         }
 
-        readStatesByAlignmentStart.addAll(states);
+        if ( nReadStates + states.size() > readStatesByAlignmentStart.length )
+            readStatesByAlignmentStart = Arrays.copyOf(readStatesByAlignmentStart, Math.max(nReadStates + states.size(), readStatesByAlignmentStart.length * 2));
+        for ( final AlignmentStateMachine state : states )
+            readStatesByAlignmentStart[nReadStates++] = state;
         int nStatesAdded = states.size();
 
-        if ( isDownsampling() && readStatesByAlignmentStart.size() > downsamplingTarget ) {
+        if ( isDownsampling() && nReadStates > downsamplingTarget ) {
             // only go into the downsampling branch if we are downsampling and the coverage > the target
             captureDownsamplingStats();
             levelingDownsampler.submit(groupByAlignmentStart());
@@ -165,8 +177,7 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
 
             nStatesAdded -= levelingDownsampler.getNumberOfDiscardedItems();
 
-            // use returned List directly rather than make a copy, for efficiency's sake
-            readStatesByAlignmentStart = flattenByAlignmentStart(levelingDownsampler.consumeFinalizedItems());
+            flattenByAlignmentStart(levelingDownsampler.consumeFinalizedItems());
             levelingDownsampler.resetStats();
         }
 
@@ -186,7 +197,7 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return a potentially null AlignmentStateMachine
      */
     public AlignmentStateMachine getFirst() {
-        return isEmpty() ? null : readStatesByAlignmentStart.getFirst();
+        return isEmpty() ? null : readStatesByAlignmentStart[0];
     }
 
     /**
@@ -215,7 +226,7 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return true if there's at least one alignment, false otherwise
      */
     public boolean isEmpty() {
-        return readStatesByAlignmentStart.isEmpty();
+        return nReadStates == 0;
     }
 
     /**
@@ -224,7 +235,19 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      */
     @Ensures("result >= 0")
     public int size() {
-        return readStatesByAlignmentStart.size();
+        return nReadStates;
+    }
+
+    /**
+     * Get the i-th read state in alignment start order.  Lets callers walk the states
+     * without allocating an iterator.
+     * @param i an index between 0 and size() - 1
+     * @return a non-null AlignmentStateMachine
+     */
+    @Requires({"i >= 0", "i < size()"})
+    @Ensures("result != null")
+    public AlignmentStateMachine get(final int i) {
+        return readStatesByAlignmentStart[i];
     }
 
     /**
@@ -233,20 +256,34 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return the number of states we're removed after advancing
      */
     public int updateReadStates() {
-        int nRemoved = 0;
-        final Iterator<AlignmentStateMachine> it = iterator();
-        while (it.hasNext()) {
-            final AlignmentStateMachine state = it.next();
+        return updateReadStates(null);
+    }
+
+    /**
+     * Advances all read states forward by one element, removing states that are
+     * no long aligned to the current position.
+     * @param pool if not null, removed states are released into this pool for reuse
+     * @return the number of states we're removed after advancing
+     */
+    public int updateReadStates(final AlignmentStateMachinePool pool) {
+        int nKept = 0;
+        for ( int i = 0; i < nReadStates; i++ ) {
+            final AlignmentStateMachine state = readStatesByAlignmentStart[i];
             final CigarOperator op = state.stepForwardOnGenome();
             if (op == null) {
                 // we discard the read only when we are past its end AND indel at the end of the read (if any) was
                 // already processed. Keeping the read state that returned null upon stepForwardOnGenome() is safe
                 // as the next call to stepForwardOnGenome() will return null again AND will clear hadIndel() flag.
-                it.remove();                                                // we've stepped off the end of the object
-                nRemoved++;
+                if ( pool != null )                                         // we've stepped off the end of the object
+                    pool.release(state);
+            } else {
+                readStatesByAlignmentStart[nKept++] = state;
             }
         }
 
+        final int nRemoved = nReadStates - nKept;
+        Arrays.fill(readStatesByAlignmentStart, nKept, nReadStates, null);
+        nReadStates = nKept;
         return nRemoved;
     }
 
@@ -256,6 +293,30 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      */
     @Ensures("result != null")
     public Iterator<AlignmentStateMachine> iterator() {
-        return readStatesByAlignmentStart.iterator();
+        return new Iterator<AlignmentStateMachine>() {
+            private int next = 0;
+            private boolean canRemove = false;
+
+            @Override
+            public boolean hasNext() {
+                return next < nReadStates;
+            }
+
+            @Override
+            public AlignmentStateMachine next() {
+                if ( ! hasNext() ) throw new NoSuchElementException();
+                canRemove = true;
+                return readStatesByAlignmentStart[next++];
+            }
+
+            @Override
+            public void remove() {
+                if ( ! canRemove ) throw new IllegalStateException("next() has not been called since the last remove()");
+                canRemove = false;
+                next--;
+                System.arraycopy(readStatesByAlignmentStart, next + 1, readStatesByAlignmentStart, next, nReadStates - next - 1);
+                readStatesByAlignmentStart[--nReadStates] = null;
+            }
+        };
     }
 }
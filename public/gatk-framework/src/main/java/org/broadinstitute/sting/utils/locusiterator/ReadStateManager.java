@@ -59,11 +59,21 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
      */
     private final Map<String, PerSampleReadStateManager> readStatesBySample = new LinkedHashMap<String, PerSampleReadStateManager>();
 
-    private LinkedList<GATKSAMRecord> submittedReads;
+    private List<GATKSAMRecord> submittedReads;
     private final boolean keepSubmittedReads;
 
     private int totalReadStates = 0;
 
+    /**
+     * Machines of reads that have left the pileup window, recycled for new reads
+     */
+    private final AlignmentStateMachinePool stateMachinePool = new AlignmentStateMachinePool();
+
+    /**
+     * Scratch list of the new states for a sample, reused from one alignment start to the next
+     */
+    private final List<AlignmentStateMachine> newReadStates = new ArrayList<AlignmentStateMachine>();
+
     public ReadStateManager(final Iterator<GATKSAMRecord> source,
                             final List<String> samples,
                             final LIBSDownsamplingInfo LIBSDownsamplingInfo,
@@ -72,7 +82,7 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
         this.iterator = new PeekableIterator<GATKSAMRecord>(source);
 
         this.keepSubmittedReads = keepSubmittedReads;
-        this.submittedReads = new LinkedList<GATKSAMRecord>();
+        this.submittedReads = new ArrayList<GATKSAMRecord>();
 
         for (final String sample : samples) {
             // because this is a linked hash map the order of iteration will be in sample order
@@ -136,7 +146,7 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
      */
     public void updateReadStates() {
         for (final PerSampleReadStateManager perSampleReadStateManager : readStatesBySample.values() ) {
-            totalReadStates -= perSampleReadStateManager.updateReadStates();
+            totalReadStates -= perSampleReadStateManager.updateReadStates(stateMachinePool);
         }
     }
 
@@ -234,7 +244,7 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
         if ( ! keepSubmittedReads ) throw new UnsupportedOperationException("cannot transferSubmittedReads if you aren't keeping them");
 
         final List<GATKSAMRecord> prevSubmittedReads = submittedReads;
-        this.submittedReads = new LinkedList<GATKSAMRecord>();
+        this.submittedReads = new ArrayList<GATKSAMRecord>();
 
         return prevSubmittedReads;
     }
@@ -275,15 +285,16 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
         if (reads.isEmpty())
             return;
 
-        final LinkedList<AlignmentStateMachine> newReadStates = new LinkedList<AlignmentStateMachine>();
-
         for (final GATKSAMRecord read : reads) {
-            final AlignmentStateMachine state = new AlignmentStateMachine(read);
+            final AlignmentStateMachine state = stateMachinePool.obtain(read);
             if ( state.stepForwardOnGenome() != null ) // todo -- should be an assertion not a skip
                 // explicitly filter out reads that are all insertions / soft clips
                 newReadStates.add(state);
+            else
+                stateMachinePool.release(state);
         }
 
         totalReadStates += readStates.addStatesAtNextAlignmentStart(newReadStates);
+        newReadStates.clear();
     }
 }
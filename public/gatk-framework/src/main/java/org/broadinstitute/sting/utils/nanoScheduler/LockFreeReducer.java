@@ -0,0 +1,229 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.nanoScheduler;
+
+import com.google.java.contract.Ensures;
+import org.broadinstitute.sting.utils.MultiThreadedErrorTracker;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free, in-order reducer backed by a ring of map results indexed by job id
+ *
+ * Map threads publish their results with put(jobID, value) into the slot jobID % ringSize, and
+ * then call reduceAsMuchAsPossible.  Only one thread at a time actually reduces, claiming the
+ * right to do so with a compare-and-set on a flag rather than a lock, so threads that lose the
+ * race return immediately and go back to mapping.  After the reducing thread gives up the flag
+ * it rechecks the next slot, so a result published while it was finishing up is never stranded.
+ *
+ * The ring has a fixed number of slots, so a job id can only be handed out once the job id
+ * ringSize before it has been reduced.  Producers must call acquireSlots before issuing new job
+ * ids; slots are released as results are reduced.
+ *
+ * Like MapResultsQueue, this class assumes that job ids start at 0 and increase by 1.
+ */
+class LockFreeReducer<MapType, ReduceType> {
+    /**
+     * Marker stored in the ring for map results that are null, as null means an empty slot
+     */
+    private final static Object NULL_MAP_VALUE = new Object();
+
+    private final NSReduceFunction<MapType, ReduceType> reduce;
+    private final MultiThreadedErrorTracker errorTracker;
+
+    /**
+     * The ring of published but not yet reduced map results
+     */
+    private final AtomicReferenceArray<Object> ring;
+    private final int mask;
+
+    /**
+     * Counts the free slots in ring, so producers can wait until the ring has room for new jobs
+     */
+    private final Semaphore freeSlots;
+
+    /**
+     * True while some thread is running reduce
+     */
+    private final AtomicBoolean reducing = new AtomicBoolean(false);
+
+    /**
+     * The job id of the next map result to reduce.  Only written by the thread holding reducing.
+     */
+    private volatile int nextJobID = 0;
+
+    /**
+     * The running reduce value.  Only accessed by the thread holding reducing, which
+     * provides the necessary happens-before ordering between successive reducing threads.
+     */
+    private ReduceType sum;
+
+    /**
+     * Create a new LockFreeReducer
+     *
+     * @param reduce the reduce function to apply
+     * @param errorTracker used to communicate errors to the master thread
+     * @param initialSum the initial reduce sum
+     * @param minRingSize the minimum number of map results that can be waiting for reduce at once.
+     *                    The actual ring size is the next power of two >= minRingSize
+     */
+    public LockFreeReducer(final NSReduceFunction<MapType, ReduceType> reduce,
+                           final MultiThreadedErrorTracker errorTracker,
+                           final ReduceType initialSum,
+                           final int minRingSize) {
+        if ( errorTracker == null ) throw new IllegalArgumentException("Error tracker cannot be null");
+        if ( reduce == null ) throw new IllegalArgumentException("Reduce function cannot be null");
+        if ( minRingSize < 1 ) throw new IllegalArgumentException("minRingSize must be >= 1, got " + minRingSize);
+
+        final int ringSize = Integer.highestOneBit(minRingSize) == minRingSize ? minRingSize : Integer.highestOneBit(minRingSize) << 1;
+        this.ring = new AtomicReferenceArray<Object>(ringSize);
+        this.mask = ringSize - 1;
+        this.freeSlots = new Semaphore(ringSize);
+        this.errorTracker = errorTracker;
+        this.reduce = reduce;
+        this.sum = initialSum;
+    }
+
+    /**
+     * @return the number of slots in the ring
+     */
+    @Ensures("result > 0")
+    public int getRingSize() {
+        return ring.length();
+    }
+
+    /**
+     * Block until nSlots slots of the ring are free, and reserve them for new jobs
+     *
+     * @param nSlots the number of job ids the caller wants to hand out
+     * @throws InterruptedException
+     */
+    public void acquireSlots(final int nSlots) throws InterruptedException {
+        if ( nSlots > getRingSize() ) throw new IllegalArgumentException("Cannot acquire " + nSlots + " slots from a ring of size " + getRingSize());
+        freeSlots.acquire(nSlots);
+    }
+
+    /**
+     * Give back nSlots slots previously acquired with acquireSlots but never used for a job
+     *
+     * @param nSlots the number of unused slots
+     */
+    public void releaseSlots(final int nSlots) {
+        freeSlots.release(nSlots);
+    }
+
+    /**
+     * Publish the result of map job jobID so that it can be reduced
+     *
+     * @param jobID the id of the job that produced value, for which a slot has been acquired
+     * @param value the map result, may be null
+     */
+    public void put(final int jobID, final MapType value) {
+        if ( jobID < 0 ) throw new IllegalArgumentException("JobID must be >= 0");
+        final int slot = jobID & mask;
+        assert ring.get(slot) == null;
+        ring.set(slot, value == null ? NULL_MAP_VALUE : value);
+    }
+
+    /**
+     * Reduce all of the map results available in order starting from the last reduced job
+     *
+     * @param waitForReduce if true, we will spin until we are the reducing thread, otherwise
+     *                      we return immediately if another thread is already reducing
+     * @return the number of reduces run by this call, from 0 >
+     */
+    @Ensures("result >= 0")
+    public int reduceAsMuchAsPossible(final boolean waitForReduce) {
+        int nReducesNow = 0;
+
+        while ( true ) {
+            if ( ! reducing.compareAndSet(false, true) ) {
+                if ( ! waitForReduce )
+                    return nReducesNow;
+                Thread.yield();
+                continue;
+            }
+
+            try {
+                nReducesNow += reduceAvailable();
+            } catch (Exception ex) {
+                errorTracker.notifyOfError(ex);
+                return nReducesNow;
+            } finally {
+                reducing.set(false);
+            }
+
+            // a value may have been published after our last look but before we cleared
+            // reducing, by a thread that then failed to become the reducer
+            if ( ring.get(nextJobID & mask) == null )
+                return nReducesNow;
+        }
+    }
+
+    /**
+     * Reduce the consecutive run of map results starting at nextJobID.  Must hold reducing.
+     *
+     * @return the number of values reduced
+     */
+    @SuppressWarnings("unchecked")
+    private int reduceAvailable() {
+        int nReduced = 0;
+        int jobID = nextJobID;
+
+        Object value;
+        while ( (value = ring.get(jobID & mask)) != null ) {
+            ring.set(jobID & mask, null);
+            jobID++;
+            nextJobID = jobID;
+            sum = reduce.apply(value == NULL_MAP_VALUE ? null : (MapType)value, sum);
+            freeSlots.release();
+            nReduced++;
+        }
+
+        return nReduced;
+    }
+
+    /**
+     * @return the number of map results reduced so far
+     */
+    public int getNumReduced() {
+        return nextJobID;
+    }
+
+    /**
+     * Get the current reduce result resulting from applying reduce(...) to all of the
+     * map results reduced so far.
+     *
+     * Like Reducer.getReduceResult, this cannot know whether more results are coming.
+     *
+     * @return the current reduce result
+     */
+    public ReduceType getReduceResult() {
+        return sum;
+    }
+}
@@ -288,7 +288,7 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
      * @param counter increasing counter to use to cut down on updates
      * @param input the input we're currently at
      */
-    private void updateProgress(final int counter, final InputType input) {
+    protected void updateProgress(final int counter, final InputType input) {
         if ( progressFunction != null && counter % UPDATE_PROGRESS_FREQ == 0 )
             progressFunction.progress(input);
     }
@@ -306,7 +306,7 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         debugPrint("Executing nanoScheduler");
 
         // start up the master job
-        final MasterJob masterJob = new MasterJob(inputReader, map, initialValue, reduce);
+        final Callable<ReduceType> masterJob = createMasterJob(inputReader, map, initialValue, reduce);
         final Future<ReduceType> reduceResult = masterExecutor.submit(masterJob);
 
         while ( true ) {
@@ -354,6 +354,25 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
 //        }
 //    }
 
+    /**
+     * Create the job run on the master thread that drives the map threads over inputReader and
+     * returns the final reduce value.
+     *
+     * Subclasses can override this to provide a different scheduling strategy for the map and
+     * reduce jobs.  The returned job must report any errors to errorTracker rather than throwing
+     * them, and must use mapExecutor to run its map jobs.
+     *
+     * @return a non-null callable producing the final reduce result
+     */
+    @Requires({"inputReader != null", "map != null", "reduce != null"})
+    @Ensures("result != null")
+    protected Callable<ReduceType> createMasterJob(final Iterator<InputType> inputReader,
+                                                   final NSMapFunction<InputType, MapType> map,
+                                                   final ReduceType initialValue,
+                                                   final NSReduceFunction<MapType, ReduceType> reduce) {
+        return new MasterJob(inputReader, map, initialValue, reduce);
+    }
+
     private void handleErrors() {
         if ( errorTracker.hasAnErrorOccurred() ) {
             masterExecutor.shutdownNow();
@@ -0,0 +1,303 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.nanoScheduler;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * NanoScheduler that hands out inputs in per-thread batches and lets idle map threads steal work
+ *
+ * The standard NanoScheduler has every map thread pull its next input through the synchronized
+ * InputProducer, and push its result through the synchronized MapResultsQueue.  With many map
+ * threads and cheap map functions those monitors become the bottleneck.  This scheduler instead:
+ *
+ * - reads the input iterator only on the master thread, which prefetches inputs into batches of
+ *   consecutive elements and deals them out round-robin to a lock-free queue per map thread
+ * - has each map thread work through the batches in its own queue, and when that is empty
+ *   steal the oldest batch from another thread's queue, so a thread stuck on an expensive
+ *   element doesn't hold up the rest
+ * - reduces in input order through a LockFreeReducer, a ring of map results indexed by input
+ *   position, which also bounds the number of inputs in flight to about bufferSize
+ *
+ * The results are identical to those of NanoScheduler, and as with NanoScheduler map may be
+ * called in any order but reduce is always called in the order of the input data.
+ */
+public class WorkStealingNanoScheduler<InputType, MapType, ReduceType> extends NanoScheduler<InputType, MapType, ReduceType> {
+    /**
+     * Aim to have this many batches per map thread in the buffer, so there's something to steal
+     */
+    private final static int BATCHES_PER_THREAD = 4;
+
+    /**
+     * No batch should be bigger than this, regardless of the buffer size
+     */
+    private final static int MAX_BATCH_SIZE = 100;
+
+    /**
+     * How long should an idle map thread sleep before looking for more work?
+     */
+    private final static long IDLE_PARK_NANOS = 20 * 1000;
+
+    /**
+     * The number of inputs grouped together into a single batch
+     */
+    final int batchSize;
+
+    /**
+     * Total number of batches run by a thread other than the one it was dealt to, for debugging
+     */
+    private final AtomicInteger nStolenBatches = new AtomicInteger(0);
+
+    /**
+     * Create a new work stealing nanoscheduler with the desired number of threads
+     *
+     * @param nThreads the number of threads to use to get work done, in addition to the
+     *                 thread calling execute
+     */
+    public WorkStealingNanoScheduler(final int nThreads) {
+        this(nThreads*100, nThreads);
+    }
+
+    protected WorkStealingNanoScheduler(final int bufferSize, final int nThreads) {
+        super(bufferSize, nThreads);
+        this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, bufferSize / (BATCHES_PER_THREAD * nThreads)));
+    }
+
+    /**
+     * The number of inputs processed together as a single unit of work
+     * @return
+     */
+    @Ensures("result > 0")
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the total number of batches stolen by idle map threads over all calls to execute
+     */
+    @Ensures("result >= 0")
+    public int getNumStolenBatches() {
+        return nStolenBatches.get();
+    }
+
+    @Override
+    protected Callable<ReduceType> createMasterJob(final Iterator<InputType> inputReader,
+                                                   final NSMapFunction<InputType, MapType> map,
+                                                   final ReduceType initialValue,
+                                                   final NSReduceFunction<MapType, ReduceType> reduce) {
+        return new WorkStealingMasterJob(inputReader, map, initialValue, reduce);
+    }
+
+    /**
+     * A run of consecutive inputs, starting at input position firstID
+     */
+    private class InputBatch {
+        final int firstID;
+        final List<InputType> inputs;
+
+        private InputBatch(final int firstID, final List<InputType> inputs) {
+            this.firstID = firstID;
+            this.inputs = inputs;
+        }
+    }
+
+    /**
+     * Reads the inputs into batches, deals them out to the map threads, and waits for the final reduce
+     *
+     * All of the state of a single execute call lives here, so the scheduler can be reused.
+     */
+    private class WorkStealingMasterJob implements Callable<ReduceType> {
+        final Iterator<InputType> inputReader;
+        final NSMapFunction<InputType, MapType> map;
+        final ReduceType initialValue;
+        final NSReduceFunction<MapType, ReduceType> reduce;
+
+        /**
+         * One queue of batches per map thread
+         */
+        final List<ConcurrentLinkedQueue<InputBatch>> workQueues;
+
+        /**
+         * Set once the master has dealt out all of the input, or given up because of an error
+         */
+        volatile boolean allInputsDealt = false;
+
+        private WorkStealingMasterJob(Iterator<InputType> inputReader, NSMapFunction<InputType, MapType> map, ReduceType initialValue, NSReduceFunction<MapType, ReduceType> reduce) {
+            this.inputReader = inputReader;
+            this.map = map;
+            this.initialValue = initialValue;
+            this.reduce = reduce;
+
+            this.workQueues = new ArrayList<ConcurrentLinkedQueue<InputBatch>>(nThreads);
+            for ( int i = 0; i < nThreads; i++ )
+                workQueues.add(new ConcurrentLinkedQueue<InputBatch>());
+        }
+
+        @Override
+        public ReduceType call() {
+            final int ringSize = Math.max(bufferSize, 2 * batchSize * nThreads);
+            final LockFreeReducer<MapType, ReduceType> reducer = new LockFreeReducer<MapType, ReduceType>(reduce, errorTracker, initialValue, ringSize);
+            final CountDownLatch runningMapJobs = new CountDownLatch(nThreads);
+
+            try {
+                for ( int i = 0; i < nThreads; i++ ) {
+                    mapExecutor.submit(new StealingMapJob(i, reducer, runningMapJobs));
+                }
+
+                dealInputs(reducer);
+                allInputsDealt = true;
+
+                // wait for all of the map threads to finish, and do a final reduce
+                runningMapJobs.await();
+                reducer.reduceAsMuchAsPossible(true);
+
+                debugPrint("Finished with %d inputs reduced, %d batches of size %d stolen so far",
+                        reducer.getNumReduced(), getNumStolenBatches(), batchSize);
+                return reducer.getReduceResult();
+            } catch (Throwable ex) {
+                errorTracker.notifyOfError(ex);
+                return initialValue;
+            } finally {
+                // make sure map threads don't wait for more input if we failed
+                allInputsDealt = true;
+            }
+        }
+
+        /**
+         * Read all of the inputs, grouping them into batches and dealing them round-robin to the
+         * map threads.  Blocks whenever the reducer doesn't have room for another batch.
+         */
+        @Requires("reducer != null")
+        private void dealInputs(final LockFreeReducer<MapType, ReduceType> reducer) throws InterruptedException {
+            int nextID = 0;
+            int nextQueue = 0;
+
+            while ( ! errorTracker.hasAnErrorOccurred() ) {
+                reducer.acquireSlots(batchSize);
+
+                final List<InputType> inputs = new ArrayList<InputType>(batchSize);
+                while ( inputs.size() < batchSize && inputReader.hasNext() ) {
+                    final InputType input = inputReader.next();
+                    if ( input == null )
+                        throw new IllegalStateException("inputReader.next() returned a null value, breaking our contract");
+                    inputs.add(input);
+                }
+
+                reducer.releaseSlots(batchSize - inputs.size());
+                if ( inputs.isEmpty() )
+                    break;
+
+                workQueues.get(nextQueue).add(new InputBatch(nextID, inputs));
+                nextID += inputs.size();
+                nextQueue = (nextQueue + 1) % nThreads;
+
+                if ( inputs.size() < batchSize )
+                    break;
+            }
+        }
+
+        /**
+         * Get the next batch for map thread threadIndex, stealing from the other threads if its own queue is empty
+         *
+         * We steal from the head of the other queues, taking the oldest batch, so that the
+         * in-order reduce is held up as little as possible
+         *
+         * @return a batch, or null if there's currently no work anywhere
+         */
+        private InputBatch nextBatch(final int threadIndex) {
+            final InputBatch mine = workQueues.get(threadIndex).poll();
+            if ( mine != null )
+                return mine;
+
+            for ( int i = 1; i < nThreads; i++ ) {
+                final InputBatch stolen = workQueues.get((threadIndex + i) % nThreads).poll();
+                if ( stolen != null ) {
+                    nStolenBatches.incrementAndGet();
+                    return stolen;
+                }
+            }
+
+            return null;
+        }
+
+        private class StealingMapJob implements Runnable {
+            final int threadIndex;
+            final LockFreeReducer<MapType, ReduceType> reducer;
+            final CountDownLatch runningMapJobs;
+
+            private StealingMapJob(final int threadIndex,
+                                   final LockFreeReducer<MapType, ReduceType> reducer,
+                                   final CountDownLatch runningMapJobs) {
+                this.threadIndex = threadIndex;
+                this.reducer = reducer;
+                this.runningMapJobs = runningMapJobs;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while ( ! errorTracker.hasAnErrorOccurred() ) {
+                        // must be read before looking for work, otherwise we could miss the last batches
+                        final boolean noMoreBatchesComing = allInputsDealt;
+                        final InputBatch batch = nextBatch(threadIndex);
+
+                        if ( batch == null ) {
+                            if ( noMoreBatchesComing )
+                                break;
+                            LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        } else {
+                            for ( int i = 0; i < batch.inputs.size(); i++ ) {
+                                final int id = batch.firstID + i;
+                                final InputType input = batch.inputs.get(i);
+
+                                reducer.put(id, map.apply(input));
+
+                                // reduce as much as possible, without blocking, if another thread is already doing reduces
+                                reducer.reduceAsMuchAsPossible(false);
+
+                                updateProgress(id, input);
+                            }
+                        }
+                    }
+                } catch (Throwable ex) {
+                    errorTracker.notifyOfError(ex);
+                } finally {
+                    runningMapJobs.countDown();
+                }
+            }
+        }
+    }
+}
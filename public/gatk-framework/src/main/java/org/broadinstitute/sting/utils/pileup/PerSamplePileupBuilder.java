@@ -0,0 +1,211 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.pileup;
+
+import net.sf.samtools.CigarElement;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+
+import java.util.*;
+
+/**
+ * Builds per-sample pileups over a fixed set of samples, one locus at a time.
+ *
+ * The elements of every sample at a locus are appended, sample by sample, into one array, and each
+ * sample's pileup is a view onto its range of that array.  All of the pileups built share a single
+ * sample index, so building a pileup allocates no maps or per-sample lists.  Elements added by their
+ * alignment state rather than as PileupElements are only created if the pileup is iterated.
+ *
+ * Usage, for each locus:
+ *
+ *   for each sample: { add(element) for each element; finishSample(sample); }
+ *   pileup = build(loc);
+ *
+ * This class is not thread safe.
+ */
+public final class PerSamplePileupBuilder {
+    private final static int DEFAULT_INITIAL_CAPACITY = 64;
+
+    private final Map<String, Integer> sampleIndex;
+    private final List<String> sampleNames;
+
+    private PileupElement[] elements = new PileupElement[DEFAULT_INITIAL_CAPACITY];
+    private int nElements = 0;
+
+    // the alignment state of elements added without a PileupElement, used to create them on demand
+    private GATKSAMRecord[] reads = new GATKSAMRecord[DEFAULT_INITIAL_CAPACITY];
+    private int[] offsets = new int[DEFAULT_INITIAL_CAPACITY];
+    private CigarElement[] cigarElements = new CigarElement[DEFAULT_INITIAL_CAPACITY];
+    private int[] cigarElementOffsets = new int[DEFAULT_INITIAL_CAPACITY];
+    private int[] offsetsIntoCigarElements = new int[DEFAULT_INITIAL_CAPACITY];
+    private boolean hasDeferredElements = false;
+
+    // the index and starting element of each non-empty sample at this locus, in the order they were finished
+    private int[] nonEmptySamples = new int[DEFAULT_INITIAL_CAPACITY];
+    private int[] sampleStarts = new int[DEFAULT_INITIAL_CAPACITY + 1];
+    private int nNonEmptySamples = 0;
+    private int currentSampleStart = 0;
+
+    /**
+     * Create a builder for pileups of the given samples
+     * @param samples the samples that may appear in pileups built by this builder
+     */
+    public PerSamplePileupBuilder(final Collection<String> samples) {
+        if ( samples == null ) throw new IllegalArgumentException("samples cannot be null");
+
+        final List<String> names = new ArrayList<String>(samples.size());
+        final Map<String, Integer> index = new HashMap<String, Integer>(samples.size() * 2);
+        for ( final String sample : samples ) {
+            if ( ! index.containsKey(sample) ) {
+                index.put(sample, names.size());
+                names.add(sample);
+            }
+        }
+
+        this.sampleIndex = Collections.unmodifiableMap(index);
+        this.sampleNames = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Add an element to the pileup of the current sample
+     * @param element a non-null pileup element
+     */
+    public void add(final PileupElement element) {
+        if ( element == null ) throw new IllegalArgumentException("element cannot be null");
+        ensureCapacity();
+        reads[nElements] = null;
+        elements[nElements++] = element;
+    }
+
+    /**
+     * Add an element to the pileup of the current sample, deferring the creation of its PileupElement
+     * until it's needed.  The arguments are as for the PileupElement constructor.
+     */
+    public void add(final GATKSAMRecord read, final int baseOffset, final CigarElement currentElement,
+                    final int currentCigarOffset, final int offsetInCurrentCigar) {
+        if ( read == null ) throw new IllegalArgumentException("read cannot be null");
+        if ( currentElement == null ) throw new IllegalArgumentException("currentElement cannot be null");
+        ensureCapacity();
+        reads[nElements] = read;
+        offsets[nElements] = baseOffset;
+        cigarElements[nElements] = currentElement;
+        cigarElementOffsets[nElements] = currentCigarOffset;
+        offsetsIntoCigarElements[nElements] = offsetInCurrentCigar;
+        elements[nElements++] = null;
+        hasDeferredElements = true;
+    }
+
+    private void ensureCapacity() {
+        if ( nElements == elements.length ) {
+            final int capacity = elements.length * 2;
+            elements = Arrays.copyOf(elements, capacity);
+            reads = Arrays.copyOf(reads, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            cigarElements = Arrays.copyOf(cigarElements, capacity);
+            cigarElementOffsets = Arrays.copyOf(cigarElementOffsets, capacity);
+            offsetsIntoCigarElements = Arrays.copyOf(offsetsIntoCigarElements, capacity);
+        }
+    }
+
+    /**
+     * Finish the current sample.  The elements added since the last call to finishSample (or build)
+     * become the pileup for sample.  Samples with no elements are omitted from the built pileup.
+     *
+     * @param sample one of the samples provided at construction, not previously finished at this locus
+     */
+    public void finishSample(final String sample) {
+        final Integer i = sampleIndex.get(sample);
+        if ( i == null ) throw new IllegalArgumentException("Unknown sample " + sample);
+
+        if ( nElements > currentSampleStart ) {
+            if ( nNonEmptySamples == nonEmptySamples.length ) {
+                nonEmptySamples = Arrays.copyOf(nonEmptySamples, nNonEmptySamples * 2);
+                sampleStarts = Arrays.copyOf(sampleStarts, nNonEmptySamples * 2 + 1);
+            }
+            nonEmptySamples[nNonEmptySamples] = i;
+            sampleStarts[nNonEmptySamples] = currentSampleStart;
+            nNonEmptySamples++;
+        }
+        currentSampleStart = nElements;
+    }
+
+    /**
+     * @return true if no elements have been added to any sample since the last build
+     */
+    public boolean isEmpty() {
+        return nElements == 0;
+    }
+
+    /**
+     * @return the number of elements added to all samples since the last build
+     */
+    public int size() {
+        return nElements;
+    }
+
+    /**
+     * Build the pileup at loc from all of the finished samples, and reset this builder for the next locus.
+     *
+     * @param loc the location of the pileup
+     * @return a per-sample pileup, or null if no elements were added
+     */
+    public ReadBackedPileupImpl build(final GenomeLoc loc) {
+        if ( nElements != currentSampleStart )
+            throw new IllegalStateException("Elements were added but the sample they belong to was never finished");
+
+        ReadBackedPileupImpl pileup = null;
+        if ( nElements > 0 ) {
+            final PileupElement[] pile = Arrays.copyOf(elements, nElements);
+            final PileupElementColumns columns = ! hasDeferredElements ? null :
+                    new PileupElementColumns(Arrays.copyOf(reads, nElements), Arrays.copyOf(offsets, nElements),
+                            Arrays.copyOf(cigarElements, nElements), Arrays.copyOf(cigarElementOffsets, nElements),
+                            Arrays.copyOf(offsetsIntoCigarElements, nElements));
+            final PerSamplePileupElementTracker<PileupElement> tracker = new PerSamplePileupElementTracker<PileupElement>(sampleIndex, sampleNames);
+            sampleStarts[nNonEmptySamples] = nElements;
+            for ( int i = 0; i < nNonEmptySamples; i++ ) {
+                final int start = sampleStarts[i];
+                tracker.addElements(nonEmptySamples[i], new UnifiedPileupElementTracker<PileupElement>(pile, start, sampleStarts[i + 1] - start, columns));
+            }
+            pileup = new ReadBackedPileupImpl(loc, tracker);
+        }
+
+        reset();
+        return pileup;
+    }
+
+    /**
+     * Discard everything added since the last build
+     */
+    public void reset() {
+        Arrays.fill(elements, 0, nElements, null);
+        Arrays.fill(reads, 0, nElements, null);
+        Arrays.fill(cigarElements, 0, nElements, null);
+        hasDeferredElements = false;
+        nElements = 0;
+        nNonEmptySamples = 0;
+        currentSampleStart = 0;
+    }
+}
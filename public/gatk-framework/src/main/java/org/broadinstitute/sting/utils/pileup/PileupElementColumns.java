@@ -0,0 +1,82 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.pileup;
+
+import net.sf.samtools.CigarElement;
+import net.sf.samtools.CigarOperator;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+
+/**
+ * The state needed to create the pileup elements at a locus, held in parallel arrays.
+ *
+ * Lets a pileup defer creating its PileupElement objects until they are actually asked for,
+ * and answer simple questions about them (deletions, MQ0 reads, bases) without creating them at all.
+ */
+final class PileupElementColumns {
+    private final GATKSAMRecord[] reads;
+    private final int[] offsets;
+    private final CigarElement[] cigarElements;
+    private final int[] cigarElementOffsets;
+    private final int[] offsetsIntoCigarElements;
+
+    /**
+     * Create columns from the given arrays, which are not copied.  Entries with a null read
+     * are not described by these columns.
+     */
+    PileupElementColumns(final GATKSAMRecord[] reads, final int[] offsets, final CigarElement[] cigarElements,
+                         final int[] cigarElementOffsets, final int[] offsetsIntoCigarElements) {
+        this.reads = reads;
+        this.offsets = offsets;
+        this.cigarElements = cigarElements;
+        this.cigarElementOffsets = cigarElementOffsets;
+        this.offsetsIntoCigarElements = offsetsIntoCigarElements;
+    }
+
+    /**
+     * Create the PileupElement described by the i-th entry of these columns
+     */
+    public PileupElement makeElement(final int i) {
+        return new PileupElement(reads[i], offsets[i], cigarElements[i], cigarElementOffsets[i], offsetsIntoCigarElements[i]);
+    }
+
+    public GATKSAMRecord getRead(final int i) {
+        return reads[i];
+    }
+
+    /**
+     * @see PileupElement#isDeletion()
+     */
+    public boolean isDeletion(final int i) {
+        return cigarElements[i].getOperator() == CigarOperator.D;
+    }
+
+    /**
+     * @see PileupElement#getBase()
+     */
+    public byte getBase(final int i) {
+        return isDeletion(i) ? PileupElement.DELETION_BASE : reads[i].getReadBases()[offsets[i]];
+    }
+}
@@ -22,20 +22,31 @@
 * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
 * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
-
 package org.broadinstitute.sting.utils.pileup;
 
 import org.apache.commons.collections.iterators.IteratorChain;
+import org.broadinstitute.sting.utils.BaseUtils;
 
 import java.util.*;
 
 /**
- * Javadoc goes here.
+ * Holds the elements of a pileup.
+ *
+ * Elements are kept in arrays rather than linked lists, so that indexed access is O(1) and
+ * per-sample pileups can be views onto a single array shared by all samples at a locus.
+ * Summary counts (deletions, MQ0 reads, base counts) are computed lazily on first request
+ * and cached, so that pileups sharing a tracker only pay for them once.
  *
  * @author mhanna
  * @version 0.1
  */
 abstract class PileupElementTracker<PE extends PileupElement> implements Iterable<PE> {
+    private final static int UNINITIALIZED_CACHED_INT_VALUE = -1;
+
+    private int nDeletions = UNINITIALIZED_CACHED_INT_VALUE;
+    private int nMQ0Reads = UNINITIALIZED_CACHED_INT_VALUE;
+    private int[] baseCounts = null;
+
     public abstract int size();
 
     /**
@@ -52,51 +63,271 @@ abstract class PileupElementTracker<PE extends PileupElement> implements Iterabl
     public Iterator<PE> unorderedIterator() { return unorderedIterable().iterator(); }
 
     public abstract PileupElementTracker<PE> copy();
+
+    /**
+     * @return the number of deletions in this tracker, computed on the first call and cached
+     */
+    public int getNumberOfDeletions() {
+        if ( nDeletions == UNINITIALIZED_CACHED_INT_VALUE )
+            computeSummaryCounts();
+        return nDeletions;
+    }
+
+    /**
+     * @return the number of elements from mapping quality zero reads in this tracker, computed on the first call and cached
+     */
+    public int getNumberOfMappingQualityZeroReads() {
+        if ( nMQ0Reads == UNINITIALIZED_CACHED_INT_VALUE )
+            computeSummaryCounts();
+        return nMQ0Reads;
+    }
+
+    /**
+     * Get the counts of A, C, G, T in this tracker, indexed by BaseUtils.simpleBaseToBaseIndex.
+     * The returned array is cached, and must not be modified by the caller.
+     * @return a non-null int[4]
+     */
+    public int[] getBaseCounts() {
+        if ( baseCounts == null )
+            computeSummaryCounts();
+        return baseCounts;
+    }
+
+    /**
+     * Compute all of the summary counts in this tracker in a single pass.
+     */
+    protected void computeSummaryCounts() {
+        int deletions = 0, mq0Reads = 0;
+        final int[] counts = new int[4];
+        for ( final PE p : unorderedIterable() ) {
+            if ( p.getRead().getMappingQuality() == 0 )
+                mq0Reads++;
+            if ( p.isDeletion() ) {
+                deletions++;
+            } else {
+                final int index = BaseUtils.simpleBaseToBaseIndex((char) p.getBase());
+                if ( index != -1 )
+                    counts[index]++;
+            }
+        }
+        setSummaryCounts(deletions, mq0Reads, counts);
+    }
+
+    protected void setSummaryCounts(final int nDeletions, final int nMQ0Reads, final int[] baseCounts) {
+        this.nDeletions = nDeletions;
+        this.nMQ0Reads = nMQ0Reads;
+        this.baseCounts = baseCounts;
+    }
+
+    /**
+     * Forget any cached summary counts.  Must be called whenever the contents of this tracker change.
+     */
+    protected void invalidateSummaryCounts() {
+        nDeletions = UNINITIALIZED_CACHED_INT_VALUE;
+        nMQ0Reads = UNINITIALIZED_CACHED_INT_VALUE;
+        baseCounts = null;
+    }
 }
 
+/**
+ * Tracker for the elements of a single pileup, stored in order in an array.
+ *
+ * A tracker may be a view onto a range of an array shared with other trackers, in which case
+ * the array is copied before any new element is added.  Entries of the array may be left null
+ * and described instead by PileupElementColumns, in which case the element is created the
+ * first time it is asked for.
+ */
 class UnifiedPileupElementTracker<PE extends PileupElement> extends PileupElementTracker<PE> {
-    private final List<PE> pileup;
+    private final static int DEFAULT_INITIAL_CAPACITY = 8;
+
+    private PileupElement[] pileup;
+    private int start;
+    private int size;
+    private boolean isView;
+    private PileupElementColumns columns = null;
 
     @Override
     public UnifiedPileupElementTracker<PE> copy() {
-        UnifiedPileupElementTracker<PE> result = new UnifiedPileupElementTracker<PE>();
-        for(PE element : pileup)
-            result.add(element);
-        return result;
+        materialize();
+        return new UnifiedPileupElementTracker<PE>(Arrays.copyOfRange(pileup, start, start + size), 0, size, false);
+    }
+
+    public UnifiedPileupElementTracker() {
+        this(new PileupElement[DEFAULT_INITIAL_CAPACITY], 0, 0, false);
     }
 
-    public UnifiedPileupElementTracker() { pileup = new LinkedList<PE>(); }
-    public UnifiedPileupElementTracker(List<PE> pileup) { this.pileup = pileup; }
+    public UnifiedPileupElementTracker(List<PE> pileup) {
+        this(pileup.toArray(new PileupElement[pileup.size()]), 0, pileup.size(), false);
+    }
+
+    /**
+     * Create a tracker viewing size elements of pileup starting at start.  Doesn't copy pileup,
+     * so the elements in that range must not be changed.
+     */
+    UnifiedPileupElementTracker(final PileupElement[] pileup, final int start, final int size) {
+        this(pileup, start, size, true);
+    }
+
+    /**
+     * As above, but the elements missing from pileup are created on demand from columns, whose
+     * indices are the same as those of pileup
+     */
+    UnifiedPileupElementTracker(final PileupElement[] pileup, final int start, final int size, final PileupElementColumns columns) {
+        this(pileup, start, size, true);
+        this.columns = columns;
+    }
+
+    private UnifiedPileupElementTracker(final PileupElement[] pileup, final int start, final int size, final boolean isView) {
+        if ( start < 0 || size < 0 || start + size > pileup.length )
+            throw new IllegalArgumentException("Bad range start=" + start + " size=" + size + " for pileup of length " + pileup.length);
+        this.pileup = pileup;
+        this.start = start;
+        this.size = size;
+        this.isView = isView;
+    }
 
     public void add(PE element) {
-        pileup.add(element);
+        if ( isView || size == pileup.length ) {
+            materialize();
+            pileup = Arrays.copyOfRange(pileup, start, start + Math.max(DEFAULT_INITIAL_CAPACITY, size * 2));
+            start = 0;
+            isView = false;
+            columns = null;
+        }
+        pileup[size++] = element;
+        invalidateSummaryCounts();
     }
 
+    @SuppressWarnings("unchecked")
     public PE get(int index) {
-        return pileup.get(index);
+        if ( index < 0 || index >= size )
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for pileup of size " + size);
+        PileupElement element = pileup[start + index];
+        if ( element == null ) {
+            element = columns.makeElement(start + index);
+            pileup[start + index] = element;
+        }
+        return (PE)element;
+    }
+
+    /**
+     * Create any elements of this tracker that haven't been created yet
+     */
+    private void materialize() {
+        if ( columns != null )
+            for ( int i = 0; i < size; i++ )
+                get(i);
     }
 
     public int size() {
-        return pileup.size();
+        return size;
+    }
+
+    public Iterator<PE> iterator() {
+        return new Iterator<PE>() {
+            private int i = 0;
+            @Override public boolean hasNext() { return i < size; }
+            @Override public PE next() {
+                if ( i >= size ) throw new NoSuchElementException();
+                return get(i++);
+            }
+            @Override public void remove() { throw new UnsupportedOperationException("Cannot remove"); }
+        };
     }
 
-    public Iterator<PE> iterator() { return pileup.iterator(); }
     public Iterable<PE> unorderedIterable() { return this; }
+
+    @Override
+    protected void computeSummaryCounts() {
+        if ( columns == null ) {
+            super.computeSummaryCounts();
+            return;
+        }
+
+        // answer from the columns where we can, so that counting doesn't create the elements
+        int deletions = 0, mq0Reads = 0;
+        final int[] counts = new int[4];
+        for ( int i = start; i < start + size; i++ ) {
+            final boolean isDeletion;
+            final byte base;
+            final int mappingQuality;
+            if ( pileup[i] == null ) {
+                isDeletion = columns.isDeletion(i);
+                base = columns.getBase(i);
+                mappingQuality = columns.getRead(i).getMappingQuality();
+            } else {
+                isDeletion = pileup[i].isDeletion();
+                base = pileup[i].getBase();
+                mappingQuality = pileup[i].getRead().getMappingQuality();
+            }
+
+            if ( mappingQuality == 0 )
+                mq0Reads++;
+            if ( isDeletion ) {
+                deletions++;
+            } else {
+                final int index = BaseUtils.simpleBaseToBaseIndex((char) base);
+                if ( index != -1 )
+                    counts[index]++;
+            }
+        }
+        setSummaryCounts(deletions, mq0Reads, counts);
+    }
 }
 
+/**
+ * Tracker for a pileup partitioned by sample.
+ *
+ * Samples are numbered by an index mapping sample names to slots in an array of per-sample trackers.
+ * Trackers derived from one another (by filtering, copying, etc.) share the same index, as do all
+ * of the pileups produced by a PerSamplePileupBuilder, so that no per-pileup map is needed and the
+ * lookup of a single sample's elements is O(1).
+ */
 class PerSamplePileupElementTracker<PE extends PileupElement> extends PileupElementTracker<PE> {
-    private final Map<String,PileupElementTracker<PE>> pileup;
+    private Map<String,Integer> sampleIndex;
+    private List<String> sampleNames;
+    private boolean sharesSampleIndex;
+
+    private PileupElementTracker<PE>[] pileup;
     private int size = 0;
+    private List<String> samplesPresent = null;
 
     public PerSamplePileupElementTracker() {
-        pileup = new HashMap<String,PileupElementTracker<PE>>();
+        this(new HashMap<String,Integer>(), new ArrayList<String>(), false);
     }
 
-    public PerSamplePileupElementTracker<PE> copy() {
-        PerSamplePileupElementTracker<PE> result = new PerSamplePileupElementTracker<PE>();
-        for (Map.Entry<String, PileupElementTracker<PE>> entry : pileup.entrySet())
-            result.addElements(entry.getKey(), entry.getValue());
+    /**
+     * Create an empty tracker using the given sample index, which isn't copied unless a sample
+     * missing from it is added to this tracker.
+     *
+     * @param sampleIndex map from sample name to its position in sampleNames
+     * @param sampleNames sample names, in index order
+     */
+    PerSamplePileupElementTracker(final Map<String,Integer> sampleIndex, final List<String> sampleNames) {
+        this(sampleIndex, sampleNames, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private PerSamplePileupElementTracker(final Map<String,Integer> sampleIndex, final List<String> sampleNames, final boolean sharesSampleIndex) {
+        this.sampleIndex = sampleIndex;
+        this.sampleNames = sampleNames;
+        this.sharesSampleIndex = sharesSampleIndex;
+        this.pileup = new PileupElementTracker[Math.max(1, sampleNames.size())];
+    }
+
+    /**
+     * @return a new, empty tracker sharing the sample index of this one
+     */
+    public PerSamplePileupElementTracker<PE> emptyTrackerForSameSamples() {
+        sharesSampleIndex = true;
+        return new PerSamplePileupElementTracker<PE>(sampleIndex, sampleNames, true);
+    }
 
+    public PerSamplePileupElementTracker<PE> copy() {
+        final PerSamplePileupElementTracker<PE> result = emptyTrackerForSameSamples();
+        for ( int i = 0; i < pileup.length; i++ )
+            if ( pileup[i] != null )
+                result.addElements(i, pileup[i].copy());
         return result;
     }
 
@@ -105,24 +336,57 @@ class PerSamplePileupElementTracker<PE extends PileupElement> extends PileupElem
      * @return List of samples in this pileup.
      */
     public Collection<String> getSamples() {
-        return pileup.keySet();
+        if ( samplesPresent == null ) {
+            samplesPresent = new ArrayList<String>();
+            for ( int i = 0; i < pileup.length; i++ )
+                if ( pileup[i] != null )
+                    samplesPresent.add(sampleNames.get(i));
+        }
+        return samplesPresent;
     }
 
     public PileupElementTracker<PE> getElements(final String sample) {
-        return pileup.get(sample);
+        final Integer i = sampleIndex.get(sample);
+        return i == null || i >= pileup.length ? null : pileup[i];
     }
 
     public PileupElementTracker<PE> getElements(final Collection<String> selectSampleNames) {
-        PerSamplePileupElementTracker<PE> result = new PerSamplePileupElementTracker<PE>();
+        final PerSamplePileupElementTracker<PE> result = emptyTrackerForSameSamples();
         for (final String sample :  selectSampleNames) {
-            result.addElements(sample, pileup.get(sample));
+            final PileupElementTracker<PE> elements = getElements(sample);
+            if ( elements != null )
+                result.addElements(sample, elements);
         }
         return result;
     }
 
     public void addElements(final String sample, PileupElementTracker<PE> elements) {
-        pileup.put(sample,elements);
+        Integer i = sampleIndex.get(sample);
+        if ( i == null ) {
+            if ( sharesSampleIndex ) {
+                sampleIndex = new HashMap<String,Integer>(sampleIndex);
+                sampleNames = new ArrayList<String>(sampleNames);
+                sharesSampleIndex = false;
+            }
+            i = sampleNames.size();
+            sampleIndex.put(sample, i);
+            sampleNames.add(sample);
+        }
+        addElements(i, elements);
+    }
+
+    /**
+     * Add elements for the sample at position sampleIndex in this tracker's sample index
+     */
+    void addElements(final int sampleIndex, final PileupElementTracker<PE> elements) {
+        if ( sampleIndex >= pileup.length )
+            pileup = Arrays.copyOf(pileup, Math.max(sampleIndex + 1, pileup.length * 2));
+        if ( pileup[sampleIndex] != null )
+            size -= pileup[sampleIndex].size();
+        pileup[sampleIndex] = elements;
         size += elements.size();
+        samplesPresent = null;
+        invalidateSummaryCounts();
     }
 
     public Iterator<PE> iterator() { return new MergingPileupElementIterator<PE>(this); }
@@ -131,6 +395,21 @@ class PerSamplePileupElementTracker<PE extends PileupElement> extends PileupElem
         return size;
     }
 
+    @Override
+    protected void computeSummaryCounts() {
+        int deletions = 0, mq0Reads = 0;
+        final int[] counts = new int[4];
+        for ( final PileupElementTracker<PE> pet : pileup ) {
+            if ( pet == null )
+                continue;
+            deletions += pet.getNumberOfDeletions();
+            mq0Reads += pet.getNumberOfMappingQualityZeroReads();
+            final int[] sampleCounts = pet.getBaseCounts();
+            for ( int i = 0; i < counts.length; i++ )
+                counts[i] += sampleCounts[i];
+        }
+        setSummaryCounts(deletions, mq0Reads, counts);
+    }
 
     public Iterable<PE> unorderedIterable() {
         return new Iterable<PE>() {
@@ -140,8 +419,9 @@ class PerSamplePileupElementTracker<PE extends PileupElement> extends PileupElem
                     final private IteratorChain chain = new IteratorChain();
 
                     { // initialize the chain with the unordered iterators of the per sample pileups
-                        for ( PileupElementTracker<PE> pet : pileup.values() ) {
-                            chain.addIterator(pet.unorderedIterator());
+                        for ( PileupElementTracker<PE> pet : pileup ) {
+                            if ( pet != null )
+                                chain.addIterator(pet.unorderedIterator());
                         }
                     }
                     @Override public boolean hasNext() { return chain.hasNext(); }
@@ -151,4 +431,4 @@ class PerSamplePileupElementTracker<PE extends PileupElement> extends PileupElem
             }
         };
     }
-}
\ No newline at end of file
+}
@@ -32,7 +32,6 @@ import org.broadinstitute.sting.utils.fragments.FragmentCollection;
 import org.broadinstitute.sting.utils.fragments.FragmentUtils;
 import org.broadinstitute.sting.utils.locusiterator.LocusIteratorByState;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
-import org.broadinstitute.sting.utils.BaseUtils;
 
 import java.util.*;
 
@@ -46,8 +45,6 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      * Different then number of elements due to reduced reads
      */
     private int depthOfCoverage = UNINITIALIZED_CACHED_INT_VALUE;
-    private int nDeletions = UNINITIALIZED_CACHED_INT_VALUE;            // cached value of the number of deletions
-    private int nMQ0Reads = UNINITIALIZED_CACHED_INT_VALUE;             // cached value of the number of MQ0 reads
 
     /**
      * Create a new version of a read backed pileup at loc, using the reads and their corresponding
@@ -183,7 +180,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
         if (getNumberOfDeletions() > 0) {
             if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
                 PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-                PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+                PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
                 for (final String sample : tracker.getSamples()) {
                     PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -233,7 +230,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public ReadBackedPileupImpl getOverlappingFragmentFilteredPileup(boolean discardDiscordant, boolean baseQualNotMapQual) {
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+            PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
             for (final String sample : tracker.getSamples()) {
                 PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -291,7 +288,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
         if (getNumberOfMappingQualityZeroReads() > 0) {
             if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
                 PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-                PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+                PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
                 for (final String sample : tracker.getSamples()) {
                     PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -319,7 +316,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public ReadBackedPileupImpl getPositiveStrandPileup() {
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+            PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
             for (final String sample : tracker.getSamples()) {
                 PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -348,7 +345,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public ReadBackedPileupImpl getNegativeStrandPileup() {
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+            PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
             for (final String sample : tracker.getSamples()) {
                 PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -378,7 +375,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public ReadBackedPileupImpl getFilteredPileup(PileupElementFilter filter) {
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+            PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
             for (final String sample : tracker.getSamples()) {
                 PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -411,7 +408,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public ReadBackedPileupImpl getBaseAndMappingFilteredPileup(int minBaseQ, int minMapQ) {
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+            PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
             for (final String sample : tracker.getSamples()) {
                 PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -480,7 +477,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public ReadBackedPileupImpl getPileupForReadGroup(String targetReadGroupId) {
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+            PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
             for (final String sample : tracker.getSamples()) {
                 PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -515,7 +512,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public ReadBackedPileupImpl getPileupForReadGroups(final HashSet<String> rgSet) {
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+            PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
             for (final String sample : tracker.getSamples()) {
                 PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -544,7 +541,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public ReadBackedPileupImpl getPileupForLane(String laneID) {
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+            PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
             for (final String sample : tracker.getSamples()) {
                 PileupElementTracker<PileupElement> perSampleElements = tracker.getElements(sample);
@@ -608,7 +605,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
+            PerSamplePileupElementTracker<PileupElement> filteredTracker = tracker.emptyTrackerForSameSamples();
 
 
             for (final String sample : tracker.getSamples()) {
@@ -771,30 +768,12 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      */
     @Override
     public int getNumberOfDeletions() {
-        if ( nDeletions == UNINITIALIZED_CACHED_INT_VALUE ) {
-            nDeletions = 0;
-            for (PileupElement p : pileupElementTracker.unorderedIterable() ) {
-                if (p.isDeletion()) {
-                    nDeletions++;
-                }
-            }
-        }
-        return nDeletions;
+        return pileupElementTracker.getNumberOfDeletions();
     }
 
     @Override
     public int getNumberOfMappingQualityZeroReads() {
-        if ( nMQ0Reads == UNINITIALIZED_CACHED_INT_VALUE ) {
-            nMQ0Reads = 0;
-
-            for (PileupElement p : pileupElementTracker.unorderedIterable()) {
-                if (p.getRead().getMappingQuality() == 0) {
-                    nMQ0Reads++;
-                }
-            }
-        }
-
-        return nMQ0Reads;
+        return pileupElementTracker.getNumberOfMappingQualityZeroReads();
     }
 
     /**
@@ -841,28 +820,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      */
     @Override
     public int[] getBaseCounts() {
-        int[] counts = new int[4];
-
-        // TODO -- can be optimized with .unorderedIterable()
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
-            PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
-            for (final String sample : tracker.getSamples()) {
-                int[] countsBySample = createNewPileup(loc, tracker.getElements(sample)).getBaseCounts();
-                for (int i = 0; i < counts.length; i++)
-                    counts[i] += countsBySample[i];
-            }
-        } else {
-            for (PileupElement pile : this) {
-                // skip deletion sites
-                if (!pile.isDeletion()) {
-                    int index = BaseUtils.simpleBaseToBaseIndex((char) pile.getBase());
-                    if (index != -1)
-                        counts[index]++;
-                }
-            }
-        }
-
-        return counts;
+        return pileupElementTracker.getBaseCounts().clone();
     }
 
     @Override
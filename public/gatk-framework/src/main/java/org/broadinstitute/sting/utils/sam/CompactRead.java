@@ -0,0 +1,210 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.sam;
+
+import net.sf.samtools.CigarOperator;
+import net.sf.samtools.SAMRecord;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A flyweight view of a read packed in a CompactReadStore.
+ *
+ * Decodes the fields walkers most commonly touch directly from the read's BAM encoding, without creating
+ * a GATKSAMRecord.  Accessors that return arrays or strings allocate; everything else is allocation-free.
+ * A view is repositioned by CompactReadStore.view(), so callers shouldn't hold on to it across calls.
+ */
+public final class CompactRead {
+    // offsets of the fixed-length fields in an encoded record, including its leading block size
+    private static final int REFERENCE_INDEX_OFFSET = 4;
+    private static final int POSITION_OFFSET = 8;
+    private static final int READ_NAME_LENGTH_OFFSET = 12;
+    private static final int MAPPING_QUALITY_OFFSET = 13;
+    private static final int CIGAR_LENGTH_OFFSET = 16;
+    private static final int FLAGS_OFFSET = 18;
+    private static final int READ_LENGTH_OFFSET = 20;
+    private static final int MATE_REFERENCE_INDEX_OFFSET = 24;
+    private static final int MATE_POSITION_OFFSET = 28;
+    private static final int INSERT_SIZE_OFFSET = 32;
+    private static final int READ_NAME_OFFSET = 36;
+
+    /**
+     * BAM's 4-bit base encoding
+     */
+    private static final byte[] BASES = "=ACMGRSVTWYHKDBN".getBytes();
+
+    private ByteBuffer slab;
+    private int offset;
+
+    /** Offsets within the slab of the variable-length fields of the current read */
+    private int cigarOffset;
+    private int basesOffset;
+    private int qualsOffset;
+
+    CompactRead() {}
+
+    void bind(final ByteBuffer slab, final int offset) {
+        this.slab = slab;
+        this.offset = offset;
+        this.cigarOffset = offset + READ_NAME_OFFSET + (slab.get(offset + READ_NAME_LENGTH_OFFSET) & 0xFF);
+        this.basesOffset = cigarOffset + 4 * getCigarLength();
+        this.qualsOffset = basesOffset + (getReadLength() + 1) / 2;
+    }
+
+    public int getReferenceIndex() {
+        return slab.getInt(offset + REFERENCE_INDEX_OFFSET);
+    }
+
+    /**
+     * @return 1-based inclusive leftmost position of the read's alignment, or 0 if the read has no position
+     */
+    public int getAlignmentStart() {
+        return slab.getInt(offset + POSITION_OFFSET) + 1;
+    }
+
+    /**
+     * @return 1-based inclusive rightmost position of the read's alignment, or 0 if the read is unmapped
+     */
+    public int getAlignmentEnd() {
+        if ( getReadUnmappedFlag() )
+            return SAMRecord.NO_ALIGNMENT_START;
+
+        int referenceLength = 0;
+        for ( int i = 0; i < getCigarLength(); i++ ) {
+            if ( getCigarOperator(i).consumesReferenceBases() )
+                referenceLength += getCigarElementLength(i);
+        }
+        return getAlignmentStart() + referenceLength - 1;
+    }
+
+    public int getMappingQuality() {
+        return slab.get(offset + MAPPING_QUALITY_OFFSET) & 0xFF;
+    }
+
+    public int getFlags() {
+        return slab.getShort(offset + FLAGS_OFFSET) & 0xFFFF;
+    }
+
+    public boolean getReadPairedFlag() {
+        return (getFlags() & 0x1) != 0;
+    }
+
+    public boolean getReadUnmappedFlag() {
+        return (getFlags() & 0x4) != 0;
+    }
+
+    public boolean getReadNegativeStrandFlag() {
+        return (getFlags() & 0x10) != 0;
+    }
+
+    public boolean getNotPrimaryAlignmentFlag() {
+        return (getFlags() & 0x100) != 0;
+    }
+
+    public boolean getReadFailsVendorQualityCheckFlag() {
+        return (getFlags() & 0x200) != 0;
+    }
+
+    public boolean getDuplicateReadFlag() {
+        return (getFlags() & 0x400) != 0;
+    }
+
+    public int getMateReferenceIndex() {
+        return slab.getInt(offset + MATE_REFERENCE_INDEX_OFFSET);
+    }
+
+    public int getMateAlignmentStart() {
+        return slab.getInt(offset + MATE_POSITION_OFFSET) + 1;
+    }
+
+    public int getInferredInsertSize() {
+        return slab.getInt(offset + INSERT_SIZE_OFFSET);
+    }
+
+    /**
+     * @return the read's name.  Allocates a new String.
+     */
+    public String getReadName() {
+        // the stored length includes the terminating null
+        final int length = (slab.get(offset + READ_NAME_LENGTH_OFFSET) & 0xFF) - 1;
+        final byte[] name = new byte[Math.max(length, 0)];
+        for ( int i = 0; i < name.length; i++ )
+            name[i] = slab.get(offset + READ_NAME_OFFSET + i);
+        return new String(name);
+    }
+
+    public int getCigarLength() {
+        return slab.getShort(offset + CIGAR_LENGTH_OFFSET) & 0xFFFF;
+    }
+
+    public CigarOperator getCigarOperator(final int i) {
+        return CigarOperator.binaryToEnum(slab.getInt(cigarOffset + 4 * i) & 0xF);
+    }
+
+    public int getCigarElementLength(final int i) {
+        return slab.getInt(cigarOffset + 4 * i) >>> 4;
+    }
+
+    public int getReadLength() {
+        return slab.getInt(offset + READ_LENGTH_OFFSET);
+    }
+
+    /**
+     * @param i offset of the base in the read
+     * @return the base at offset i, as an upper-case ASCII character
+     */
+    public byte getBase(final int i) {
+        final int packed = slab.get(basesOffset + i / 2);
+        return BASES[(i % 2 == 0 ? packed >> 4 : packed) & 0xF];
+    }
+
+    /**
+     * @param i offset of the base in the read
+     * @return the phred-scaled quality of the base at offset i
+     */
+    public byte getBaseQuality(final int i) {
+        return slab.get(qualsOffset + i);
+    }
+
+    /**
+     * @return the read's bases.  Allocates a new array.
+     */
+    public byte[] getReadBases() {
+        final byte[] bases = new byte[getReadLength()];
+        for ( int i = 0; i < bases.length; i++ )
+            bases[i] = getBase(i);
+        return bases;
+    }
+
+    /**
+     * @return the read's base qualities.  Allocates a new array.
+     */
+    public byte[] getBaseQualities() {
+        final byte[] quals = new byte[getReadLength()];
+        for ( int i = 0; i < quals.length; i++ )
+            quals[i] = getBaseQuality(i);
+        return quals;
+    }
+}
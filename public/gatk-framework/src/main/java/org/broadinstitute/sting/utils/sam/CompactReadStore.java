@@ -0,0 +1,373 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.sting.utils.sam;
+
+import net.sf.samtools.BAMRecordCodec;
+import net.sf.samtools.PicardNamespaceUtils;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileSource;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only store of reads, packed off-heap in their BAM binary encoding.
+ *
+ * Each GATKSAMRecord costs several hundred bytes of heap beyond its bases and qualities -- object headers,
+ * the decoded cigar, lazily cached strings and read groups.  When millions of reads have to be held at once
+ * that overhead dominates the heap.  This store instead packs each read's bases (two per byte), qualities,
+ * cigar, position and tags into large direct buffers, leaving only an 8 byte offset per read on the heap
+ * (plus 4 bytes for its reader, if reads have file sources).
+ *
+ * Reads come back either as flyweight CompactRead views, which decode the commonly used fields straight
+ * out of the buffer, or are fully materialized as new GATKSAMRecords.  A materialized read is equal to the
+ * read that was added, but isn't the same object.  Its file source points at the same reader as the original's,
+ * but doesn't have the read's position in the file.  Reads carrying state that isn't part of their BAM encoding
+ * (temporary attributes, strandlessness, or a different header) are kept on the heap instead, and returned as-is.
+ *
+ * Not thread-safe.
+ */
+public class CompactReadStore {
+    /**
+     * Size of each off-heap slab.  Reads never straddle slabs; a read larger than this gets a slab of its own.
+     */
+    protected static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Offsets are packed into a long as slab index << SLAB_INDEX_SHIFT | offset within the slab.
+     */
+    private static final int SLAB_INDEX_SHIFT = 32;
+    private static final long SLAB_OFFSET_MASK = 0xFFFFFFFFL;
+
+    /**
+     * Offset of reads that are retained on the heap, and so aren't in any slab.
+     */
+    private static final long RETAINED = -1L;
+
+    private final SAMFileHeader header;
+    private final int slabSize;
+
+    /**
+     * Encodes reads into encodingBuffer, and decodes them back out of slabs.  These need to be separate codecs,
+     * as a BAMRecordCodec can't write once it has been given an input stream.
+     */
+    private final BAMRecordCodec encoder;
+    private final BAMRecordCodec decoder;
+    private final ExposedByteArrayOutputStream encodingBuffer = new ExposedByteArrayOutputStream();
+    private final SlabInputStream decodingStream = new SlabInputStream();
+
+    private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+    private int currentSlab = -1;
+
+    /**
+     * Packed location of each read in the slabs, in the order added, or RETAINED for reads kept on the heap.
+     */
+    private long[] offsets = new long[1024];
+    private int size = 0;
+
+    /**
+     * Reads that can't be faithfully reconstructed from their encoding, by index.  Null entries for all other reads.
+     */
+    private List<GATKSAMRecord> retainedReads = null;
+
+    /**
+     * The distinct readers that encoded reads came from, and the index of each in sourceReaders.
+     */
+    private final List<SAMFileReader> sourceReaders = new ArrayList<SAMFileReader>();
+    private final Map<SAMFileReader, Integer> sourceReaderIndices = new IdentityHashMap<SAMFileReader, Integer>();
+
+    /**
+     * For each read one more than the index of its reader in sourceReaders, or 0 if it had none.
+     * Null until an encoded read with a file source is added.
+     */
+    private int[] sources = null;
+
+    /**
+     * Create a new store for reads with the given header.
+     * @param header header shared by the reads to be stored.  Reads with any other header are retained on the heap.
+     */
+    public CompactReadStore(final SAMFileHeader header) {
+        this(header, DEFAULT_SLAB_SIZE);
+    }
+
+    protected CompactReadStore(final SAMFileHeader header, final int slabSize) {
+        if ( header == null ) throw new IllegalArgumentException("header cannot be null");
+        if ( slabSize <= 0 ) throw new IllegalArgumentException("slabSize must be > 0 but got " + slabSize);
+        this.header = header;
+        this.slabSize = slabSize;
+        this.encoder = new BAMRecordCodec(header, new GATKSamRecordFactory());
+        this.encoder.setOutputStream(encodingBuffer);
+        this.decoder = new BAMRecordCodec(header, new GATKSamRecordFactory());
+    }
+
+    /**
+     * Add a read to the end of this store.
+     * @param read the read to add
+     * @return the index of the read in this store
+     */
+    public int add(final GATKSAMRecord read) {
+        if ( read == null ) throw new IllegalArgumentException("Read cannot be null");
+
+        if ( size == offsets.length )
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+        if ( isFaithfullyEncoded(read) ) {
+            final int length = encode(read);
+            final ByteBuffer slab = getSlabWithRoomFor(length);
+            final int offset = slab.position();
+            slab.put(encodingBuffer.getBuffer(), 0, length);
+            offsets[size] = ((long)currentSlab << SLAB_INDEX_SHIFT) | offset;
+            addSource(read);
+        }
+        else {
+            if ( retainedReads == null )
+                retainedReads = new ArrayList<GATKSAMRecord>();
+            while ( retainedReads.size() < size )
+                retainedReads.add(null);
+            retainedReads.add(read);
+            offsets[size] = RETAINED;
+        }
+
+        return size++;
+    }
+
+    /**
+     * Encode read into encodingBuffer
+     * @param read the read to encode
+     * @return the length of the encoding, in bytes
+     */
+    private int encode(final GATKSAMRecord read) {
+        encodingBuffer.reset();
+        encoder.encode(read);
+        return encodingBuffer.size();
+    }
+
+    /**
+     * Remember the reader that the read about to be stored at index size came from, if any
+     * @param read the read being stored
+     */
+    private void addSource(final GATKSAMRecord read) {
+        final SAMFileSource fileSource = read.getFileSource();
+        if ( fileSource == null || fileSource.getReader() == null )
+            return;
+
+        Integer readerIndex = sourceReaderIndices.get(fileSource.getReader());
+        if ( readerIndex == null ) {
+            readerIndex = sourceReaders.size();
+            sourceReaders.add(fileSource.getReader());
+            sourceReaderIndices.put(fileSource.getReader(), readerIndex);
+        }
+
+        if ( sources == null )
+            sources = new int[offsets.length];
+        else if ( sources.length < offsets.length )
+            sources = Arrays.copyOf(sources, offsets.length);
+        sources[size] = readerIndex + 1;
+    }
+
+    /**
+     * How many reads are in this store?
+     * @return a non-negative integer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Is this store empty?
+     * @return true if no reads have been added since the store was created or cleared
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get a read from this store.  Unless the read was retained on the heap, this is a new
+     * GATKSAMRecord decoded from the store each time it's called, whose file source has the
+     * reader but not the file pointer of the read added.
+     * @param index index of the read, as returned by add()
+     * @return a GATKSAMRecord equal to the read added at index
+     */
+    public GATKSAMRecord get(final int index) {
+        checkIndex(index);
+
+        if ( offsets[index] == RETAINED )
+            return retainedReads.get(index);
+
+        final ByteBuffer slab = slabs.get(slabIndex(offsets[index])).duplicate();
+        slab.position(slabOffset(offsets[index]));
+        decodingStream.setSlab(slab);
+        decoder.setInputStream(decodingStream);
+        final GATKSAMRecord read = (GATKSAMRecord)decoder.decode();
+        if ( read == null )
+            throw new ReviewedStingException("Unable to decode read " + index + " from compact read store");
+        if ( sources != null && index < sources.length && sources[index] != 0 )
+            PicardNamespaceUtils.setFileSource(read, new SAMFileSource(sourceReaders.get(sources[index] - 1), null));
+        return read;
+    }
+
+    /**
+     * Materialize every read in this store, in the order added.
+     * @return a new list of GATKSAMRecords
+     */
+    public List<GATKSAMRecord> getAll() {
+        final List<GATKSAMRecord> reads = new ArrayList<GATKSAMRecord>(size);
+        for ( int i = 0; i < size; i++ )
+            reads.add(get(i));
+        return reads;
+    }
+
+    /**
+     * Point a flyweight view at a read in this store, without decoding it.
+     *
+     * @param index index of the read, as returned by add()
+     * @param view view to reuse, or null to create a new one
+     * @return view, positioned on the read at index.  Only valid until this store is cleared.
+     */
+    public CompactRead view(final int index, final CompactRead view) {
+        checkIndex(index);
+        final CompactRead result = view != null ? view : new CompactRead();
+        if ( offsets[index] == RETAINED ) {
+            // retained reads aren't in the slabs, so view a copy of their encoding instead
+            final int length = encode(retainedReads.get(index));
+            result.bind(ByteBuffer.wrap(Arrays.copyOf(encodingBuffer.getBuffer(), length)).order(ByteOrder.LITTLE_ENDIAN), 0);
+        }
+        else {
+            result.bind(slabs.get(slabIndex(offsets[index])), slabOffset(offsets[index]));
+        }
+        return result;
+    }
+
+    /**
+     * Remove all reads from this store.  Slabs are kept for reuse.
+     */
+    public void clear() {
+        for ( final ByteBuffer slab : slabs )
+            slab.clear();
+        currentSlab = slabs.isEmpty() ? -1 : 0;
+        size = 0;
+        retainedReads = null;
+        sources = null;
+        sourceReaders.clear();
+        sourceReaderIndices.clear();
+    }
+
+    /**
+     * How many bytes are currently allocated off-heap by this store?
+     * @return total capacity of all slabs, in bytes
+     */
+    public long getAllocatedBytes() {
+        long allocated = 0;
+        for ( final ByteBuffer slab : slabs )
+            allocated += slab.capacity();
+        return allocated;
+    }
+
+    /**
+     * Can this read be rebuilt exactly from its BAM encoding?
+     * @param read the read to test
+     * @return false if the read holds state beyond its encoding, and must be retained on the heap
+     */
+    private boolean isFaithfullyEncoded(final GATKSAMRecord read) {
+        return read.getHeader() == header && ! read.hasTemporaryAttributes() && ! read.isStrandless();
+    }
+
+    /**
+     * Find a slab with at least length bytes remaining, allocating one if necessary.
+     * @param length number of bytes required
+     * @return the current slab, positioned at the next free byte
+     */
+    private ByteBuffer getSlabWithRoomFor(final int length) {
+        while ( currentSlab >= 0 && currentSlab < slabs.size() ) {
+            final ByteBuffer slab = slabs.get(currentSlab);
+            if ( slab.remaining() >= length )
+                return slab;
+            if ( currentSlab + 1 == slabs.size() )
+                break;
+            currentSlab++;
+        }
+
+        final ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(slabSize, length)).order(ByteOrder.LITTLE_ENDIAN);
+        slabs.add(slab);
+        currentSlab = slabs.size() - 1;
+        return slab;
+    }
+
+    private void checkIndex(final int index) {
+        if ( index < 0 || index >= size )
+            throw new IllegalArgumentException("Read index " + index + " out of range for store of size " + size);
+    }
+
+    private static int slabIndex(final long offset) {
+        return (int)(offset >>> SLAB_INDEX_SHIFT);
+    }
+
+    private static int slabOffset(final long offset) {
+        return (int)(offset & SLAB_OFFSET_MASK);
+    }
+
+    /**
+     * A ByteArrayOutputStream that can hand out its buffer without copying it.
+     */
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        public byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Reads sequentially from a slab, starting at its current position.
+     */
+    private static final class SlabInputStream extends InputStream {
+        private ByteBuffer slab;
+
+        public void setSlab(final ByteBuffer slab) {
+            this.slab = slab;
+        }
+
+        @Override
+        public int read() {
+            return slab.hasRemaining() ? slab.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if ( ! slab.hasRemaining() )
+                return -1;
+            final int n = Math.min(len, slab.remaining());
+            slab.get(b, off, n);
+            return n;
+        }
+    }
+}
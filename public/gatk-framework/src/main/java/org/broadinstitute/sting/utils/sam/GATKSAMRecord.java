@@ -348,6 +348,15 @@ public class GATKSAMRecord extends BAMRecord {
         return temporaryAttributes != null && temporaryAttributes.containsKey(key);
     }
 
+    /**
+     * Checks whether any temporary attributes have been set on this read.
+     *
+     * @return True if at least one temporary attribute is present.
+     */
+    public boolean hasTemporaryAttributes() {
+        return temporaryAttributes != null && ! temporaryAttributes.isEmpty();
+    }
+
     /**
      * Sets the key to the given value, replacing any previous value. The previous
      * value is returned.
@@ -0,0 +1,233 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.alignment.reference.packing.UnsignedIntPackedOutputStream;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class MappedBWTUnitTest extends BaseTest {
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * A sequence and its suffix array, written out as .bwt and .sa files by the usual writers
+     */
+    private static class IndexFiles {
+        final byte[] sequence;
+        final int[] suffixArray;
+        final File bwtFile = createTempFile("mapped", ".bwt");
+        final File suffixArrayFile = createTempFile("mapped", ".sa");
+
+        IndexFiles(final byte[] sequence) {
+            this.sequence = sequence;
+
+            final SuffixArrayBuffer buffer = new SuffixArrayBuilder().build(sequence);
+            try {
+                suffixArray = new int[buffer.length()];
+                for ( int i = 0; i < suffixArray.length; i++ )
+                    suffixArray[i] = buffer.get(i);
+
+                final BWTWriter bwtWriter = new BWTWriter(bwtFile);
+                bwtWriter.write(sequence, buffer);
+                bwtWriter.close();
+
+                final SuffixArrayWriter suffixArrayWriter = new SuffixArrayWriter(suffixArrayFile);
+                suffixArrayWriter.write(Counts.fromSequence(sequence), buffer);
+                suffixArrayWriter.close();
+            }
+            finally {
+                buffer.close();
+            }
+        }
+
+        BWT readBWT() {
+            final BWTReader reader = new BWTReader(bwtFile);
+            final BWT bwt = reader.read();
+            reader.close();
+            return bwt;
+        }
+
+        SuffixArray readSuffixArray(final File file, final BWT bwt) {
+            final SuffixArrayReader reader = new SuffixArrayReader(file, bwt);
+            final SuffixArray sa = reader.read();
+            reader.close();
+            return sa;
+        }
+
+        int inverseSA0() {
+            for ( int i = 0; i < suffixArray.length; i++ )
+                if ( suffixArray[i] == 0 )
+                    return i;
+            throw new IllegalStateException("No suffix starts at 0");
+        }
+
+        /**
+         * Write a .sa file that keeps only every interval'th entry, as BWA does
+         * @param interval how often entries are kept
+         * @param dropLast if true, leave out the last entry, so the file is too short
+         * @return the new file
+         */
+        File writeSampledSuffixArray(final int interval, final boolean dropLast) throws IOException {
+            final File file = createTempFile("sampled", ".sa");
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            final UnsignedIntPackedOutputStream packed = new UnsignedIntPackedOutputStream(out, ByteOrder.LITTLE_ENDIAN);
+            packed.write(inverseSA0());
+            packed.write(Counts.fromSequence(sequence).toArray(true));
+            packed.write(interval);
+            // the '$' entry isn't written; the sequence length takes its place
+            packed.write(sequence.length);
+            final int lastSample = sequence.length / interval - (dropLast ? 1 : 0);
+            for ( int sample = 1; sample <= lastSample; sample++ )
+                packed.write(suffixArray[sample * interval]);
+            out.close();
+            return file;
+        }
+    }
+
+    @DataProvider(name = "MappedBWTTest")
+    public Object[][] makeMappedBWTTest() {
+        final Random random = new Random(17L);
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        // lengths either side of the sequence block size, and multiples of it
+        for ( final int length : Arrays.asList(1, 7, 16, 127, 128, 129, 256, 1000) ) {
+            final byte[] sequence = new byte[length];
+            for ( int i = 0; i < length; i++ )
+                sequence[i] = BASES[random.nextInt(BASES.length)];
+            tests.add(new Object[]{new String(sequence)});
+
+            final byte[] repetitive = new byte[length];
+            for ( int i = 0; i < length; i++ )
+                repetitive[i] = BASES[(i / 3) % 2];
+            tests.add(new Object[]{new String(repetitive)});
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "MappedBWTTest")
+    public void testMappedBWTMatchesBWTReader(final String sequence) {
+        final IndexFiles files = new IndexFiles(sequence.getBytes());
+        final BWT expected = files.readBWT();
+        final MappedBWT mapped = new MappedBWT(files.bwtFile);
+
+        Assert.assertEquals(mapped.length(), expected.length());
+        Assert.assertEquals(mapped.inverseSA0, expected.inverseSA0);
+        Assert.assertEquals(mapped.getSequence(), expected.getSequence());
+        for ( final byte base : BASES ) {
+            Assert.assertEquals(mapped.counts(base), expected.counts(base), "counts of " + (char)base);
+            for ( long index = 0; index < expected.length(); index++ )
+                Assert.assertEquals(mapped.occurrences(base, index), expected.occurrences(base, index), "occurrences of " + (char)base + " at " + index);
+        }
+        for ( long index = 0; index <= expected.length(); index++ ) {
+            if ( index != expected.inverseSA0 )
+                Assert.assertEquals(mapped.getBase(index), expected.getBase(index), "base at " + index);
+        }
+    }
+
+    @Test(dataProvider = "MappedBWTTest")
+    public void testMappedBWTCanBeWritten(final String sequence) throws IOException {
+        final IndexFiles files = new IndexFiles(sequence.getBytes());
+        final File copy = createTempFile("copy", ".bwt");
+        final BWTWriter writer = new BWTWriter(copy);
+        writer.write(new MappedBWT(files.bwtFile));
+        writer.close();
+        Assert.assertEquals(readFully(copy), readFully(files.bwtFile));
+    }
+
+    @Test(dataProvider = "MappedBWTTest")
+    public void testMappedSuffixArrayMatchesSuffixArrayReader(final String sequence) throws IOException {
+        final IndexFiles files = new IndexFiles(sequence.getBytes());
+        final BWT bwt = files.readBWT();
+        final MappedBWT mappedBWT = new MappedBWT(files.bwtFile);
+
+        for ( final int interval : Arrays.asList(1, 2, 3, 32) ) {
+            final File file = interval == 1 ? files.suffixArrayFile : files.writeSampledSuffixArray(interval, false);
+            final SuffixArray expected = files.readSuffixArray(file, bwt);
+            final MappedSuffixArray mapped = new MappedSuffixArray(file, mappedBWT);
+
+            Assert.assertEquals(mapped.length(), expected.length());
+            Assert.assertEquals(mapped.inverseSA0, expected.inverseSA0);
+            for ( final byte base : BASES )
+                Assert.assertEquals(mapped.occurrences.getCumulative(base), expected.occurrences.getCumulative(base));
+            for ( long index = 0; index < expected.length(); index++ ) {
+                Assert.assertEquals(mapped.get(index), expected.get(index), "suffix array entry " + index + " sampled every " + interval);
+                Assert.assertEquals(mapped.get(index), (long)files.suffixArray[(int)index], "suffix array entry " + index + " sampled every " + interval);
+            }
+        }
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testTruncatedSuffixArrayIsRejected() throws IOException {
+        // with the sequence length a multiple of the interval, the last sample is the entry at the sequence length
+        final IndexFiles files = new IndexFiles("ACGTTGCAACGTTGCA".getBytes());
+        new MappedSuffixArray(files.writeSampledSuffixArray(4, true), new MappedBWT(files.bwtFile));
+    }
+
+    @Test
+    public void testOpenSharesInstances() {
+        final IndexFiles files = new IndexFiles("ACGTACGGTACCA".getBytes());
+        final MappedBWT bwt = MappedBWT.open(files.bwtFile);
+        Assert.assertSame(MappedBWT.open(files.bwtFile), bwt);
+        final MappedSuffixArray suffixArray = MappedSuffixArray.open(files.suffixArrayFile, bwt);
+        Assert.assertSame(MappedSuffixArray.open(files.suffixArrayFile, bwt), suffixArray);
+    }
+
+    @Test
+    public void testMappedIndexFileReadsLittleEndianInts() throws IOException {
+        final File file = createTempFile("mapped", ".idx");
+        final byte[] bytes = new byte[256];
+        new Random(5L).nextBytes(bytes);
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes);
+        out.close();
+
+        final MappedIndexFile mapped = new MappedIndexFile(file);
+        Assert.assertEquals(mapped.length(), bytes.length);
+        for ( int offset = 0; offset + 4 <= bytes.length; offset++ ) {
+            final long expected = (bytes[offset] & 0xFFL) | (bytes[offset + 1] & 0xFFL) << 8 | (bytes[offset + 2] & 0xFFL) << 16 | (bytes[offset + 3] & 0xFFL) << 24;
+            Assert.assertEquals(mapped.getUnsignedInt(offset), expected, "unsigned int at " + offset);
+        }
+    }
+
+    private byte[] readFully(final File file) throws IOException {
+        final byte[] bytes = new byte[(int)file.length()];
+        final FileInputStream in = new FileInputStream(file);
+        int offset = 0;
+        while ( offset < bytes.length )
+            offset += in.read(bytes, offset, bytes.length - offset);
+        in.close();
+        return bytes;
+    }
+}
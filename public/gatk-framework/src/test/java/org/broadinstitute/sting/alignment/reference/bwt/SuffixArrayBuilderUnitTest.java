@@ -0,0 +1,216 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+
+public class SuffixArrayBuilderUnitTest extends BaseTest {
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    private static byte[] randomSequence(final Random random, final int length) {
+        final byte[] sequence = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            sequence[i] = BASES[random.nextInt(BASES.length)];
+        return sequence;
+    }
+
+    private static byte[] repeatedSequence(final String unit, final int length) {
+        final byte[] sequence = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            sequence[i] = (byte)unit.charAt(i % unit.length());
+        return sequence;
+    }
+
+    /**
+     * A random sequence with copies of an earlier stretch of itself pasted in, some with a point mutation
+     */
+    private static byte[] sequenceWithCopies(final Random random, final int length) {
+        final byte[] sequence = randomSequence(random, length);
+        for ( int copy = 0; copy < 5; copy++ ) {
+            final int copyLength = 1 + random.nextInt(length / 4);
+            final int from = random.nextInt(length - copyLength);
+            final int to = random.nextInt(length - copyLength);
+            System.arraycopy(sequence, from, sequence, to, copyLength);
+            if ( copy % 2 == 0 )
+                sequence[to + random.nextInt(copyLength)] = BASES[random.nextInt(BASES.length)];
+        }
+        return sequence;
+    }
+
+    @DataProvider(name = "SuffixArrayBuilderTest")
+    public Object[][] makeSuffixArrayBuilderTest() {
+        final Random random = new Random(42L);
+        final List<byte[]> sequences = new ArrayList<byte[]>();
+        for ( final int length : Arrays.asList(1, 2, 3, 10, 127, 128, 129, 1000, 5000) ) {
+            sequences.add(randomSequence(random, length));
+            sequences.add(repeatedSequence("A", length));
+            sequences.add(repeatedSequence("AC", length));
+            sequences.add(repeatedSequence("ACGTTGCA", length));
+            sequences.add(repeatedSequence("AACAAACAAAAC", length));
+            if ( length >= 8 )
+                sequences.add(sequenceWithCopies(random, length));
+        }
+
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final byte[] sequence : sequences )
+            for ( final boolean diskBacked : Arrays.asList(false, true) )
+                tests.add(new Object[]{new String(sequence), diskBacked});
+        return tests.toArray(new Object[][]{});
+    }
+
+    private static SuffixArrayBuilder makeBuilder(final boolean diskBacked) {
+        // keep nothing on the heap, so that even small sequences are built in memory-mapped files
+        return diskBacked ? new SuffixArrayBuilder(null, 0) : new SuffixArrayBuilder();
+    }
+
+    /**
+     * Sort the suffixes of sequence by comparing them directly, with the empty suffix first
+     */
+    private static int[] naiveSuffixArray(final byte[] sequence) {
+        final Integer[] positions = new Integer[sequence.length + 1];
+        for ( int i = 0; i < positions.length; i++ )
+            positions[i] = i;
+        Arrays.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                int i = a, j = b;
+                while ( i < sequence.length && j < sequence.length ) {
+                    if ( sequence[i] != sequence[j] )
+                        return sequence[i] < sequence[j] ? -1 : 1;
+                    i++;
+                    j++;
+                }
+                return (sequence.length - i) - (sequence.length - j);
+            }
+        });
+
+        final int[] suffixArray = new int[positions.length];
+        for ( int i = 0; i < positions.length; i++ )
+            suffixArray[i] = positions[i];
+        return suffixArray;
+    }
+
+    private static long[] toLongs(final int[] values) {
+        final long[] longs = new long[values.length];
+        for ( int i = 0; i < values.length; i++ )
+            longs[i] = values[i];
+        return longs;
+    }
+
+    @Test(dataProvider = "SuffixArrayBuilderTest")
+    public void testBuildMatchesNaiveSort(final String sequence, final boolean diskBacked) {
+        final int[] expected = naiveSuffixArray(sequence.getBytes());
+        final SuffixArrayBuffer suffixArray = makeBuilder(diskBacked).build(sequence.getBytes());
+        try {
+            Assert.assertEquals(suffixArray.length(), expected.length);
+            for ( int i = 0; i < expected.length; i++ )
+                Assert.assertEquals(suffixArray.get(i), expected[i], "Suffix array differs at index " + i + " for " + sequence);
+        }
+        finally {
+            suffixArray.close();
+        }
+    }
+
+    @Test(dataProvider = "SuffixArrayBuilderTest")
+    public void testStreamingWritersMatchInMemoryWriters(final String sequenceString, final boolean diskBacked) throws IOException {
+        final byte[] sequence = sequenceString.getBytes();
+        final int[] naive = naiveSuffixArray(sequence);
+
+        // build the in-memory BWT and suffix array the old way, from the naive suffix sort
+        int inverseSA0 = -1;
+        final byte[] bwtSequence = new byte[sequence.length];
+        int bwtIndex = 0;
+        for ( int i = 0; i < naive.length; i++ ) {
+            if ( naive[i] == 0 )
+                inverseSA0 = i;
+            else
+                bwtSequence[bwtIndex++] = sequence[naive[i] - 1];
+        }
+        final Counts counts = Counts.fromSequence(sequence);
+        final BWT bwt = new BWT(inverseSA0, counts, bwtSequence);
+
+        final File expectedBWTFile = createTempFile("expected", ".bwt");
+        final BWTWriter expectedBWTWriter = new BWTWriter(expectedBWTFile);
+        expectedBWTWriter.write(bwt);
+        expectedBWTWriter.close();
+
+        final File expectedSAFile = createTempFile("expected", ".sa");
+        final SuffixArrayWriter expectedSAWriter = new SuffixArrayWriter(expectedSAFile);
+        expectedSAWriter.write(new SuffixArray(inverseSA0, counts, toLongs(naive)));
+        expectedSAWriter.close();
+
+        // and stream them straight from the builder's suffix array
+        final File bwtFile = createTempFile("streamed", ".bwt");
+        final File saFile = createTempFile("streamed", ".sa");
+        final SuffixArrayBuffer suffixArray = makeBuilder(diskBacked).build(sequence);
+        try {
+            final BWTWriter bwtWriter = new BWTWriter(bwtFile);
+            bwtWriter.write(sequence, suffixArray);
+            bwtWriter.close();
+
+            final SuffixArrayWriter saWriter = new SuffixArrayWriter(saFile);
+            saWriter.write(Counts.fromSequence(sequence), suffixArray);
+            saWriter.close();
+        }
+        finally {
+            suffixArray.close();
+        }
+
+        Assert.assertEquals(readFully(bwtFile), readFully(expectedBWTFile), "Streamed BWT differs from the in-memory BWT's");
+        Assert.assertEquals(readFully(saFile), readFully(expectedSAFile), "Streamed suffix array differs from the in-memory suffix array's");
+
+        // and the streamed files read back as the same BWT and suffix array
+        final BWTReader bwtReader = new BWTReader(bwtFile);
+        final BWT readBWT = bwtReader.read();
+        bwtReader.close();
+        Assert.assertEquals(readBWT.getSequence(), bwtSequence);
+
+        final SuffixArrayReader saReader = new SuffixArrayReader(saFile, readBWT);
+        final SuffixArray readSA = saReader.read();
+        saReader.close();
+        Assert.assertEquals(readSA.length(), (long)naive.length);
+        for ( int i = 0; i < naive.length; i++ )
+            Assert.assertEquals(readSA.get(i), (long)naive[i], "Suffix array read back differs at index " + i);
+    }
+
+    private byte[] readFully(final File file) throws IOException {
+        final byte[] bytes = new byte[(int)file.length()];
+        final FileInputStream in = new FileInputStream(file);
+        int offset = 0;
+        while ( offset < bytes.length )
+            offset += in.read(bytes, offset, bytes.length - offset);
+        in.close();
+        return bytes;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.providers;
+
+
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+
+import java.util.List;
+
+/**
+ * Test the view of all loci, with runs of uncovered loci coalesced into single contexts.
+ */
+public class AllLocusViewSkippingUncoveredUnitTest extends LocusViewTemplate {
+
+    @Override
+    protected LocusView createView(LocusShardDataProvider provider) {
+        return new AllLocusView(provider, true);
+    }
+
+    /**
+     * Test the reads according to an independently derived context: every covered site comes on its own, and every
+     * run of uncovered sites as one empty context at its last site, having skipped the rest.
+     * @param view
+     * @param range
+     * @param reads
+     */
+    @Override
+    protected void testReadsInContext( LocusView view, List<GenomeLoc> range, List<GATKSAMRecord> reads ) {
+        AllLocusView allLocusView = (AllLocusView)view;
+
+        GenomeLoc firstLoc = range.get(0);
+        GenomeLoc lastLoc = range.get(range.size()-1);
+        GenomeLoc bounds = genomeLocParser.createGenomeLoc(firstLoc.getContig(),firstLoc.getStart(),lastLoc.getStop());
+
+        int i = bounds.getStart();
+        while( i <= bounds.getStop() ) {
+            int expectedReadsAtSite = countReadsAt(reads, i);
+            int runStop = i;
+            if( expectedReadsAtSite == 0 ) {
+                while( runStop < bounds.getStop() && countReadsAt(reads, runStop + 1) == 0 )
+                    runStop++;
+            }
+
+            Assert.assertTrue(allLocusView.hasNext(), "View ended before site " + runStop);
+            AlignmentContext locusContext = allLocusView.next();
+            Assert.assertEquals(locusContext.getLocation(), genomeLocParser.createGenomeLoc("chr1",runStop), "Locus context location is incorrect");
+            Assert.assertEquals(locusContext.getSkippedBases(), (long)(runStop - i), "Wrong number of skipped bases");
+            Assert.assertEquals(locusContext.getReads().size(), expectedReadsAtSite, "Found wrong number of reads at site");
+            for( GATKSAMRecord read: reads ) {
+                if(genomeLocParser.createGenomeLoc(read).containsP(locusContext.getLocation()))
+                    Assert.assertTrue(locusContext.getReads().contains(read),"Target locus context does not contain reads");
+            }
+
+            i = runStop + 1;
+        }
+
+        Assert.assertFalse(allLocusView.hasNext(), "View has loci past the end of the range");
+    }
+
+    private int countReadsAt( List<GATKSAMRecord> reads, int position ) {
+        GenomeLoc site = genomeLocParser.createGenomeLoc("chr1",position);
+        int count = 0;
+        for( GATKSAMRecord read: reads ) {
+            if(genomeLocParser.createGenomeLoc(read).containsP(site))
+                count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.providers;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import net.sf.picard.util.PeekableIterator;
+import net.sf.samtools.SAMFileHeader;
+import org.broad.tribble.BasicFeature;
+import org.broad.tribble.Feature;
+import org.broadinstitute.sting.gatk.refdata.utils.RODRecordList;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caliper microbenchmark of IntervalOverlappingRODsFromStream on dense tracks
+ */
+public class IntervalOverlappingRODsFromStreamBenchmark extends SimpleBenchmark {
+    private static final int CONTIG_LENGTH = 1000000;
+    private static final int READ_LENGTH = 101;
+    private static final int READ_SPACING = 10;
+
+    private GenomeLocParser genomeLocParser;
+    private String contig;
+    private final List<Feature> features = new ArrayList<Feature>();
+    private final List<GenomeLoc> reads = new ArrayList<GenomeLoc>();
+
+    @Param({"BED", "VCF"})
+    String track; // set automatically by framework
+
+    @Override protected void setUp() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, CONTIG_LENGTH);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        contig = header.getSequence(0).getSequenceName();
+
+        if ( track.equals("BED") ) {
+            // repeat-mask like: overlapping intervals of 100 bp - 5 kb starting every 50 bp
+            for ( int start = 1; start < CONTIG_LENGTH - 5000; start += 50 )
+                features.add(new BasicFeature(contig, start, start + 100 + (start * 31) % 4900));
+        } else {
+            // population sites-like: a 1 bp record every 3 bp
+            for ( int start = 1; start < CONTIG_LENGTH; start += 3 )
+                features.add(new BasicFeature(contig, start, start));
+        }
+
+        for ( int start = 1; start < CONTIG_LENGTH - READ_LENGTH; start += READ_SPACING )
+            reads.add(genomeLocParser.createGenomeLoc(contig, start, start + READ_LENGTH - 1));
+    }
+
+    public void timeReadQueries(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            final String name = "track";
+            final IntervalOverlappingRODsFromStream stream = new IntervalOverlappingRODsFromStream(name,
+                    new PeekableIterator<RODRecordList>(new IntervalReferenceOrderedViewUnitTest.TribbleIteratorFromCollection(name, genomeLocParser, features)));
+
+            int nOverlapping = 0;
+            for ( final GenomeLoc read : reads ) {
+                stream.trimCurrentFeaturesToLoc(read);
+                nOverlapping += stream.getOverlapping(read).size();
+            }
+            if ( nOverlapping == 0 ) throw new IllegalStateException("No overlapping features found");
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(IntervalOverlappingRODsFromStreamBenchmark.class, args);
+    }
+}
@@ -234,6 +234,39 @@ public class IntervalReferenceOrderedViewUnitTest extends BaseTest {
         }
     }
 
+    @Test(enabled = true)
+    public void testFeatureRepeatedByStreamIsReturnedOnce() {
+        final String name = "testName";
+        final GATKFeature spanning = new GATKFeature.TribbleGATKFeature(genomeLocParser, new BasicFeature(contig, 1, 30), name);
+        final GATKFeature at1 = new GATKFeature.TribbleGATKFeature(genomeLocParser, new BasicFeature(contig, 1, 1), name);
+        final GATKFeature at10 = new GATKFeature.TribbleGATKFeature(genomeLocParser, new BasicFeature(contig, 10, 10), name);
+        final GATKFeature at20 = new GATKFeature.TribbleGATKFeature(genomeLocParser, new BasicFeature(contig, 20, 20), name);
+
+        // a stream of RODs hands back the spanning feature again at every position it visits
+        final List<RODRecordList> stream = Arrays.<RODRecordList>asList(
+                new RODRecordListImpl(name, Arrays.asList(spanning, at1), genomeLocParser.createGenomeLoc(contig, 1, 1)),
+                new RODRecordListImpl(name, Arrays.asList(spanning, at10), genomeLocParser.createGenomeLoc(contig, 10, 10)),
+                new RODRecordListImpl(name, Arrays.asList(spanning, at20), genomeLocParser.createGenomeLoc(contig, 20, 20)));
+
+        // one query reading every repeat of spanning at once
+        final IntervalOverlappingRODsFromStream all = new IntervalOverlappingRODsFromStream(name, new PeekableIterator<RODRecordList>(stream.iterator()));
+        final RODRecordList allOverlapping = all.getOverlapping(genomeLocParser.createGenomeLoc(contig, 1, 25));
+        Assert.assertEquals(allOverlapping.size(), 4);
+        Assert.assertEquals(new HashSet<GATKFeature>(allOverlapping), new HashSet<GATKFeature>(Arrays.asList(spanning, at1, at10, at20)));
+        Assert.assertEquals(all.getOverlapping(genomeLocParser.createGenomeLoc(contig, 20, 20)).size(), 2);
+
+        // one query per position, reading spanning again each time
+        final IntervalOverlappingRODsFromStream each = new IntervalOverlappingRODsFromStream(name, new PeekableIterator<RODRecordList>(stream.iterator()));
+        for ( final GATKFeature feature : Arrays.asList(at1, at10, at20) ) {
+            final GenomeLoc loc = feature.getLocation();
+            each.trimCurrentFeaturesToLoc(loc);
+            final RODRecordList overlapping = each.getOverlapping(loc);
+            Assert.assertEquals(overlapping.size(), 2, "Expected only " + spanning + " and " + feature + " at " + loc + " but saw " + overlapping);
+            Assert.assertTrue(overlapping.contains(spanning));
+            Assert.assertTrue(overlapping.contains(feature));
+        }
+    }
+
     // --------------------------------------------------------------------------------
     //
     // tests for the higher level tracker itself
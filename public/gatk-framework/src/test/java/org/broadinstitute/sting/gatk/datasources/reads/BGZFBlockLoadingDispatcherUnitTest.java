@@ -0,0 +1,282 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import net.sf.samtools.*;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.commandline.Tags;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+
+public class BGZFBlockLoadingDispatcherUnitTest extends BaseTest {
+    private File bam;
+
+    // addresses of every BGZF block in the file, in order, followed by the length of the file
+    private List<Long> blockAddresses;
+
+    // the inflated contents of each block
+    private List<byte[]> blockContents;
+
+    @BeforeClass
+    public void init() throws Exception {
+        bam = createTestBAM("BGZFBlockLoadingDispatcherUnitTest");
+        blockAddresses = getBlockAddresses(bam);
+        blockContents = getBlockContents(bam,blockAddresses);
+        Assert.assertTrue(blockAddresses.size() > 20, "Test BAM should span many blocks, but has only " + blockAddresses.size());
+    }
+
+    @DataProvider(name = "ThreadsAndDepths")
+    public Object[][] makeThreadsAndDepths() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for(final int numThreads: Arrays.asList(1,2,4))
+            for(final int depth: Arrays.asList(0,1,4,16))
+                tests.add(new Object[]{numThreads,depth});
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * Several streams read the same file at once through several I/O threads; each must see every block, in order.
+     */
+    @Test(dataProvider = "ThreadsAndDepths")
+    public void testBlocksDeliveredInOrder(final int numThreads, final int depth) throws Exception {
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(numThreads,numThreads,depth);
+        final ExecutorService consumers = Executors.newFixedThreadPool(6);
+        try {
+            final byte[] expected = readSynchronously(bam);
+            final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+            for(int i = 0; i < 6; i++) {
+                results.add(consumers.submit(new Callable<byte[]>() {
+                    public byte[] call() {
+                        return readFully(new BlockInputStream(dispatcher,new SAMReaderID(bam,new Tags()),false));
+                    }
+                }));
+            }
+            for(final Future<byte[]> result: results)
+                Assert.assertTrue(Arrays.equals(result.get(60,TimeUnit.SECONDS),expected),"Stream contents differ from the synchronous reader");
+        }
+        finally {
+            consumers.shutdownNow();
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * -I:readAheadDepth=N file.bam should read ahead N blocks, and deliver exactly what the synchronous reader does.
+     */
+    @Test(dataProvider = "ThreadsAndDepths")
+    public void testReadAheadDepthTagRoundTrip(final int numThreads, final int depth) throws Exception {
+        // the default depth is deliberately different from the tagged one
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(numThreads,numThreads,depth == 4 ? 2 : 4);
+        try {
+            final SAMReaderID reader = new SAMReaderID(bam,readAheadDepthTags(Integer.toString(depth)));
+            Assert.assertEquals(dispatcher.getReadAheadDepth(reader),depth);
+
+            final BlockInputStream stream = new BlockInputStream(dispatcher,reader,false);
+            if(depth == 0)
+                Assert.assertNull(stream.getReadAhead());
+            else
+                Assert.assertEquals(stream.getReadAhead().getDepth(),depth);
+
+            Assert.assertTrue(Arrays.equals(readFully(stream),readSynchronously(bam)),"Stream contents differ from the synchronous reader");
+
+            // every block is loaded on demand, or read ahead and then claimed, except at most depth blocks left unclaimed at the end
+            final BGZFBlockLoadingStatistics statistics = dispatcher.getStatistics(reader);
+            final long claimed = statistics.getReadAheadHits()+statistics.getReadAheadMisses();
+            if(depth == 0)
+                Assert.assertEquals(claimed,0);
+            else
+                Assert.assertTrue(statistics.getBlocksLoaded()-claimed >= 0 && statistics.getBlocksLoaded()-claimed <= depth,
+                        String.format("Loaded %d blocks but claimed %d, with a depth of %d",statistics.getBlocksLoaded(),claimed,depth));
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Seeking to a different chunk must discard what was read ahead for the old one and deliver the new chunk intact.
+     */
+    @Test(dataProvider = "ThreadsAndDepths")
+    public void testSeekToAnotherChunk(final int numThreads, final int depth) throws Exception {
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(numThreads,numThreads,depth);
+        try {
+            final SAMReaderID reader = new SAMReaderID(bam,new Tags());
+            final BlockInputStream stream = new BlockInputStream(dispatcher,reader,false);
+
+            for(final int[] chunk: new int[][]{ {2,6}, {12,15}, {3,4}, {13,20} }) {
+                stream.submitAccessPlan(new BAMAccessPlan(reader,stream,new GATKBAMFileSpan(new GATKChunk(blockAddresses.get(chunk[0]),0,blockAddresses.get(chunk[1]),0))));
+                Assert.assertTrue(Arrays.equals(readFully(stream),concatenate(chunk[0],chunk[1])),"Wrong contents for blocks " + chunk[0] + "-" + chunk[1]);
+            }
+
+            if(depth > 0) {
+                // the first block of each chunk can't have been read ahead
+                Assert.assertTrue(dispatcher.getStatistics(reader).getReadAheadMisses() >= 4);
+            }
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = UserException.BadArgumentValue.class)
+    public void testNegativeReadAheadDepth() {
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(1,1);
+        try {
+            dispatcher.getReadAheadDepth(new SAMReaderID(bam,readAheadDepthTags("-1")));
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = UserException.BadArgumentValue.class)
+    public void testNonNumericReadAheadDepth() {
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(1,1);
+        try {
+            dispatcher.getReadAheadDepth(new SAMReaderID(bam,readAheadDepthTags("lots")));
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    private byte[] concatenate(final int firstBlock, final int endBlock) {
+        final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        for(int i = firstBlock; i < endBlock; i++)
+            contents.write(blockContents.get(i),0,blockContents.get(i).length);
+        return contents.toByteArray();
+    }
+
+    private static Tags readAheadDepthTags(final String depth) {
+        return new Tags() {{ addKeyValueTag(BGZFBlockLoadingDispatcher.READ_AHEAD_DEPTH_TAG,depth); }};
+    }
+
+    private static byte[] readFully(final BlockInputStream stream) {
+        final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[10000];
+        int read;
+        while((read = stream.read(buffer)) > 0)
+            contents.write(buffer,0,read);
+        return contents.toByteArray();
+    }
+
+    private static byte[] readSynchronously(final File file) throws IOException {
+        final BlockCompressedInputStream stream = new BlockCompressedInputStream(file);
+        final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[10000];
+        int read;
+        while((read = stream.read(buffer)) > 0)
+            contents.write(buffer,0,read);
+        stream.close();
+        return contents.toByteArray();
+    }
+
+    /**
+     * Writes a BAM of random reads, poorly compressible so that it spans many BGZF blocks.
+     */
+    static File createTestBAM(final String name) {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1,1,1000000);
+        final File bam = createTempFile(name,".bam");
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header,true,bam);
+        final Random random = new Random(42);
+        final byte[] bases = {'A','C','G','T'};
+        for(int i = 0; i < 10000; i++) {
+            final SAMRecord read = ArtificialSAMUtils.createArtificialRead(header,"read" + i,0,1 + i * 10,100);
+            final byte[] readBases = new byte[100];
+            final byte[] quals = new byte[100];
+            for(int j = 0; j < readBases.length; j++) {
+                readBases[j] = bases[random.nextInt(4)];
+                quals[j] = (byte)random.nextInt(40);
+            }
+            read.setReadBases(readBases);
+            read.setBaseQualities(quals);
+            writer.addAlignment(read);
+        }
+        writer.close();
+        return bam;
+    }
+
+    /**
+     * Walks the file block by block with a plain decoder.
+     * @return the address of every block, followed by the length of the file.
+     */
+    static List<Long> getBlockAddresses(final File file) throws IOException {
+        final List<Long> addresses = new ArrayList<Long>();
+        final BGZFBlockDecoder decoder = new BGZFBlockDecoder();
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            long address = 0;
+            while(address < file.length()) {
+                addresses.add(address);
+                decoder.readBlock(inputStream,address);
+                address = decoder.getNextBlockAddress();
+            }
+            addresses.add(address);
+        }
+        finally {
+            inputStream.close();
+            decoder.close();
+        }
+        return addresses;
+    }
+
+    static List<byte[]> getBlockContents(final File file, final List<Long> blockAddresses) throws IOException, DataFormatException {
+        final List<byte[]> contents = new ArrayList<byte[]>();
+        final BGZFBlockDecoder decoder = new BGZFBlockDecoder();
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            for(int i = 0; i+1 < blockAddresses.size(); i++) {
+                decoder.readBlock(inputStream,blockAddresses.get(i));
+                final ByteBuffer block = decoder.decompress();
+                final byte[] bytes = new byte[block.remaining()];
+                block.get(bytes);
+                contents.add(bytes);
+            }
+        }
+        finally {
+            inputStream.close();
+            decoder.close();
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.commandline.Tags;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BlockReadAheadUnitTest extends BaseTest {
+    private File bam;
+    private SAMReaderID reader;
+    private List<Long> blockAddresses;
+    private List<byte[]> blockContents;
+
+    private BGZFBlockLoadingDispatcher dispatcher;
+
+    @BeforeClass
+    public void init() throws Exception {
+        bam = BGZFBlockLoadingDispatcherUnitTest.createTestBAM("BlockReadAheadUnitTest");
+        reader = new SAMReaderID(bam,new Tags());
+        blockAddresses = BGZFBlockLoadingDispatcherUnitTest.getBlockAddresses(bam);
+        blockContents = BGZFBlockLoadingDispatcherUnitTest.getBlockContents(bam,blockAddresses);
+    }
+
+    @BeforeMethod
+    public void createDispatcher() {
+        dispatcher = new BGZFBlockLoadingDispatcher(2,2);
+    }
+
+    @AfterMethod
+    public void shutdownDispatcher() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testReadAheadHits() throws Exception {
+        final BlockReadAhead readAhead = new BlockReadAhead(dispatcher,reader,4);
+        fillFromBlock(readAhead,1,10);
+
+        for(int block = 1; block <= 4; block++)
+            assertBlock(readAhead.claim(blockAddresses.get(block)),block);
+    }
+
+    @Test
+    public void testReadAheadStopsAtDepth() throws Exception {
+        final BlockReadAhead readAhead = new BlockReadAhead(dispatcher,reader,2);
+        fillFromBlock(readAhead,1,10);
+
+        assertBlock(readAhead.claim(blockAddresses.get(1)),1);
+        assertBlock(readAhead.claim(blockAddresses.get(2)),2);
+        Assert.assertNull(readAhead.claim(blockAddresses.get(3)),"Read ahead more blocks than the depth allows");
+    }
+
+    @Test
+    public void testReadAheadStopsAtEndOfChunk() throws Exception {
+        final BlockReadAhead readAhead = new BlockReadAhead(dispatcher,reader,8);
+        fillFromBlock(readAhead,1,3);
+
+        for(int block = 1; block <= 3; block++)
+            assertBlock(readAhead.claim(blockAddresses.get(block)),block);
+        Assert.assertNull(readAhead.claim(blockAddresses.get(4)),"Read ahead past the end of the chunk");
+    }
+
+    @Test
+    public void testTopUpAfterClaim() throws Exception {
+        final BlockReadAhead readAhead = new BlockReadAhead(dispatcher,reader,2);
+        fillFromBlock(readAhead,1,20);
+
+        // claiming a block frees room for one more, read on from where read-ahead left off
+        for(int block = 1; block <= 10; block++) {
+            final BlockReadAhead.LoadedBlock loaded = readAhead.claim(blockAddresses.get(block));
+            assertBlock(loaded,block);
+            fillAndWait(readAhead,loaded.getNextBlockAddress(),blockAddresses.get(20));
+        }
+    }
+
+    @Test
+    public void testMissDiscardsReadAhead() throws Exception {
+        final BlockReadAhead readAhead = new BlockReadAhead(dispatcher,reader,4);
+        fillFromBlock(readAhead,1,20);
+        assertBlock(readAhead.claim(blockAddresses.get(1)),1);
+
+        // the stream seeks elsewhere: a miss, which throws away blocks 2-4
+        Assert.assertNull(readAhead.claim(blockAddresses.get(12)));
+        Assert.assertNull(readAhead.claim(blockAddresses.get(2)),"Blocks read ahead should have been discarded on a miss");
+
+        // read-ahead then re-anchors at the new position
+        fillFromBlock(readAhead,13,20);
+        for(int block = 13; block <= 16; block++)
+            assertBlock(readAhead.claim(blockAddresses.get(block)),block);
+        assertAllDecodersReturned();
+    }
+
+    @Test
+    public void testClaimBeforeReadAheadFinishes() throws Exception {
+        final BlockReadAhead readAhead = new BlockReadAhead(dispatcher,reader,4);
+        readAhead.fill(blockAddresses.get(1),blockAddresses.get(20));
+
+        // whether the block is pending, in flight, or not yet started, the answer must be the block or a miss
+        final BlockReadAhead.LoadedBlock loaded = readAhead.claim(blockAddresses.get(1));
+        if(loaded != null)
+            assertBlock(loaded,1);
+        waitForReadAhead(readAhead);
+        assertAllDecodersReturned();
+    }
+
+    @Test
+    public void testDecodersReturnedAfterFailedRead() throws Exception {
+        final BlockReadAhead readAhead = new BlockReadAhead(dispatcher,reader,4);
+
+        // address 1 is in the middle of the first block's header, so reading there fails
+        fillAndWait(readAhead,1L,blockAddresses.get(10));
+        Assert.assertNull(readAhead.claim(1L),"A block that failed to read shouldn't be claimable");
+        assertAllDecodersReturned();
+
+        // read-ahead recovers once re-anchored at a valid position
+        fillAndWait(readAhead,blockAddresses.get(5),blockAddresses.get(10));
+        assertBlock(readAhead.claim(blockAddresses.get(5)),5);
+        assertAllDecodersReturned();
+    }
+
+    @Test
+    public void testDecodersReturnedAfterDiscard() throws Exception {
+        final BlockReadAhead readAhead = new BlockReadAhead(dispatcher,reader,8);
+        fillFromBlock(readAhead,1,20);
+        readAhead.discard();
+
+        // discarded blocks still finish inflating before handing their decoders back
+        final long deadline = System.currentTimeMillis() + 30000;
+        while(countSpareDecoders() != BGZFBlockLoadingDispatcher.MAX_READ_AHEAD_DECODERS && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertAllDecodersReturned();
+    }
+
+    /**
+     * Anchors read-ahead at the first block with a limit of the last block, and waits for it to finish reading.
+     */
+    private void fillFromBlock(final BlockReadAhead readAhead, final int firstBlock, final int limitBlock) throws InterruptedException {
+        fillAndWait(readAhead,blockAddresses.get(firstBlock),blockAddresses.get(limitBlock));
+    }
+
+    private void fillAndWait(final BlockReadAhead readAhead, final long nextBlockAddress, final long readAheadLimit) throws InterruptedException {
+        readAhead.fill(nextBlockAddress,readAheadLimit);
+        waitForReadAhead(readAhead);
+    }
+
+    private void waitForReadAhead(final BlockReadAhead readAhead) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 30000;
+        while(readAhead.isFilling()) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline,"Timed out waiting for read-ahead");
+            Thread.sleep(10);
+        }
+    }
+
+    private void assertBlock(final BlockReadAhead.LoadedBlock loaded, final int block) {
+        Assert.assertNotNull(loaded,"Block " + block + " should have been read ahead");
+        Assert.assertEquals(loaded.getNextBlockAddress(),(long)blockAddresses.get(block+1));
+        final ByteBuffer data = loaded.getData();
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        Assert.assertTrue(Arrays.equals(bytes,blockContents.get(block)),"Wrong contents for block " + block);
+    }
+
+    /**
+     * Every read-ahead decoder ever allocated must be back in the pool, so the whole pool can be claimed.
+     */
+    private void assertAllDecodersReturned() {
+        Assert.assertEquals(countSpareDecoders(),BGZFBlockLoadingDispatcher.MAX_READ_AHEAD_DECODERS,"Read-ahead decoders leaked");
+    }
+
+    private int countSpareDecoders() {
+        final List<BGZFBlockDecoder> decoders = new ArrayList<BGZFBlockDecoder>();
+        BGZFBlockDecoder decoder;
+        while((decoder = dispatcher.claimSpareDecoder()) != null)
+            decoders.add(decoder);
+        for(final BGZFBlockDecoder claimed: decoders)
+            dispatcher.releaseSpareDecoder(claimed);
+        return decoders.size();
+    }
+}
@@ -25,6 +25,7 @@
 
 package org.broadinstitute.sting.gatk.datasources.reads;
 
+import net.sf.samtools.Bin;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMSequenceDictionary;
 import org.broadinstitute.sting.BaseTest;
@@ -105,4 +106,27 @@ public class GATKBAMIndexUnitTest extends BaseTest {
         index.readReferenceSequence(0);
     }
 
+    @Test( expectedExceptions = UserException.MalformedFile.class )
+    public void testDetectTruncatedMemoryMappedBamIndexWordBoundary() {
+        GATKBAMIndex index = new GATKBAMIndex(new File(privateTestDir + "truncated_at_word_boundary.bai"),true);
+        index.readReferenceSequence(0);
+    }
+
+    @Test( expectedExceptions = UserException.MalformedFile.class )
+    public void testDetectTruncatedMemoryMappedBamIndexNonWordBoundary() {
+        GATKBAMIndex index = new GATKBAMIndex(new File(privateTestDir + "truncated_at_non_word_boundary.bai"),true);
+        index.readReferenceSequence(0);
+    }
+
+    @Test
+    public void testMemoryMappedIndexMatchesStreamedIndex() {
+        GATKBAMIndex memoryMappedIndex = new GATKBAMIndex(bamIndexFile,true);
+        GATKBAMIndexData streamedData = bamIndex.readReferenceSequence(0);
+        GATKBAMIndexData memoryMappedData = memoryMappedIndex.readReferenceSequence(0);
+        for(int binNumber = 0; binNumber < GATKBAMIndex.MAX_BINS; binNumber++) {
+            Bin bin = new Bin(0,binNumber);
+            Assert.assertEquals(memoryMappedData.getSpanOverlapping(bin).toString(),streamedData.getSpanOverlapping(bin).toString(),"Spans differ for bin " + binNumber);
+        }
+        Assert.assertEquals(memoryMappedIndex.getStartOfLastLinearBin(),bamIndex.getStartOfLastLinearBin());
+    }
 }
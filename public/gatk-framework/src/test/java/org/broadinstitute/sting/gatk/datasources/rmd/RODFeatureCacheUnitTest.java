@@ -0,0 +1,264 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.datasources.rmd;
+
+import net.sf.samtools.util.CloseableIterator;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.refdata.tracks.RMDTrack;
+import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.variant.variantcontext.*;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+public class RODFeatureCacheUnitTest extends BaseTest {
+    private static final String CONTIG = "chr1";
+    private static final int CONTIG_LENGTH = 100000;
+
+    private GenomeLocParser parser;
+
+    // sites-only SNPs and deletions, some of them spanning bin boundaries
+    private List<VariantContext> sites;
+
+    @BeforeClass
+    public void init() {
+        parser = new GenomeLocParser(ArtificialSAMUtils.createArtificialSamHeader(1, 1, CONTIG_LENGTH).getSequenceDictionary());
+
+        sites = new ArrayList<VariantContext>();
+        for ( int start = 1000; start < 5000; start += 37 ) {
+            final int length = start % 3 == 0 ? 40 : 1;
+            final List<Allele> alleles = length == 1
+                    ? Arrays.asList(Allele.create("A", true), Allele.create("C"))
+                    : Arrays.asList(Allele.create(new String(new char[length]).replace('\0', 'A'), true), Allele.create("A"));
+            sites.add(new VariantContextBuilder("test", CONTIG, start, start + length - 1, alleles).make());
+        }
+    }
+
+    @DataProvider(name = "CacheSizes")
+    public Object[][] makeCacheSizes() {
+        return new Object[][]{ {1000000L, 1000}, {1000000L, 100}, {5000L, 100}, {1L, 10} };
+    }
+
+    @Test(dataProvider = "CacheSizes")
+    public void testCachedQueriesMatchTrack(final long maxBytes, final int binSize) throws IOException {
+        final InMemoryTrack track = new InMemoryTrack(sites);
+        final RODFeatureCache cache = new RODFeatureCache(parser, maxBytes, binSize);
+
+        for ( int pass = 0; pass < 2; pass++ ) {
+            for ( int start = 1; start < 6000; start += 137 ) {
+                for ( final int length : new int[]{1, 50, 333, 2500} ) {
+                    final GenomeLoc loc = parser.createGenomeLoc(CONTIG, start, start + length - 1);
+                    Assert.assertEquals(describe(cache.query("test", track, loc)), describe(track.query(loc)), "Cached features differ at " + loc);
+                }
+            }
+        }
+
+        Assert.assertTrue(cache.getCachedBytes() <= maxBytes, "Cache holds " + cache.getCachedBytes() + " bytes, over its capacity of " + maxBytes);
+    }
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        final InMemoryTrack track = new InMemoryTrack(sites);
+        final RODFeatureCache cache = new RODFeatureCache(parser, 1000000L, 1000);
+
+        // bins 1 and 2
+        cache.query("test", track, parser.createGenomeLoc(CONTIG, 1500, 2500));
+        Assert.assertEquals(cache.getMisses(), 2);
+        Assert.assertEquals(cache.getHits(), 0);
+        Assert.assertEquals(track.nQueries, 2);
+
+        // bin 2 again, and bin 3 for the first time
+        cache.query("test", track, parser.createGenomeLoc(CONTIG, 2100, 3100));
+        Assert.assertEquals(cache.getMisses(), 3);
+        Assert.assertEquals(cache.getHits(), 1);
+        Assert.assertEquals(track.nQueries, 3);
+
+        // the same bins for another track aren't shared
+        cache.query("other", track, parser.createGenomeLoc(CONTIG, 2100, 2200));
+        Assert.assertEquals(cache.getMisses(), 4);
+        Assert.assertEquals(track.nQueries, 4);
+
+        Assert.assertEquals(cache.getEvictions(), 0);
+        Assert.assertTrue(cache.getCachedBytes() > 0);
+        Assert.assertEquals(cache.getCachedFeatureCount(), countInBins(1, 3, 1000) + countInBins(2, 2, 1000));
+    }
+
+    @Test
+    public void testQueriesOverManyBinsBypassCache() throws IOException {
+        final InMemoryTrack track = new InMemoryTrack(sites);
+        final RODFeatureCache cache = new RODFeatureCache(parser, 1000000L, 10);
+        final GenomeLoc loc = parser.createGenomeLoc(CONTIG, 1000, 1000 + 10 * (RODFeatureCache.MAX_BINS_PER_QUERY + 1));
+        Assert.assertEquals(describe(cache.query("test", track, loc)), describe(track.query(loc)));
+        Assert.assertEquals(cache.getHits() + cache.getMisses(), 0);
+        Assert.assertEquals(cache.getCachedFeatureCount(), 0);
+    }
+
+    @Test
+    public void testEvictionIsBoundedByBytes() throws IOException {
+        final InMemoryTrack track = new InMemoryTrack(sites);
+        final long binBytes = bytesInBin(1, 1000);
+        Assert.assertTrue(binBytes > 0);
+
+        // room for bin 1 and a bit more, but not for two full bins
+        final RODFeatureCache cache = new RODFeatureCache(parser, binBytes + binBytes / 2, 1000);
+        cache.query("test", track, parser.createGenomeLoc(CONTIG, 1500, 1500));
+        Assert.assertEquals(cache.getCachedBytes(), binBytes);
+        Assert.assertEquals(cache.getEvictions(), 0);
+
+        // reading bin 2 pushes out the least recently used bin 1
+        cache.query("test", track, parser.createGenomeLoc(CONTIG, 2500, 2500));
+        Assert.assertEquals(cache.getEvictions(), 1);
+        Assert.assertEquals(cache.getCachedBytes(), bytesInBin(2, 1000));
+
+        cache.query("test", track, parser.createGenomeLoc(CONTIG, 2600, 2600));
+        Assert.assertEquals(cache.getHits(), 1);
+        cache.query("test", track, parser.createGenomeLoc(CONTIG, 1600, 1600));
+        Assert.assertEquals(cache.getHits(), 1, "Evicted bin should have been read again");
+        Assert.assertEquals(cache.getMisses(), 3);
+        Assert.assertEquals(cache.getEvictions(), 2);
+        Assert.assertTrue(cache.getCachedBytes() <= binBytes + binBytes / 2);
+    }
+
+    @Test
+    public void testBinsLargerThanCacheAreNotCached() throws IOException {
+        final InMemoryTrack track = new InMemoryTrack(sites);
+        final RODFeatureCache cache = new RODFeatureCache(parser, 1, 1000);
+        final GenomeLoc loc = parser.createGenomeLoc(CONTIG, 1500, 2500);
+        Assert.assertEquals(describe(cache.query("test", track, loc)), describe(track.query(loc)));
+        Assert.assertEquals(cache.getUncachedBins(), 2);
+        Assert.assertEquals(cache.getCachedBytes(), 0);
+        Assert.assertEquals(cache.getEvictions(), 0);
+    }
+
+    @Test
+    public void testGenotypesAreNeitherDecodedNorCached() throws IOException {
+        final CountingLazyParser lazyParser = new CountingLazyParser();
+        final List<VariantContext> genotyped = new ArrayList<VariantContext>();
+        for ( final VariantContext site : sites )
+            genotyped.add(new VariantContextBuilder(site).genotypesNoValidation(new LazyGenotypesContext(lazyParser, "unparsed", 10)).make());
+
+        final InMemoryTrack track = new InMemoryTrack(genotyped);
+        final RODFeatureCache cache = new RODFeatureCache(parser, 1000000L, 1000);
+        for ( int pass = 0; pass < 2; pass++ ) {
+            final GenomeLoc loc = parser.createGenomeLoc(CONTIG, 1500, 2500);
+            Assert.assertEquals(describe(cache.query("test", track, loc)), describe(track.query(loc)));
+        }
+
+        Assert.assertEquals(lazyParser.nParses, 0, "Cache decoded lazy genotypes");
+        Assert.assertEquals(cache.getHits(), 0);
+        Assert.assertEquals(cache.getMisses(), 4);
+        Assert.assertEquals(cache.getUncachedBins(), 4);
+        Assert.assertEquals(cache.getCachedFeatureCount(), 0);
+        Assert.assertEquals(cache.getCachedBytes(), 0);
+    }
+
+    private int countInBins(final int firstBin, final int lastBin, final int binSize) {
+        int n = 0;
+        for ( int bin = firstBin; bin <= lastBin; bin++ )
+            n += track(bin, binSize).size();
+        return n;
+    }
+
+    private long bytesInBin(final int bin, final int binSize) {
+        long bytes = 0;
+        for ( final VariantContext vc : track(bin, binSize) )
+            bytes += RODFeatureCache.estimateBytes(new GATKFeature.TribbleGATKFeature(parser, vc, "test"));
+        return bytes;
+    }
+
+    private List<VariantContext> track(final int bin, final int binSize) {
+        final List<VariantContext> inBin = new ArrayList<VariantContext>();
+        for ( final VariantContext vc : sites )
+            if ( vc.getEnd() > bin * binSize && vc.getStart() <= (bin + 1) * binSize )
+                inBin.add(vc);
+        return inBin;
+    }
+
+    private static List<String> describe(final CloseableIterator<GATKFeature> it) {
+        final List<String> features = new ArrayList<String>();
+        while ( it.hasNext() ) {
+            final GATKFeature feature = it.next();
+            features.add(feature.getChr() + ":" + feature.getStart() + "-" + feature.getEnd());
+        }
+        it.close();
+        return features;
+    }
+
+    /**
+     * A track serving sorted variants from memory, counting the queries made against it
+     */
+    private class InMemoryTrack extends RMDTrack {
+        private final List<VariantContext> variants;
+        private int nQueries = 0;
+
+        private InMemoryTrack(final List<VariantContext> variants) {
+            super(VariantContext.class, "test", null, null, parser.getContigs(), parser, null);
+            this.variants = variants;
+        }
+
+        @Override
+        public CloseableIterator<GATKFeature> query(final GenomeLoc interval) {
+            nQueries++;
+            final List<GATKFeature> features = new ArrayList<GATKFeature>();
+            for ( final VariantContext vc : variants )
+                if ( vc.getChr().equals(interval.getContig()) && vc.getStart() <= interval.getStop() && vc.getEnd() >= interval.getStart() )
+                    features.add(new GATKFeature.TribbleGATKFeature(parser, vc, getName()));
+            final Iterator<GATKFeature> it = features.iterator();
+            return new CloseableIterator<GATKFeature>() {
+                public boolean hasNext() { return it.hasNext(); }
+                public GATKFeature next() { return it.next(); }
+                public void remove() { throw new UnsupportedOperationException(); }
+                public void close() { }
+            };
+        }
+    }
+
+    private static class CountingLazyParser implements LazyGenotypesContext.LazyParser {
+        private int nParses = 0;
+
+        @Override
+        public LazyGenotypesContext.LazyData parse(final Object data) {
+            nParses++;
+            final ArrayList<Genotype> genotypes = new ArrayList<Genotype>();
+            for ( int i = 0; i < 10; i++ )
+                genotypes.add(GenotypeBuilder.createMissing("sample" + i, 2));
+            final List<String> names = new ArrayList<String>();
+            final Map<String, Integer> offsets = new HashMap<String, Integer>();
+            for ( int i = 0; i < genotypes.size(); i++ ) {
+                names.add(genotypes.get(i).getSampleName());
+                offsets.put(genotypes.get(i).getSampleName(), i);
+            }
+            return new LazyGenotypesContext.LazyData(genotypes, names, offsets);
+        }
+    }
+}
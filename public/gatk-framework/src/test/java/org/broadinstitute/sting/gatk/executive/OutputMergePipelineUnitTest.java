@@ -0,0 +1,310 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.executive;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.io.ThreadGroupOutputTracker;
+import org.broadinstitute.sting.gatk.io.storage.Storage;
+import org.broadinstitute.sting.utils.MultiThreadedErrorTracker;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Make sure the output of shards is merged in shard order, however the shards complete.
+ */
+public class OutputMergePipelineUnitTest extends BaseTest {
+    private static final long TIMEOUT_SECONDS = 30;
+
+    /** The final output, standing in for a target file. */
+    private List<String> target;
+
+    private MultiThreadedErrorTracker errorTracker;
+    private CompactionOutputTracker outputTracker;
+    private OutputMergePipeline pipeline;
+
+    @BeforeMethod
+    public void createPipeline() {
+        target = Collections.synchronizedList(new ArrayList<String>());
+        errorTracker = new MultiThreadedErrorTracker();
+        outputTracker = new CompactionOutputTracker();
+        pipeline = new OutputMergePipeline(errorTracker, outputTracker);
+    }
+
+    @DataProvider(name = "CompletionOrders")
+    public Object[][] makeCompletionOrders() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        tests.add(new Object[]{Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7)});
+        tests.add(new Object[]{Arrays.asList(7, 6, 5, 4, 3, 2, 1, 0)});
+        tests.add(new Object[]{Arrays.asList(3, 1, 4, 0, 2, 7, 5, 6)});
+        tests.add(new Object[]{Arrays.asList(1, 2, 3, 4, 5, 6, 7, 0)});
+        final Random random = new Random(42);
+        for ( int i = 0; i < 10; i++ ) {
+            final List<Integer> order = new ArrayList<Integer>(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7));
+            Collections.shuffle(order, random);
+            tests.add(new Object[]{order});
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "CompletionOrders")
+    public void testOutOfOrderCompletionMergesInShardOrder(final List<Integer> completionOrder) throws Exception {
+        final List<TestShardTraverser> shards = addShards(completionOrder.size());
+
+        for ( final int shard : completionOrder ) {
+            shards.get(shard).complete();
+            pipeline.schedule();
+        }
+
+        waitForAll();
+        Assert.assertEquals(target, expectedOutput(0, shards.size()));
+        Assert.assertEquals(pipeline.getNumberOfPendingShards(), 0);
+        Assert.assertEquals(pipeline.getMergeBacklog(), 0);
+    }
+
+    @Test
+    public void testCompactionWhileEarlierShardTraverses() throws Exception {
+        final List<TestShardTraverser> shards = addShards(4);
+
+        // shards 1-3 finish while shard 0 is still traversing
+        for ( int shard = 1; shard < 4; shard++ )
+            shards.get(shard).complete();
+        pipeline.schedule();
+        waitFor(new Callable<Boolean>() {
+            public Boolean call() { return pipeline.getTotalCompactedShards() == 2; }
+        });
+
+        // nothing reaches the target before shard 0, but 1-3 have been concatenated into one set of temporary files
+        Assert.assertTrue(target.isEmpty(), "Shards were merged ahead of shard 0: " + target);
+        Assert.assertEquals(pipeline.getNumberOfPendingShards(), 4);
+        Assert.assertEquals(pipeline.getMergeBacklog(), 3);
+        Assert.assertEquals(pipeline.getNumberOfBlockedShards(), 3);
+        Assert.assertEquals(outputTracker.compactions.size(), 1);
+        Assert.assertEquals(outputTracker.compactions.get(0), expectedOutput(1, 4));
+
+        shards.get(0).complete();
+        waitForAll();
+        Assert.assertEquals(target, expectedOutput(0, 4));
+        Assert.assertTrue(outputTracker.compactions.get(0).closed, "Compacted output should be closed before it's merged");
+    }
+
+    @Test
+    public void testCompactionBehindSeveralRunningShards() throws Exception {
+        final List<TestShardTraverser> shards = addShards(7);
+
+        // 0 and 3 are still running: 1-2 and 4-6 are compacted separately
+        for ( final int shard : Arrays.asList(1, 2, 4, 5, 6) )
+            shards.get(shard).complete();
+        pipeline.schedule();
+        waitFor(new Callable<Boolean>() {
+            public Boolean call() { return pipeline.getTotalCompactedShards() == 3; }
+        });
+        Assert.assertTrue(target.isEmpty());
+        Assert.assertEquals(pipeline.getNumberOfBlockedShards(), 5);
+
+        shards.get(0).complete();
+        pipeline.schedule();
+        waitFor(new Callable<Boolean>() {
+            public Boolean call() { return pipeline.getNumberOfPendingShards() == 4; }
+        });
+        Assert.assertEquals(target, expectedOutput(0, 3));
+
+        shards.get(3).complete();
+        waitForAll();
+        Assert.assertEquals(target, expectedOutput(0, 7));
+    }
+
+    @Test
+    public void testMergeErrorReachesCaller() throws Exception {
+        final List<TestShardTraverser> shards = addShards(4);
+        shards.get(2).failOnMerge = true;
+        for ( final TestShardTraverser shard : shards )
+            shard.complete();
+        pipeline.schedule();
+
+        assertFailsWith(shards.get(2).error);
+        Assert.assertEquals(target, expectedOutput(0, 2), "Shards before the failure should still have been merged, in order");
+    }
+
+    @Test
+    public void testCompactionErrorReachesCaller() throws Exception {
+        final List<TestShardTraverser> shards = addShards(4);
+
+        // shard 0 never completes, so the error has to surface from the compaction of 1-3
+        shards.get(2).failOnMerge = true;
+        for ( int shard = 1; shard < 4; shard++ )
+            shards.get(shard).complete();
+        pipeline.schedule();
+
+        assertFailsWith(shards.get(2).error);
+        Assert.assertTrue(target.isEmpty());
+    }
+
+    @Test
+    public void testErrorElsewhereStopsWaiting() throws Exception {
+        // a failed traversal never completes its shard; waiting on the pipeline must not hang on it
+        addShards(2);
+        final RuntimeException error = new RuntimeException("traversal failed");
+        errorTracker.notifyOfError(error);
+        assertFailsWith(error);
+    }
+
+    private List<TestShardTraverser> addShards(final int nShards) {
+        final List<TestShardTraverser> shards = new ArrayList<TestShardTraverser>();
+        for ( int i = 0; i < nShards; i++ ) {
+            final TestShardTraverser shard = new TestShardTraverser(i);
+            shards.add(shard);
+            pipeline.add(shard);
+        }
+        return shards;
+    }
+
+    private static List<String> expectedOutput(final int firstShard, final int endShard) {
+        final List<String> output = new ArrayList<String>();
+        for ( int i = firstShard; i < endShard; i++ )
+            output.addAll(shardOutput(i));
+        return output;
+    }
+
+    private static List<String> shardOutput(final int shard) {
+        return Arrays.asList("shard " + shard + " record 1", "shard " + shard + " record 2");
+    }
+
+    /**
+     * Waits for the whole pipeline to finish on another thread, failing rather than hanging if it deadlocks.
+     */
+    private void waitForAll() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Callable<Void>() {
+                public Void call() {
+                    pipeline.waitForAll();
+                    return null;
+                }
+            }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch ( TimeoutException ex ) {
+            Assert.fail("Timed out waiting for output to merge");
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertFailsWith(final Throwable expected) throws Exception {
+        try {
+            waitForAll();
+            Assert.fail("Waiting for the pipeline should have thrown " + expected);
+        }
+        catch ( ExecutionException ex ) {
+            Assert.assertSame(ex.getCause(), expected);
+        }
+    }
+
+    private void waitFor(final Callable<Boolean> condition) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+        while ( ! condition.call() ) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the pipeline");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * A shard whose traversal is completed by the test, with its output held in memory.
+     */
+    private class TestShardTraverser extends ShardTraverser {
+        private final OutputMergeTask outputMergeTask = new OutputMergeTask();
+        private final RuntimeException error;
+        private volatile boolean complete = false;
+        private volatile boolean failOnMerge = false;
+
+        private TestShardTraverser(final int shard) {
+            super(null, null, null, null);
+            this.error = new RuntimeException("Failed to merge shard " + shard);
+            final ListStorage storage = new ListStorage() {
+                @Override
+                public void mergeInto(final List<String> target) {
+                    if ( failOnMerge )
+                        throw error;
+                    super.mergeInto(target);
+                }
+            };
+            storage.addAll(shardOutput(shard));
+            outputMergeTask.addMergeOperation(target, storage);
+        }
+
+        private void complete() {
+            complete = true;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public OutputMergeTask getOutputMergeTask() {
+            return outputMergeTask;
+        }
+    }
+
+    /**
+     * Creates in-memory storage for compacted output, and keeps hold of it for inspection.
+     */
+    private class CompactionOutputTracker extends ThreadGroupOutputTracker {
+        private final List<ListStorage> compactions = new CopyOnWriteArrayList<ListStorage>();
+
+        @Override
+        public OutputMergeTask createCompactionTask() {
+            final ListStorage storage = new ListStorage();
+            compactions.add(storage);
+            final OutputMergeTask outputMergeTask = new OutputMergeTask();
+            outputMergeTask.addMergeOperation(target, storage);
+            return outputMergeTask;
+        }
+    }
+
+    /**
+     * Temporary storage in memory.  Doubles as a target, as compacted storage must.
+     */
+    private static class ListStorage extends ArrayList<String> implements Storage<List<String>> {
+        private volatile boolean closed = false;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public void mergeInto(final List<String> target) {
+            target.addAll(this);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.io.storage;
+
+import net.sf.samtools.*;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that BAMs assembled by splicing in the compressed blocks of other BAMs are equivalent to BAMs written record by record.
+ */
+public class BlockCopyingBAMWriterUnitTest extends BaseTest {
+    private static final int NUM_READS = 20000;
+    private static final int READ_LENGTH = 100;
+
+    private final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(2,0,10000000);
+
+    @DataProvider(name = "SegmentBoundaries")
+    public Object[][] makeSegmentBoundaries() {
+        return new Object[][] {
+                // even-numbered segments are written directly, odd-numbered segments are spliced in from other files
+                { new int[] { 0, 0, NUM_READS } },
+                { new int[] { 0, 7, 5000, 9999, 10000, 15000, NUM_READS } },
+                { new int[] { 0, 1, 2, 3, NUM_READS, NUM_READS } }
+        };
+    }
+
+    @Test(dataProvider = "SegmentBoundaries")
+    public void testSplicedBAMMatchesDirectlyWrittenBAM(final int[] boundaries) throws IOException {
+        final File splicedBAM = createTempFile("spliced",".bam");
+        final BlockCopyingBAMWriter splicedWriter = new BlockCopyingBAMWriter(splicedBAM,header,null,true,false);
+        for(int segment = 0; segment+1 < boundaries.length; segment++) {
+            if(segment % 2 == 0) {
+                for(int i = boundaries[segment]; i < boundaries[segment+1]; i++)
+                    splicedWriter.addAlignment(createRead(i));
+            }
+            else {
+                final File segmentBAM = createTempFile("segment",".bam");
+                final SAMFileWriter segmentWriter = new SAMFileWriterFactory().makeBAMWriter(header,true,segmentBAM);
+                for(int i = boundaries[segment]; i < boundaries[segment+1]; i++)
+                    segmentWriter.addAlignment(createRead(i));
+                segmentWriter.close();
+                splicedWriter.appendBlocks(segmentBAM);
+            }
+        }
+        splicedWriter.close();
+
+        final File directBAM = createTempFile("direct",".bam");
+        final SAMFileWriter directWriter = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header,true,directBAM);
+        for(int i = 0; i < NUM_READS; i++)
+            directWriter.addAlignment(createRead(i));
+        directWriter.close();
+
+        final SAMFileReader splicedReader = new SAMFileReader(splicedBAM);
+        final SAMFileReader directReader = new SAMFileReader(directBAM);
+        Assert.assertEquals(readNames(splicedReader.iterator()),readNames(directReader.iterator()),"Spliced BAM contains different reads");
+
+        // Exercise the index rebuilt from the block offsets.
+        for(int start = 1; start < 10000000; start += 777777) {
+            for(final SAMSequenceRecord sequence: header.getSequenceDictionary().getSequences()) {
+                final String contig = sequence.getSequenceName();
+                Assert.assertEquals(readNames(splicedReader.queryOverlapping(contig,start,start+100000)),
+                                    readNames(directReader.queryOverlapping(contig,start,start+100000)),
+                                    "Index query mismatch at " + contig + ":" + start);
+            }
+        }
+
+        splicedReader.close();
+        directReader.close();
+    }
+
+    private SAMRecord createRead(final int index) {
+        final int refIndex = index < NUM_READS/2 ? 0 : 1;
+        final int alignmentStart = 1 + (index % (NUM_READS/2)) * 500;
+        return ArtificialSAMUtils.createArtificialRead(header,"read" + index,refIndex,alignmentStart,READ_LENGTH);
+    }
+
+    private List<String> readNames(final SAMRecordIterator iterator) {
+        final List<String> names = new ArrayList<String>();
+        while(iterator.hasNext())
+            names.add(iterator.next().getReadName());
+        iterator.close();
+        return names;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.io.storage;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import org.broad.tribble.AbstractFeatureReader;
+import org.broad.tribble.Feature;
+import org.broad.tribble.FeatureCodec;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.arguments.GATKArgumentCollection;
+import org.broadinstitute.sting.gatk.io.stubs.VariantContextWriterStub;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.variant.bcf2.BCF2Codec;
+import org.broadinstitute.variant.variantcontext.*;
+import org.broadinstitute.variant.vcf.*;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Tests that output merged from temporary files by copying their encoded records is the same as output
+ * merged by decoding the records and writing them out again.
+ */
+public class VariantContextWriterStorageUnitTest extends BaseTest {
+    private static final int NUM_RECORDS_PER_PART = 500;
+    private static final int NUM_PARTS = 3;
+    private static final List<String> SAMPLES = Arrays.asList("NA1", "NA2");
+
+    private final SAMSequenceDictionary dictionary = ArtificialSAMUtils.createArtificialSamHeader(2,0,10000000).getSequenceDictionary();
+
+    @DataProvider(name = "OutputExtensions")
+    public Object[][] makeOutputExtensions() {
+        return new Object[][] { { ".vcf" }, { ".bcf" } };
+    }
+
+    @Test(dataProvider = "OutputExtensions")
+    public void testCopiedRecordsMatchDecodedRecords(final String extension) throws IOException {
+        final VCFHeader header = createHeader();
+
+        // temporary files with a different header can't be copied, so they're decoded and written out again
+        final VCFHeader differentHeader = createHeader();
+        differentHeader.addMetaDataLine(new VCFHeaderLine("source", "VariantContextWriterStorageUnitTest"));
+
+        final File copied = mergeThreadOutput(extension, header, header);
+        final File decoded = mergeThreadOutput(extension, header, differentHeader);
+        Assert.assertTrue(Arrays.equals(readFully(copied), readFully(decoded)), "Merged files differ");
+
+        // Exercise the index built from the offsets of the copied records.
+        final FeatureCodec codec = extension.equals(".bcf") ? new BCF2Codec() : new VCFCodec();
+        final AbstractFeatureReader<Feature, ?> copiedReader = AbstractFeatureReader.getFeatureReader(copied.getAbsolutePath(), codec, true);
+        final AbstractFeatureReader<Feature, ?> decodedReader = AbstractFeatureReader.getFeatureReader(decoded.getAbsolutePath(), codec, true);
+        for ( final String contig : Arrays.asList("chr1", "chr2") ) {
+            for ( int start = 1; start < NUM_PARTS * NUM_RECORDS_PER_PART * 100; start += 7777 ) {
+                final List<String> copiedRecords = describe(copiedReader.query(contig, start, start + 5000));
+                Assert.assertEquals(copiedRecords, describe(decodedReader.query(contig, start, start + 5000)), "Index query mismatch at " + contig + ":" + start);
+            }
+        }
+        Assert.assertEquals(describe(copiedReader.query("chr1", 1, 10000000)).size(), NUM_PARTS * NUM_RECORDS_PER_PART / 2, "Index query of copied records is missing records");
+        copiedReader.close();
+        decodedReader.close();
+    }
+
+    /**
+     * Write records to NUM_PARTS temporary files with tempHeader, as data threads would, and merge them in order
+     * into a new output file with targetHeader.
+     */
+    private File mergeThreadOutput(final String extension, final VCFHeader targetHeader, final VCFHeader tempHeader) throws IOException {
+        final File target = createTempFile("merged", extension);
+        new File(target.getAbsolutePath() + ".idx").deleteOnExit();
+
+        final VariantContextWriterStorage targetStorage = new VariantContextWriterStorage(createStub(target, targetHeader));
+        targetStorage.writeHeader(targetHeader);
+        for ( int part = 0; part < NUM_PARTS; part++ ) {
+            final VariantContextWriterStorage tempStorage = new VariantContextWriterStorage(createStub(target, tempHeader), createTempFile("part" + part, extension));
+            for ( int i = part * NUM_RECORDS_PER_PART; i < (part + 1) * NUM_RECORDS_PER_PART; i++ )
+                tempStorage.add(createRecord(i));
+            tempStorage.close();
+
+            Assert.assertEquals(tempStorage.canCopyRecordsInto(targetStorage), targetHeader == tempHeader, "Wrong merge path taken");
+            tempStorage.mergeInto(targetStorage);
+        }
+        targetStorage.close();
+
+        return target;
+    }
+
+    private VariantContextWriterStub createStub(final File file, final VCFHeader header) {
+        final GATKArgumentCollection arguments = new GATKArgumentCollection();
+        arguments.numberOfDataThreads = 2;
+        final GenomeAnalysisEngine engine = new GenomeAnalysisEngine();
+        engine.setArguments(arguments);
+
+        return new VariantContextWriterStub(engine, file, Collections.emptyList()) {
+            @Override
+            public SAMSequenceDictionary getMasterSequenceDictionary() {
+                return dictionary;
+            }
+
+            @Override
+            public VCFHeader getVCFHeader() {
+                return header;
+            }
+        };
+    }
+
+    private VCFHeader createHeader() {
+        final Set<VCFHeaderLine> lines = new LinkedHashSet<VCFHeaderLine>();
+        lines.add(new VCFInfoHeaderLine("DP", 1, VCFHeaderLineType.Integer, "Total depth"));
+        lines.add(new VCFFormatHeaderLine("GT", 1, VCFHeaderLineType.String, "Genotype"));
+        lines.add(new VCFFormatHeaderLine("DP", 1, VCFHeaderLineType.Integer, "Depth"));
+        final VCFHeader header = new VCFHeader(lines, SAMPLES);
+        header.setSequenceDictionary(dictionary);
+        return header;
+    }
+
+    /**
+     * The index'th record in the output: the first half of the records on chr1 and the rest on chr2, 100bp apart
+     */
+    private VariantContext createRecord(final int index) {
+        final int nRecords = NUM_PARTS * NUM_RECORDS_PER_PART;
+        final String contig = index < nRecords / 2 ? "chr1" : "chr2";
+        final int start = 1 + (index % (nRecords / 2)) * 100;
+
+        final Allele ref = Allele.create(index % 2 == 0 ? "A" : "CT", true);
+        final Allele alt = Allele.create(index % 3 == 0 ? "G" : "T", false);
+        final List<Genotype> genotypes = new ArrayList<Genotype>();
+        for ( int i = 0; i < SAMPLES.size(); i++ )
+            genotypes.add(new GenotypeBuilder(SAMPLES.get(i), Arrays.asList(ref, (index + i) % 2 == 0 ? alt : ref)).DP(index + i).make());
+
+        return new VariantContextBuilder("test", contig, start, start + ref.length() - 1, Arrays.asList(ref, alt))
+                .attribute("DP", 2 * index + 1).genotypes(genotypes).make();
+    }
+
+    private List<String> describe(final Iterable<? extends Feature> records) {
+        final List<String> descriptions = new ArrayList<String>();
+        for ( final Feature record : records )
+            descriptions.add(record.getChr() + ":" + record.getStart() + "-" + record.getEnd());
+        return descriptions;
+    }
+
+    private byte[] readFully(final File file) throws IOException {
+        final byte[] bytes = new byte[(int)file.length()];
+        final FileInputStream in = new FileInputStream(file);
+        int offset = 0;
+        while ( offset < bytes.length )
+            offset += in.read(bytes, offset, bytes.length - offset);
+        in.close();
+        return bytes;
+    }
+}
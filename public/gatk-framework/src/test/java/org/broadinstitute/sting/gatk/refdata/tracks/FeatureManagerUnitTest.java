@@ -27,6 +27,7 @@ package org.broadinstitute.sting.gatk.refdata.tracks;
 
 
 import net.sf.picard.reference.IndexedFastaSequenceFile;
+import org.broad.tribble.AbstractFeatureReader;
 import org.broad.tribble.Feature;
 import org.broad.tribble.FeatureCodec;
 import org.broadinstitute.sting.BaseTest;
@@ -35,6 +36,7 @@ import org.broadinstitute.sting.utils.codecs.table.TableFeature;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.variant.vcf.VCF3Codec;
 import org.broadinstitute.variant.vcf.VCFCodec;
+import org.broadinstitute.variant.vcf.VCFHeader;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.fasta.CachingIndexedFastaSequenceFile;
 import org.broadinstitute.variant.variantcontext.VariantContext;
@@ -159,5 +161,43 @@ public class FeatureManagerUnitTest extends BaseTest {
         Assert.assertEquals(c.getFeatureType(), descriptor.getFeatureClass());
     }
 
+    @Test
+    public void testSitesOnlyCodec() throws IOException {
+        FeatureManager.FeatureDescriptor descriptor = manager.getByName("vcf");
+        final FeatureCodec<VariantContext, ?> full = manager.createCodec(descriptor, "full", genomeLocParser, false);
+        final FeatureCodec<VariantContext, ?> sitesOnly = manager.createCodec(descriptor, "sitesOnly", genomeLocParser, true);
+        Assert.assertTrue(sitesOnly instanceof VCFCodec);
+        Assert.assertEquals(((VCFCodec)sitesOnly).getName(), "sitesOnly");
+        Assert.assertNull(manager.getByCodec(sitesOnly.getClass()), "The sites-only codec must not be registered as a feature type");
+
+        final AbstractFeatureReader<VariantContext, ?> fullReader = AbstractFeatureReader.getFeatureReader(VCF4_FILE.getAbsolutePath(), full, false);
+        final AbstractFeatureReader<VariantContext, ?> sitesOnlyReader = AbstractFeatureReader.getFeatureReader(VCF4_FILE.getAbsolutePath(), sitesOnly, false);
+        Assert.assertTrue(((VCFHeader)fullReader.getHeader()).hasGenotypingData());
+        Assert.assertFalse(((VCFHeader)sitesOnlyReader.getHeader()).hasGenotypingData());
+
+        final Iterator<VariantContext> fullIt = fullReader.iterator();
+        final Iterator<VariantContext> sitesOnlyIt = sitesOnlyReader.iterator();
+        int nRecords = 0;
+        while ( fullIt.hasNext() ) {
+            Assert.assertTrue(sitesOnlyIt.hasNext());
+            final VariantContext expected = fullIt.next();
+            final VariantContext actual = sitesOnlyIt.next();
+            Assert.assertEquals(actual.getChr(), expected.getChr());
+            Assert.assertEquals(actual.getStart(), expected.getStart());
+            Assert.assertEquals(actual.getEnd(), expected.getEnd());
+            Assert.assertEquals(actual.getID(), expected.getID());
+            Assert.assertEquals(actual.getAlleles(), expected.getAlleles());
+            Assert.assertEquals(actual.getPhredScaledQual(), expected.getPhredScaledQual());
+            Assert.assertEquals(actual.getFilters(), expected.getFilters());
+            Assert.assertEquals(actual.getAttributes().keySet(), expected.getAttributes().keySet());
+            Assert.assertFalse(actual.hasGenotypes());
+            nRecords++;
+        }
+        Assert.assertFalse(sitesOnlyIt.hasNext());
+        Assert.assertTrue(nRecords > 0);
+        fullReader.close();
+        sitesOnlyReader.close();
+    }
+
 }
 
@@ -43,6 +43,12 @@ import org.testng.annotations.Test;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -119,6 +125,45 @@ public class RMDTrackBuilderUnitTest extends BaseTest {
         Assert.assertTrue(tempVCFIndexFile.exists());
     }
 
+    @Test
+    public void testInMemoryIndexIsMarkedValidated() {
+        final File vcf = new File(privateTestDir + "vcf4.1.example.vcf");
+        final String digest = IndexDictionaryUtils.getSequenceDictionaryDigest(seq.getSequenceDictionary());
+
+        final Index index = builder.createIndexInMemory(vcf, new VCFCodec());
+        Assert.assertTrue(IndexDictionaryUtils.isIndexValidatedAgainst(index, digest));
+        Assert.assertFalse(IndexDictionaryUtils.isIndexValidatedAgainst(index, digest + "x"));
+
+        // validating again against the same dictionary must leave the index unchanged
+        builder.validateAndUpdateIndexSequenceDictionary(vcf, index, seq.getSequenceDictionary());
+        Assert.assertTrue(index.equalsIgnoreProperties(builder.createIndexInMemory(vcf, new VCFCodec())));
+    }
+
+    @Test
+    public void testConcurrentLoadIndex() throws Exception {
+        final File[] vcfs = { new File(privateTestDir + "vcf4.1.example.vcf"), new File(privateTestDir + "unindexed.vcf") };
+        final Index[] expected = new Index[vcfs.length];
+        for ( int i = 0; i < vcfs.length; i++ )
+            expected[i] = builder.loadIndex(vcfs[i], new VCFCodec());
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Index>> futures = new ArrayList<Future<Index>>();
+            for ( int i = 0; i < 8; i++ ) {
+                final File vcf = vcfs[i % vcfs.length];
+                futures.add(executor.submit(new Callable<Index>() {
+                    public Index call() throws IOException {
+                        return builder.loadIndex(vcf, new VCFCodec());
+                    }
+                }));
+            }
+            for ( int i = 0; i < futures.size(); i++ )
+                Assert.assertTrue(futures.get(i).get().equalsIgnoreProperties(expected[i % vcfs.length]));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Create a temporary vcf file and an associated index file, which may be set to be out-of-date
      * relative to the vcf
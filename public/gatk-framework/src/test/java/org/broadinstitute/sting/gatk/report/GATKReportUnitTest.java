@@ -179,6 +179,38 @@ public class GATKReportUnitTest extends BaseTest {
         Assert.assertEquals(table.get(1, "value"), "world");
     }
 
+    @Test
+    public void testColumnValues() {
+        GATKReportTable table = new GATKReportTable("Counts", "counts of things", 4);
+        table.addColumn("count", "%d");
+        table.addColumn("rate", "%.2f");
+        table.addColumn("name", "%s");
+        table.addColumn("mixed");
+
+        for ( int i = 0; i < 10; i++ )
+            table.increment("row" + (i % 3), "count");
+        table.set("row0", "rate", 123.456);
+        table.set("row1", "rate", Double.POSITIVE_INFINITY);
+        table.set("row0", "name", "a");
+        table.set("row1", "name", "a longer name");
+        table.set("row0", "mixed", 5);
+        table.set("row1", "mixed", 5L);
+        table.set("row2", "mixed", "five");
+
+        Assert.assertEquals(table.get("row0", "count"), 4);
+        Assert.assertEquals(table.get("row2", "count"), 3);
+        Assert.assertEquals(table.get("row1", "rate"), Double.POSITIVE_INFINITY);
+        Assert.assertEquals(table.get("row1", "name"), "a longer name");
+        Assert.assertNull(table.get("row2", "name"));
+        Assert.assertEquals(table.get("row0", "mixed"), 5);
+        Assert.assertEquals(table.get("row1", "mixed"), 5L);
+        Assert.assertEquals(table.get("row2", "mixed"), "five");
+
+        // widths take in every value set, not just the most recent ones
+        Assert.assertEquals(table.getColumnInfo().get(1).getColumnFormat().getWidth(), "Infinity".length());
+        Assert.assertEquals(table.getColumnInfo().get(2).getColumnFormat().getWidth(), "a longer name".length());
+    }
+
     @Test
     public void testSimpleGATKReport() {
         // Create a new simple GATK report named "TableName" with columns: Roger, is, and Awesome
@@ -25,6 +25,7 @@
 
 package org.broadinstitute.sting.gatk.traversals;
 
+import org.broad.tribble.Feature;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
@@ -51,6 +52,8 @@ class DummyActiveRegionWalker extends ActiveRegionWalker<Integer, Integer> {
 
     protected List<GenomeLoc> isActiveCalls = new ArrayList<GenomeLoc>();
     protected Map<GenomeLoc, ActiveRegion> mappedActiveRegions = new LinkedHashMap<GenomeLoc, ActiveRegion>();
+    protected Map<GenomeLoc, List<String>> isActiveFeatures = new LinkedHashMap<GenomeLoc, List<String>>();
+    protected Map<GenomeLoc, List<String>> mappedFeatures = new LinkedHashMap<GenomeLoc, List<String>>();
     private boolean declareHavingPresetRegions = false;
 
     public DummyActiveRegionWalker() {
@@ -94,6 +97,7 @@ class DummyActiveRegionWalker extends ActiveRegionWalker<Integer, Integer> {
     @Override
     public ActivityProfileState isActive(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         isActiveCalls.add(ref.getLocus());
+        isActiveFeatures.put(ref.getLocus(), describeFeatures(tracker));
         final double p = activeRegions == null || activeRegions.overlaps(ref.getLocus()) ? prob : 0.0;
         return new ActivityProfileState(ref.getLocus(), p);
     }
@@ -101,9 +105,21 @@ class DummyActiveRegionWalker extends ActiveRegionWalker<Integer, Integer> {
     @Override
     public Integer map(ActiveRegion activeRegion, RefMetaDataTracker metaDataTracker) {
         mappedActiveRegions.put(activeRegion.getLocation(), activeRegion);
+        mappedFeatures.put(activeRegion.getLocation(), describeFeatures(metaDataTracker));
         return 0;
     }
 
+    /**
+     * @return the name and span of every feature bound in tracker, in order
+     */
+    private List<String> describeFeatures(final RefMetaDataTracker tracker) {
+        final List<String> features = new ArrayList<String>();
+        for ( final Feature feature : tracker.getValues(Feature.class) )
+            features.add(feature.getChr() + ":" + feature.getStart() + "-" + feature.getEnd());
+        Collections.sort(features);
+        return features;
+    }
+
     @Override
     public Integer reduceInit() {
         return 0;
@@ -32,6 +32,8 @@ import org.broadinstitute.sting.gatk.arguments.ValidationExclusion;
 import org.broadinstitute.sting.gatk.datasources.reads.*;
 import org.broadinstitute.sting.gatk.filters.ReadFilter;
 import org.broadinstitute.sting.gatk.iterators.ReadTransformer;
+import org.broadinstitute.sting.gatk.refdata.tracks.RMDTrackBuilder;
+import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
 import org.broadinstitute.sting.gatk.resourcemanagement.ThreadAllocation;
 import org.broadinstitute.sting.gatk.walkers.Walker;
 import org.broadinstitute.sting.utils.GenomeLocSortedSet;
@@ -59,6 +61,7 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.*;
 
 /**
@@ -156,6 +159,66 @@ public class TraverseActiveRegionsUnitTest extends BaseTest {
         verifyEqualIntervals(intervals, activeIntervals);
     }
 
+    @Test(enabled = true && ! DEBUG)
+    public void testParallelIsActiveMatchesSerial() {
+        final GenomeLocSortedSet isActiveLocs = new GenomeLocSortedSet(genomeLocParser);
+        isActiveLocs.add(genomeLocParser.createGenomeLoc("1", 100, 400));
+        isActiveLocs.add(genomeLocParser.createGenomeLoc("1", 1500, 1520));
+        isActiveLocs.add(genomeLocParser.createGenomeLoc("1", 12000, 18000));
+        isActiveLocs.add(genomeLocParser.createGenomeLoc("20", 10050, 10060));
+
+        // features around the gaps in the intervals, which the parallel read ahead runs past before the regions
+        // next to them are processed, and that overlap those regions only through their extensions
+        final List<ReferenceOrderedDataSource> rods = Collections.singletonList(createBedDataSource("features",
+                "1\t109\t130", "1\t1490\t1600", "1\t3009\t3040", "1\t5000\t6000", "1\t9959\t9990",
+                "1\t11000\t17000", "1\t16380\t16390", "20\t10020\t10030"));
+
+        final DummyActiveRegionWalker serialWalker = new DummyActiveRegionWalker(isActiveLocs, false);
+        final Map<GenomeLoc, ActiveRegion> serialRegions = getActiveRegions(new TraverseActiveRegions<Integer, Integer>(), serialWalker, intervals, testBAM, rods);
+
+        final TraverseActiveRegions<Integer, Integer> parallelTraversal = new TraverseActiveRegions<>(4);
+        final ParallelDummyActiveRegionWalker parallelWalker = new ParallelDummyActiveRegionWalker(isActiveLocs);
+        final Map<GenomeLoc, ActiveRegion> parallelRegions = getActiveRegions(parallelTraversal, parallelWalker, intervals, testBAM, rods);
+        parallelTraversal.shutdown();
+
+        // Contract: isActive is called on exactly the same loci, and we get exactly the same regions with the same reads
+        verifyEqualIntervals(serialWalker.isActiveCalls, parallelWalker.isActiveCalls);
+        Assert.assertEquals(parallelWalker.isActiveFeatures, serialWalker.isActiveFeatures, "isActive trackers differ");
+        Assert.assertEquals(parallelWalker.mappedFeatures, serialWalker.mappedFeatures, "Active region trackers differ");
+        boolean sawFeatureInExtension = false;
+        for ( final List<String> features : serialWalker.mappedFeatures.values() )
+            sawFeatureInExtension |= features.contains("1:3010-3040");
+        Assert.assertTrue(sawFeatureInExtension, "The region before the gap should see the feature in its extension");
+        Assert.assertEquals(new TreeSet<>(parallelRegions.keySet()), new TreeSet<>(serialRegions.keySet()));
+        for ( final Map.Entry<GenomeLoc, ActiveRegion> serial : serialRegions.entrySet() ) {
+            final ActiveRegion parallel = parallelRegions.get(serial.getKey());
+            Assert.assertEquals(parallel.isActive(), serial.getValue().isActive(), "Active state differs for " + serial.getKey());
+            Assert.assertEquals(parallel.getReads().size(), serial.getValue().getReads().size(), "Reads differ for " + serial.getKey());
+            for ( int i = 0; i < parallel.getReads().size(); i++ )
+                Assert.assertEquals(parallel.getReads().get(i).getReadName(), serial.getValue().getReads().get(i).getReadName());
+        }
+    }
+
+    /**
+     * Write a BED file of lines, and bind it as a ROD named name
+     */
+    private ReferenceOrderedDataSource createBedDataSource(final String name, final String... lines) {
+        try {
+            final File bed = File.createTempFile("TraverseActiveRegionsUnitTest", ".bed");
+            bed.deleteOnExit();
+            final PrintStream out = new PrintStream(bed);
+            for ( final String line : lines )
+                out.println(line);
+            out.close();
+
+            final RMDTrackBuilder builder = new RMDTrackBuilder(dictionary, genomeLocParser, null, true);
+            final RMDTriplet triplet = new RMDTriplet(name, "BED", bed.getAbsolutePath(), RMDTriplet.RMDStorageType.FILE, new Tags());
+            return new ReferenceOrderedDataSource(triplet, builder, dictionary, genomeLocParser, false);
+        } catch ( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private List<GenomeLoc> getIsActiveIntervals(final TraverseActiveRegions t, DummyActiveRegionWalker walker, List<GenomeLoc> intervals) {
         List<GenomeLoc> activeIntervals = new ArrayList<GenomeLoc>();
         for (LocusShardDataProvider dataProvider : createDataProviders(t, walker, intervals, testBAM)) {
@@ -402,7 +465,11 @@ public class TraverseActiveRegionsUnitTest extends BaseTest {
     }
 
     private Map<GenomeLoc, ActiveRegion> getActiveRegions(TraverseActiveRegions t, DummyActiveRegionWalker walker, List<GenomeLoc> intervals, final File bam) {
-        for (LocusShardDataProvider dataProvider : createDataProviders(t, walker, intervals, bam))
+        return getActiveRegions(t, walker, intervals, bam, new ArrayList<ReferenceOrderedDataSource>());
+    }
+
+    private Map<GenomeLoc, ActiveRegion> getActiveRegions(TraverseActiveRegions t, DummyActiveRegionWalker walker, List<GenomeLoc> intervals, final File bam, final List<ReferenceOrderedDataSource> rods) {
+        for (LocusShardDataProvider dataProvider : createDataProviders(t, walker, intervals, bam, rods))
             t.traverse(walker, dataProvider, 0);
 
         return walker.mappedActiveRegions;
@@ -466,6 +533,10 @@ public class TraverseActiveRegionsUnitTest extends BaseTest {
     }
 
     private List<LocusShardDataProvider> createDataProviders(TraverseActiveRegions traverseActiveRegions, final Walker walker, List<GenomeLoc> intervals, File bamFile) {
+        return createDataProviders(traverseActiveRegions, walker, intervals, bamFile, new ArrayList<ReferenceOrderedDataSource>());
+    }
+
+    private List<LocusShardDataProvider> createDataProviders(TraverseActiveRegions traverseActiveRegions, final Walker walker, List<GenomeLoc> intervals, File bamFile, final List<ReferenceOrderedDataSource> rods) {
         GenomeAnalysisEngine engine = new GenomeAnalysisEngine();
         engine.setGenomeLocParser(genomeLocParser);
 
@@ -490,7 +561,7 @@ public class TraverseActiveRegionsUnitTest extends BaseTest {
         List<LocusShardDataProvider> providers = new ArrayList<LocusShardDataProvider>();
         for (Shard shard : dataSource.createShardIteratorOverIntervals(new GenomeLocSortedSet(genomeLocParser, intervals), new ActiveRegionShardBalancer())) {
             for (WindowMaker.WindowMakerIterator window : new WindowMaker(shard, genomeLocParser, dataSource.seek(shard), shard.getGenomeLocs(), samples)) {
-                providers.add(new LocusShardDataProvider(shard, shard.getReadProperties(), genomeLocParser, window.getLocus(), window, reference, new ArrayList<ReferenceOrderedDataSource>()));
+                providers.add(new LocusShardDataProvider(shard, shard.getReadProperties(), genomeLocParser, window.getLocus(), window, reference, rods));
             }
         }
 
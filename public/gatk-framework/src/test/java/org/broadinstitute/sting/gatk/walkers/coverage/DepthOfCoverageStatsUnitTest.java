@@ -0,0 +1,179 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Checks DepthOfCoverageStats against histograms and locus tables worked out by hand, both when the loci
+ * are added to one object and when they're split between several that are then merged.
+ */
+public class DepthOfCoverageStatsUnitTest extends BaseTest {
+    // bins: [0,2) [2,5) [5,10) [10,50) [50,inf); nothing reaches the last one
+    private static final int[] ENDPOINTS = { 2, 5, 10, 50 };
+    private static final String[] SAMPLES = { "s1", "s2", "s3" };
+
+    // depths of s1, s2 and s3 at each locus, which fall in these bins:
+    //   L1: 0 3 12  ->  0 1 3
+    //   L2: 5 5 1   ->  2 2 0
+    //   L3: 10 0 0  ->  3 0 0
+    //   L4: 2 9 6   ->  1 2 2
+    private static final int[][] DEPTHS = { { 0, 3, 12 }, { 5, 5, 1 }, { 10, 0, 0 }, { 2, 9, 6 } };
+
+    private static final long[][] HISTOGRAMS = {
+            { 1, 1, 1, 1, 0 },
+            { 1, 1, 2, 0, 0 },
+            { 2, 0, 1, 1, 0 } };
+    private static final long[] TOTALS = { 17, 17, 19 };
+
+    // [i][bin]: loci with more than i samples in bin or above.  The number of samples in or above bins 0-4 is
+    // 3 2 1 1 0 at L1, 3 2 2 0 0 at L2, 3 1 1 1 0 at L3 and 3 3 2 0 0 at L4.
+    private static final long[][] LOCUS_COUNTS = {
+            { 4, 4, 4, 2, 0 },
+            { 4, 3, 2, 0, 0 },
+            { 4, 1, 0, 0, 0 } };
+
+    @Test
+    public void testStatsOfAllLoci() {
+        final DepthOfCoverageStats stats = createStats(SAMPLES);
+        for ( final int[] depths : DEPTHS )
+            stats.updateDepths(depths);
+
+        assertExpectedStats(stats);
+    }
+
+    @Test
+    public void testMapBasedUpdatesMatchIndexedUpdates() {
+        final DepthOfCoverageStats stats = createStats(SAMPLES);
+        for ( final int[] depths : DEPTHS ) {
+            final Map<String,Integer> depthBySample = new HashMap<String,Integer>();
+            for ( int s = 0; s < SAMPLES.length; s++ )
+                if ( depths[s] > 0 ) depthBySample.put(SAMPLES[s],depths[s]); // missing samples have no coverage
+            stats.updateDepths(depthBySample);
+        }
+
+        assertExpectedStats(stats);
+    }
+
+    @Test
+    public void testDeletionsAreOnlyCountedWhenIncluded() {
+        final int[] counts = new int[LocusCoverageCounts.N_BASES];
+        counts[0] = 2; // A
+        counts[2] = 1; // G
+        counts[5] = 3; // D
+        final Map<String,int[]> countsBySample = Collections.singletonMap("s1",counts);
+
+        final DepthOfCoverageStats withoutDeletions = createStats("s1");
+        withoutDeletions.update(countsBySample);
+        Assert.assertEquals(withoutDeletions.getTotalCoverage(), 3);
+        Assert.assertTrue(Arrays.equals(withoutDeletions.getHistograms().get("s1"), new long[]{ 0, 1, 0, 0, 0 }));
+
+        final DepthOfCoverageStats withDeletions = createStats("s1");
+        withDeletions.initializeDeletions();
+        withDeletions.update(countsBySample);
+        Assert.assertEquals(withDeletions.getTotalCoverage(), 6);
+        Assert.assertTrue(Arrays.equals(withDeletions.getHistograms().get("s1"), new long[]{ 0, 0, 1, 0, 0 }));
+    }
+
+    @Test
+    public void testMergedPartitionsMatchWhole() {
+        // one partition of the loci per stats object, including an empty one, and with the samples added in
+        // different orders so that the sample indices differ between them
+        final DepthOfCoverageStats merged = createStats("s1","s2","s3");
+        merged.updateDepths(DEPTHS[0]);
+
+        final DepthOfCoverageStats empty = createStats("s2","s3","s1");
+
+        final DepthOfCoverageStats middle = createStats("s3","s1","s2");
+        for ( final int[] depths : Arrays.asList(DEPTHS[1],DEPTHS[2]) )
+            middle.updateDepths(new int[]{ depths[2], depths[0], depths[1] });
+
+        final DepthOfCoverageStats last = createStats("s2","s1","s3");
+        last.updateDepths(new int[]{ DEPTHS[3][1], DEPTHS[3][0], DEPTHS[3][2] });
+
+        merged.merge(empty);
+        merged.merge(middle);
+        merged.merge(last);
+        assertExpectedStats(merged);
+
+        // the parts merged in are left alone
+        Assert.assertEquals(middle.getTotalLoci(), 2);
+        Assert.assertEquals(empty.getTotalLoci(), 0);
+        Assert.assertTrue(Arrays.deepEquals(empty.getLocusCounts(), new long[SAMPLES.length][ENDPOINTS.length + 1]));
+    }
+
+    @Test
+    public void testMergingIntoEmptyCopy() {
+        final DepthOfCoverageStats whole = createStats(SAMPLES);
+        for ( final int[] depths : DEPTHS )
+            whole.updateDepths(depths);
+
+        // a copy keeps the histograms and totals of the original, but starts a new locus table
+        final DepthOfCoverageStats copy = new DepthOfCoverageStats(whole);
+        assertExpectedSampleStats(copy);
+        Assert.assertTrue(Arrays.deepEquals(copy.getLocusCounts(), new long[SAMPLES.length][ENDPOINTS.length + 1]));
+
+        // and an empty copy merges in like any other
+        final DepthOfCoverageStats merged = new DepthOfCoverageStats(createStats(SAMPLES));
+        merged.merge(whole);
+        assertExpectedStats(merged);
+        merged.merge(createStats(SAMPLES));
+        assertExpectedStats(merged);
+    }
+
+    private DepthOfCoverageStats createStats(final String... samples) {
+        final DepthOfCoverageStats stats = new DepthOfCoverageStats(ENDPOINTS);
+        for ( final String sample : samples )
+            stats.addSample(sample);
+        stats.initializeLocusCounts();
+        return stats;
+    }
+
+    private void assertExpectedStats(final DepthOfCoverageStats stats) {
+        assertExpectedSampleStats(stats);
+
+        final long[][] locusCounts = stats.getLocusCounts();
+        Assert.assertTrue(Arrays.deepEquals(locusCounts, LOCUS_COUNTS), "Locus counts were " + Arrays.deepToString(locusCounts));
+    }
+
+    private void assertExpectedSampleStats(final DepthOfCoverageStats stats) {
+        Assert.assertEquals(stats.getTotalLoci(), DEPTHS.length);
+        Assert.assertEquals(stats.getTotalCoverage(), 53);
+        Assert.assertEquals(stats.getTotalMeanCoverage(), 53.0 / DEPTHS.length, 1e-10);
+        Assert.assertEquals(stats.getAllSamples(), new HashSet<String>(Arrays.asList(SAMPLES)));
+
+        for ( int s = 0; s < SAMPLES.length; s++ ) {
+            final long[] histogram = stats.getHistograms().get(SAMPLES[s]);
+            Assert.assertTrue(Arrays.equals(histogram, HISTOGRAMS[s]), "Histogram of " + SAMPLES[s] + " was " + Arrays.toString(histogram));
+            Assert.assertEquals(stats.getTotals().get(SAMPLES[s]).longValue(), TOTALS[s]);
+            Assert.assertEquals(stats.getMeans().get(SAMPLES[s]), (double) TOTALS[s] / DEPTHS.length, 1e-10);
+        }
+    }
+}
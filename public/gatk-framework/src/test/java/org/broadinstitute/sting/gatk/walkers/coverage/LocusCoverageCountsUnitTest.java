@@ -0,0 +1,170 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.coverage;
+
+import net.sf.samtools.SAMReadGroupRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.BaseUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Checks the columns CoveragePartitionIndex gives each identifier and read group, and the counts that
+ * LocusCoverageCounts keeps in them, against tables worked out by hand.
+ */
+public class LocusCoverageCountsUnitTest extends BaseTest {
+    private static final DoCOutputType.Partition READGROUP = DoCOutputType.Partition.readgroup;
+    private static final DoCOutputType.Partition SAMPLE = DoCOutputType.Partition.sample;
+    private static final DoCOutputType.Partition LIBRARY = DoCOutputType.Partition.library;
+    private static final DoCOutputType.Partition SAMPLE_BY_PLATFORM = DoCOutputType.Partition.sample_by_platform;
+
+    private final SAMReadGroupRecord rg1 = createReadGroup("rg1", "s1", "libA", "ILLUMINA");
+    private final SAMReadGroupRecord rg2 = createReadGroup("rg2", "s1", "libB", "ILLUMINA");
+    private final SAMReadGroupRecord rg3 = createReadGroup("rg3", "s2", "libA", "SOLID");
+    // not in the header, and its library isn't one of the identifiers
+    private final SAMReadGroupRecord missingRG = createReadGroup("rgX", "s2", "libC", "ILLUMINA");
+
+    private CoveragePartitionIndex index;
+
+    @BeforeMethod
+    public void createIndex() {
+        final Map<DoCOutputType.Partition,Set<String>> identifiers = new HashMap<DoCOutputType.Partition,Set<String>>();
+        identifiers.put(READGROUP, new HashSet<String>(Arrays.asList("s2_rg_rg3", "s1_rg_rg2", "s1_rg_rg1")));
+        identifiers.put(SAMPLE, new HashSet<String>(Arrays.asList("s3", "s2", "s1"))); // s3 has no reads
+        identifiers.put(LIBRARY, new HashSet<String>(Arrays.asList("libB", "libA")));
+        identifiers.put(SAMPLE_BY_PLATFORM, new HashSet<String>(Arrays.asList("s2_pl_SOLID", "s1_pl_ILLUMINA", "s2_pl_ILLUMINA")));
+
+        index = new CoveragePartitionIndex(Arrays.asList(READGROUP, SAMPLE, LIBRARY, SAMPLE_BY_PLATFORM), identifiers, Arrays.asList(rg1, rg2, rg3));
+    }
+
+    @Test
+    public void testColumnsFollowSortedIdentifiers() {
+        Assert.assertEquals(index.getIdentifiers(READGROUP), Arrays.asList("s1_rg_rg1", "s1_rg_rg2", "s2_rg_rg3"));
+        Assert.assertEquals(index.getIdentifiers(SAMPLE), Arrays.asList("s1", "s2", "s3"));
+        Assert.assertEquals(index.getIdentifiers(LIBRARY), Arrays.asList("libA", "libB"));
+        Assert.assertEquals(index.getIdentifiers(SAMPLE_BY_PLATFORM), Arrays.asList("s1_pl_ILLUMINA", "s2_pl_ILLUMINA", "s2_pl_SOLID"));
+
+        Assert.assertEquals(index.getReadGroupIndex(rg1), 0);
+        Assert.assertEquals(index.getReadGroupIndex(rg3), 2);
+        Assert.assertEquals(index.getReadGroupIndex(missingRG), -1);
+
+        final int rg2Index = index.getReadGroupIndex(rg2);
+        Assert.assertEquals(index.getColumn(READGROUP, rg2Index), 1);
+        Assert.assertEquals(index.getColumn(SAMPLE, rg2Index), 0);
+        Assert.assertEquals(index.getColumn(LIBRARY, rg2Index), 1);
+        Assert.assertEquals(index.getColumn(SAMPLE_BY_PLATFORM, index.getReadGroupIndex(rg3)), 2);
+
+        // read groups missing from the header are looked up by identifier
+        Assert.assertEquals(index.getColumn(SAMPLE, missingRG), 1);
+        Assert.assertEquals(index.getColumn(SAMPLE_BY_PLATFORM, missingRG), 1);
+        Assert.assertEquals(index.getColumn(READGROUP, missingRG), -1);
+        Assert.assertEquals(index.getColumn(LIBRARY, missingRG), -1);
+    }
+
+    @Test
+    public void testCountsByColumn() {
+        final LocusCoverageCounts counts = new LocusCoverageCounts(index);
+        addBases(counts);
+
+        // by column: s1_rg_rg1 = AAD, s1_rg_rg2 = C, s2_rg_rg3 = TN; rgX adds G to s2 and s2_pl_ILLUMINA only
+        assertDepths(counts, READGROUP, 3, 1, 2);
+        assertDepths(counts, SAMPLE, 4, 3, 0);
+        assertDepths(counts, LIBRARY, 5, 1);
+        assertDepths(counts, SAMPLE_BY_PLATFORM, 4, 1, 2);
+
+        //                                    A  C  G  T  N  D
+        assertBaseCounts(counts, SAMPLE,      2, 1, 0, 0, 0, 1,
+                                              0, 0, 1, 1, 1, 0,
+                                              0, 0, 0, 0, 0, 0);
+        assertBaseCounts(counts, LIBRARY,     2, 0, 0, 1, 1, 1,
+                                              0, 1, 0, 0, 0, 0);
+        assertBaseCounts(counts, READGROUP,   2, 0, 0, 0, 0, 1,
+                                              0, 1, 0, 0, 0, 0,
+                                              0, 0, 0, 1, 1, 0);
+        assertBaseCounts(counts, SAMPLE_BY_PLATFORM, 2, 1, 0, 0, 0, 1,
+                                                     0, 0, 1, 0, 0, 0,
+                                                     0, 0, 0, 1, 1, 0);
+    }
+
+    @Test
+    public void testClearedCountsAreReusable() {
+        final LocusCoverageCounts counts = new LocusCoverageCounts(index);
+        addBases(counts);
+        counts.clear();
+
+        assertDepths(counts, READGROUP, 0, 0, 0);
+        assertDepths(counts, SAMPLE, 0, 0, 0);
+        assertDepths(counts, LIBRARY, 0, 0);
+        assertDepths(counts, SAMPLE_BY_PLATFORM, 0, 0, 0);
+        for ( final DoCOutputType.Partition t : index.getTypes() )
+            assertBaseCounts(counts, t, new int[index.getIdentifiers(t).size() * LocusCoverageCounts.N_BASES]);
+        Assert.assertNull(counts.getLocation());
+
+        // the next locus starts from zero, including in the columns the previous one touched
+        counts.add(rg3, BaseUtils.Base.T.ordinal());
+        counts.add(rg1, BaseUtils.Base.A.ordinal());
+        assertDepths(counts, READGROUP, 1, 0, 1);
+        assertDepths(counts, SAMPLE, 1, 1, 0);
+        assertDepths(counts, LIBRARY, 2, 0);
+        assertDepths(counts, SAMPLE_BY_PLATFORM, 1, 0, 1);
+        assertBaseCounts(counts, LIBRARY, 1, 0, 0, 1, 0, 0,
+                                          0, 0, 0, 0, 0, 0);
+
+        counts.clear();
+        addBases(counts);
+        assertDepths(counts, SAMPLE, 4, 3, 0);
+        assertDepths(counts, LIBRARY, 5, 1);
+    }
+
+    private void addBases(final LocusCoverageCounts counts) {
+        counts.add(rg1, BaseUtils.Base.A.ordinal());
+        counts.add(rg1, BaseUtils.Base.A.ordinal());
+        counts.add(rg1, BaseUtils.Base.D.ordinal());
+        counts.add(rg2, BaseUtils.Base.C.ordinal());
+        counts.add(rg3, BaseUtils.Base.T.ordinal());
+        counts.add(rg3, BaseUtils.Base.N.ordinal());
+        counts.add(missingRG, BaseUtils.Base.G.ordinal());
+    }
+
+    private void assertDepths(final LocusCoverageCounts counts, final DoCOutputType.Partition t, final int... expected) {
+        Assert.assertTrue(Arrays.equals(counts.getDepths(t), expected), t + " depths were " + Arrays.toString(counts.getDepths(t)));
+    }
+
+    private void assertBaseCounts(final LocusCoverageCounts counts, final DoCOutputType.Partition t, final int... expected) {
+        Assert.assertTrue(Arrays.equals(counts.getBaseCounts(t), expected), t + " base counts were " + Arrays.toString(counts.getBaseCounts(t)));
+    }
+
+    private static SAMReadGroupRecord createReadGroup(final String id, final String sample, final String library, final String platform) {
+        final SAMReadGroupRecord rg = new SAMReadGroupRecord(id);
+        rg.setSample(sample);
+        rg.setLibrary(library);
+        rg.setPlatform(platform);
+        return rg;
+    }
+}
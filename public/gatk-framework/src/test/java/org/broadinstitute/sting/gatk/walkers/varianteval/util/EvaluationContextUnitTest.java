@@ -0,0 +1,331 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.gatk.walkers.varianteval.util;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
+import org.broadinstitute.sting.gatk.samples.Gender;
+import org.broadinstitute.sting.gatk.samples.Sample;
+import org.broadinstitute.sting.gatk.samples.SampleDB;
+import org.broadinstitute.sting.gatk.walkers.varianteval.VariantEval;
+import org.broadinstitute.sting.gatk.walkers.varianteval.evaluators.*;
+import org.broadinstitute.sting.utils.collections.Pair;
+import org.broadinstitute.variant.variantcontext.*;
+import org.broadinstitute.variant.vcf.VCFConstants;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Tests that evaluation contexts updated with separate parts of the variants and then combined, as the
+ * per-thread replicas in VariantEval are, report the same values as one context that saw every variant.
+ */
+public class EvaluationContextUnitTest extends BaseTest {
+    private static final int NUM_SITES = 2000;
+    private static final List<String> SAMPLES = Arrays.asList("mom", "dad", "kid", "other");
+    private static final String BASES = "ACGT";
+
+    private static final List<Class<? extends VariantEvaluator>> EVALUATORS = Arrays.<Class<? extends VariantEvaluator>>asList(
+            CompOverlap.class, CountVariants.class, IndelLengthHistogram.class, IndelSummary.class,
+            MendelianViolationEvaluator.class, MultiallelicSummary.class, PrintMissingComp.class,
+            ThetaVariantEvaluator.class, TiTvVariantEvaluator.class, ValidationReport.class, VariantSummary.class);
+
+    private final List<Pair<VariantContext, VariantContext>> sites = createSites(NUM_SITES);
+
+    @DataProvider(name = "Partitions")
+    public Object[][] makePartitions() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final boolean ignoreAC0Sites : Arrays.asList(false, true) ) {
+            for ( final int[] boundaries : Arrays.asList(new int[]{ NUM_SITES / 2 }, new int[]{ 1 }, new int[]{ 0 }, new int[]{ NUM_SITES },
+                                                         new int[]{ 300, 1100 }, new int[]{ 250, 250, 999, 1500, 1501 }) )
+                tests.add(new Object[]{ new TestVariantEval(ignoreAC0Sites), boundaries });
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test
+    public void testEveryEvaluatorSupportsCombine() {
+        final EvaluationContext context = new EvaluationContext(new TestVariantEval(false), new LinkedHashSet<Class<? extends VariantEvaluator>>(EVALUATORS));
+        Assert.assertEquals(context.getVariantEvaluators().size(), EVALUATORS.size());
+        for ( final VariantEvaluator evaluator : context.getVariantEvaluators() )
+            Assert.assertTrue(evaluator.supportsCombine(), evaluator.getSimpleName() + " doesn't support combine");
+    }
+
+    /**
+     * Evaluates the sites split at each of the given boundaries into a separate context, combines the contexts
+     * into the first one, and checks that every evaluator reports what it does after seeing all of the sites.
+     */
+    @Test(dataProvider = "Partitions")
+    public void testCombinedPartitionsMatchWhole(final VariantEval walker, final int[] boundaries) {
+        for ( final Class<? extends VariantEvaluator> evaluatorClass : EVALUATORS ) {
+            final Set<Class<? extends VariantEvaluator>> classes = Collections.<Class<? extends VariantEvaluator>>singleton(evaluatorClass);
+
+            final EvaluationContext whole = evaluate(walker, classes, 0, sites.size());
+
+            final EvaluationContext combined = evaluate(walker, classes, 0, boundaries[0]);
+            for ( int i = 0; i < boundaries.length; i++ ) {
+                final int stop = i + 1 < boundaries.length ? boundaries[i + 1] : sites.size();
+                combined.combine(evaluate(walker, classes, boundaries[i], stop));
+            }
+
+            assertSameReport(finalizeEvaluator(combined), finalizeEvaluator(whole));
+        }
+    }
+
+    @Test
+    public void testCombiningAllEvaluatorsTogether() {
+        final Set<Class<? extends VariantEvaluator>> classes = new LinkedHashSet<Class<? extends VariantEvaluator>>(EVALUATORS);
+        final VariantEval walker = new TestVariantEval(false);
+        final EvaluationContext whole = evaluate(walker, classes, 0, sites.size());
+        final EvaluationContext combined = evaluate(walker, classes, 0, 777);
+        combined.combine(evaluate(walker, classes, 777, sites.size()));
+
+        final Iterator<VariantEvaluator> expected = whole.getVariantEvaluators().iterator();
+        for ( final VariantEvaluator evaluator : combined.getVariantEvaluators() ) {
+            evaluator.finalizeEvaluation();
+            final VariantEvaluator expectedEvaluator = expected.next();
+            expectedEvaluator.finalizeEvaluation();
+            assertSameReport(evaluator, expectedEvaluator);
+        }
+    }
+
+    private EvaluationContext evaluate(final VariantEval walker, final Set<Class<? extends VariantEvaluator>> classes, final int start, final int stop) {
+        final EvaluationContext context = new EvaluationContext(walker, classes);
+        final RefMetaDataTracker tracker = new RefMetaDataTracker();
+        for ( final Pair<VariantContext, VariantContext> site : sites.subList(start, stop) )
+            context.apply(tracker, null, null, site.getSecond(), site.getFirst());
+        return context;
+    }
+
+    private VariantEvaluator finalizeEvaluator(final EvaluationContext context) {
+        final VariantEvaluator evaluator = context.getVariantEvaluators().first();
+        evaluator.finalizeEvaluation();
+        return evaluator;
+    }
+
+    /**
+     * Checks that the fields VariantEvalReportWriter would write out have the same values in both evaluators
+     */
+    private void assertSameReport(final VariantEvaluator actual, final VariantEvaluator expected) {
+        final AnalysisModuleScanner scanner = new AnalysisModuleScanner(expected);
+        final List<Field> fields = new ArrayList<Field>(scanner.getData().keySet());
+        if ( scanner.hasMoltenField() )
+            fields.add(scanner.getMoltenField());
+        Assert.assertFalse(fields.isEmpty(), "No report fields found for " + expected.getSimpleName());
+
+        try {
+            for ( final Field field : fields )
+                assertSameValue(field.get(actual), field.get(expected), expected.getSimpleName() + "." + field.getName());
+        } catch ( IllegalAccessException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void assertSameValue(final Object actual, final Object expected, final String name) {
+        if ( expected instanceof Map ) {
+            Assert.assertTrue(actual instanceof Map, name + " isn't a map");
+            final Map<?, ?> actualMap = (Map<?, ?>)actual;
+            final Map<?, ?> expectedMap = (Map<?, ?>)expected;
+            Assert.assertEquals(actualMap.keySet(), expectedMap.keySet(), name + " has different keys");
+            for ( final Map.Entry<?, ?> entry : expectedMap.entrySet() )
+                assertSameValue(actualMap.get(entry.getKey()), entry.getValue(), name + "[" + entry.getKey() + "]");
+        } else if ( expected instanceof Double || expected instanceof Float ) {
+            // sums of fractions may differ in the last bits depending on the order they're added in
+            final double a = ((Number)actual).doubleValue();
+            final double e = ((Number)expected).doubleValue();
+            if ( Double.isNaN(e) || Double.isInfinite(e) )
+                Assert.assertEquals(Double.valueOf(a), Double.valueOf(e), name);
+            else
+                Assert.assertEquals(a, e, 1e-6 * Math.max(1.0, Math.abs(e)), name);
+        } else {
+            Assert.assertEquals(actual, expected, name);
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // test data
+    //
+    // --------------------------------------------------------------------------------
+
+    /**
+     * Creates eval and comp pairs covering the kinds of sites the evaluators count: biallelic and multiallelic
+     * SNPs, insertions and deletions of various sizes, MNPs and mixed sites, filtered and monomorphic sites,
+     * trio genotypes of varying quality, and comp sites that match the eval alleles, differ from them or have
+     * no eval at all.
+     */
+    private List<Pair<VariantContext, VariantContext>> createSites(final int nSites) {
+        final Random random = new Random(42);
+        final List<Pair<VariantContext, VariantContext>> sites = new ArrayList<Pair<VariantContext, VariantContext>>(nSites);
+        for ( int i = 0; i < nSites; i++ ) {
+            final int start = 100 + i * 50;
+            final List<Allele> alleles = createAlleles(random);
+
+            VariantContext eval = createRecord("eval", start, alleles, random);
+            VariantContext comp = null;
+            switch ( random.nextInt(5) ) {
+                case 0: break;
+                case 1: comp = createRecord("comp", start, alleles, random); break;
+                case 2: comp = createRecord("comp", start, createAlleles(random, alleles.get(0)), random); break;
+                case 3: comp = createRecord("comp", start, alleles, random); eval = null; break;
+                default: comp = new VariantContextBuilder(eval).source("comp").attribute(VCFConstants.ALLELE_COUNT_KEY, random.nextInt(3)).noGenotypes().make(); break;
+            }
+            sites.add(new Pair<VariantContext, VariantContext>(eval, comp));
+        }
+        return sites;
+    }
+
+    private List<Allele> createAlleles(final Random random) {
+        final int type = random.nextInt(6);
+        final String refBases = type == 3 || type == 4 ? randomBases(random, 2 + random.nextInt(15)) : type == 5 ? randomBases(random, 2) : randomBases(random, 1);
+        return createAlleles(random, Allele.create(refBases, true), type);
+    }
+
+    private List<Allele> createAlleles(final Random random, final Allele ref) {
+        return createAlleles(random, ref, ref.length() == 1 ? random.nextInt(3) : 3);
+    }
+
+    private List<Allele> createAlleles(final Random random, final Allele ref, final int type) {
+        final String refBases = ref.getBaseString();
+        final List<Allele> alleles = new ArrayList<Allele>();
+        alleles.add(ref);
+        switch ( type ) {
+            case 0: // biallelic SNP
+            case 1: // multiallelic SNP
+                for ( final char base : BASES.toCharArray() )
+                    if ( base != refBases.charAt(0) && alleles.size() < (type == 0 ? 2 : 3) && random.nextBoolean() )
+                        alleles.add(Allele.create(String.valueOf(base)));
+                if ( alleles.size() == 1 )
+                    alleles.add(Allele.create(String.valueOf(BASES.charAt((BASES.indexOf(refBases.charAt(0)) + 1) % 4))));
+                break;
+            case 2: // insertion, sometimes with a mixed SNP allele
+                alleles.add(Allele.create(refBases + randomBases(random, 1 + random.nextInt(15))));
+                if ( random.nextInt(4) == 0 )
+                    alleles.add(Allele.create(String.valueOf(BASES.charAt((BASES.indexOf(refBases.charAt(0)) + 2) % 4))));
+                break;
+            case 3: // deletion, sometimes multiallelic
+                alleles.add(Allele.create(refBases.substring(0, 1)));
+                if ( random.nextInt(3) == 0 )
+                    alleles.add(Allele.create(refBases + randomBases(random, 1 + random.nextInt(3))));
+                break;
+            case 4: // deletion of part of the reference
+                alleles.add(Allele.create(refBases.substring(0, 1 + random.nextInt(refBases.length() - 1))));
+                break;
+            default: // MNP
+                final StringBuilder alt = new StringBuilder();
+                for ( final char base : refBases.toCharArray() )
+                    alt.append(BASES.charAt((BASES.indexOf(base) + 1 + random.nextInt(3)) % 4));
+                alleles.add(Allele.create(alt.toString()));
+                break;
+        }
+        return alleles;
+    }
+
+    private VariantContext createRecord(final String source, final int start, final List<Allele> alleles, final Random random) {
+        final Allele ref = alleles.get(0);
+        final VariantContextBuilder builder = new VariantContextBuilder(source, "chr1", start, start + ref.length() - 1, alleles);
+
+        final List<Genotype> genotypes = new ArrayList<Genotype>();
+        for ( final String sample : SAMPLES ) {
+            final GenotypeBuilder genotype = new GenotypeBuilder(sample);
+            switch ( random.nextInt(5) ) {
+                case 0: genotype.alleles(Arrays.asList(Allele.NO_CALL, Allele.NO_CALL)); break;
+                case 1: genotype.alleles(Arrays.asList(ref, ref)); break;
+                case 2: genotype.alleles(Arrays.asList(ref, alleles.get(1 + random.nextInt(alleles.size() - 1)))); break;
+                case 3: genotype.alleles(Arrays.asList(ref, alleles.get(1))); break;
+                default: genotype.alleles(Arrays.asList(alleles.get(1), alleles.get(1))); break;
+            }
+            if ( random.nextInt(4) != 0 ) genotype.GQ(random.nextInt(100));
+            if ( random.nextInt(4) != 0 ) genotype.DP(random.nextInt(60));
+            genotypes.add(genotype.make());
+        }
+        if ( random.nextInt(10) != 0 )
+            builder.genotypes(genotypes);
+
+        if ( random.nextInt(10) == 0 ) builder.filter("LowQual");
+        if ( random.nextInt(3) == 0 ) builder.attribute(VCFConstants.DEPTH_KEY, random.nextInt(200));
+        if ( random.nextInt(4) == 0 ) builder.attribute(VariantEval.IS_SINGLETON_KEY, true);
+        if ( random.nextInt(3) == 0 ) builder.attribute("ANCESTRALALLELE", random.nextInt(5) == 0 ? "." : randomBases(random, 1).toLowerCase());
+        if ( random.nextInt(3) == 0 ) {
+            builder.attribute("SNPEFF_GENE_BIOTYPE", "protein_coding");
+            builder.attribute("SNPEFF_EFFECT", Arrays.asList("FRAME_SHIFT", "CODON_INSERTION", "CODON_DELETION", "INTRON").get(random.nextInt(4)));
+        }
+        return builder.make();
+    }
+
+    private String randomBases(final Random random, final int length) {
+        final StringBuilder bases = new StringBuilder(length);
+        for ( int i = 0; i < length; i++ )
+            bases.append(BASES.charAt(random.nextInt(BASES.length())));
+        return bases.toString();
+    }
+
+    /**
+     * A VariantEval that needs no engine: it evaluates a trio and another sample and has processed a fixed
+     * number of loci
+     */
+    private static class TestVariantEval extends VariantEval {
+        private final boolean ignoreAC0Sites;
+        private final SampleDB sampleDB = new SampleDB() {{
+            addSample(new Sample("mom", this, "family", null, null, Gender.FEMALE));
+            addSample(new Sample("dad", this, "family", null, null, Gender.MALE));
+            addSample(new Sample("kid", this, "family", "dad", "mom", Gender.MALE));
+            addSample(new Sample("other", this, "other", null, null, Gender.UNKNOWN));
+        }};
+
+        private TestVariantEval(final boolean ignoreAC0Sites) {
+            this.ignoreAC0Sites = ignoreAC0Sites;
+        }
+
+        @Override
+        public SampleDB getSampleDB() {
+            return sampleDB;
+        }
+
+        @Override
+        public Set<String> getSampleNamesForEvaluation() {
+            return new TreeSet<String>(SAMPLES);
+        }
+
+        @Override
+        public long getnProcessedLoci() {
+            return 100 * NUM_SITES;
+        }
+
+        @Override
+        public boolean ignoreAC0Sites() {
+            return ignoreAC0Sites;
+        }
+
+        @Override
+        public String toString() {
+            return "TestVariantEval ignoreAC0Sites=" + ignoreAC0Sites;
+        }
+    }
+}
@@ -27,53 +27,65 @@ package org.broadinstitute.sting.utils;
 
 import com.google.caliper.Param;
 import com.google.caliper.SimpleBenchmark;
-import net.sf.picard.reference.IndexedFastaSequenceFile;
-import org.broadinstitute.sting.utils.fasta.CachingIndexedFastaSequenceFile;
-
-import java.io.File;
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
 
 /**
  * Caliper microbenchmark of genome loc parser
  */
 public class GenomeLocParserBenchmark extends SimpleBenchmark {
-    private IndexedFastaSequenceFile seq;
     private final int ITERATIONS = 1000000;
 
-    @Param({"NEW", "NONE"})
+    private GenomeLocParser genomeLocParser;
+
+    @Param({"STANDARD", "NONE"})
     GenomeLocParser.ValidationLevel validationLevel; // set automatically by framework
 
     @Param({"true", "false"})
     boolean useContigIndex; // set automatically by framework
 
+    @Param({"1", "100"})
+    int materializeEvery; // set automatically by framework
+
     @Override protected void setUp() throws Exception {
-        seq = new CachingIndexedFastaSequenceFile(new File("/Users/depristo/Desktop/broadLocal/localData/human_g1k_v37.fasta"));
+        // a GRCh37-like dictionary, so that contig lookups see a realistic number of contigs
+        final SAMSequenceDictionary dict = new SAMSequenceDictionary();
+        for ( int i = 1; i <= 84; i++ )
+            dict.addSequence(new SAMSequenceRecord(i <= 22 ? Integer.toString(i) : "GL000" + (170 + i) + ".1", 250000000));
+        genomeLocParser = new GenomeLocParser(dict, validationLevel);
+    }
+
+    /**
+     * Before: walking loci the way the engine did, creating a GenomeLoc for every position
+     */
+    public void timeGenomeLocPerLocus(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            GenomeLoc last = genomeLocParser.createGenomeLoc("1", 1, 1);
+            for ( int j = 1; j < ITERATIONS; j++ ) {
+                if ( useContigIndex )
+                    last = genomeLocParser.createGenomeLoc(last.getContig(), last.getContigIndex(), last.getStart() + 1, last.getStart() + 1);
+                else
+                    last = genomeLocParser.createGenomeLoc(last.getContig(), last.getStart() + 1);
+            }
+        }
+    }
+
+    /**
+     * After: walking loci as packed positions, only creating a GenomeLoc for every materializeEvery'th
+     * position, as when a walker is only handed the uncovered or interesting loci
+     */
+    public void timePackedPerLocus(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            long packed = PackedGenomeLoc.pack(genomeLocParser.getContigIndex("1"), 1);
+            GenomeLoc last = null;
+            for ( int j = 1; j < ITERATIONS; j++ ) {
+                packed++;
+                if ( j % materializeEvery == 0 )
+                    last = genomeLocParser.createGenomeLocFromPacked(packed);
+            }
+            if ( last == null && materializeEvery < ITERATIONS ) throw new IllegalStateException("No loc created");
+        }
     }
-//
-//    public void timeSequentialCreationFromGenomeLoc(int rep) {
-//        final GenomeLocParser genomeLocParser = new GenomeLocParser(seq.getSequenceDictionary(), validationLevel);
-//        GenomeLoc last = genomeLocParser.createGenomeLoc("1", 1, 1);
-//        for ( int i = 0; i < rep; i++ ) {
-//            for ( int j = 1; j < ITERATIONS; j++ ) {
-//                if ( useContigIndex )
-//                    last = genomeLocParser.createGenomeLoc(last.getContig(), last.getContigIndex(), last.getStart() + 1);
-//                else
-//                    last = genomeLocParser.createGenomeLoc(last.getContig(), last.getStart() + 1);
-//            }
-//        }
-//    }
-//
-//    public void timeSequentialCreationFromGenomeLocOriginal(int rep) {
-//        final GenomeLocParserOriginal genomeLocParser = new GenomeLocParserOriginal(seq.getSequenceDictionary());
-//        GenomeLoc last = genomeLocParser.createGenomeLoc("1", 1, 1);
-//        for ( int i = 0; i < rep; i++ ) {
-//            for ( int j = 1; j < ITERATIONS; j++ ) {
-//                if ( useContigIndex )
-//                    last = genomeLocParser.createGenomeLoc(last.getContig(), last.getContigIndex(), last.getStart() + 1);
-//                else
-//                    last = genomeLocParser.createGenomeLoc(last.getContig(), last.getStart() + 1);
-//            }
-//        }
-//    }
 
     public static void main(String[] args) {
         com.google.caliper.Runner.main(GenomeLocParserBenchmark.class, args);
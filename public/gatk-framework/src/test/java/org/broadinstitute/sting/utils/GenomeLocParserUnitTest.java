@@ -47,6 +47,7 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -480,6 +481,44 @@ public class GenomeLocParserUnitTest extends BaseTest {
         }
     }
 
+    @Test
+    public void testPackedGenomeLocs() {
+        final SAMFileHeader twoContigHeader = ArtificialSAMUtils.createArtificialSamHeader(2, 1, 10);
+        final GenomeLocParser parser = new GenomeLocParser(twoContigHeader.getSequenceDictionary());
+
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>();
+        for ( final String contig : Arrays.asList("chr1", "chr2") )
+            for ( int pos = -2; pos <= 12; pos++ )
+                locs.add(parser.createGenomeLoc(contig, pos, pos));
+
+        for ( int i = 0; i < locs.size(); i++ ) {
+            final GenomeLoc loc = locs.get(i);
+            final long packed = PackedGenomeLoc.packStart(loc);
+            Assert.assertEquals(PackedGenomeLoc.getContigIndex(packed), loc.getContigIndex());
+            Assert.assertEquals(PackedGenomeLoc.getPosition(packed), loc.getStart());
+            Assert.assertEquals(parser.createGenomeLocFromPacked(packed), loc);
+            Assert.assertEquals(parser.createGenomeLocFromPacked(packed).getContig(), loc.getContig());
+            if ( i > 0 )
+                Assert.assertTrue(PackedGenomeLoc.packStart(locs.get(i - 1)) < packed, "Packed positions must sort like GenomeLocs");
+        }
+
+        final GenomeLoc span = parser.createGenomeLoc("chr2", 3, 7);
+        Assert.assertEquals(parser.createGenomeLocFromPacked(PackedGenomeLoc.packStart(span), PackedGenomeLoc.packStop(span)), span);
+        Assert.assertEquals(PackedGenomeLoc.packStart(span) + 1, PackedGenomeLoc.pack(span.getContigIndex(), 4));
+    }
+
+    @Test(expectedExceptions = UserException.MalformedGenomeLoc.class)
+    public void testPackedGenomeLocUnknownContig() {
+        genomeLocParser.createGenomeLocFromPacked(PackedGenomeLoc.pack(1, 1));
+    }
+
+    @Test(expectedExceptions = UserException.MalformedGenomeLoc.class)
+    public void testPackedGenomeLocSpanningContigs() {
+        final SAMFileHeader twoContigHeader = ArtificialSAMUtils.createArtificialSamHeader(2, 1, 10);
+        final GenomeLocParser parser = new GenomeLocParser(twoContigHeader.getSequenceDictionary());
+        parser.createGenomeLocFromPacked(PackedGenomeLoc.pack(0, 1), PackedGenomeLoc.pack(1, 1));
+    }
+
     @DataProvider(name = "GenomeLocPadding")
     public Object[][] makeGenomeLocPadding() {
         final List<Object[]> tests = new LinkedList<Object[]>();
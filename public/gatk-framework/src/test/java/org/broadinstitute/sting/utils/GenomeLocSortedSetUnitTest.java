@@ -29,6 +29,8 @@ import net.sf.samtools.SAMFileHeader;
 import org.broadinstitute.sting.BaseTest;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.broadinstitute.sting.utils.interval.IntervalMergingRule;
+import org.broadinstitute.sting.utils.interval.IntervalUtils;
 import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
 
 import static org.testng.Assert.assertEquals;
@@ -43,6 +45,10 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -402,4 +408,107 @@ public class GenomeLocSortedSetUnitTest extends BaseTest {
         Assert.assertEquals(actualOverlapping, expectedOverlapping);
         Assert.assertEquals(intervals.overlaps(region), ! expectedOverlapping.isEmpty(), "GenomeLocSortedSet.overlaps didn't return expected result");
     }
+
+    // -----------------------------------------------------------------------------------------------
+    //
+    // Test the interval index against searching every loc
+    //
+    // -----------------------------------------------------------------------------------------------
+
+    private List<GenomeLoc> makeRandomLocs(final Random random, final int n, final int maxSize) {
+        final List<GenomeLoc> locs = new ArrayList<GenomeLoc>(n);
+        for ( int i = 0; i < n; i++ ) {
+            final String contig = header.getSequenceDictionary().getSequence(random.nextInt(NUMBER_OF_CHROMOSOMES)).getSequenceName();
+            final int start = 1 + random.nextInt(CHROMOSOME_SIZE);
+            locs.add(genomeLocParser.createGenomeLoc(contig, start, Math.min(CHROMOSOME_SIZE, start + random.nextInt(maxSize))));
+        }
+        return locs;
+    }
+
+    private long sizeBeforeLocFullSearch(final GenomeLocSortedSet intervals, final GenomeLoc loc) {
+        long s = 0;
+        for ( final GenomeLoc e : intervals ) {
+            if ( e.isBefore(loc) )
+                s += e.size();
+            else if ( e.isPast(loc) )
+                break;
+            else
+                s += loc.getStart() - e.getStart();
+        }
+        return s;
+    }
+
+    private void assertQueriesMatchFullSearch(final GenomeLocSortedSet intervals, final List<GenomeLoc> queries) {
+        long coveredSize = 0;
+        for ( final GenomeLoc loc : intervals )
+            coveredSize += loc.size();
+        Assert.assertEquals(intervals.coveredSize(), coveredSize);
+
+        for ( final GenomeLoc query : queries ) {
+            final List<GenomeLoc> expected = intervals.getOverlappingFullSearch(query);
+            Assert.assertEquals(intervals.getOverlapping(query), expected, "getOverlapping " + query);
+            Assert.assertEquals(intervals.overlaps(query), ! expected.isEmpty(), "overlaps " + query);
+            Assert.assertEquals(intervals.sizeBeforeLoc(query.getStartLocation()), sizeBeforeLocFullSearch(intervals, query.getStartLocation()), "sizeBeforeLoc " + query);
+        }
+    }
+
+    @Test
+    public void testIndexedQueriesMatchFullSearch() {
+        final Random random = new Random(42);
+        for ( final int nLocs : Arrays.asList(0, 1, 10, 1000) ) {
+            final List<GenomeLoc> queries = makeRandomLocs(random, 500, 50);
+            final GenomeLocSortedSet intervals = IntervalUtils.sortAndMergeIntervals(genomeLocParser, makeRandomLocs(random, nLocs, 20), IntervalMergingRule.OVERLAPPING_ONLY);
+            assertQueriesMatchFullSearch(intervals, queries);
+
+            // modifying the set must be reflected in the answers to later queries
+            for ( final GenomeLoc loc : makeRandomLocs(random, 20, 100) )
+                intervals.addRegion(loc);
+            assertQueriesMatchFullSearch(intervals, queries);
+
+            final Iterator<GenomeLoc> it = intervals.iterator();
+            while ( it.hasNext() ) {
+                it.next();
+                if ( random.nextBoolean() )
+                    it.remove();
+            }
+            assertQueriesMatchFullSearch(intervals, queries);
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testConcurrentOverlapQueries() throws Exception {
+        final Random random = new Random(7);
+        final GenomeLocSortedSet intervals = IntervalUtils.sortAndMergeIntervals(genomeLocParser, makeRandomLocs(random, 200, 10), IntervalMergingRule.OVERLAPPING_ONLY);
+        final List<GenomeLoc> queries = makeRandomLocs(random, 2000, 10);
+        final boolean[] expected = new boolean[queries.size()];
+        for ( int i = 0; i < queries.size(); i++ )
+            expected[i] = ! intervals.getOverlappingFullSearch(queries.get(i)).isEmpty();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for ( int t = 0; t < 4; t++ ) {
+            final int offset = t;
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for ( int i = 0; i < queries.size(); i++ ) {
+                        final int q = (i + offset * 500) % queries.size();
+                        if ( intervals.overlaps(queries.get(q)) != expected[q] )
+                            return false;
+                    }
+                    return true;
+                }
+            });
+        }
+        for ( final Future<Boolean> result : executor.invokeAll(tasks) )
+            Assert.assertTrue(result.get(), "Concurrent overlap query returned the wrong answer");
+        executor.shutdownNow();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCreateSetFromSortedListRejectsOverlaps() {
+        GenomeLocSortedSet.createSetFromSortedList(genomeLocParser, Arrays.asList(
+                genomeLocParser.createGenomeLoc(contigOneName, 1, 10),
+                genomeLocParser.createGenomeLoc(contigOneName, 5, 20)));
+    }
 }
@@ -0,0 +1,94 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.fasta;
+
+import net.sf.picard.PicardException;
+import net.sf.picard.reference.ReferenceSequence;
+import net.sf.samtools.SAMSequenceRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Basic unit test for PackedReferenceSequenceFile
+ */
+public class PackedReferenceSequenceFileUnitTest extends BaseTest {
+    @DataProvider(name = "fastas")
+    public Object[][] makeFastas() {
+        List<Object[]> params = new ArrayList<Object[]>();
+        for ( final String fasta : Arrays.asList(exampleFASTA, privateTestDir + "iupacFASTA.fasta") )
+            for ( final int querySize : Arrays.asList(1, 3, 10, 101) )
+                params.add(new Object[]{new File(fasta), querySize});
+        return params.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "fastas")
+    public void testPackedMatchesCaching(final File fasta, final int querySize) throws FileNotFoundException {
+        final PackedReferenceSequenceFile packed = new PackedReferenceSequenceFile(fasta, createTempFile("packedReference", ".packed"));
+        final CachingIndexedFastaSequenceFile caching = new CachingIndexedFastaSequenceFile(fasta);
+
+        for ( final SAMSequenceRecord contig : caching.getSequenceDictionary().getSequences() ) {
+            for ( int start = 1; start + querySize - 1 <= contig.getSequenceLength(); start += 7 ) {
+                final ReferenceSequence expected = caching.getSubsequenceAt(contig.getSequenceName(), start, start + querySize - 1);
+                final ReferenceSequence actual = packed.getSubsequenceAt(contig.getSequenceName(), start, start + querySize - 1);
+                Assert.assertEquals(actual.getName(), expected.getName());
+                Assert.assertEquals(actual.getContigIndex(), expected.getContigIndex());
+                Assert.assertEquals(actual.getBases(), expected.getBases(), "Bases differ at " + contig.getSequenceName() + ":" + start);
+            }
+
+            Assert.assertEquals(packed.getSequence(contig.getSequenceName()).getBases(),
+                    caching.getSubsequenceAt(contig.getSequenceName(), 1, contig.getSequenceLength()).getBases());
+        }
+    }
+
+    @Test
+    public void testReusesPackedFile() throws FileNotFoundException {
+        final File packedFile = createTempFile("packedReference", ".packed");
+        final PackedReferenceSequenceFile first = new PackedReferenceSequenceFile(new File(exampleFASTA), packedFile);
+        Assert.assertEquals(first.getPackedFile(), packedFile);
+        final long built = packedFile.lastModified();
+        final long size = packedFile.length();
+
+        final PackedReferenceSequenceFile second = new PackedReferenceSequenceFile(new File(exampleFASTA), packedFile);
+        Assert.assertEquals(second.getPackedFile(), packedFile);
+        Assert.assertEquals(packedFile.lastModified(), built, "Packed file was rebuilt rather than reused");
+        Assert.assertEquals(packedFile.length(), size);
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void testQueryPastEndOfContig() throws FileNotFoundException {
+        final PackedReferenceSequenceFile packed = new PackedReferenceSequenceFile(new File(exampleFASTA), createTempFile("packedReference", ".packed"));
+        final SAMSequenceRecord contig = packed.getSequenceDictionary().getSequence(0);
+        packed.getSubsequenceAt(contig.getSequenceName(), 1, contig.getSequenceLength() + 1);
+    }
+}
@@ -42,6 +42,7 @@ import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.GenomeLocSortedSet;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.broadinstitute.sting.utils.io.IOUtils;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
@@ -1084,6 +1085,61 @@ public class IntervalUtilsUnitTest extends BaseTest {
         IntervalUtils.loadIntervals(intervalArgs, argCollection.intervalArguments.intervalSetRule, argCollection.intervalArguments.intervalMerging, argCollection.intervalArguments.intervalPadding, genomeLocParser);
     }
 
+    @Test
+    public void testIntervalFileCache() throws Exception {
+        // large enough to be cached, and to be parsed in parallel
+        final List<String> lines = new ArrayList<String>();
+        final List<GenomeLoc> expected = new ArrayList<GenomeLoc>();
+        for ( int i = 0; i < 150000; i++ ) {
+            final String contig = i % 3 == 0 ? "chr2" : "chr1";
+            lines.add(String.format("%s:%d-%d", contig, i * 10 + 1, i * 10 + 5));
+            expected.add(hg18GenomeLocParser.createGenomeLoc(contig, i * 10 + 1, i * 10 + 5));
+        }
+        final File intervalFile = createTempFile("testIntervalFileCache", ".intervals", lines.toArray(new String[lines.size()]));
+        final File sidecarFile = new File(intervalFile.getAbsolutePath() + IntervalListCache.CACHE_EXTENSION);
+
+        // caching is off unless a cache directory is set
+        Assert.assertNull(IntervalListCache.getCacheDirectory());
+        Assert.assertFalse(IntervalListCache.shouldCache(intervalFile));
+        Assert.assertNull(IntervalListCache.getCacheFile(intervalFile));
+        Assert.assertEquals(IntervalUtils.intervalFileToList(hg18GenomeLocParser, intervalFile.getAbsolutePath()), expected);
+        Assert.assertFalse(IntervalListCache.write(hg18GenomeLocParser, intervalFile, expected, 0));
+        Assert.assertFalse(sidecarFile.exists(), "Interval cache was written next to the interval file");
+
+        final File cacheDirectory = IOUtils.tempDir("testIntervalFileCache.", ".dir");
+        try {
+            IntervalListCache.setCacheDirectory(cacheDirectory);
+            final File cacheFile = IntervalListCache.getCacheFile(intervalFile);
+            Assert.assertEquals(cacheFile.getParentFile(), cacheDirectory);
+            Assert.assertTrue(IntervalListCache.shouldCache(intervalFile));
+
+            Assert.assertEquals(IntervalUtils.intervalFileToList(hg18GenomeLocParser, intervalFile.getAbsolutePath()), expected);
+            Assert.assertTrue(cacheFile.exists(), "Interval cache wasn't written");
+            Assert.assertFalse(sidecarFile.exists(), "Interval cache was written next to the interval file");
+            Assert.assertEquals(IntervalListCache.load(hg18GenomeLocParser, intervalFile), expected);
+            Assert.assertEquals(IntervalUtils.intervalFileToList(hg18GenomeLocParser, intervalFile.getAbsolutePath()), expected);
+
+            // the cache doesn't apply to a different reference, or once the file has changed
+            Assert.assertNull(IntervalListCache.load(hg19GenomeLocParser, intervalFile));
+            lines.set(0, "chr3:1-5");
+            expected.set(0, hg18GenomeLocParser.createGenomeLoc("chr3", 1, 5));
+            FileUtils.writeLines(intervalFile, lines);
+            Assert.assertNull(IntervalListCache.load(hg18GenomeLocParser, intervalFile));
+            Assert.assertEquals(IntervalUtils.intervalFileToList(hg18GenomeLocParser, intervalFile.getAbsolutePath()), expected);
+
+            // an interval file with the same name in another directory gets its own cache
+            final File otherDirectory = IOUtils.tempDir("testIntervalFileCache.", ".dir");
+            try {
+                Assert.assertNotEquals(IntervalListCache.getCacheFile(new File(otherDirectory, intervalFile.getName())), cacheFile);
+            } finally {
+                FileUtils.deleteQuietly(otherDirectory);
+            }
+        } finally {
+            IntervalListCache.setCacheDirectory(null);
+            FileUtils.deleteQuietly(cacheDirectory);
+        }
+    }
+
     private File createTempFile( String tempFilePrefix, String tempFileExtension, String... lines ) throws Exception {
         File tempFile = BaseTest.createTempFile(tempFilePrefix, tempFileExtension);
         FileUtils.writeLines(tempFile, Arrays.asList(lines));
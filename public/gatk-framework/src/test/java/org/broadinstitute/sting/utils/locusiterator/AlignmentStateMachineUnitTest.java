@@ -107,4 +107,37 @@ public class AlignmentStateMachineUnitTest extends LocusIteratorByStateBaseTest
         Assert.assertEquals(state.getCurrentCigarElement(), null);
         Assert.assertNotNull(state.toString());
     }
+
+    @Test(dataProvider = "AlignmentStateMachineTest")
+    public void testPooledAlignmentStateMachine(LIBSTest params) {
+        final AlignmentStateMachinePool pool = new AlignmentStateMachinePool();
+
+        // run a machine off the end of some other read, then recycle it for our read
+        final AlignmentStateMachine used = pool.obtain(params.makeRead());
+        while ( used.stepForwardOnGenome() != null ) ;
+        pool.release(used);
+        Assert.assertEquals(pool.size(), 1);
+
+        final GATKSAMRecord read = params.makeRead();
+        final AlignmentStateMachine recycled = pool.obtain(read);
+        Assert.assertSame(recycled, used, "Pool should have reused the released machine");
+        Assert.assertEquals(pool.size(), 0);
+        Assert.assertSame(recycled.getRead(), read);
+        Assert.assertTrue(recycled.isLeftEdge());
+        Assert.assertEquals(recycled.getCurrentCigarElementOffset(), -1);
+
+        // the recycled machine must walk the read exactly as a new one does
+        final AlignmentStateMachine fresh = new AlignmentStateMachine(read);
+        while ( true ) {
+            final Object op = fresh.stepForwardOnGenome();
+            Assert.assertEquals(recycled.stepForwardOnGenome(), op);
+            Assert.assertEquals(recycled.getReadOffset(), fresh.getReadOffset());
+            Assert.assertEquals(recycled.getGenomeOffset(), fresh.getGenomeOffset());
+            Assert.assertEquals(recycled.getCurrentCigarElementOffset(), fresh.getCurrentCigarElementOffset());
+            Assert.assertEquals(recycled.getOffsetIntoCurrentCigarElement(), fresh.getOffsetIntoCurrentCigarElement());
+            if ( op == null ) break;
+        }
+
+        Assert.assertTrue(pool.obtain(read) != recycled, "An empty pool should create a new machine");
+    }
 }
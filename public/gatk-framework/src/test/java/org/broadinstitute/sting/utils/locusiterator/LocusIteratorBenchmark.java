@@ -136,6 +136,19 @@ public class LocusIteratorBenchmark extends SimpleBenchmark {
         }
     }
 
+    public void timePooledAlignmentStateMachine(int rep) {
+        final AlignmentStateMachinePool pool = new AlignmentStateMachinePool();
+        for ( int i = 0; i < rep; i++ ) {
+            for ( final GATKSAMRecord read : reads ) {
+                final AlignmentStateMachine alignmentStateMachine = pool.obtain(read);
+                while ( alignmentStateMachine.stepForwardOnGenome() != null ) {
+                    ;
+                }
+                pool.release(alignmentStateMachine);
+            }
+        }
+    }
+
     public static void main(String[] args) {
         com.google.caliper.Runner.main(LocusIteratorBenchmark.class, args);
     }
@@ -750,4 +750,44 @@ public class LocusIteratorByStateUnitTest extends LocusIteratorByStateBaseTest {
         final int nExpectedPileups = nReadContainingPileups;
         Assert.assertEquals(nPileups, nExpectedPileups, "Wrong number of pileups seen");
     }
+
+    @DataProvider(name = "MinimumCoverageTest")
+    public Object[][] makeMinimumCoverageTest() {
+        // reads covering 1-10, 5-14, and 8-17: coverage is 1 at 1-4, 2 at 5-7, 3 at 8-10, 2 at 11-14, 1 at 15-17
+        return new Object[][]{
+                {0, 1, 17},
+                {1, 1, 17},
+                {2, 5, 14},
+                {3, 8, 10},
+        };
+    }
+
+    @Test(enabled = true && ! DEBUG, dataProvider = "MinimumCoverageTest")
+    public void testMinimumCoverage(final int minimumCoverage, final int firstCovered, final int lastCovered) {
+        final List<GATKSAMRecord> reads = new LinkedList<GATKSAMRecord>();
+        for ( final int start : Arrays.asList(1, 5, 8) )
+            reads.add(ArtificialSAMUtils.createArtificialRead(header, "read" + start, 0, start, 10));
+
+        li = new LocusIteratorByState(new FakeCloseableIterator<GATKSAMRecord>(reads.iterator()),
+                createTestReadProperties(),
+                genomeLocParser,
+                LocusIteratorByState.sampleListForSAMWithoutReadGroups(),
+                minimumCoverage);
+
+        int expectedPos = firstCovered;
+        while ( li.hasNext() ) {
+            final AlignmentContext next = li.next();
+            Assert.assertEquals(next.getLocation().getStart(), expectedPos);
+            Assert.assertTrue(next.getBasePileup().getNumberOfElements() >= minimumCoverage);
+            expectedPos++;
+        }
+        Assert.assertEquals(expectedPos, lastCovered + 1, "Wrong number of pileups seen");
+
+        li = new LocusIteratorByState(new FakeCloseableIterator<GATKSAMRecord>(reads.iterator()),
+                createTestReadProperties(),
+                genomeLocParser,
+                LocusIteratorByState.sampleListForSAMWithoutReadGroups(),
+                minimumCoverage);
+        Assert.assertEquals(li.advanceToLocus(1, true).getLocation().getStart(), firstCovered);
+    }
 }
@@ -0,0 +1,157 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.nanoScheduler;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.MultiThreadedErrorTracker;
+import org.broadinstitute.sting.utils.Utils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * UnitTests for LockFreeReducer
+ */
+public class LockFreeReducerUnitTest extends BaseTest {
+    @DataProvider(name = "LockFreeReducerTest")
+    public Object[][] createLockFreeReducerTest() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+
+        for ( final int ringSize : Arrays.asList(1, 3, 8, 100) ) {
+            for ( final int nElements : Arrays.asList(0, 1, 3, 5) ) {
+                if ( nElements <= ringSize ) {
+                    for ( final List<Integer> order : Utils.makePermutations(makeIDs(nElements), nElements, false) ) {
+                        tests.add(new Object[]{ order, ringSize });
+                    }
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    private static List<Integer> makeIDs(final int nElements) {
+        final List<Integer> ids = new ArrayList<Integer>(nElements);
+        for ( int i = 0; i < nElements; i++ )
+            ids.add(i);
+        return ids;
+    }
+
+    @Test(enabled = true, dataProvider = "LockFreeReducerTest", timeOut = NanoSchedulerUnitTest.NANO_SCHEDULE_MAX_RUNTIME)
+    public void testOutOfOrderPuts(final List<Integer> order, final int ringSize) throws Exception {
+        final ReduceSumTest reduce = new ReduceSumTest();
+        final LockFreeReducer<Integer, Integer> reducer = new LockFreeReducer<Integer, Integer>(reduce, new MultiThreadedErrorTracker(), 0, ringSize);
+        Assert.assertTrue(reducer.getRingSize() >= ringSize);
+
+        reducer.acquireSlots(order.size());
+        int expectedSum = 0;
+        for ( final int id : order ) {
+            reducer.put(id, id);
+            reducer.reduceAsMuchAsPossible(false);
+            expectedSum += id;
+        }
+
+        Assert.assertEquals(reducer.reduceAsMuchAsPossible(true), 0, "All of the values should already have been reduced");
+        Assert.assertEquals(reducer.getNumReduced(), order.size());
+        Assert.assertEquals((int)reducer.getReduceResult(), expectedSum);
+        Assert.assertEquals(reduce.nRead, order.size());
+    }
+
+    @Test(enabled = true, timeOut = NanoSchedulerUnitTest.NANO_SCHEDULE_MAX_RUNTIME)
+    public void testNullMapValues() throws Exception {
+        final LockFreeReducer<Integer, Integer> reducer = new LockFreeReducer<Integer, Integer>(new NSReduceFunction<Integer, Integer>() {
+            @Override public Integer apply(Integer one, Integer sum) { return one == null ? sum + 1 : sum; }
+        }, new MultiThreadedErrorTracker(), 0, 4);
+
+        reducer.acquireSlots(2);
+        reducer.put(1, null);
+        reducer.put(0, null);
+        Assert.assertEquals(reducer.reduceAsMuchAsPossible(true), 2);
+        Assert.assertEquals((int)reducer.getReduceResult(), 2);
+    }
+
+    @Test(enabled = true, timeOut = NanoSchedulerUnitTest.NANO_SCHEDULE_MAX_RUNTIME)
+    public void testConcurrentPuts() throws Exception {
+        final int nThreads = 4;
+        final int nElements = 10000;
+        final ReduceSumTest reduce = new ReduceSumTest();
+        final LockFreeReducer<Integer, Integer> reducer = new LockFreeReducer<Integer, Integer>(reduce, new MultiThreadedErrorTracker(), 0, 64);
+
+        // hand out job ids through a queue, and have the threads publish them in whatever order they finish
+        final BlockingQueue<Integer> ids = new LinkedBlockingQueue<Integer>();
+        final ExecutorService es = Executors.newFixedThreadPool(nThreads);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for ( int t = 0; t < nThreads; t++ ) {
+            futures.add(es.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    while ( true ) {
+                        final int id = ids.take();
+                        if ( id < 0 ) return null;
+                        reducer.put(id, id);
+                        reducer.reduceAsMuchAsPossible(false);
+                    }
+                }
+            }));
+        }
+
+        int expectedSum = 0;
+        for ( int i = 0; i < nElements; i++ ) {
+            reducer.acquireSlots(1);
+            ids.put(i);
+            expectedSum += i;
+        }
+        for ( int t = 0; t < nThreads; t++ )
+            ids.put(-1);
+
+        for ( final Future<?> future : futures )
+            future.get();
+        es.shutdown();
+
+        reducer.reduceAsMuchAsPossible(true);
+        Assert.assertEquals(reducer.getNumReduced(), nElements);
+        Assert.assertEquals((int)reducer.getReduceResult(), expectedSum, "Reduce didn't sum to expected value");
+    }
+
+    public class ReduceSumTest implements NSReduceFunction<Integer, Integer> {
+        int nRead = 0;
+        int lastValue = -1;
+
+        @Override public Integer apply(Integer one, Integer sum) {
+            final int expected = lastValue + 1;
+            Assert.assertEquals((int)one, expected, "Value observed " + one + " not equal to the expected value " + expected);
+            nRead++;
+            lastValue = expected;
+
+            return one + sum;
+        }
+    }
+}
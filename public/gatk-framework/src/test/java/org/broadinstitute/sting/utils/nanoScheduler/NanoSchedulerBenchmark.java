@@ -0,0 +1,108 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.nanoScheduler;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caliper microbenchmark of the NanoScheduler vs. the WorkStealingNanoScheduler as the number of threads grows
+ *
+ * The map function burns a configurable amount of CPU per input, so that cheap maps (where
+ * scheduling overhead and contention dominate) and expensive maps (where it doesn't) can be compared.
+ */
+public class NanoSchedulerBenchmark extends SimpleBenchmark {
+    private final static int N_INPUTS = 100000;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    int nThreads; // set automatically by framework
+
+    @Param({"10", "1000"})
+    int mapCost; // set automatically by framework
+
+    @Param
+    SchedulerType schedulerType; // set automatically by framework
+
+    public enum SchedulerType {
+        STANDARD,
+        WORK_STEALING
+    }
+
+    private List<Integer> inputs;
+    private NanoScheduler<Integer, Long, Long> nanoScheduler;
+
+    @Override protected void setUp() {
+        inputs = new ArrayList<Integer>(N_INPUTS);
+        for ( int i = 0; i < N_INPUTS; i++ )
+            inputs.add(i);
+
+        nanoScheduler = schedulerType == SchedulerType.WORK_STEALING
+                ? new WorkStealingNanoScheduler<Integer, Long, Long>(nThreads)
+                : new NanoScheduler<Integer, Long, Long>(nThreads);
+    }
+
+    @Override protected void tearDown() {
+        nanoScheduler.shutdown();
+    }
+
+    public void timeExecute(int rep) {
+        final BusyMap map = new BusyMap(mapCost);
+        final SumReduce reduce = new SumReduce();
+
+        for ( int i = 0; i < rep; i++ )
+            nanoScheduler.execute(inputs.iterator(), map, 0l, reduce);
+    }
+
+    private static class BusyMap implements NSMapFunction<Integer, Long> {
+        final int cost;
+
+        private BusyMap(final int cost) {
+            this.cost = cost;
+        }
+
+        @Override
+        public Long apply(final Integer input) {
+            long x = input;
+            for ( int i = 0; i < cost; i++ )
+                x = x * 6364136223846793005l + 1442695040888963407l;
+            return x;
+        }
+    }
+
+    private static class SumReduce implements NSReduceFunction<Long, Long> {
+        @Override
+        public Long apply(final Long one, final Long sum) {
+            return one + sum;
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(NanoSchedulerBenchmark.class, args);
+    }
+}
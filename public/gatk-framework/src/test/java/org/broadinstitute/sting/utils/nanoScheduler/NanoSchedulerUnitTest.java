@@ -104,9 +104,13 @@ public class NanoSchedulerUnitTest extends BaseTest {
 
     private static class NanoSchedulerBasicTest extends TestDataProvider {
         final int bufferSize, nThreads, start, end, expectedResult;
-        final boolean addDelays;
+        final boolean addDelays, workStealing;
 
         public NanoSchedulerBasicTest(final int bufferSize, final int nThreads, final int start, final int end, final boolean addDelays) {
+            this(bufferSize, nThreads, start, end, addDelays, false);
+        }
+
+        public NanoSchedulerBasicTest(final int bufferSize, final int nThreads, final int start, final int end, final boolean addDelays, final boolean workStealing) {
             super(NanoSchedulerBasicTest.class);
             this.bufferSize = bufferSize;
             this.nThreads = nThreads;
@@ -114,8 +118,9 @@ public class NanoSchedulerUnitTest extends BaseTest {
             this.end = end;
             this.expectedResult = sum2x(start, end);
             this.addDelays = addDelays;
-            setName(String.format("%s nt=%d buf=%d start=%d end=%d sum=%d delays=%b",
-                    getClass().getSimpleName(), nThreads, bufferSize, start, end, expectedResult, addDelays));
+            this.workStealing = workStealing;
+            setName(String.format("%s nt=%d buf=%d start=%d end=%d sum=%d delays=%b workStealing=%b",
+                    getClass().getSimpleName(), nThreads, bufferSize, start, end, expectedResult, addDelays, workStealing));
         }
 
         public Iterator<Integer> makeReader() {
@@ -136,10 +141,17 @@ public class NanoSchedulerUnitTest extends BaseTest {
 
         public NanoScheduler<Integer, Integer, Integer> makeScheduler() {
             final NanoScheduler <Integer, Integer, Integer> nano;
-            if ( bufferSize == -1 )
-                nano = new NanoScheduler<Integer, Integer, Integer>(nThreads);
-            else
-                nano = new NanoScheduler<Integer, Integer, Integer>(bufferSize, nThreads);
+            if ( workStealing ) {
+                if ( bufferSize == -1 )
+                    nano = new WorkStealingNanoScheduler<Integer, Integer, Integer>(nThreads);
+                else
+                    nano = new WorkStealingNanoScheduler<Integer, Integer, Integer>(bufferSize, nThreads);
+            } else {
+                if ( bufferSize == -1 )
+                    nano = new NanoScheduler<Integer, Integer, Integer>(nThreads);
+                else
+                    nano = new NanoScheduler<Integer, Integer, Integer>(bufferSize, nThreads);
+            }
 
             nano.setDebug(debug);
             return nano;
@@ -172,8 +184,10 @@ public class NanoSchedulerUnitTest extends BaseTest {
                 for ( final int start : Arrays.asList(0) ) {
                     for ( final int end : Arrays.asList(0, 1, 2, 11, 100, 10000, 100000) ) {
                         for ( final boolean addDelays : Arrays.asList(true, false) ) {
-                            if ( end < 1000 )
-                                new NanoSchedulerBasicTest(bufferSize, nt, start, end, addDelays);
+                            for ( final boolean workStealing : Arrays.asList(false, true) ) {
+                                if ( end < 1000 )
+                                    new NanoSchedulerBasicTest(bufferSize, nt, start, end, addDelays, workStealing);
+                            }
                         }
                     }
                 }
@@ -257,10 +271,12 @@ public class NanoSchedulerUnitTest extends BaseTest {
         for ( final int bufSize : Arrays.asList(100) ) {
             for ( final int nThreads : Arrays.asList(8) ) {
                 for ( final boolean addDelays : Arrays.asList(true, false) ) {
-                    final NanoSchedulerBasicTest test = new NanoSchedulerBasicTest(bufSize, nThreads, 1, 1000000, false);
-                    final int maxN = addDelays ? 1000 : 10000;
-                    for ( int nElementsBeforeError = 0; nElementsBeforeError < maxN; nElementsBeforeError += Math.max(nElementsBeforeError / 10, 1) ) {
-                        tests.add(new Object[]{nElementsBeforeError, test, addDelays});
+                    for ( final boolean workStealing : Arrays.asList(false, true) ) {
+                        final NanoSchedulerBasicTest test = new NanoSchedulerBasicTest(bufSize, nThreads, 1, 1000000, false, workStealing);
+                        final int maxN = addDelays ? 1000 : 10000;
+                        for ( int nElementsBeforeError = 0; nElementsBeforeError < maxN; nElementsBeforeError += Math.max(nElementsBeforeError / 10, 1) ) {
+                            tests.add(new Object[]{nElementsBeforeError, test, addDelays});
+                        }
                     }
                 }
             }
@@ -325,4 +325,45 @@ public class ReadBackedPileupUnitTest {
 
         Assert.assertEquals(pileup.getMappingQuals()[0], 200);
     }
-}
\ No newline at end of file
+
+    @Test(dataProvider = "RBPCountingTest")
+    public void testPerSamplePileupBuilder(RBPCountTest params) {
+        final RBPCountTest other = new RBPCountTest(2, 1, 1);
+        final PerSamplePileupBuilder builder = new PerSamplePileupBuilder(Arrays.asList(params.sample, "empty", other.sample));
+
+        for ( int locus = 0; locus < 2; locus++ ) {
+            final List<PileupElement> sampleElements = makeList(params.makePileup());
+            final List<PileupElement> otherElements = makeList(other.makePileup());
+
+            for ( final PileupElement p : sampleElements ) builder.add(p);
+            builder.finishSample(params.sample);
+            builder.finishSample("empty");
+            for ( final PileupElement p : otherElements ) builder.add(p);
+            builder.finishSample(other.sample);
+
+            final ReadBackedPileup pileup = builder.build(loc);
+            Assert.assertTrue(builder.isEmpty());
+            testRBPCounts(pileup, new RBPCountTest(params.nReads + 2, params.nMapq0 + 1, params.nDeletions + 1));
+            Assert.assertEquals(new HashSet<String>(pileup.getSamples()), new HashSet<String>(Arrays.asList(params.sample, other.sample)));
+            Assert.assertNull(pileup.getPileupForSample("empty"));
+
+            final ReadBackedPileup samplePileup = pileup.getPileupForSample(params.sample);
+            testRBPCounts(samplePileup, params);
+            Assert.assertEquals(makeList(samplePileup), sampleElements);
+            Assert.assertEquals(makeList(pileup.getPileupForSample(other.sample)), otherElements);
+
+            final ReadBackedPileup filtered = pileup.getPileupWithoutDeletions();
+            Assert.assertEquals(filtered.getNumberOfElements(), params.nReads + 2 - params.nDeletions - 1);
+            Assert.assertEquals(filtered.getPileupForSample(other.sample).getNumberOfElements(), 1);
+        }
+
+        Assert.assertNull(builder.build(loc), "Builder with no elements should produce no pileup");
+    }
+
+    private static List<PileupElement> makeList(final Iterable<PileupElement> elements) {
+        final List<PileupElement> list = new ArrayList<PileupElement>();
+        for ( final PileupElement p : elements )
+            list.add(p);
+        return list;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.sting.utils.sam;
+
+import net.sf.samtools.PicardNamespaceUtils;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileSource;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompactReadStoreUnitTest extends BaseTest {
+    private SAMFileHeader header;
+
+    @BeforeClass
+    public void init() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(2, 0, 100000);
+    }
+
+    private GATKSAMRecord makeRead(final int i, final String cigar, final int length) {
+        final byte[] bases = new byte[length];
+        final byte[] quals = new byte[length];
+        for ( int j = 0; j < length; j++ ) {
+            bases[j] = "ACGTN".getBytes()[(i + j) % 5];
+            quals[j] = (byte)(10 + (i * 7 + j) % 30);
+        }
+        final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + i, i % 2, 1 + i * 13, bases, quals, cigar);
+        read.setReadNegativeStrandFlag(i % 3 == 0);
+        read.setMappingQuality(i % 60);
+        read.setAttribute("NM", i % 4);
+        return read;
+    }
+
+    @DataProvider(name = "CompactReadStoreTest")
+    public Object[][] makeCompactReadStoreTest() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int nReads : new int[]{1, 10, 1000} )
+            for ( final String cigar : new String[]{"10M", "2S6M2S", "3M1I2M2D4M"} )
+                tests.add(new Object[]{nReads, cigar});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "CompactReadStoreTest")
+    public void testRoundTrip(final int nReads, final String cigar) {
+        final CompactReadStore store = new CompactReadStore(header);
+        final List<GATKSAMRecord> reads = new ArrayList<GATKSAMRecord>(nReads);
+        for ( int i = 0; i < nReads; i++ ) {
+            final GATKSAMRecord read = makeRead(i, cigar, 10);
+            reads.add(read);
+            Assert.assertEquals(store.add(read), i);
+        }
+
+        Assert.assertEquals(store.size(), nReads);
+        final List<GATKSAMRecord> decoded = store.getAll();
+        Assert.assertEquals(decoded.size(), nReads);
+        for ( int i = 0; i < nReads; i++ )
+            Assert.assertEquals(decoded.get(i).getSAMString(), reads.get(i).getSAMString());
+    }
+
+    @Test(dataProvider = "CompactReadStoreTest")
+    public void testView(final int nReads, final String cigar) {
+        final CompactReadStore store = new CompactReadStore(header);
+        final List<GATKSAMRecord> reads = new ArrayList<GATKSAMRecord>(nReads);
+        for ( int i = 0; i < nReads; i++ ) {
+            final GATKSAMRecord read = makeRead(i, cigar, 10);
+            reads.add(read);
+            store.add(read);
+        }
+
+        CompactRead view = null;
+        for ( int i = 0; i < nReads; i++ ) {
+            final GATKSAMRecord read = reads.get(i);
+            view = store.view(i, view);
+            Assert.assertEquals(view.getReadName(), read.getReadName());
+            Assert.assertEquals(view.getReferenceIndex(), (int)read.getReferenceIndex());
+            Assert.assertEquals(view.getAlignmentStart(), read.getAlignmentStart());
+            Assert.assertEquals(view.getAlignmentEnd(), read.getAlignmentEnd());
+            Assert.assertEquals(view.getMappingQuality(), read.getMappingQuality());
+            Assert.assertEquals(view.getFlags(), read.getFlags());
+            Assert.assertEquals(view.getReadNegativeStrandFlag(), read.getReadNegativeStrandFlag());
+            Assert.assertEquals(view.getCigarLength(), read.getCigarLength());
+            for ( int j = 0; j < read.getCigarLength(); j++ ) {
+                Assert.assertEquals(view.getCigarOperator(j), read.getCigar().getCigarElement(j).getOperator());
+                Assert.assertEquals(view.getCigarElementLength(j), read.getCigar().getCigarElement(j).getLength());
+            }
+            Assert.assertEquals(view.getReadLength(), read.getReadLength());
+            Assert.assertEquals(view.getReadBases(), read.getReadBases());
+            Assert.assertEquals(view.getBaseQualities(), read.getBaseQualities());
+            for ( int j = 0; j < read.getReadLength(); j++ ) {
+                Assert.assertEquals(view.getBase(j), read.getReadBases()[j]);
+                Assert.assertEquals(view.getBaseQuality(j), read.getBaseQualities()[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testReadsWithTemporaryAttributesAreRetained() {
+        final CompactReadStore store = new CompactReadStore(header);
+        final GATKSAMRecord plain = makeRead(0, "10M", 10);
+        final GATKSAMRecord withTemp = makeRead(1, "10M", 10);
+        withTemp.setTemporaryAttribute("test", "value");
+
+        store.add(plain);
+        store.add(withTemp);
+
+        Assert.assertNotSame(store.get(0), plain);
+        Assert.assertSame(store.get(1), withTemp);
+    }
+
+    @Test
+    public void testInterleavedAddAndGet() {
+        final CompactReadStore store = new CompactReadStore(header);
+        for ( int i = 0; i < 10; i++ ) {
+            Assert.assertEquals(store.add(makeRead(i, "10M", 10)), i);
+            for ( int j = 0; j <= i; j++ )
+                Assert.assertEquals(store.get(j).getSAMString(), makeRead(j, "10M", 10).getSAMString());
+        }
+    }
+
+    @Test
+    public void testRetainedReadsAreNotEncoded() {
+        final CompactReadStore store = new CompactReadStore(header);
+        final GATKSAMRecord withTemp = makeRead(1, "3M1I2M2D4M", 10);
+        withTemp.setTemporaryAttribute("test", "value");
+        store.add(withTemp);
+        Assert.assertEquals(store.getAllocatedBytes(), 0, "retained read shouldn't have been copied off-heap");
+
+        final CompactRead view = store.view(0, null);
+        Assert.assertEquals(view.getReadName(), withTemp.getReadName());
+        Assert.assertEquals(view.getAlignmentStart(), withTemp.getAlignmentStart());
+        Assert.assertEquals(view.getCigarLength(), withTemp.getCigarLength());
+        Assert.assertEquals(view.getReadBases(), withTemp.getReadBases());
+        Assert.assertEquals(view.getBaseQualities(), withTemp.getBaseQualities());
+
+        store.add(makeRead(2, "10M", 10));
+        Assert.assertTrue(store.getAllocatedBytes() > 0);
+        Assert.assertSame(store.get(0), withTemp);
+        Assert.assertEquals(store.get(1).getSAMString(), makeRead(2, "10M", 10).getSAMString());
+    }
+
+    @Test
+    public void testFileSourceReaderIsRestored() {
+        final File bam = createTempFile("compactReadStore", ".bam");
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, true, bam);
+        writer.close();
+        final SAMFileReader reader = new SAMFileReader(bam);
+
+        final CompactReadStore store = new CompactReadStore(header);
+        final GATKSAMRecord withSource = makeRead(0, "10M", 10);
+        PicardNamespaceUtils.setFileSource(withSource, new SAMFileSource(reader, null));
+        store.add(withSource);
+        store.add(makeRead(1, "10M", 10));
+
+        Assert.assertNotNull(store.get(0).getFileSource());
+        Assert.assertSame(store.get(0).getFileSource().getReader(), reader);
+        Assert.assertNull(store.get(1).getFileSource());
+
+        store.clear();
+        store.add(makeRead(2, "10M", 10));
+        Assert.assertNull(store.get(0).getFileSource());
+        reader.close();
+    }
+
+    @Test
+    public void testSlabBoundaries() {
+        final CompactReadStore store = new CompactReadStore(header);
+        final int readLength = 10000;
+        final int nReads = 2 * CompactReadStore.DEFAULT_SLAB_SIZE / readLength;
+        for ( int i = 0; i < nReads; i++ )
+            store.add(makeRead(i, readLength + "M", readLength));
+
+        Assert.assertTrue(store.getAllocatedBytes() > CompactReadStore.DEFAULT_SLAB_SIZE);
+        for ( int i = 0; i < nReads; i++ )
+            Assert.assertEquals(store.get(i).getSAMString(), makeRead(i, readLength + "M", readLength).getSAMString());
+    }
+
+    @Test
+    public void testClear() {
+        final CompactReadStore store = new CompactReadStore(header);
+        for ( int i = 0; i < 100; i++ )
+            store.add(makeRead(i, "10M", 10));
+        final long allocated = store.getAllocatedBytes();
+
+        store.clear();
+        Assert.assertTrue(store.isEmpty());
+        Assert.assertEquals(store.size(), 0);
+        Assert.assertEquals(store.getAllocatedBytes(), allocated, "clear should keep the slabs for reuse");
+
+        final GATKSAMRecord read = makeRead(5, "10M", 10);
+        Assert.assertEquals(store.add(read), 0);
+        Assert.assertEquals(store.get(0).getSAMString(), read.getSAMString());
+    }
+}